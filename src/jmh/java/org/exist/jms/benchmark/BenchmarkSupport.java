@@ -0,0 +1,160 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.benchmark;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.xml.sax.InputSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Helpers for the benchmarks: embedded database and generated documents.
+ *
+ * @author Dannes Wessels
+ */
+public class BenchmarkSupport {
+
+    public static final XmldbURI COLLECTION = XmldbURI.create("/db/benchmark");
+
+    private BenchmarkSupport() {
+        // NOP
+    }
+
+    /**
+     * Start an embedded database with temporary storage.
+     *
+     * @return The started database
+     * @throws Exception When the database could not be started
+     */
+    public static ExistEmbeddedServer startDatabase() throws Exception {
+        final ExistEmbeddedServer server = new ExistEmbeddedServer(true, true);
+        server.startDb();
+        return server;
+    }
+
+    /**
+     * Let the JMS identity file be written into a temporary eXist home, when no home is set.
+     *
+     * @throws IOException When the directory could not be created
+     */
+    public static void setTemporaryHome() throws IOException {
+        if (System.getProperty("exist.home") == null) {
+            final Path home = Files.createTempDirectory("jms-benchmark");
+            System.setProperty("exist.home", home.toString());
+        }
+    }
+
+    /**
+     * Create XML document of approximately the requested size.
+     *
+     * @param size Size in bytes
+     * @return The UTF-8 encoded document
+     */
+    public static byte[] createXml(final int size) {
+        final StringBuilder sb = new StringBuilder(size + 64);
+        sb.append("<root>");
+        int i = 0;
+        while (sb.length() < size) {
+            sb.append("<item id=\"").append(i).append("\"><name>Item ").append(i)
+                    .append("</name><value>").append(i * 31L).append("</value></item>");
+            i++;
+        }
+        sb.append("</root>");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Create binary data that compresses moderately, like typical office documents.
+     *
+     * @param size Size in bytes
+     * @return The data
+     */
+    public static byte[] createBinary(final int size) {
+        final byte[] data = new byte[size];
+        final Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i % 7 == 0 ? random.nextInt(256) : (i % 64));
+        }
+        return data;
+    }
+
+    /**
+     * Store document in the benchmark collection.
+     *
+     * @param pool  The database
+     * @param name  Name of document
+     * @param data  Content of document
+     * @param isXml TRUE for XML documents
+     * @return The stored document
+     * @throws Exception When the document could not be stored
+     */
+    public static DocumentImpl storeDocument(final BrokerPool pool, final String name, final byte[] data,
+                                             final boolean isXml) throws Exception {
+        final XmldbURI docURI = XmldbURI.create(name);
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn txn = pool.getTransactionManager().beginTransaction()) {
+
+            try (final Collection created = broker.getOrCreateCollection(txn, COLLECTION)) {
+                broker.saveCollection(txn, created);
+            }
+
+            final DocumentImpl doc;
+            try (final Collection collection = broker.openCollection(COLLECTION, Lock.LockMode.WRITE_LOCK)) {
+                if (isXml) {
+                    final IndexInfo info = collection.validateXMLResource(txn, broker, docURI,
+                            new InputSource(new ByteArrayInputStream(data)));
+                    collection.store(txn, broker, info, new InputSource(new ByteArrayInputStream(data)));
+                    doc = info.getDocument();
+                } else {
+                    doc = collection.addBinaryResource(txn, broker, docURI, new ByteArrayInputStream(data),
+                            "application/octet-stream", data.length);
+                }
+            }
+
+            txn.commit();
+            return doc;
+        }
+    }
+
+    /**
+     * @param pool The database
+     * @return Broker of the system user
+     * @throws EXistException When no broker is available
+     */
+    public static DBBroker getBroker(final BrokerPool pool) throws EXistException {
+        return pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+    }
+}
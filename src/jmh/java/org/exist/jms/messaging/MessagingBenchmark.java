@@ -0,0 +1,108 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.messaging;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.exist.jms.benchmark.BenchmarkSupport;
+import org.exist.jms.shared.Constants;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.Sequence;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Conversion of received messages into the parameters of the callback function.
+ *
+ * @author Dannes Wessels
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessagingBenchmark {
+
+    @Param({"1024", "102400"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    private ExistEmbeddedServer server;
+    private DBBroker broker;
+    private XQueryContext context;
+    private ActiveMQBytesMessage message;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = BenchmarkSupport.startDatabase();
+        final BrokerPool pool = server.getBrokerPool();
+        broker = BenchmarkSupport.getBroker(pool);
+        context = new XQueryContext(pool);
+
+        byte[] data = BenchmarkSupport.createXml(size);
+        if (compressed) {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (final GZIPOutputStream gos = new GZIPOutputStream(baos)) {
+                gos.write(data);
+            }
+            data = baos.toByteArray();
+        }
+
+        message = new ActiveMQBytesMessage();
+        message.setStringProperty(Constants.EXIST_DATA_TYPE, Constants.DATA_TYPE_XML);
+        message.setStringProperty(Constants.EXIST_DOCUMENT_COMPRESSION,
+                compressed ? Constants.COMPRESSION_TYPE_GZIP : Constants.COMPRESSION_TYPE_NONE);
+        message.setStringProperty(Constants.EXIST_INSTANCE_ID, "benchmark");
+        message.setStringProperty("exist.user", "admin");
+        message.setStringProperty("application", "benchmark");
+        message.setLongProperty("counter", 42L);
+        message.setJMSMessageID("ID:benchmark-1");
+        message.setJMSTimestamp(System.currentTimeMillis());
+        message.writeBytes(data);
+        message.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.reset();
+        broker.close();
+        server.stopDb();
+    }
+
+    @Benchmark
+    public MapType getMessageProperties() throws Exception {
+        return MessagingJmsListener.getMessageProperties(message, context);
+    }
+
+    @Benchmark
+    public Sequence getContent() throws Exception {
+        message.reset();
+        return new ContentDecoder(context).getContent(message);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.shared;
+
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.jms.benchmark.BenchmarkSupport;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and compression of documents by the replication trigger.
+ *
+ * @author Dannes Wessels
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GzipSerializeBenchmark {
+
+    @Param({"xml", "binary"})
+    public String type;
+
+    @Param({"1024", "102400", "1048576"})
+    public int size;
+
+    private ExistEmbeddedServer server;
+    private BrokerPool pool;
+    private DocumentImpl document;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = BenchmarkSupport.startDatabase();
+        pool = server.getBrokerPool();
+
+        final boolean isXml = "xml".equals(type);
+        final byte[] data = isXml ? BenchmarkSupport.createXml(size) : BenchmarkSupport.createBinary(size);
+        document = BenchmarkSupport.storeDocument(pool, type + "-" + size + (isXml ? ".xml" : ".bin"), data, isXml);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stopDb();
+    }
+
+    @Benchmark
+    public byte[] gzipSerialize() throws Exception {
+        try (final DBBroker broker = BenchmarkSupport.getBroker(pool);
+             final Txn txn = pool.getTransactionManager().beginTransaction()) {
+            final byte[] payload = MessageHelper.gzipSerialize(broker, txn, document, new HashMap<>());
+            txn.commit();
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.exist.jms.benchmark.BenchmarkSupport;
+import org.exist.jms.replication.shared.MessageHelper;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.eXistMessage;
+import org.openjdk.jmh.annotations.*;
+
+import javax.jms.JMSException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion between replication messages and JMS messages.
+ *
+ * @author Dannes Wessels
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConvertMessageBenchmark {
+
+    @Param({"1024", "102400"})
+    public int size;
+
+    private eXistMessage message;
+    private ActiveMQBytesMessage bytesMessage;
+
+    @Setup(Level.Trial)
+    public void setup() throws JMSException {
+        message = new eXistMessage();
+        message.setResourceType(eXistMessage.ResourceType.DOCUMENT);
+        message.setResourceOperation(eXistMessage.ResourceOperation.UPDATE);
+        message.setResourcePath("/db/benchmark/data.xml");
+        message.setPayload(BenchmarkSupport.createBinary(size));
+
+        message.getMetadata().put(MessageHelper.EXIST_RESOURCE_MIMETYPE, "application/xml");
+        message.getMetadata().put(MessageHelper.EXIST_RESOURCE_OWNER, "admin");
+        message.getMetadata().put(MessageHelper.EXIST_RESOURCE_GROUP, "dba");
+        message.getMetadata().put(MessageHelper.EXIST_RESOURCE_MODE, 0644);
+        message.getMetadata().put(MessageHelper.EXIST_RESOURCE_LASTMODIFIED, System.currentTimeMillis());
+        message.getMetadata().put(MessageHelper.EXIST_RESOURCE_CREATIONTIME, System.currentTimeMillis());
+        message.getMetadata().put(MessageHelper.EXIST_MESSAGE_CONTENTENCODING, "gzip");
+        message.getMetadata().put(Constants.EXIST_EVENT_TIME, System.currentTimeMillis());
+        message.getMetadata().put(Constants.EXIST_ORIGIN_SEQUENCE, 1L);
+
+        bytesMessage = new ActiveMQBytesMessage();
+        message.updateMessageProperties(bytesMessage);
+        bytesMessage.writeBytes(message.getPayload());
+        bytesMessage.reset();
+    }
+
+    @Benchmark
+    public eXistMessage convertMessage() throws JMSException {
+        bytesMessage.reset();
+        return ReplicationJmsListener.convertMessage(bytesMessage);
+    }
+
+    @Benchmark
+    public ActiveMQBytesMessage updateMessageProperties() throws JMSException {
+        final ActiveMQBytesMessage msg = new ActiveMQBytesMessage();
+        message.updateMessageProperties(msg);
+        return msg;
+    }
+}
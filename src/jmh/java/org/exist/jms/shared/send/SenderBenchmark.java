@@ -0,0 +1,117 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.send;
+
+import org.apache.activemq.broker.BrokerService;
+import org.exist.jms.benchmark.BenchmarkSupport;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.JmsMessageProperties;
+import org.exist.jms.shared.eXistMessage;
+import org.exist.jms.shared.eXistMessageItem;
+import org.openjdk.jmh.annotations.*;
+
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.naming.Context;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending replication messages to an embedded broker, with and without connection pooling.
+ *
+ * @author Dannes Wessels
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SenderBenchmark {
+
+    private static final String BROKER_NAME = "benchmark";
+    private static final String QUEUE_NAME = "benchmark";
+
+    /**
+     * Value of exist.connection.pool, "none" looks up the factory via JNDI without pooling.
+     */
+    @Param({"none", "activemq"})
+    public String pool;
+
+    @Param({"1024", "102400"})
+    public int size;
+
+    private BrokerService broker;
+    private Connection connection;
+    private JmsConfiguration config;
+    private eXistMessageItem item;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkSupport.setTemporaryHome();
+
+        broker = new BrokerService();
+        broker.setBrokerName(BROKER_NAME);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        broker.waitUntilStarted();
+
+        final String url = "vm://" + BROKER_NAME + "?create=false";
+
+        // Drain the queue, received messages are discarded
+        connection = new org.apache.activemq.ActiveMQConnectionFactory(url).createConnection();
+        final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        final MessageConsumer consumer = session.createConsumer(session.createQueue(QUEUE_NAME));
+        consumer.setMessageListener(message -> {
+            // NOP
+        });
+        connection.start();
+
+        config = new JmsConfiguration();
+        config.setProperty(Context.INITIAL_CONTEXT_FACTORY, "org.apache.activemq.jndi.ActiveMQInitialContextFactory");
+        config.setProperty(Context.PROVIDER_URL, url);
+        config.setProperty(Constants.CONNECTION_FACTORY, "ConnectionFactory");
+        config.setProperty(Constants.DESTINATION, "dynamicQueues/" + QUEUE_NAME);
+        config.setProperty("exist.connection.pool", "none".equals(pool) ? "" : pool);
+
+        final eXistMessage message = new eXistMessage();
+        message.setResourceType(eXistMessage.ResourceType.DOCUMENT);
+        message.setResourceOperation(eXistMessage.ResourceOperation.UPDATE);
+        message.setResourcePath("/db/benchmark/data.xml");
+        message.setPayload(BenchmarkSupport.createBinary(size));
+
+        item = new eXistMessageItem();
+        item.setData(message);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connection.close();
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+    @Benchmark
+    public SendResult send() throws Exception {
+        return new Sender().sendMessage(config, new JmsMessageProperties(), item);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.messaging;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.Namespaces;
+import org.exist.dom.memtree.SAXAdapter;
+import org.exist.validation.ValidationReport;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.*;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.jms.*;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.exist.jms.shared.Constants.*;
+import static org.exist.jms.shared.ErrorCodes.*;
+
+/**
+ * Converts the body of a JMS message, as sent by messaging:send(), into XQuery data.
+ *
+ * @author Dannes Wessels
+ */
+public class ContentDecoder {
+
+    private final static Logger LOG = LogManager.getLogger(ContentDecoder.class);
+    private final XQueryContext xqueryContext;
+
+    /**
+     * Constructor
+     *
+     * @param xqueryContext The XQuery context for constructing the data.
+     */
+    public ContentDecoder(final XQueryContext xqueryContext) {
+        this.xqueryContext = xqueryContext;
+    }
+
+    /**
+     * Convert JMS message into a sequence of data.
+     *
+     * @param msg The JMS message object
+     * @return Sequence representing the JMS message
+     * @throws IOException    An internal IO error occurred.
+     * @throws XPathException An eXist-db object could not be  handled.
+     * @throws JMSException   A problem occurred handling an JMS object.
+     */
+    public Sequence getContent(final Message msg) throws IOException, XPathException, JMSException {
+        // This sequence shall contain the actual conten that will be passed
+        // to the callback function
+        final Sequence content;
+
+        // Switch based on type incoming object
+        if (msg instanceof TextMessage) {
+
+            // xs:string values are passed as regular Text messages, an empty reply has no text
+            final String text = ((TextMessage) msg).getText();
+            content = (text == null) ? Sequence.EMPTY_SEQUENCE : new StringValue(text);
+
+        } else if (msg instanceof ObjectMessage) {
+
+            // the supported other types are wrapped into a corresponding
+            // Java object inside the ObjectMessage
+            content = handleObjectMessage((ObjectMessage) msg);
+
+        } else if (msg instanceof BytesMessage) {
+
+            // XML nodes and base64 (binary) data are sent as an array of bytes
+            final BytesMessage bm = (BytesMessage) msg;
+
+            // Read data into byte buffer
+            final byte[] data = new byte[(int) bm.getBodyLength()];
+            bm.readBytes(data);
+
+            final String value = msg.getStringProperty(EXIST_DOCUMENT_COMPRESSION);
+            final boolean isCompressed = (StringUtils.isNotBlank(value) && COMPRESSION_TYPE_GZIP.equals(value));
+
+            // Serialize data
+            if (DATA_TYPE_XML.equalsIgnoreCase(bm.getStringProperty(EXIST_DATA_TYPE))) {
+                // XML(fragment)
+                content = processXML(data, isCompressed);
+
+            } else {
+                // Binary data - read compressed when indicated
+                try (final InputStream is = getInputStream(data, isCompressed)) {
+                    content = Base64BinaryDocument.getInstance(xqueryContext, is);
+                }
+            }
+
+        } else {
+            // Unsupported JMS message type
+            final String txt = String.format("Unsupported JMS Message type %s", msg.getClass().getCanonicalName());
+
+            final XPathException ex = new XPathException(JMS021, txt);
+            LOG.error(txt);
+            throw ex;
+        }
+        return content;
+    }
+
+    /**
+     * Convert JMS' objectmessage into an Xquery sequence with one value.
+     *
+     * @throws JMSException   if the JMS provider fails to set the object due to some internal error.
+     * @throws XPathException Object type is not supported.
+     */
+    private Sequence handleObjectMessage(final ObjectMessage msg) throws JMSException, XPathException {
+
+        final Object obj = msg.getObject();
+        final Sequence content;
+
+        if (obj instanceof BigInteger) {
+            content = new IntegerValue((BigInteger) obj);
+
+        } else if (obj instanceof Double) {
+            content = new DoubleValue((Double) obj);
+
+        } else if (obj instanceof BigDecimal) {
+            content = new DecimalValue((BigDecimal) obj);
+
+        } else if (obj instanceof Boolean) {
+            content = new BooleanValue((Boolean) obj);
+
+        } else if (obj instanceof Float) {
+            content = new FloatValue((Float) obj);
+
+        } else {
+            final String txt = String.format("Unable to convert the object %s", obj.toString());
+
+            final XPathException ex = new XPathException(JMS022, txt);
+            LOG.error(txt);
+            throw ex;
+        }
+        return content;
+    }
+
+    /**
+     * Parse an byte-array containing (compressed) XML data into
+     * an eXist-db document.
+     *
+     * @param data      Byte array containg the XML data.
+     * @param isGzipped Set TRUE is data is in GZIP format
+     * @return Sequence containing the XML as DocumentImpl
+     * @throws XPathException Something bad happened.
+     */
+    private Sequence processXML(final byte[] data, final boolean isGzipped) throws XPathException {
+
+        final ValidationReport validationReport = new ValidationReport();
+        final SAXAdapter adapter = new SAXAdapter(xqueryContext);
+
+        final Sequence content;
+        try {
+            // Reading compressed XML fragment when indicated
+            try (final InputStream is = getInputStream(data, isGzipped)) {
+
+                final SAXParserFactory factory = SAXParserFactory.newInstance();
+                factory.setNamespaceAware(true);
+                final InputSource src = new InputSource(is);
+                final SAXParser parser = factory.newSAXParser();
+                final XMLReader xr = parser.getXMLReader();
+
+                xr.setErrorHandler(validationReport);
+                xr.setContentHandler(adapter);
+                xr.setProperty(Namespaces.SAX_LEXICAL_HANDLER, adapter);
+
+                xr.parse(src);
+            }
+
+            if (validationReport.isValid()) {
+                content = adapter.getDocument();
+            } else {
+                final String txt = String.format("Received document is not valid: %s", validationReport.toString());
+                LOG.debug(txt);
+                throw new XPathException(JMS023, txt);
+            }
+
+        } catch (final SAXException | ParserConfigurationException | IOException ex) {
+            throw new XPathException(JMS003, ex.getMessage(), ex);
+
+        }
+
+        return content;
+    }
+
+    private InputStream getInputStream(final byte[] data, final boolean isGzipped) throws IOException {
+        return isGzipped
+                ? new GZIPInputStream(new ByteArrayInputStream(data))
+                : new ByteArrayInputStream(data);
+    }
+}
+
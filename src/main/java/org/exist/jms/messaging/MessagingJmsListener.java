@@ -22,34 +22,28 @@ package org.exist.jms.messaging;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.exist.Namespaces;
-import org.exist.dom.memtree.SAXAdapter;
+import org.exist.jms.shared.JmsConfiguration;
 import org.exist.jms.shared.Report;
+import org.exist.jms.shared.SlowOperationLog;
+import org.exist.jms.shared.Tracer;
 import org.exist.jms.shared.eXistMessagingListener;
+import org.exist.jms.shared.receive.CallbackDispatcher;
+import org.exist.jms.shared.receive.ReplySessionPool;
+import org.exist.jms.shared.send.Sender;
 import org.exist.security.Subject;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
-import org.exist.validation.ValidationReport;
+import org.exist.xquery.FunctionCall;
+import org.exist.xquery.UserDefinedFunction;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.functions.map.MapType;
 import org.exist.xquery.value.*;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
 
 import javax.jms.*;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.Enumeration;
 import java.util.Optional;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.exist.jms.shared.Constants.*;
 import static org.exist.jms.shared.ErrorCodes.*;
@@ -67,12 +61,24 @@ public class MessagingJmsListener extends eXistMessagingListener {
     private final Sequence functionParams;
     private final Report report;
     private final BrokerPool brokerPool;
-    private Subject subject;
-
-    //    private Session session;
-    private int receiverID = -1;
+    private final JmsConfiguration jmsConfig;
+    private volatile Subject subject;
+    private volatile CallbackDispatcher dispatcher;
 
     public MessagingJmsListener(final FunctionReference functionReference, final Sequence functionParams, final XQueryContext xqueryContext) {
+        this(functionReference, functionParams, xqueryContext, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param functionReference The XQuery callback function
+     * @param functionParams    Additional parameters for the callback function
+     * @param xqueryContext     The XQuery context
+     * @param jmsConfig         JMS configuration, determines how callbacks are dispatched. Can be NULL.
+     */
+    public MessagingJmsListener(final FunctionReference functionReference, final Sequence functionParams,
+                                final XQueryContext xqueryContext, final JmsConfiguration jmsConfig) {
         super();
         this.functionReference = functionReference;
         this.xqueryContext = xqueryContext;
@@ -80,29 +86,100 @@ public class MessagingJmsListener extends eXistMessagingListener {
         this.report = getReport();
         this.brokerPool = xqueryContext.getBroker().getBrokerPool();
         this.subject = xqueryContext.getSubject();
+        this.jmsConfig = jmsConfig;
     }
 
     @Override
     public void onMessage(final Message msg) {
 
+        final CallbackDispatcher callbackDispatcher = getDispatcher();
+
+        // Process on the thread of the JMS provider
+        if (callbackDispatcher == null) {
+            processMessage(msg, functionReference, false);
+            return;
+        }
+
+        // Process on a thread of the dispatcher. A compiled function keeps the arguments
+        // of the running call, so each task evaluates its own copy.
+        try {
+            callbackDispatcher.dispatch(getGroupId(msg), () -> processMessage(msg, copyFunction(), true));
+
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            report.addListenerError(ex);
+            LOG.error("Interrupted while dispatching message (Receiver={})", getReceiverID(), ex);
+
+        } catch (final RejectedExecutionException ex) {
+            // Receiver is closing, the message is not acknowledged and will be redelivered
+            LOG.warn("Receiver={} is closing, message {} is not processed", getReceiverID(), getMessageId(msg));
+        }
+    }
+
+    /**
+     * Get dispatcher for parallel callbacks, created on first use when the
+     * configured concurrency is larger than 1, and again after the receiver was closed.
+     *
+     * @return The dispatcher, or NULL when the messages are processed on the provider thread.
+     */
+    private CallbackDispatcher getDispatcher() {
+        if (dispatcher == null && jmsConfig != null && jmsConfig.getListenerConcurrency() > 1) {
+            synchronized (this) {
+                if (dispatcher == null) {
+                    dispatcher = new CallbackDispatcher(getReceiverID(), jmsConfig.getListenerConcurrency(),
+                            jmsConfig.getListenerExecutor(), jmsConfig.isListenerGroupOrdering());
+                }
+            }
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Create a copy of the callback function that can be evaluated independently
+     * of other threads; the function body is shared.
+     */
+    private FunctionReference copyFunction() {
+        final FunctionCall call = functionReference.getCall();
+        final UserDefinedFunction function = (UserDefinedFunction) call.getFunction().clone();
+        final FunctionCall copy = new FunctionCall(xqueryContext, function);
+        copy.setLocation(call.getLine(), call.getColumn());
+        return new FunctionReference(copy);
+    }
+
+    /**
+     * Get JMSXGroupID of message.
+     */
+    private String getGroupId(final Message msg) {
+        try {
+            return msg.getStringProperty(JMSX_GROUP_ID);
+        } catch (final JMSException ex) {
+            LOG.debug(ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Process the message, call the XQuery callback function and acknowledge the message.
+     *
+     * @param msg        The JMS message
+     * @param function   The callback function, not shared with other threads
+     * @param dispatched TRUE when processed on a thread of the dispatcher
+     */
+    private void processMessage(final Message msg, final FunctionReference function, final boolean dispatched) {
+
         // Make a copy
         final XQueryContext copyContext = xqueryContext.copyContext();
 
-        // Set new context to function reference
-        functionReference.setContext(copyContext);
-
-        receiverID = getReceiverID();
+        final int receiverID = getReceiverID();
 
-        report.start();
+        final long startTime = report.start();
+        beginTrace(msg);
 
-        // Log incoming message
+        // Log incoming message, slow messages are logged by the slow operation log
         try {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Received message: receiverID={} messageId={} javaClass={}",
                         receiverID, msg.getJMSMessageID(), msg.getClass().getSimpleName());
-            } else {
-                LOG.info("Received message: receiverID={} messageId={}",
-                        receiverID, msg.getJMSMessageID());
             }
 
         } catch (final JMSException ex) {
@@ -110,29 +187,25 @@ public class MessagingJmsListener extends eXistMessagingListener {
             LOG.error("{} (Receiver={})", ex.getMessage(), receiverID, ex);
         }
 
-//        // Placeholder for broker
-//        BrokerPool brokerPool = null;
+        // Actually the subject in the next line influences the subject used
+        // executing the callback function. Must be same userid in which
+        // the query was started.
+        if (subject == null) {
+            subject = brokerPool.getSecurityManager().getGuestSubject();
+        }
 
-        try {
-            /*
-             * Work around to have a broker available for the
-             * execution of #evalFunction. In the onMessage() method this
-             * broker is not being used at all.
-             *
-             * https://github.com/eXist-db/messaging-replication/issues/93
-             *
-             */
-            //brokerPool = BrokerPool.getInstance()
-
-            // Actually the subject in the next line influences the subject used 
-            // executing the callback function. Must be same userid in which
-            // the query was started.
-            if (subject == null) {
-                subject = brokerPool.getSecurityManager().getGuestSubject();
-            }
-            final DBBroker dummyBroker = brokerPool.get(Optional.of(subject));
+        /*
+         * Work around to have a broker available for the
+         * execution of #evalFunction. In the onMessage() method this
+         * broker is not being used at all.
+         *
+         * https://github.com/eXist-db/messaging-replication/issues/93
+         *
+         */
+        try (final DBBroker dummyBroker = brokerPool.get(Optional.of(subject))) {
 
             // Copy message and jms configuration details into Maptypes
+            final long decodeTime = System.nanoTime();
             final MapType msgProperties = getMessageProperties(msg, xqueryContext);
             final MapType jmsProperties = getJmsProperties(msg, xqueryContext);
 
@@ -140,7 +213,8 @@ public class MessagingJmsListener extends eXistMessagingListener {
             msgProperties.add(new StringValue(EXIST_RECEIVER_ID), new IntegerValue(receiverID));
 
             // Retrieve content of message
-            final Sequence content = getContent(msg);
+            final Sequence content = new ContentDecoder(xqueryContext).getContent(msg);
+            report.record(Report.Stage.DECODE, decodeTime);
 
             // Setup parameters callback function
             final Sequence[] params = new Sequence[4];
@@ -151,18 +225,29 @@ public class MessagingJmsListener extends eXistMessagingListener {
 
             // Execute callback function
             LOG.debug("Receiver={} : call evalFunction", receiverID);
-            final Sequence result = functionReference.evalFunction(null, null, params);
+            final long callbackTime = System.nanoTime();
+            function.setContext(copyContext);
+            final Sequence result = function.evalFunction(null, null, params);
+            report.record(Report.Stage.CALLBACK, callbackTime);
 
             // Done
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Receiver={} : Function returned {}", receiverID, result.getStringValue());
             }
 
+            // Send result back to requester
+            final Destination replyTo = msg.getJMSReplyTo();
+            if (replyTo != null && jmsConfig != null && jmsConfig.isListenerResponder()) {
+                sendReply(msg, replyTo, result, copyContext);
+            }
+
             // Acknowledge processing
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Receiver={} : call acknowledge", receiverID);
             }
+            final long ackTime = System.nanoTime();
             msg.acknowledge();
+            report.record(Report.Stage.ACK, ackTime);
 
             // Update statistics
             report.incMessageCounterOK();
@@ -170,101 +255,62 @@ public class MessagingJmsListener extends eXistMessagingListener {
 
         } catch (final Throwable ex) {
 
-            LOG.error(ex.getMessage(), ex);
-
+            // Only this message failed: it is not acknowledged, the session stays open
+            // for the other messages in flight.
             report.addListenerError(ex);
-            LOG.error(String.format("%s (Receiver=%s)", ex.getMessage(), receiverID), ex);
+            LOG.error(String.format("%s (Receiver=%s, message=%s)", ex.getMessage(), receiverID, getMessageId(msg)), ex);
 
-            final Session session = getSession();
-            try {
-                if (session != null) {
-                    session.close();
-                }
-            } catch (final JMSException ex1) {
-                LOG.error(String.format("%s (Receiver=%s)", ex1.getMessage(), receiverID), ex1);
+            // On the provider thread the next acknowledge would confirm this message
+            // as well, therefore request redelivery.
+            if (!dispatched) {
+                recover();
             }
 
-
         } finally {
 
             // update statistics
-            report.stop();
+            final long totalTime = report.stop(startTime);
+            final long size = getBodySize(msg);
             report.incMessageCounterTotal();
-            report.addCumulatedProcessingTime();
+            report.addBytes(size);
+            if (report.isSlow(totalTime)) {
+                SlowOperationLog.log("callback", "receiver=" + receiverID, getMessageId(msg), size, totalTime, report.getStageTimes());
+            }
+            Tracer.end();
         }
 
     }
 
     /**
-     * Convert JMS message into a sequence of data.
-     *
-     * @param msg The JMS message object
-     * @return Sequence representing the JMS message
-     * @throws IOException    An internal IO error occurred.
-     * @throws XPathException An eXist-db object could not be  handled.
-     * @throws JMSException   A problem occurred handling an JMS object.
+     * Redeliver the unacknowledged messages of the session.
      */
-    private Sequence getContent(final Message msg) throws IOException, XPathException, JMSException {
-        // This sequence shall contain the actual conten that will be passed
-        // to the callback function
-        final Sequence content;
-
-        // Switch based on type incoming object
-        if (msg instanceof TextMessage) {
-
-            // xs:string values are passed as regular Text messages
-            content = new StringValue(((TextMessage) msg).getText());
-
-        } else if (msg instanceof ObjectMessage) {
-
-            // the supported other types are wrapped into a corresponding
-            // Java object inside the ObjectMessage
-            content = handleObjectMessage((ObjectMessage) msg);
-
-        } else if (msg instanceof BytesMessage) {
-
-            // XML nodes and base64 (binary) data are sent as an array of bytes
-            final BytesMessage bm = (BytesMessage) msg;
-
-            // Read data into byte buffer
-            final byte[] data = new byte[(int) bm.getBodyLength()];
-            bm.readBytes(data);
-
-            final String value = msg.getStringProperty(EXIST_DOCUMENT_COMPRESSION);
-            final boolean isCompressed = (StringUtils.isNotBlank(value) && COMPRESSION_TYPE_GZIP.equals(value));
-
-            // Serialize data
-            if (DATA_TYPE_XML.equalsIgnoreCase(bm.getStringProperty(EXIST_DATA_TYPE))) {
-                // XML(fragment)
-                content = processXML(data, isCompressed);
-
-            } else {
-                // Binary data - read compressed when indicated
-                try (final InputStream is = getInputStream(data, isCompressed)) {
-                    content = Base64BinaryDocument.getInstance(xqueryContext, is);
-                }
+    private void recover() {
+        final Session session = getSession();
+        try {
+            if (session != null) {
+                session.recover();
             }
+        } catch (final JMSException ex) {
+            LOG.error(String.format("%s (Receiver=%s)", ex.getMessage(), getReceiverID()), ex);
+        }
+    }
 
-        } else {
-            // Unsupported JMS message type
-            final String txt = String.format("Unsupported JMS Message type %s", msg.getClass().getCanonicalName());
-
-            final XPathException ex = new XPathException(JMS021, txt);
-            report.addListenerError(ex);
-            LOG.error(txt);
-            throw ex;
+    private static String getMessageId(final Message msg) {
+        try {
+            return msg.getJMSMessageID();
+        } catch (final JMSException ex) {
+            return null;
         }
-        return content;
     }
 
     /**
-     * Convert JMS message properties into an eXist-db map.
+     * Convert JMS message properties into an eXist-db map. Package-private for the benchmarks.
      *
      * @param msg           The JMS message
      * @param xqueryContext eXist-db query context
      * @return eXist-db map containing the properties
      */
-    private MapType getMessageProperties(final Message msg, final XQueryContext xqueryContext) throws XPathException, JMSException {
+    static MapType getMessageProperties(final Message msg, final XQueryContext xqueryContext) throws XPathException, JMSException {
         // Copy property values into Maptype
         final MapType map = new MapType(xqueryContext);
 
@@ -340,7 +386,7 @@ public class MessagingJmsListener extends eXistMessagingListener {
      * @param value Data corresponding to the key.
      * @throws XPathException A map operation failed.
      */
-    private void addStringKV(final MapType map, final String key, final String value) throws XPathException {
+    private static void addStringKV(final MapType map, final String key, final String value) throws XPathException {
         if (map != null && key != null && !key.isEmpty() && value != null) {
             map.add(new StringValue(key), new ValueSequence(new StringValue(value)));
         }
@@ -354,108 +400,55 @@ public class MessagingJmsListener extends eXistMessagingListener {
      * @param valueSequence Data corresponding to the key.
      * @throws XPathException A map operation failed.
      */
-    private void addKV(final MapType map, final String key, final ValueSequence valueSequence) throws XPathException {
+    private static void addKV(final MapType map, final String key, final ValueSequence valueSequence) throws XPathException {
         if (map != null && StringUtils.isNotBlank(key) && valueSequence != null) {
             map.add(new StringValue(key), valueSequence);
         }
     }
 
     /**
-     * Convert JMS' objectmessage into an Xquery sequence with one value.
-     *
-     * @throws JMSException   if the JMS provider fails to set the object due to some internal error.
-     * @throws XPathException Object type is not supported.
+     * Send result of callback function as reply, correlated with the request.
      */
-    private Sequence handleObjectMessage(final ObjectMessage msg) throws JMSException, XPathException {
-
-        final Object obj = msg.getObject();
-        final Sequence content;
-
-        if (obj instanceof BigInteger) {
-            content = new IntegerValue((BigInteger) obj);
-
-        } else if (obj instanceof Double) {
-            content = new DoubleValue((Double) obj);
+    private void sendReply(final Message msg, final Destination replyTo, final Sequence result,
+                           final XQueryContext context) throws JMSException, XPathException {
 
-        } else if (obj instanceof BigDecimal) {
-            content = new DecimalValue((BigDecimal) obj);
-
-        } else if (obj instanceof Boolean) {
-            content = new BooleanValue((Boolean) obj);
-
-        } else if (obj instanceof Float) {
-            content = new FloatValue((Float) obj);
-
-        } else {
-            final String txt = String.format("Unable to convert the object %s", obj.toString());
-
-            final XPathException ex = new XPathException(JMS022, txt);
-            report.addListenerError(ex);
-            LOG.error(txt);
-            throw ex;
+        if (result.getItemCount() > 1) {
+            LOG.warn("Receiver={} : callback returned {} items, only the first item is sent as reply",
+                    getReceiverID(), result.getItemCount());
         }
-        return content;
-    }
 
-    /**
-     * Parse an byte-array containing (compressed) XML data into
-     * an eXist-db document.
-     *
-     * @param data      Byte array containg the XML data.
-     * @param isGzipped Set TRUE is data is in GZIP format
-     * @return Sequence containing the XML as DocumentImpl
-     * @throws XPathException Something bad happened.
-     */
-    private Sequence processXML(final byte[] data, final boolean isGzipped) throws XPathException {
-
-        final ValidationReport validationReport = new ValidationReport();
-        final SAXAdapter adapter = new SAXAdapter(xqueryContext);
+        final String correlationId = StringUtils.isBlank(msg.getJMSCorrelationID())
+                ? msg.getJMSMessageID()
+                : msg.getJMSCorrelationID();
 
-        final Sequence content;
+        // The session of the consumer belongs to the delivery thread
+        final ReplySessionPool replySessions = getReplySessions();
+        final Session session = replySessions.borrow();
         try {
-            // Reading compressed XML fragment when indicated
-            try (final InputStream is = getInputStream(data, isGzipped)) {
-
-                final SAXParserFactory factory = SAXParserFactory.newInstance();
-                factory.setNamespaceAware(true);
-                final InputSource src = new InputSource(is);
-                final SAXParser parser = factory.newSAXParser();
-                final XMLReader xr = parser.getXMLReader();
-
-                xr.setErrorHandler(validationReport);
-                xr.setContentHandler(adapter);
-                xr.setProperty(Namespaces.SAX_LEXICAL_HANDLER, adapter);
-
-                xr.parse(src);
-            }
-
-            if (validationReport.isValid()) {
-                content = adapter.getDocument();
-            } else {
-                final String txt = String.format("Received document is not valid: %s", validationReport.toString());
-                LOG.debug(txt);
-                throw new XPathException(JMS023, txt);
-            }
-
-        } catch (final SAXException | ParserConfigurationException | IOException ex) {
-            report.addListenerError(ex);
-            throw new XPathException(JMS003, ex.getMessage(), ex);
-
+            new Sender(context).sendReply(session, replyTo, correlationId, result.isEmpty() ? null : result.itemAt(0));
+        } finally {
+            replySessions.release(session);
         }
-
-        return content;
     }
 
-    private InputStream getInputStream(final byte[] data, final boolean isGzipped) throws IOException {
-        return isGzipped
-                ? new GZIPInputStream(new ByteArrayInputStream(data))
-                : new ByteArrayInputStream(data);
-    }
-
-
     @Override
     public String getUsageType() {
         return "messaging";
     }
 
+    /**
+     * Wait for running callbacks. A new dispatcher is created when the receiver is started again.
+     */
+    @Override
+    public void close() {
+        final CallbackDispatcher closing;
+        synchronized (this) {
+            closing = dispatcher;
+            dispatcher = null;
+        }
+        if (closing != null) {
+            closing.shutdown();
+        }
+    }
+
 }
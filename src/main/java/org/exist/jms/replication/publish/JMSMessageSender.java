@@ -24,11 +24,15 @@ package org.exist.jms.replication.publish;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.jms.replication.shared.MessageSender;
+import org.exist.jms.replication.shared.Sharding;
 import org.exist.jms.replication.shared.TransportException;
+import org.exist.jms.shared.Constants;
 import org.exist.jms.shared.JmsConfiguration;
 import org.exist.jms.shared.JmsMessageProperties;
+import org.exist.jms.shared.Report;
 import org.exist.jms.shared.eXistMessage;
 import org.exist.jms.shared.eXistMessageItem;
+import org.exist.jms.shared.send.SendCompletionListener;
 import org.exist.jms.shared.send.Sender;
 
 import java.util.List;
@@ -43,6 +47,11 @@ public class JMSMessageSender implements MessageSender {
 
     private final static Logger LOG = LogManager.getLogger(JMSMessageSender.class);
 
+    /**
+     * Sent and failed replication messages of this instance
+     */
+    private static final Report REPORT = new Report();
+
     private final PublisherParameters parameters = new PublisherParameters();
 
     /**
@@ -64,6 +73,8 @@ public class JMSMessageSender implements MessageSender {
     @Override
     public void sendMessage(final eXistMessage em) throws TransportException {
 
+        REPORT.incMessageCounterTotal();
+
         try {
             // Get from .xconf file, fill defaults when needed
             parameters.processParameters();
@@ -76,12 +87,35 @@ public class JMSMessageSender implements MessageSender {
             final JmsConfiguration jmsConfig = new JmsConfiguration();
             jmsConfig.loadPublisherParameters(parameters);
 
+            // Sharded changes are sent to the destination of their shard
+            final Object shard = em.getMetadata().get(Constants.EXIST_SHARD);
+            if (shard != null) {
+                jmsConfig.setProperty(Constants.DESTINATION, Sharding.getDestination(parameters.getDestination(), (Integer) shard));
+            }
+
             final JmsMessageProperties msgMetaProps = new JmsMessageProperties();
             msgMetaProps.loadParameters(parameters);
 
-            sender.send(jmsConfig, msgMetaProps, item);
+            if (jmsConfig.isProducerAsync()) {
+                sender.sendAsync(jmsConfig, msgMetaProps, item, new SendCompletionListener() {
+                    @Override
+                    public void onCompletion(final String messageId) {
+                        REPORT.incMessageCounterOK();
+                    }
+
+                    @Override
+                    public void onException(final Throwable t) {
+                        failed(em, t);
+                    }
+                });
+            } else {
+                sender.sendMessage(jmsConfig, msgMetaProps, item);
+                REPORT.incMessageCounterOK();
+            }
 
         } catch (final Throwable ex) {
+            failed(em, ex);
+
             // I know, this is bad coding practice,
             // but in case of problems we really need to fire this exception
             LOG.error(ex.getMessage(), ex);
@@ -89,4 +123,26 @@ public class JMSMessageSender implements MessageSender {
         }
 
     }
+
+    /**
+     * @return Counters and errors of the replication messages sent by this instance.
+     */
+    public static Report getReport() {
+        return REPORT;
+    }
+
+    /**
+     * Count the failure. The message is available for replay, the trigger added it to the
+     * {@link ReplicationLog} before sending.
+     */
+    private static void failed(final eXistMessage em, final Throwable t) {
+        REPORT.addConnectionError(t);
+
+        final Object sequence = em.getMetadata().get(Constants.EXIST_ORIGIN_SEQUENCE);
+        if (sequence instanceof Long) {
+            LOG.error("Unable to send sequence {} of '{}', left for replay: {}", sequence, em.getResourcePath(), t.getMessage());
+        } else {
+            LOG.error("Unable to send '{}': {}", em.getResourcePath(), t.getMessage());
+        }
+    }
 }
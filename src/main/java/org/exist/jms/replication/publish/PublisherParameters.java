@@ -21,10 +21,16 @@
  */
 package org.exist.jms.replication.publish;
 
+import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.exist.jms.replication.shared.ClientParameters;
+import org.exist.jms.replication.shared.MessageGroups;
+import org.exist.jms.replication.shared.OriginPath;
+import org.exist.jms.replication.shared.Sharding;
 import org.exist.jms.replication.shared.TransportException;
 import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.SlowOperationLog;
 
 import javax.naming.Context;
 
@@ -38,6 +44,14 @@ public class PublisherParameters extends ClientParameters {
     private Long timeToLive;
     private Integer priority;
     private String deliveryMode;
+    private boolean async;
+    private double traceSampleRate;
+    private long slowThreshold;
+    private boolean relay;
+    private int hopLimit;
+    private int shards;
+    private int shardDepth;
+    private String groupKey;
 
     public Long getTimeToLive() {
         return timeToLive;
@@ -51,6 +65,38 @@ public class PublisherParameters extends ClientParameters {
         return deliveryMode;
     }
 
+    public boolean isAsync() {
+        return async;
+    }
+
+    public double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    public long getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    public boolean isRelay() {
+        return relay;
+    }
+
+    public int getHopLimit() {
+        return hopLimit;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int getShardDepth() {
+        return shardDepth;
+    }
+
+    public String getGroupKey() {
+        return groupKey;
+    }
+
     @Override
     public void processParameters() throws TransportException {
 
@@ -119,6 +165,43 @@ public class PublisherParameters extends ClientParameters {
         // Get delivery
         deliveryMode = props.getProperty(Constants.PRODUCER_DELIVERY_MODE);
 
+        // Send asynchronously
+        async = BooleanUtils.toBoolean(props.getProperty(Constants.PRODUCER_ASYNC));
+
+        // Fraction of traced messages
+        traceSampleRate = NumberUtils.toDouble(props.getProperty(Constants.TRACE_SAMPLE_RATE), 0);
+
+        // Duration above which publishing is logged as slow
+        slowThreshold = NumberUtils.toLong(props.getProperty(Constants.REPORT_SLOW_THRESHOLD), SlowOperationLog.DEFAULT_THRESHOLD_MS);
+
+        // Publish changes received from other instances again
+        relay = BooleanUtils.toBoolean(props.getProperty(Constants.RELAY));
+
+        // Number of times a change may be relayed
+        hopLimit = NumberUtils.toInt(props.getProperty(Constants.HOP_LIMIT), OriginPath.DEFAULT_HOP_LIMIT);
+
+        // Number of destinations changes are partitioned over
+        shards = NumberUtils.toInt(props.getProperty(Constants.SHARDS), 1);
+        if (shards < 1 || shards > Sharding.MAX_SHARDS) {
+            final String errorText = String.format("Unable to set %s; got '%s', must be 1-%d.",
+                    Constants.SHARDS, props.getProperty(Constants.SHARDS), Sharding.MAX_SHARDS);
+            LOG.error(errorText);
+            throw new TransportException(errorText);
+        }
+
+        // Number of collection path segments that determine the shard
+        shardDepth = NumberUtils.toInt(props.getProperty(Constants.SHARD_DEPTH), Sharding.DEFAULT_DEPTH);
+
+        // Message group of changes
+        groupKey = StringUtils.defaultIfBlank(props.getProperty(Constants.GROUP_KEY), Constants.GROUP_KEY_NONE);
+        if (!MessageGroups.isValidKey(groupKey)) {
+            final String errorText = String.format("Unable to set %s; got '%s', must be one of none, %s, %s or %s.",
+                    Constants.GROUP_KEY, groupKey, Constants.GROUP_KEY_DOCUMENT, Constants.GROUP_KEY_COLLECTION,
+                    Constants.GROUP_KEY_TOP_COLLECTION);
+            LOG.error(errorText);
+            throw new TransportException(errorText);
+        }
+
         // Get connection authentication
         connectionUsername = props.getProperty(Constants.JMS_CONNECTION_USERNAME);
         connectionPassword = props.getProperty(Constants.JMS_CONNECTION_PASSWORD);
@@ -126,9 +209,12 @@ public class PublisherParameters extends ClientParameters {
 
     @Override
     public String getReport() {
-        return String.format("Publisher configuration: %s='%s' %s='%s' %s='%s' %s='%s' %s='%d' %s='%d'%s='%s'",
+        return String.format("Publisher configuration: %s='%s' %s='%s' %s='%s' %s='%s' %s='%d' %s='%d' %s='%s' %s='%s' %s='%s' %s='%d' %s='%s' %s='%d' %s='%d' %s='%d' %s='%s'",
                 Context.INITIAL_CONTEXT_FACTORY, initialContextFactory, Context.PROVIDER_URL, providerUrl,
                 Constants.DESTINATION, topic, Constants.CLIENT_ID, clientId, Constants.PRODUCER_TTL,
-                timeToLive, Constants.PRODUCER_PRIORITY, priority, Constants.PRODUCER_DELIVERY_MODE, deliveryMode);
+                timeToLive, Constants.PRODUCER_PRIORITY, priority, Constants.PRODUCER_DELIVERY_MODE, deliveryMode,
+                Constants.PRODUCER_ASYNC, async, Constants.TRACE_SAMPLE_RATE, traceSampleRate,
+                Constants.REPORT_SLOW_THRESHOLD, slowThreshold, Constants.RELAY, relay, Constants.HOP_LIMIT, hopLimit,
+                Constants.SHARDS, shards, Constants.SHARD_DEPTH, shardDepth, Constants.GROUP_KEY, groupKey);
     }
 }
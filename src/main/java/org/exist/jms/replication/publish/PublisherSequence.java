@@ -0,0 +1,231 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.publish;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.jms.replication.shared.Sharding;
+import org.exist.jms.shared.Identity;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Sequence number of the replication messages sent by this instance, enables
+ * subscribers to track which messages of this publisher have been applied, and to
+ * detect missed messages. With sharded replication each shard has its own sequence.
+ * <p>
+ * The sequence is kept in the file 'jms.sequence' next to the identity file, so it continues
+ * after a restart. The file is memory mapped: updating it is as cheap as updating a field,
+ * the operating system writes it to disk. A crash of the operating system can lose these
+ * writes, therefore blocks of numbers are reserved ahead and the ceiling of the block is
+ * forced to disk. After a shutdown without {@link #close()} the sequence continues after
+ * the ceiling: numbers may be skipped, but are never issued twice. The skipped numbers are
+ * sent along with the messages, see {@link #getSkipped(int)}, so subscribers do not take
+ * them for missed messages.
+ * <p>
+ * A sequence number is issued while the transaction of the change is still running. Until
+ * {@link #release(int, long)} is called it counts as uncommitted: a snapshot taken meanwhile
+ * may not contain the change, see {@link #getSnapshotWatermark(int)}.
+ *
+ * @author Dannes Wessels
+ */
+public class PublisherSequence {
+
+    private final static Logger LOG = LogManager.getLogger(PublisherSequence.class);
+
+    private static final String SEQUENCE_FILE = "jms.sequence";
+
+    /**
+     * Number of sequence numbers reserved at once
+     */
+    private static final long BLOCK_SIZE = 1000;
+
+    // Layout of file: current sequence per shard, ceiling per shard, clean shutdown flag
+    private static final int CEILING_OFFSET = Sharding.MAX_SHARDS * Long.BYTES;
+    private static final int CLEAN_OFFSET = 2 * Sharding.MAX_SHARDS * Long.BYTES;
+    private static final int FILE_SIZE = CLEAN_OFFSET + Long.BYTES;
+
+    private static PublisherSequence instance = null;
+
+    private final long[] sequences = new long[Sharding.MAX_SHARDS];
+    private final long[] ceilings = new long[Sharding.MAX_SHARDS];
+    private final long[][] skipped = new long[Sharding.MAX_SHARDS][];
+    private final List<TreeSet<Long>> uncommitted = new ArrayList<>(Sharding.MAX_SHARDS);
+    private MappedByteBuffer buffer;
+
+    private PublisherSequence() {
+        for (int shard = 0; shard < Sharding.MAX_SHARDS; shard++) {
+            uncommitted.add(new TreeSet<>());
+        }
+
+        final Path identityFile = Identity.getInstance().getIdentityFile();
+        if (identityFile == null) {
+            LOG.error("No location for {}, sequence is not persisted", SEQUENCE_FILE);
+            return;
+        }
+
+        final Path sequenceFile = identityFile.resolveSibling(SEQUENCE_FILE);
+        try (final FileChannel channel = FileChannel.open(sequenceFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+
+            // Without clean shutdown the last numbers may not have reached the disk
+            final boolean clean = buffer.getLong(CLEAN_OFFSET) != 0;
+            for (int shard = 0; shard < sequences.length; shard++) {
+                final long current = buffer.getLong(shard * Long.BYTES);
+                final long ceiling = buffer.getLong(CEILING_OFFSET + shard * Long.BYTES);
+                sequences[shard] = clean ? current : Math.max(current, ceiling);
+                if (sequences[shard] > current) {
+                    skipped[shard] = new long[]{current + 1, sequences[shard]};
+                }
+                ceilings[shard] = Math.max(ceiling, sequences[shard]);
+                buffer.putLong(shard * Long.BYTES, sequences[shard]);
+            }
+            buffer.putLong(CLEAN_OFFSET, 0);
+            buffer.force();
+
+            if (clean) {
+                LOG.info("Read jms sequence {} from {}", sequences[0], sequenceFile);
+            } else {
+                LOG.warn("No clean shutdown recorded in {}, jms sequence continues after reserved block at {}", sequenceFile, sequences[0]);
+            }
+
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close, "jms-sequence-shutdown"));
+
+        } catch (final IOException ex) {
+            LOG.error("Unable to open {}, sequence is not persisted: {}", sequenceFile, ex.getMessage());
+            buffer = null;
+        }
+    }
+
+    public static synchronized PublisherSequence getInstance() {
+        if (instance == null) {
+            instance = new PublisherSequence();
+        }
+        return instance;
+    }
+
+    /**
+     * @return Next sequence number, starting at 1.
+     */
+    public long next() {
+        return next(0);
+    }
+
+    /**
+     * @param shard The shard
+     * @return Next sequence number of the shard, starting at 1. Uncommitted until released.
+     */
+    public synchronized long next(final int shard) {
+        final long sequence = ++sequences[shard];
+        if (buffer != null) {
+            buffer.putLong(shard * Long.BYTES, sequence);
+
+            // Reserve next block, durable before the first number of the block is used
+            if (sequence > ceilings[shard]) {
+                ceilings[shard] = sequence + BLOCK_SIZE - 1;
+                buffer.putLong(CEILING_OFFSET + shard * Long.BYTES, ceilings[shard]);
+                buffer.force();
+            }
+        }
+        uncommitted.get(shard).add(sequence);
+        return sequence;
+    }
+
+    /**
+     * Record a clean shutdown, the sequence continues at the last issued number after a restart.
+     */
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.putLong(CLEAN_OFFSET, 1);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Mark sequence number as committed, or aborted: the transaction of the change is finished.
+     *
+     * @param shard    The shard
+     * @param sequence Sequence number returned by {@link #next(int)}
+     */
+    public synchronized void release(final int shard, final long sequence) {
+        uncommitted.get(shard).remove(sequence);
+    }
+
+    /**
+     * Sequence number up to which all changes are committed. A snapshot started now contains
+     * at least these changes; later changes must be replayed on top of it.
+     *
+     * @param shard The shard
+     * @return Sequence number before the oldest uncommitted one, the last issued one when none.
+     */
+    public synchronized long getSnapshotWatermark(final int shard) {
+        final TreeSet<Long> pending = uncommitted.get(shard);
+        return pending.isEmpty() ? sequences[shard] : pending.first() - 1;
+    }
+
+    /**
+     * Snapshot watermarks of all shards, taken at the same moment.
+     *
+     * @return Watermark per shard, see {@link #getSnapshotWatermark(int)}
+     */
+    public synchronized long[] getSnapshotWatermarks() {
+        final long[] watermarks = new long[Sharding.MAX_SHARDS];
+        for (int shard = 0; shard < watermarks.length; shard++) {
+            watermarks[shard] = getSnapshotWatermark(shard);
+        }
+        return watermarks;
+    }
+
+    /**
+     * Sequence numbers that were reserved before a shutdown without {@link #close()}, and
+     * that are not issued.
+     *
+     * @param shard The shard
+     * @return First and last skipped sequence number, NULL when no numbers were skipped
+     */
+    public synchronized long[] getSkipped(final int shard) {
+        return skipped[shard];
+    }
+
+    /**
+     * @return Last issued sequence number, 0 when none.
+     */
+    public long current() {
+        return current(0);
+    }
+
+    /**
+     * @param shard The shard
+     * @return Last issued sequence number of the shard, 0 when none.
+     */
+    public synchronized long current(final int shard) {
+        return sequences[shard];
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.publish;
+
+import org.exist.jms.shared.eXistMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Bounded log of the replication messages sent by this instance, by shard and sequence number. Used to
+ * replay messages that were missed by a subscriber. The oldest messages are dropped when the
+ * log exceeds the maximum number of messages or the maximum total payload size.
+ *
+ * @author Dannes Wessels
+ */
+public class ReplicationLog {
+
+    public static final int DEFAULT_MAX_MESSAGES = 10_000;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static ReplicationLog instance = null;
+
+    /**
+     * Shard in the highest bits, the sequence number in the lower bits
+     */
+    private static final int SHARD_SHIFT = 56;
+
+    private final TreeMap<Long, eXistMessage> messages = new TreeMap<>();
+    private final Deque<Long> order = new ArrayDeque<>();
+    private final int maxMessages;
+    private final long maxBytes;
+    private long bytes;
+
+    ReplicationLog(final int maxMessages, final long maxBytes) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized ReplicationLog getInstance() {
+        if (instance == null) {
+            instance = new ReplicationLog(DEFAULT_MAX_MESSAGES, DEFAULT_MAX_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * Add a sent message.
+     *
+     * @param sequence Sequence number of the message
+     * @param message  The message, including metadata and payload
+     */
+    public void add(final long sequence, final eXistMessage message) {
+        add(0, sequence, message);
+    }
+
+    /**
+     * Add a sent message of a shard.
+     *
+     * @param shard    The shard
+     * @param sequence Sequence number of the message in the shard
+     * @param message  The message, including metadata and payload
+     */
+    public synchronized void add(final int shard, final long sequence, final eXistMessage message) {
+        final long key = toKey(shard, sequence);
+        final eXistMessage previous = messages.put(key, message);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+            order.remove(key);
+        }
+        order.addLast(key);
+        bytes += sizeOf(message);
+
+        // Oldest messages first, of all shards
+        while (!messages.isEmpty() && (messages.size() > maxMessages || bytes > maxBytes)) {
+            bytes -= sizeOf(messages.remove(order.pollFirst()));
+        }
+    }
+
+    /**
+     * @param from First sequence number
+     * @param to   Last sequence number
+     * @return Logged messages in the range, in order of sequence number
+     */
+    public List<eXistMessage> get(final long from, final long to) {
+        return get(0, from, to);
+    }
+
+    /**
+     * @param shard The shard
+     * @param from  First sequence number
+     * @param to    Last sequence number
+     * @return Logged messages of the shard in the range, in order of sequence number
+     */
+    public synchronized List<eXistMessage> get(final int shard, final long from, final long to) {
+        if (from > to) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(messages.subMap(toKey(shard, from), true, toKey(shard, to), true).values());
+    }
+
+    /**
+     * @return Lowest logged sequence number, 0 when the log is empty
+     */
+    public synchronized long getFirst() {
+        final Long key = messages.ceilingKey(toKey(0, 0));
+        return key == null || key >= toKey(1, 0) ? 0 : key;
+    }
+
+    /**
+     * @return Number of logged messages
+     */
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    /**
+     * @return Total payload size of logged messages
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        messages.clear();
+        order.clear();
+        bytes = 0;
+    }
+
+    private static long toKey(final int shard, final long sequence) {
+        return ((long) shard << SHARD_SHIFT) | sequence;
+    }
+
+    private static long sizeOf(final eXistMessage message) {
+        return message.getPayload() == null ? 0 : message.getPayload().length;
+    }
+}
@@ -29,16 +29,29 @@ import org.exist.collections.triggers.DocumentTrigger;
 import org.exist.collections.triggers.SAXTrigger;
 import org.exist.collections.triggers.TriggerException;
 import org.exist.dom.persistent.DocumentImpl;
+import org.exist.jms.replication.shared.ContentHashes;
 import org.exist.jms.replication.shared.MessageHelper;
+import org.exist.jms.replication.shared.MessageGroups;
+import org.exist.jms.replication.shared.OriginPath;
+import org.exist.jms.replication.shared.Sharding;
+import org.exist.jms.replication.shared.PayloadStatistics;
 import org.exist.jms.replication.shared.ReplicationGuard;
 import org.exist.jms.replication.shared.ReplicationTxnManager;
+import org.exist.jms.replication.shared.TransportException;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.Identity;
+import org.exist.jms.shared.SlowOperationLog;
+import org.exist.jms.shared.Tracer;
 import org.exist.jms.shared.eXistMessage;
 import org.exist.storage.DBBroker;
 import org.exist.storage.txn.Txn;
+import org.exist.storage.txn.TxnListener;
 import org.exist.xmldb.XmldbURI;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Trigger for detecting document and collection changes to have the changes
@@ -53,16 +66,51 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
     public static final String BLOCKED_MESSAGE = "Prevented re-replication of '{}'";
     private final static Logger LOGGER = LogManager.getLogger(ReplicationTrigger.class);
     private final ReplicationGuard guard = ReplicationGuard.getInstance();
+    private static final String TRACE_RESOURCE = "publisher";
+
+    /**
+     * Serializes numbering, logging and queueing per shard, so messages leave in sequence order
+     */
+    private static final Object[] SHARD_LOCKS = new Object[Sharding.MAX_SHARDS];
+
+    static {
+        for (int shard = 0; shard < SHARD_LOCKS.length; shard++) {
+            SHARD_LOCKS[shard] = new Object();
+        }
+    }
     private Map<String, List<?>> parameters;
+    private double traceSampleRate = 0;
+    private long slowThreshold = TimeUnit.MILLISECONDS.toNanos(SlowOperationLog.DEFAULT_THRESHOLD_MS);
+    private boolean relay = false;
+    private int hopLimit = OriginPath.DEFAULT_HOP_LIMIT;
+    private int shards = 1;
+    private int shardDepth = Sharding.DEFAULT_DEPTH;
+    private String groupKey = Constants.GROUP_KEY_NONE;
 
     /**
-     * Verify if the transaction is started by the JMX extension
+     * Verify if the transaction is started by the JMX extension, and the change must not be relayed.
      *
      * @param transaction The original transaction
-     * @return TRUE when started from the eXist-db JMS else FALSE.
+     * @return TRUE when started from the eXist-db JMS and not relayed, else FALSE.
      */
     private boolean isJMSOrigin(final Txn transaction) {
-        return ReplicationTxnManager.isReplicationTransaction(transaction);
+        if (!ReplicationTxnManager.isReplicationTransaction(transaction)) {
+            return false;
+        }
+
+        // Relay changes of other instances when enabled, within the hop limit
+        final OriginPath originPath = ReplicationTxnManager.getOriginPath(transaction);
+        return !relay || originPath == null || originPath.getHopLimit() <= 0;
+    }
+
+    /**
+     * Let changed resources be rehashed for anti-entropy.
+     */
+    private void invalidate(final DBBroker broker, final XmldbURI... uris) {
+        final ContentHashes hashes = ContentHashes.getInstance(broker.getBrokerPool());
+        for (final XmldbURI uri : uris) {
+            hashes.invalidate(uri.toString());
+        }
     }
 
     //
@@ -89,31 +137,48 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
         // The content is always gzip-ped
         md.put(MessageHelper.EXIST_MESSAGE_CONTENTENCODING, "gzip");
 
+        // Decide on tracing before serializing
+        final String traceId = Tracer.sample(traceSampleRate);
+        if (traceId != null) {
+            md.put(Constants.EXIST_TRACE_ID, traceId);
+        }
+
         // Serialize document
+        final long serializeTime = System.nanoTime();
         try {
-            msg.setPayload(MessageHelper.gzipSerialize(broker, transaction, document));
+            msg.setPayload(MessageHelper.gzipSerialize(broker, transaction, document, md));
 
         } catch (final Throwable ex) {
             LOGGER.error("Problem while serializing document (contentLength={}) to compressed message: {}",
                     document.getContentLength(), ex.getMessage(), ex);
         }
+        final long serializeNanos = System.nanoTime() - serializeTime;
+        Tracer.record(traceId, "serialize", TRACE_RESOURCE, serializeTime);
+
+        // Sizes per collection and MIME type
+        if (msg.getPayload() != null) {
+            final Object rawSize = md.get(MessageHelper.EXIST_MESSAGE_RAWSIZE);
+            PayloadStatistics.getPublished().record(msg.getResourcePath(), document.getMetadata().getMimeType(),
+                    rawSize instanceof Long ? (Long) rawSize : -1, msg.getPayload().length, serializeNanos);
+        }
 
         // Send Message   
-        sendMessage(msg);
+        sendMessage(transaction, msg, serializeNanos);
     }
 
     @Override
     public void afterCreateDocument(final DBBroker broker, final Txn transaction, final DocumentImpl document) throws TriggerException {
 
-        LOGGER.info("Create document '{}'", document.getURI().toString());
+        LOGGER.debug("Create document '{}'", document.getURI().toString());
+        invalidate(broker, document.getURI());
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
         if (isJMSOrigin(transaction)) {
-            LOGGER.info(BLOCKED_MESSAGE, document.getURI().toString());
+            LOGGER.debug(BLOCKED_MESSAGE, document.getURI().toString());
             return;
         }
 
@@ -123,15 +188,16 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
     @Override
     public void afterUpdateDocument(final DBBroker broker, final Txn transaction, final DocumentImpl document) throws TriggerException {
 
-        LOGGER.info("Update document '{}'", document.getURI().toString());
+        LOGGER.debug("Update document '{}'", document.getURI().toString());
+        invalidate(broker, document.getURI());
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
         if (isJMSOrigin(transaction)) {
-            LOGGER.info(BLOCKED_MESSAGE, document.getURI().toString());
+            LOGGER.debug(BLOCKED_MESSAGE, document.getURI().toString());
             return;
         }
 
@@ -141,15 +207,16 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
     @Override
     public void afterCopyDocument(final DBBroker broker, final Txn transaction, final DocumentImpl document, final XmldbURI oldUri) throws TriggerException {
 
-        LOGGER.info("Copy document from '{}' to '{}'", oldUri.toString(), document.getURI().toString());
+        LOGGER.debug("Copy document from '{}' to '{}'", oldUri.toString(), document.getURI().toString());
+        invalidate(broker, document.getURI());
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
         if (isJMSOrigin(transaction)) {
-            LOGGER.info(BLOCKED_MESSAGE, document.getURI().toString());
+            LOGGER.debug(BLOCKED_MESSAGE, document.getURI().toString());
             return;
         }
 
@@ -161,21 +228,22 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
         msg.setDestinationPath(document.getURI().toString());
 
         // Send Message   
-        sendMessage(msg);
+        sendMessage(transaction, msg);
     }
 
     @Override
     public void afterMoveDocument(final DBBroker broker, final Txn transaction, final DocumentImpl document, final XmldbURI oldUri) throws TriggerException {
 
-        LOGGER.info("Move document from '{}' to '{}'", oldUri.toString(), document.getURI().toString());
+        LOGGER.debug("Move document from '{}' to '{}'", oldUri.toString(), document.getURI().toString());
+        invalidate(broker, oldUri, document.getURI());
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
         if (isJMSOrigin(transaction)) {
-            LOGGER.info(BLOCKED_MESSAGE, document.getURI().toString());
+            LOGGER.debug(BLOCKED_MESSAGE, document.getURI().toString());
             return;
         }
 
@@ -187,21 +255,22 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
         msg.setDestinationPath(document.getURI().toString());
 
         // Send Message   
-        sendMessage(msg);
+        sendMessage(transaction, msg);
     }
 
     @Override
     public void afterDeleteDocument(final DBBroker broker, final Txn transaction, final XmldbURI uri) throws TriggerException {
 
-        LOGGER.info("Delete document '{}'", uri.toString());
+        LOGGER.debug("Delete document '{}'", uri.toString());
+        invalidate(broker, uri);
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
         if (isJMSOrigin(transaction)) {
-            LOGGER.info(BLOCKED_MESSAGE, uri.toString());
+            LOGGER.debug(BLOCKED_MESSAGE, uri.toString());
             return;
         }
 
@@ -212,7 +281,7 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
         msg.setResourcePath(uri.toString());
 
         // Send Message   
-        sendMessage(msg);
+        sendMessage(transaction, msg);
     }
 
     //
@@ -221,15 +290,16 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
     @Override
     public void afterCreateCollection(final DBBroker broker, final Txn transaction, final Collection collection) throws TriggerException {
 
-        LOGGER.info("Create collection '{}'", collection.getURI().toString());
+        LOGGER.debug("Create collection '{}'", collection.getURI().toString());
+        invalidate(broker, collection.getURI());
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
         if (isJMSOrigin(transaction)) {
-            LOGGER.info(BLOCKED_MESSAGE, collection.getURI().toString());
+            LOGGER.debug(BLOCKED_MESSAGE, collection.getURI().toString());
             return;
         }
 
@@ -244,7 +314,7 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
         MessageHelper.retrieveFromCollection(md, collection);
 
         // Send Message   
-        sendMessage(msg);
+        sendMessage(transaction, msg);
     }
 
     //@Override
@@ -255,15 +325,16 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
     //@Override
     public void afterUpdateCollectionMetadata(final DBBroker broker, final Txn txn, final Collection collection) throws TriggerException {
 
-        LOGGER.info("Update collection metadata '{}'", collection.getURI().toString());
+        LOGGER.debug("Update collection metadata '{}'", collection.getURI().toString());
+        invalidate(broker, collection.getURI());
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
         if (isJMSOrigin(txn)) {
-            LOGGER.info(BLOCKED_MESSAGE, collection.getURI().toString());
+            LOGGER.debug(BLOCKED_MESSAGE, collection.getURI().toString());
             return;
         }
 
@@ -278,21 +349,22 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
         MessageHelper.retrieveFromCollection(md, collection);
 
         // Send Message
-        sendMessage(msg);
+        sendMessage(txn, msg);
     }
 
     @Override
     public void afterCopyCollection(final DBBroker broker, final Txn transaction, final Collection collection, final XmldbURI oldUri) throws TriggerException {
 
-        LOGGER.info("Copy collection from '{}' to '{}'", oldUri.toString(), collection.getURI().toString());
+        LOGGER.debug("Copy collection from '{}' to '{}'", oldUri.toString(), collection.getURI().toString());
+        invalidate(broker, collection.getURI());
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
         if (isJMSOrigin(transaction)) {
-            LOGGER.info(BLOCKED_MESSAGE, collection.getURI().toString());
+            LOGGER.debug(BLOCKED_MESSAGE, collection.getURI().toString());
             return;
         }
 
@@ -304,21 +376,22 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
         msg.setDestinationPath(collection.getURI().toString());
 
         // Send Message   
-        sendMessage(msg);
+        sendMessage(transaction, msg);
     }
 
     @Override
     public void afterMoveCollection(final DBBroker broker, final Txn transaction, final Collection collection, final XmldbURI oldUri) throws TriggerException {
 
-        LOGGER.info("Move collection from '{}' to '{}'", oldUri.toString(), collection.getURI().toString());
+        LOGGER.debug("Move collection from '{}' to '{}'", oldUri.toString(), collection.getURI().toString());
+        invalidate(broker, oldUri, collection.getURI());
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
         if (isJMSOrigin(transaction)) {
-            LOGGER.info(BLOCKED_MESSAGE, collection.getURI().toString());
+            LOGGER.debug(BLOCKED_MESSAGE, collection.getURI().toString());
             return;
         }
 
@@ -330,21 +403,22 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
         msg.setDestinationPath(collection.getURI().toString());
 
         // Send Message   
-        sendMessage(msg);
+        sendMessage(transaction, msg);
     }
 
     @Override
     public void afterDeleteCollection(final DBBroker broker, final Txn transaction, final XmldbURI uri) throws TriggerException {
 
-        LOGGER.info("Delete collection '{}'", uri.toString());
+        LOGGER.debug("Delete collection '{}'", uri.toString());
+        invalidate(broker, uri);
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
         if (isJMSOrigin(transaction)) {
-            LOGGER.info(BLOCKED_MESSAGE, uri.toString());
+            LOGGER.debug(BLOCKED_MESSAGE, uri.toString());
             return;
         }
 
@@ -355,7 +429,7 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
         msg.setResourcePath(uri.toString());
 
         // Send Message   
-        sendMessage(msg);
+        sendMessage(transaction, msg);
     }
 
     // 
@@ -365,10 +439,11 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
     @Override
     public void afterUpdateDocumentMetadata(final DBBroker broker, final Txn transaction, final DocumentImpl document) throws TriggerException {
 
-        LOGGER.info("Update document metadata '{}'", document.getURI().toString());
+        LOGGER.debug("Update document metadata '{}'", document.getURI().toString());
+        invalidate(broker, document.getURI());
 
         if (!guard.isReplicationEnabled()) {
-            LOGGER.info(REPLICATION_OFF);
+            LOGGER.debug(REPLICATION_OFF);
             return;
         }
 
@@ -376,7 +451,7 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
          * If the action is originated from a trigger, do not process it again
          */
         if (isJMSOrigin(transaction)) {
-            LOGGER.info(BLOCKED_MESSAGE, document.getURI().toString());
+            LOGGER.debug(BLOCKED_MESSAGE, document.getURI().toString());
             return;
         }
 
@@ -393,7 +468,7 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
         MessageHelper.retrievePermission(md, document.getPermissions());
 
         // Send Message   
-        sendMessage(msg);
+        sendMessage(transaction, msg);
     }
 
     //
@@ -410,28 +485,141 @@ public class ReplicationTrigger extends SAXTrigger implements DocumentTrigger, C
 
         this.parameters = parameters;
 
+        // Sampling of traced messages, relaying
+        final PublisherParameters publisherParameters = new PublisherParameters();
+        publisherParameters.setMultiValueParameters(parameters);
+        try {
+            publisherParameters.processParameters();
+            traceSampleRate = publisherParameters.getTraceSampleRate();
+            slowThreshold = publisherParameters.getSlowThreshold() <= 0
+                    ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(publisherParameters.getSlowThreshold());
+            relay = publisherParameters.isRelay();
+            hopLimit = publisherParameters.getHopLimit();
+            shards = publisherParameters.getShards();
+            shardDepth = publisherParameters.getShardDepth();
+            groupKey = publisherParameters.getGroupKey();
+        } catch (final TransportException ex) {
+            LOGGER.error("Unable to read parameters of replication trigger: {}", ex.getMessage());
+        }
+
     }
 
     /**
      * Send 'trigger' message with parameters set using
      * {@link #configure(org.exist.storage.DBBroker, org.exist.storage.txn.Txn, org.exist.collections.Collection, java.util.Map)}
      */
-    private void sendMessage(final eXistMessage msg) /* throws TriggerException  */ {
-        // Send Message   
+    private void sendMessage(final Txn transaction, final eXistMessage msg) /* throws TriggerException  */ {
+        sendMessage(transaction, msg, 0);
+    }
+
+    /**
+     * Number 'trigger' message and queue it for sending to the broker.
+     *
+     * @param transaction    The transaction of the change, a relayed change has an origin path
+     * @param serializeNanos Time spent on serializing the document
+     */
+    private void sendMessage(final Txn transaction, final eXistMessage msg, final long serializeNanos) /* throws TriggerException  */ {
+
+        // Instances the change passed through
+        final OriginPath received = ReplicationTxnManager.getOriginPath(transaction);
+        final String identity = Identity.getInstance().getIdentity();
+        final OriginPath originPath = received == null ? OriginPath.local(identity, hopLimit) : received.relay(identity);
+        originPath.toProperties(msg.getMetadata());
+
+        // Shard of the change, the sender picks the destination of the shard
+        final int shard = shards > 1
+                ? Sharding.getShard(Sharding.getPrefix(msg.getResourceType(), msg.getResourcePath(), shardDepth), shards) : 0;
+        if (shards > 1) {
+            msg.getMetadata().put(Constants.EXIST_SHARD, shard);
+        }
+
+        // Competing consumers apply the changes of a group in order
+        final String groupId = MessageGroups.getGroupId(groupKey, msg.getResourceType(), msg.getResourcePath());
+        if (groupId != null) {
+            msg.getMetadata().put(Constants.JMSX_GROUP_ID, groupId);
+        }
+
+        // Stamp message for measuring replication lag
+        msg.getMetadata().put(Constants.EXIST_EVENT_TIME, System.currentTimeMillis());
+
+        // Documents are sampled before serialization
+        Object traceId = msg.getMetadata().get(Constants.EXIST_TRACE_ID);
+        if (traceId == null) {
+            traceId = Tracer.sample(traceSampleRate);
+            if (traceId != null) {
+                msg.getMetadata().put(Constants.EXIST_TRACE_ID, traceId);
+            }
+        }
+
+        // Concurrent writers must not send sequence N+1 before N: subscribers would see a gap.
+        // Only numbering and queueing happen under the lock, the send runs on the thread of the shard.
         final JMSMessageSender sender = new JMSMessageSender(parameters);
+        synchronized (SHARD_LOCKS[shard]) {
+            final long sequence = PublisherSequence.getInstance().next(shard);
+            msg.getMetadata().put(Constants.EXIST_ORIGIN_SEQUENCE, sequence);
+            final long[] skipped = PublisherSequence.getInstance().getSkipped(shard);
+            if (skipped != null) {
+                msg.getMetadata().put(Constants.EXIST_ORIGIN_SKIPPED_FROM, skipped[0]);
+                msg.getMetadata().put(Constants.EXIST_ORIGIN_SKIPPED_TO, skipped[1]);
+            }
+            releaseSequence(transaction, shard, sequence);
+
+            // Keep for replay, also when sending fails
+            ReplicationLog.getInstance().add(shard, sequence, msg);
+
+            ShardSender.execute(shard, () -> send(sender, msg, serializeNanos));
+        }
+    }
+
+    /**
+     * Send message to the broker, log when serializing and sending took too long.
+     */
+    private void send(final JMSMessageSender sender, final eXistMessage msg, final long serializeNanos) {
         try {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Sending JMS message for '{}' on '{}'", msg.getResourceOperation().toString(), msg.getResourcePath());
             }
 
+            final long sendTime = System.nanoTime();
             sender.sendMessage(msg);
+            final long sendNanos = System.nanoTime() - sendTime;
+
+            if (serializeNanos + sendNanos > slowThreshold) {
+                final Map<String, Long> stages = new LinkedHashMap<>();
+                stages.put("serialize", serializeNanos);
+                stages.put("send", sendNanos);
+                SlowOperationLog.log("publish " + msg.getResourceOperation(), TRACE_RESOURCE, msg.getResourcePath(),
+                        msg.getPayload() == null ? 0 : msg.getPayload().length, serializeNanos + sendNanos, stages);
+            }
 
         } catch (final Throwable ex) {
+            // The message stays in the replication log, subscribers have it replayed
             LOGGER.error(ex.getMessage(), ex);
-            //throw new TriggerException(ex.getMessage(), ex); TransportException
         }
     }
 
+    /**
+     * Release the sequence number when the transaction of the change is finished.
+     */
+    private static void releaseSequence(final Txn transaction, final int shard, final long sequence) {
+        if (transaction == null) {
+            PublisherSequence.getInstance().release(shard, sequence);
+            return;
+        }
+
+        transaction.registerListener(new TxnListener() {
+            @Override
+            public void commit() {
+                PublisherSequence.getInstance().release(shard, sequence);
+            }
+
+            @Override
+            public void abort() {
+                PublisherSequence.getInstance().release(shard, sequence);
+            }
+        });
+    }
+
     /*
      * ****** unused methods follow ******
      */
@@ -0,0 +1,132 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.publish;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.jms.replication.shared.Sharding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the replication messages of a shard in order of submission, on one thread per shard.
+ * Writers only number and queue their change, the database locks they hold are not held
+ * during the connection setup and the send to the broker.
+ * <p>
+ * The queue is bounded. When it is full the writer waits for space, so a slow broker slows
+ * down the writers instead of changes being dropped. At shutdown of the JVM the queued
+ * messages are sent before the senders stop.
+ *
+ * @author Dannes Wessels
+ */
+class ShardSender {
+
+    private final static Logger LOG = LogManager.getLogger(ShardSender.class);
+    private static final int QUEUE_CAPACITY = ReplicationLog.DEFAULT_MAX_MESSAGES;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private static final ThreadPoolExecutor[] executors = new ThreadPoolExecutor[Sharding.MAX_SHARDS];
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(ShardSender::shutdown, "jms-replication-sender-shutdown"));
+    }
+
+    private ShardSender() {
+        // NOP
+    }
+
+    /**
+     * Queue the send of a message, waits when the queue of the shard is full. Must be called
+     * in sequence order of the shard.
+     *
+     * @param shard The shard of the message
+     * @param task  Sends the message
+     */
+    static void execute(final int shard, final Runnable task) {
+        getExecutor(shard).execute(() -> {
+            try {
+                task.run();
+            } catch (final Throwable t) {
+                LOG.error(t.getMessage(), t);
+            }
+        });
+    }
+
+    private static ThreadPoolExecutor getExecutor(final int shard) {
+        synchronized (executors) {
+            if (executors[shard] == null) {
+                executors[shard] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                    final Thread thread = new Thread(runnable, "jms-replication-sender-" + shard);
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, pool) -> {
+                    // Block instead of running in the caller thread, to retain the order of the messages.
+                    // When shutting down the message is sent in the caller thread after the queue is drained.
+                    try {
+                        if (pool.isShutdown()) {
+                            pool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                            runnable.run();
+                        } else {
+                            pool.getQueue().put(runnable);
+                        }
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for space in send queue", ex);
+                    }
+                });
+            }
+            return executors[shard];
+        }
+    }
+
+    /**
+     * Stop accepting sends and wait until the queued messages are sent.
+     */
+    static void shutdown() {
+        final List<ThreadPoolExecutor> running = new ArrayList<>();
+        synchronized (executors) {
+            for (final ThreadPoolExecutor executor : executors) {
+                if (executor != null) {
+                    executor.shutdown();
+                    running.add(executor);
+                }
+            }
+        }
+
+        try {
+            for (final ThreadPoolExecutor executor : running) {
+                if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOG.warn("{} replication messages not sent within {} seconds, left for replay",
+                            executor.getQueue().size(), SHUTDOWN_TIMEOUT_SECONDS);
+                }
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
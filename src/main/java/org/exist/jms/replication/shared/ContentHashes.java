@@ -0,0 +1,372 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.shared;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.security.Permission;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.serializers.Serializer;
+import org.exist.storage.txn.Txn;
+import org.exist.xmldb.XmldbURI;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merkle tree of the content of a database, used for anti-entropy. The hash of a document
+ * covers its content and metadata (MIME type, owner, group, mode); the hash of a collection
+ * covers the names and hashes of its documents and sub-collections.
+ * <p>
+ * Hashes are cached per collection. Changes reported via {@link #invalidate(String)} mark the
+ * collection and its ancestors stale; a stale collection is rehashed on the next request, reusing
+ * the cached hashes of documents that have not been modified since.
+ *
+ * @author Dannes Wessels
+ */
+public class ContentHashes {
+
+    private final static Logger LOG = LogManager.getLogger(ContentHashes.class);
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final Map<String, ContentHashes> INSTANCES = new ConcurrentHashMap<>();
+
+    /**
+     * Cached hashes per collection path, ordered by path so a subtree is a range of keys
+     */
+    private final ConcurrentNavigableMap<String, Node> nodes = new ConcurrentSkipListMap<>();
+
+    /**
+     * Increased by every invalidation, detects changes during the computation of a node
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param brokerPool The database
+     * @return Hashes of the database
+     */
+    public static ContentHashes getInstance(final BrokerPool brokerPool) {
+        return INSTANCES.computeIfAbsent(brokerPool.getId(), k -> new ContentHashes());
+    }
+
+    /**
+     * Get the hashes of a collection and its children, compute when needed.
+     *
+     * @param broker        The broker
+     * @param transaction   The transaction, for reading binary documents
+     * @param collectionUri Path of the collection
+     * @return The hashes, NULL when the collection does not exist
+     * @throws PermissionDeniedException When the collection or a document cannot be read
+     * @throws IOException               When a document cannot be read
+     */
+    public Node getNode(final DBBroker broker, final Txn transaction, final XmldbURI collectionUri)
+            throws PermissionDeniedException, IOException {
+
+        final String path = collectionUri.toCollectionPathURI().getCollectionPath();
+        final long startGeneration = generation.get();
+        final Node cached = nodes.get(path);
+        if (cached != null && !cached.stale) {
+            return cached;
+        }
+
+        // Read names of children, release collection before hashing
+        final Map<String, Long> documents = new TreeMap<>();
+        final List<String> collections = new ArrayList<>();
+        try (final Collection collection = broker.openCollection(collectionUri, Lock.LockMode.READ_LOCK)) {
+            if (collection == null) {
+                nodes.remove(path);
+                return null;
+            }
+
+            for (final Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+                final DocumentImpl document = i.next();
+                documents.put(document.getFileURI().toString(), document.getLastModified());
+            }
+
+            for (final Iterator<XmldbURI> i = collection.collectionIterator(broker); i.hasNext(); ) {
+                collections.add(i.next().toString());
+            }
+
+        } catch (final Exception ex) {
+            if (ex instanceof PermissionDeniedException) {
+                throw (PermissionDeniedException) ex;
+            }
+            throw new IOException(String.format("Unable to read collection %s: %s", path, ex.getMessage()), ex);
+        }
+
+        final Node node = new Node();
+
+        for (final Map.Entry<String, Long> entry : documents.entrySet()) {
+            final String name = entry.getKey();
+            final long lastModified = entry.getValue();
+
+            final DocumentHash previous = cached == null ? null : cached.documentHashes.get(name);
+            if (previous != null && previous.lastModified == lastModified) {
+                node.documentHashes.put(name, previous);
+
+            } else {
+                final String hash = hashDocument(broker, transaction, collectionUri.append(name));
+                if (hash != null) {
+                    node.documentHashes.put(name, new DocumentHash(lastModified, hash));
+                }
+            }
+        }
+
+        for (final String name : collections) {
+            final Node child = getNode(broker, transaction, collectionUri.append(name));
+            if (child != null) {
+                node.collectionHashes.put(name, child.getHash());
+            }
+        }
+
+        node.hash = hashNode(node);
+        nodes.put(path, node);
+
+        // Changed during the computation: the node may be outdated. An invalidation that
+        // follows the put finds the node in the cache itself.
+        if (generation.get() != startGeneration) {
+            node.stale = true;
+        }
+        return node;
+    }
+
+    /**
+     * Report change of a document or collection; the collection and its ancestors are rehashed
+     * on the next request.
+     *
+     * @param path Path of the changed document or collection
+     */
+    public void invalidate(final String path) {
+        if (path == null) {
+            return;
+        }
+
+        generation.incrementAndGet();
+        if (nodes.isEmpty()) {
+            return;
+        }
+
+        XmldbURI uri = XmldbURI.create(path).toCollectionPathURI();
+
+        // The path is a collection, or a document of the parent collection
+        final String collectionPath = uri.getCollectionPath();
+        nodes.remove(collectionPath);
+        nodes.subMap(collectionPath + "/", collectionPath + "/\uffff").clear();
+
+        final Node parent = nodes.get(uri.removeLastSegment().getCollectionPath());
+        if (parent != null) {
+            parent.documentHashes.remove(uri.lastSegment().toString());
+        }
+
+        while (uri.numSegments() > 1) {
+            uri = uri.removeLastSegment();
+            final Node node = nodes.get(uri.getCollectionPath());
+            if (node != null) {
+                node.stale = true;
+            }
+        }
+    }
+
+    /**
+     * Remove all cached hashes.
+     */
+    public void clear() {
+        nodes.clear();
+    }
+
+    /**
+     * @return Number of cached collections
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Compute hash of content and metadata of a document.
+     *
+     * @return The hash, NULL when the document does not exist (anymore)
+     */
+    private String hashDocument(final DBBroker broker, final Txn transaction, final XmldbURI documentUri)
+            throws PermissionDeniedException, IOException {
+
+        try (final LockedDocument lockedDocument = broker.getXMLResource(documentUri, Lock.LockMode.READ_LOCK)) {
+            if (lockedDocument == null) {
+                return null;
+            }
+
+            final DocumentImpl document = lockedDocument.getDocument();
+            final MessageDigest digest = newDigest();
+
+            final Permission perm = document.getPermissions();
+            final String metadata = document.getMetadata().getMimeType() + "\n" + perm.getOwner().getName()
+                    + "\n" + perm.getGroup().getName() + "\n" + perm.getMode() + "\n";
+            digest.update(metadata.getBytes(StandardCharsets.UTF_8));
+
+            try (final OutputStream os = new DigestOutputStream(NullOutputStream.NULL_OUTPUT_STREAM, digest)) {
+                if (document.getResourceType() == DocumentImpl.XML_FILE) {
+                    final Serializer serializer = broker.getSerializer();
+                    try (final Writer w = new OutputStreamWriter(os, StandardCharsets.UTF_8)) {
+                        serializer.serialize(document, w);
+                    }
+                } else {
+                    broker.readBinaryResource(transaction, (BinaryDocument) document, os);
+                }
+
+            } catch (final SAXException ex) {
+                throw new IOException(String.format("Unable to serialize %s: %s", documentUri, ex.getMessage()), ex);
+            }
+
+            return toHex(digest.digest());
+        }
+    }
+
+    private static String hashNode(final Node node) {
+        final MessageDigest digest = newDigest();
+        node.documentHashes.forEach((name, hash) -> digest.update(("D " + name + " " + hash.hash + "\n").getBytes(StandardCharsets.UTF_8)));
+        node.collectionHashes.forEach((name, hash) -> digest.update(("C " + name + " " + hash + "\n").getBytes(StandardCharsets.UTF_8)));
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (final NoSuchAlgorithmException ex) {
+            // Always available, required by the Java specification
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(final byte[] data) {
+        final char[] chars = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            chars[i * 2] = HEX[(data[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[data[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Hash of a document, with the modification time it was computed for.
+     */
+    private static class DocumentHash {
+        private final long lastModified;
+        private final String hash;
+
+        private DocumentHash(final long lastModified, final String hash) {
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Hashes of a collection and of its direct children, sorted by name. A node is exchanged
+     * between instances as text: the hash of the collection on the first line, followed by a
+     * line per child: 'D' or 'C', hash and name.
+     */
+    public static class Node {
+
+        private final SortedMap<String, DocumentHash> documentHashes = new ConcurrentSkipListMap<>();
+        private final SortedMap<String, String> collectionHashes = new TreeMap<>();
+        private volatile boolean stale = false;
+        private String hash;
+
+        public String getHash() {
+            return hash;
+        }
+
+        /**
+         * @return Hash per document name
+         */
+        public SortedMap<String, String> getDocuments() {
+            final SortedMap<String, String> documents = new TreeMap<>();
+            documentHashes.forEach((name, documentHash) -> documents.put(name, documentHash.hash));
+            return documents;
+        }
+
+        /**
+         * @return Hash per sub-collection name
+         */
+        public SortedMap<String, String> getCollections() {
+            return new TreeMap<>(collectionHashes);
+        }
+
+        public String toText() {
+            final StringBuilder sb = new StringBuilder(hash).append('\n');
+            documentHashes.forEach((name, documentHash) -> sb.append("D ").append(documentHash.hash).append(' ').append(name).append('\n'));
+            collectionHashes.forEach((name, childHash) -> sb.append("C ").append(childHash).append(' ').append(name).append('\n'));
+            return sb.toString();
+        }
+
+        /**
+         * Parse node received from another instance.
+         *
+         * @param text The text representation, empty when the collection does not exist
+         * @return The node, NULL when the collection does not exist
+         */
+        public static Node parse(final String text) {
+            if (text == null || text.trim().isEmpty()) {
+                return null;
+            }
+
+            final String[] lines = text.split("\n");
+            final Node node = new Node();
+            node.hash = lines[0].trim();
+
+            for (int i = 1; i < lines.length; i++) {
+                final String[] fields = lines[i].split(" ", 3);
+                if (fields.length != 3) {
+                    LOG.warn("Ignored invalid line '{}'", lines[i]);
+                } else if ("D".equals(fields[0])) {
+                    node.documentHashes.put(fields[2], new DocumentHash(0, fields[1]));
+                } else if ("C".equals(fields[0])) {
+                    node.collectionHashes.put(fields[2], fields[1]);
+                }
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.shared;
+
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.eXistMessage;
+
+/**
+ * Message group (JMSXGroupID) of a replicated change. The broker delivers all messages of a
+ * group to the same consumer, so competing consumers apply the changes of a group in order.
+ *
+ * @author Dannes Wessels
+ */
+public class MessageGroups {
+
+    private MessageGroups() {
+        // Utility class
+    }
+
+    /**
+     * @param groupKey 'document', 'collection' or 'top-collection'
+     * @return TRUE when the key is supported, or 'none'
+     */
+    public static boolean isValidKey(final String groupKey) {
+        switch (groupKey) {
+            case Constants.GROUP_KEY_NONE:
+            case Constants.GROUP_KEY_DOCUMENT:
+            case Constants.GROUP_KEY_COLLECTION:
+            case Constants.GROUP_KEY_TOP_COLLECTION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get group of a change: the path of the resource, the path of its collection, or the
+     * path of its top-level collection ('/db/apps' for '/db/apps/foo/bar.xml').
+     *
+     * @param groupKey     'document', 'collection' or 'top-collection'
+     * @param resourceType Type of the changed resource
+     * @param path         Path of the changed resource
+     * @return The group, NULL when changes are not grouped
+     */
+    public static String getGroupId(final String groupKey, final eXistMessage.ResourceType resourceType, final String path) {
+        switch (groupKey) {
+            case Constants.GROUP_KEY_DOCUMENT:
+                return path;
+            case Constants.GROUP_KEY_COLLECTION:
+                return Sharding.getPrefix(resourceType, path, Integer.MAX_VALUE);
+            case Constants.GROUP_KEY_TOP_COLLECTION:
+                return Sharding.getPrefix(resourceType, path, 2);
+            default:
+                return null;
+        }
+    }
+}
@@ -22,6 +22,7 @@
 package org.exist.jms.replication.shared;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.collections.Collection;
@@ -60,6 +61,7 @@ public class MessageHelper {
     public static final String EXIST_RESOURCE_TYPE = "exist.resource.type";
     public static final String EXIST_RESOURCE_MODE = "exist.resource.permission.mode";
     public static final String EXIST_MESSAGE_CONTENTENCODING = "exist.message.content-encoding";
+    public static final String EXIST_MESSAGE_RAWSIZE = "exist.message.raw-size";
 
     private final static Logger LOG = LogManager.getLogger(MessageHelper.class);
 
@@ -69,10 +71,12 @@ public class MessageHelper {
      *
      * @param broker   The broker
      * @param document Document to compress
+     * @param props    Message properties, the uncompressed size is added as {@link #EXIST_MESSAGE_RAWSIZE}
      * @return document as array of bytes
      * @throws IOException When the
      */
-    public static byte[] gzipSerialize(final DBBroker broker, final Txn transaction, final DocumentImpl document) throws IOException {
+    public static byte[] gzipSerialize(final DBBroker broker, final Txn transaction, final DocumentImpl document,
+                                       final Map<String, Object> props) throws IOException {
 
         // This is the weak spot, the data is serialized into
         // a byte array. Better to have an overflow to a file,
@@ -87,9 +91,11 @@ public class MessageHelper {
                 final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
                 try (final GZIPOutputStream gos = new GZIPOutputStream(baos);
-                     final Writer w = new OutputStreamWriter(gos, StandardCharsets.UTF_8)) {
+                     final CountingOutputStream cos = new CountingOutputStream(gos);
+                     final Writer w = new OutputStreamWriter(cos, StandardCharsets.UTF_8)) {
                     serializer.serialize(document, w);
                     w.flush();
+                    props.put(EXIST_MESSAGE_RAWSIZE, cos.getByteCount());
                 }
 
                 payload = baos.toByteArray();
@@ -113,10 +119,12 @@ public class MessageHelper {
             try {
                 final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
-                try (final GZIPOutputStream gos = new GZIPOutputStream(baos)) {
+                try (final GZIPOutputStream gos = new GZIPOutputStream(baos);
+                     final CountingOutputStream cos = new CountingOutputStream(gos)) {
                     // DW: check classtype before using
-                    broker.readBinaryResource(transaction, (BinaryDocument) document, gos);
-                    gos.flush();
+                    broker.readBinaryResource(transaction, (BinaryDocument) document, cos);
+                    cos.flush();
+                    props.put(EXIST_MESSAGE_RAWSIZE, cos.getByteCount());
                 }
 
                 payload = baos.toByteArray();
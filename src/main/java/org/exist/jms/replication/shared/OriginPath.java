@@ -0,0 +1,131 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.shared;
+
+import org.apache.commons.lang3.StringUtils;
+import org.exist.jms.shared.Constants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The instance ids a replicated change passed through, the origin first, and the number of
+ * times the change may still be relayed. A change is never applied twice by an instance in
+ * its path, so cycles in multi-master and multi-hop topologies are cut.
+ *
+ * @author Dannes Wessels
+ */
+public class OriginPath {
+
+    public static final int DEFAULT_HOP_LIMIT = 8;
+
+    private static final char SEPARATOR = ',';
+
+    private final List<String> instances;
+    private final int hopLimit;
+
+    public OriginPath(final List<String> instances, final int hopLimit) {
+        this.instances = Collections.unmodifiableList(instances);
+        this.hopLimit = hopLimit;
+    }
+
+    /**
+     * Path of a change made on this instance.
+     *
+     * @param instance Instance ID of this instance
+     * @param hopLimit Number of times the change may be relayed
+     * @return The path
+     */
+    public static OriginPath local(final String instance, final int hopLimit) {
+        return new OriginPath(Collections.singletonList(instance), hopLimit);
+    }
+
+    /**
+     * Read path from the properties of a message. Messages of versions without path
+     * tracking have the sender as path, and are not relayed.
+     *
+     * @param props The message properties
+     * @return The path, NULL when the sender is not known
+     */
+    public static OriginPath fromProperties(final Map<String, Object> props) {
+        final Object path = props.get(Constants.EXIST_ORIGIN_PATH);
+        if (path != null && StringUtils.isNotBlank(path.toString())) {
+            final Object hopLimit = props.get(Constants.EXIST_HOP_LIMIT);
+            return new OriginPath(Arrays.asList(StringUtils.split(path.toString(), SEPARATOR)),
+                    hopLimit == null ? 0 : Integer.parseInt(hopLimit.toString()));
+        }
+
+        final Object sender = props.get(Constants.EXIST_INSTANCE_ID);
+        return sender == null ? null : local(sender.toString(), 0);
+    }
+
+    /**
+     * @param instance Instance ID of the relaying instance
+     * @return Path of the change when relayed by an instance, with one hop less
+     */
+    public OriginPath relay(final String instance) {
+        final List<String> relayed = new ArrayList<>(instances);
+        relayed.add(instance);
+        return new OriginPath(relayed, hopLimit - 1);
+    }
+
+    /**
+     * Add path to the properties of a message.
+     *
+     * @param props The message properties
+     */
+    public void toProperties(final Map<String, Object> props) {
+        props.put(Constants.EXIST_ORIGIN_PATH, StringUtils.join(instances, SEPARATOR));
+        props.put(Constants.EXIST_HOP_LIMIT, hopLimit);
+    }
+
+    /**
+     * @param instance Instance ID
+     * @return TRUE when the change passed through the instance
+     */
+    public boolean contains(final String instance) {
+        return instances.contains(instance);
+    }
+
+    /**
+     * @return Instance ID of the instance where the change was made
+     */
+    public String getOrigin() {
+        return instances.get(0);
+    }
+
+    public List<String> getInstances() {
+        return instances;
+    }
+
+    public int getHopLimit() {
+        return hopLimit;
+    }
+
+    @Override
+    public String toString() {
+        return StringUtils.join(instances, SEPARATOR) + " (hop limit " + hopLimit + ")";
+    }
+}
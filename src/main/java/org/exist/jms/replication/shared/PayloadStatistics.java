@@ -0,0 +1,166 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.shared;
+
+import org.exist.jms.shared.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sizes and compression of replicated documents, per top-level collection and per MIME type.
+ * Memory usage is fixed: at most {@link #MAX_KEYS} keys are tracked per dimension, further
+ * keys are counted as {@link #OTHER}.
+ *
+ * @author Dannes Wessels
+ */
+public class PayloadStatistics {
+
+    public static final int MAX_KEYS = 64;
+    public static final String OTHER = "other";
+
+    private static final PayloadStatistics PUBLISHED = new PayloadStatistics();
+
+    private final Map<String, Entry> collections = new ConcurrentHashMap<>();
+    private final Map<String, Entry> mimeTypes = new ConcurrentHashMap<>();
+
+    /**
+     * @return Statistics of the documents published by this instance.
+     */
+    public static PayloadStatistics getPublished() {
+        return PUBLISHED;
+    }
+
+    /**
+     * Record the payload of a message.
+     *
+     * @param path        Path of the document
+     * @param mimeType    MIME type of the document
+     * @param rawSize     Uncompressed size, negative when unknown
+     * @param encodedSize Compressed size
+     * @param codecNanos  Time spent on compression (publisher) or decompression (subscriber)
+     */
+    public void record(final String path, final String mimeType, final long rawSize, final long encodedSize, final long codecNanos) {
+        getEntry(collections, getTopLevelCollection(path)).record(rawSize, encodedSize, codecNanos);
+        getEntry(mimeTypes, mimeType == null ? OTHER : mimeType).record(rawSize, encodedSize, codecNanos);
+    }
+
+    private static Entry getEntry(final Map<String, Entry> entries, final String key) {
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        return entries.computeIfAbsent(entries.size() < MAX_KEYS ? key : OTHER, k -> new Entry());
+    }
+
+    /**
+     * Get top-level collection of document, e.g. '/db/apps' for '/db/apps/demo/data.xml'.
+     *
+     * @param path Path of document
+     * @return The top-level collection
+     */
+    static String getTopLevelCollection(final String path) {
+        if (path == null) {
+            return OTHER;
+        }
+
+        final String[] segments = path.split("/");
+        // e.g. ["", "db", "apps", "demo", "data.xml"]
+        if (segments.length > 3) {
+            return "/" + segments[1] + "/" + segments[2];
+        }
+        return segments.length > 1 ? "/" + segments[1] : OTHER;
+    }
+
+    /**
+     * @return Statistics per top-level collection
+     */
+    public Map<String, Entry> getCollections() {
+        return Collections.unmodifiableMap(new TreeMap<>(collections));
+    }
+
+    /**
+     * @return Statistics per MIME type
+     */
+    public Map<String, Entry> getMimeTypes() {
+        return Collections.unmodifiableMap(new TreeMap<>(mimeTypes));
+    }
+
+    public void clear() {
+        collections.clear();
+        mimeTypes.clear();
+    }
+
+    /**
+     * Aggregated sizes of messages.
+     */
+    public static class Entry {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder rawBytes = new LongAdder();
+        private final LongAdder encodedBytes = new LongAdder();
+        private final LongAdder codecNanos = new LongAdder();
+        private final LatencyHistogram encodedSizes = new LatencyHistogram();
+
+        void record(final long rawSize, final long encodedSize, final long nanos) {
+            count.increment();
+            if (rawSize >= 0) {
+                rawBytes.add(rawSize);
+            }
+            encodedBytes.add(encodedSize);
+            codecNanos.add(nanos);
+            encodedSizes.record(encodedSize);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getRawBytes() {
+            return rawBytes.sum();
+        }
+
+        public long getEncodedBytes() {
+            return encodedBytes.sum();
+        }
+
+        public long getCodecNanos() {
+            return codecNanos.sum();
+        }
+
+        /**
+         * @return Distribution of the compressed sizes
+         */
+        public LatencyHistogram getEncodedSizes() {
+            return encodedSizes;
+        }
+
+        /**
+         * @return Uncompressed size divided by compressed size, 0 when nothing was recorded
+         */
+        public double getCompressionRatio() {
+            final long encoded = getEncodedBytes();
+            return encoded == 0 ? 0 : getRawBytes() / (double) encoded;
+        }
+    }
+}
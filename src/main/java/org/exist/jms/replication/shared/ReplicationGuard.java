@@ -21,18 +21,19 @@ package org.exist.jms.replication.shared;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.exist.jms.shared.JmxSupport;
 
 /**
  * Helper class to detect if a resource should be replicated or not.
  */
-public class ReplicationGuard {
+public class ReplicationGuard implements ReplicationGuardMXBean {
 
     private final static Logger LOGGER = LogManager.getLogger(ReplicationGuard.class);
     private static volatile ReplicationGuard instance = null;
-    boolean replicationEnabled = true;
+    volatile boolean replicationEnabled = true;
 
     private ReplicationGuard() {
-        // Empty
+        JmxSupport.register("type=ReplicationGuard", this);
     }
 
     public static ReplicationGuard getInstance() {
@@ -50,10 +51,12 @@ public class ReplicationGuard {
 
     }
 
+    @Override
     public boolean isReplicationEnabled() {
         return this.replicationEnabled;
     }
 
+    @Override
     public void setReplicationEnabled(final boolean newStatus) {
 
         LOGGER.info("Replication is switched {}", newStatus ? "ON" : "OFF");
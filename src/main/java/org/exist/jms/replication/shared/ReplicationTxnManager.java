@@ -5,13 +5,16 @@ import org.apache.logging.log4j.Logger;
 import org.exist.storage.txn.Txn;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ReplicationTxnManager {
 
     private final static Logger LOG = LogManager.getLogger();
 
     private static final Set<Long> txnIDs = new HashSet<>();
+    private static final Map<Long, OriginPath> originPaths = new ConcurrentHashMap<>();
 
     public static void addReplicationTransaction(final Txn txn){
 
@@ -26,16 +29,38 @@ public class ReplicationTxnManager {
         }
     }
 
+    /**
+     * Register transaction that applies a replicated change, with the path of the change.
+     *
+     * @param txn        The transaction
+     * @param originPath Instances the change passed through, NULL when not known
+     */
+    public static void addReplicationTransaction(final Txn txn, final OriginPath originPath){
+        if (originPath != null) {
+            originPaths.put(txn.getId(), originPath);
+        }
+        addReplicationTransaction(txn);
+    }
+
     public static boolean isReplicationTransaction(final Txn txn){
         return txnIDs.contains(txn.getId());
     }
 
+    /**
+     * @param txn The transaction
+     * @return Path of the replicated change applied by the transaction, NULL when not known
+     */
+    public static OriginPath getOriginPath(final Txn txn){
+        return originPaths.get(txn.getId());
+    }
+
 
     public static void removeReplicationTransaction(final long txnId){
         LOG.debug("Remove transaction id {}", txnId);
         synchronized (txnIDs) {
             txnIDs.remove(txnId);
         }
+        originPaths.remove(txnId);
     }
 
 }
@@ -0,0 +1,80 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.shared;
+
+import org.apache.commons.lang3.StringUtils;
+import org.exist.jms.shared.eXistMessage;
+
+/**
+ * Partitioning of replicated changes over several destinations. A change is assigned to a shard
+ * by the hash of the first segments of its collection path, so all changes of a collection tree
+ * are sent to the same destination, in order. Shard <i>n</i> of destination <i>d</i> is <i>d.n</i>.
+ * <p>
+ * Order between shards is not kept. A collection above the depth, e.g. '/db/a' for depth 2, has a
+ * shorter prefix than the documents below it and is therefore generally on another shard: removing
+ * it can be applied before or after changes of its documents.
+ *
+ * @author Dannes Wessels
+ */
+public class Sharding {
+
+    public static final int MAX_SHARDS = 64;
+    public static final int DEFAULT_DEPTH = 2;
+
+    private Sharding() {
+        // Utility class
+    }
+
+    /**
+     * Get the collection path prefix that determines the shard, e.g. '/db/apps' for the
+     * document '/db/apps/foo/bar.xml' and depth 2.
+     *
+     * @param resourceType Type of the changed resource
+     * @param path         Path of the changed resource
+     * @param depth        Number of segments of the collection path
+     * @return The prefix
+     */
+    public static String getPrefix(final eXistMessage.ResourceType resourceType, final String path, final int depth) {
+        final String[] segments = StringUtils.split(path, '/');
+        final int collectionSegments = resourceType == eXistMessage.ResourceType.DOCUMENT
+                ? segments.length - 1 : segments.length;
+        return "/" + StringUtils.join(segments, '/', 0, Math.max(0, Math.min(depth, collectionSegments)));
+    }
+
+    /**
+     * @param prefix Collection path prefix, see {@link #getPrefix(eXistMessage.ResourceType, String, int)}
+     * @param shards Number of shards
+     * @return Shard of the prefix, from 0 to shards-1, the same on each instance
+     */
+    public static int getShard(final String prefix, final int shards) {
+        return shards <= 1 ? 0 : Math.floorMod(prefix.hashCode(), shards);
+    }
+
+    /**
+     * @param destination Name of the (unsharded) destination
+     * @param shard       The shard
+     * @return Name of the destination of the shard
+     */
+    public static String getDestination(final String destination, final int shard) {
+        return destination + "." + shard;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.jms.replication.shared.ContentHashes;
+import org.exist.jms.shared.Report;
+import org.exist.jms.shared.eXistMessagingListener;
+import org.exist.jms.shared.receive.ReplySessionPool;
+import org.exist.jms.shared.send.Sender;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Txn;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.StringValue;
+
+import javax.jms.Destination;
+import javax.jms.Message;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.util.Optional;
+
+/**
+ * Answers anti-entropy requests: the text of a request is the path of a collection, the reply
+ * contains the hashes of the collection and its children, see {@link ContentHashes.Node}.
+ *
+ * @author Dannes Wessels
+ */
+public class AntiEntropyJmsListener extends eXistMessagingListener {
+
+    private final static Logger LOG = LogManager.getLogger(AntiEntropyJmsListener.class);
+
+    private final BrokerPool brokerPool;
+    private final ContentHashes contentHashes;
+
+    /**
+     * Constructor
+     *
+     * @param brokerPool Reference to database broker pool
+     */
+    public AntiEntropyJmsListener(final BrokerPool brokerPool) {
+        this.brokerPool = brokerPool;
+        this.contentHashes = ContentHashes.getInstance(brokerPool);
+    }
+
+    @Override
+    public void onMessage(final Message msg) {
+
+        final Report report = getReport();
+        final long startTime = report.start();
+
+        try {
+            final Destination replyTo = msg.getJMSReplyTo();
+            if (!(msg instanceof TextMessage) || replyTo == null) {
+                msg.acknowledge();
+                throw new MessageReceiveException("Anti-entropy request must be a text message with a JMSReplyTo destination");
+            }
+
+            final String path = ((TextMessage) msg).getText();
+            LOG.debug("Anti-entropy request for '{}'", path);
+
+            // Compute hashes
+            final String reply;
+            try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()));
+                 final Txn txn = brokerPool.getTransactionManager().beginTransaction()) {
+                final ContentHashes.Node node = contentHashes.getNode(broker, txn, XmldbURI.create(path));
+                reply = node == null ? "" : node.toText();
+                txn.commit();
+            }
+
+            // Send hashes back to requester
+            final String correlationId = StringUtils.isBlank(msg.getJMSCorrelationID())
+                    ? msg.getJMSMessageID()
+                    : msg.getJMSCorrelationID();
+
+            final ReplySessionPool replySessions = getReplySessions();
+            final Session session = replySessions.borrow();
+            try {
+                new Sender().sendReply(session, replyTo, correlationId, new StringValue(reply));
+            } finally {
+                replySessions.release(session);
+            }
+
+            msg.acknowledge();
+            report.incMessageCounterOK();
+
+        } catch (final MessageReceiveException ex) {
+            report.addListenerError(ex);
+            LOG.error(ex.getMessage());
+
+        } catch (final Throwable t) {
+            report.addListenerError(t);
+            LOG.error(t.getMessage(), t);
+
+        } finally {
+            report.stop(startTime);
+            report.incMessageCounterTotal();
+            report.addBytes(getBodySize(msg));
+        }
+    }
+
+    @Override
+    public String getUsageType() {
+        return "anti-entropy";
+    }
+}
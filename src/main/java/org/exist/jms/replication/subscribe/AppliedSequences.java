@@ -0,0 +1,167 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.jms.shared.Identity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Highest contiguous sequence number applied per publisher stream, kept in the file
+ * 'jms.applied' next to the identity file. After a restart of the subscriber the tracking
+ * continues where it stopped, so messages published while the subscriber was down are
+ * detected as gap.
+ * <p>
+ * Changes are written once per second and at shutdown, not for every applied message. The file
+ * is replaced atomically and not forced to disk. A crash can lose the updates of the last second,
+ * the messages are then replayed and detected as applied before.
+ *
+ * @author Dannes Wessels
+ */
+public class AppliedSequences {
+
+    private final static Logger LOG = LogManager.getLogger(AppliedSequences.class);
+
+    private static final String SEQUENCE_FILE = "jms.applied";
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "jms-applied-sequences");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static AppliedSequences instance = null;
+
+    private final Map<String, Long> sequences = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final Path file;
+    private final ScheduledFuture<?> flushTask;
+
+    /**
+     * @param file File with the sequence numbers, NULL when not persisted
+     */
+    AppliedSequences(final Path file) {
+        this.file = file;
+        this.flushTask = (file == null) ? null
+                : FLUSHER.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (file == null || Files.notExists(file)) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        try (final InputStream is = Files.newInputStream(file)) {
+            properties.load(is);
+            for (final String stream : properties.stringPropertyNames()) {
+                sequences.put(stream, Long.parseLong(properties.getProperty(stream)));
+            }
+            LOG.info("Read applied jms sequences of {} publishers from {}", sequences.size(), file);
+
+        } catch (final IOException | NumberFormatException ex) {
+            LOG.error("Unable to read {}, applied sequences are not known: {}", file, ex.getMessage());
+            sequences.clear();
+        }
+    }
+
+    public static synchronized AppliedSequences getInstance() {
+        if (instance == null) {
+            final Path identityFile = Identity.getInstance().getIdentityFile();
+            if (identityFile == null) {
+                LOG.error("No location for {}, applied sequences are not persisted", SEQUENCE_FILE);
+            }
+            instance = new AppliedSequences(identityFile == null ? null : identityFile.resolveSibling(SEQUENCE_FILE));
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::close, "jms-applied-sequences-shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * @param stream Instance ID of the publisher, with the shard
+     * @return The highest contiguous applied sequence number, NULL when unknown
+     */
+    public Long get(final String stream) {
+        return sequences.get(stream);
+    }
+
+    /**
+     * @param stream   Instance ID of the publisher, with the shard
+     * @param sequence The highest contiguous applied sequence number
+     */
+    public void put(final String stream, final long sequence) {
+        final Long previous = sequences.put(stream, sequence);
+        if (previous == null || previous != sequence) {
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Write the sequence numbers when changed since the last write.
+     */
+    void flush() {
+        if (file == null || !dirty.getAndSet(false)) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        sequences.forEach((stream, sequence) -> properties.setProperty(stream, Long.toString(sequence)));
+
+        synchronized (this) {
+            final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                try (final OutputStream os = Files.newOutputStream(tmp)) {
+                    properties.store(os, "Applied replication sequence per publisher");
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            } catch (final IOException ex) {
+                LOG.error("Unable to write {}: {}", file, ex.getMessage());
+                dirty.set(true);
+            }
+        }
+    }
+
+    /**
+     * Stop the periodic writes and write the last changes.
+     */
+    void close() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        flush();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.subscribe;
+
+/**
+ * Decides which version of a document is kept when a replicated change meets a local version
+ * that was written by another instance. Implementations must be deterministic, each replica
+ * decides on its own.
+ * <p>
+ * A custom resolver is configured by its class name, and needs a public no-argument constructor.
+ *
+ * @author Dannes Wessels
+ */
+public interface ConflictResolver {
+
+    /**
+     * @param path     Path of the document
+     * @param local    Version of the document in the database
+     * @param incoming Version of the replicated change
+     * @return TRUE when the replicated change must be applied, FALSE when the local version is kept
+     */
+    boolean acceptIncoming(String path, ResourceVersion local, ResourceVersion incoming);
+}
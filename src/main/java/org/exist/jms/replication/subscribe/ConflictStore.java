@@ -0,0 +1,147 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Fixed capacity storage for detected conflicts; when full the oldest conflict is dropped.
+ *
+ * @author Dannes Wessels
+ */
+public class ConflictStore {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final Deque<Conflict> conflicts = new ArrayDeque<>();
+    private int capacity = DEFAULT_CAPACITY;
+    private long total = 0;
+
+    /**
+     * @param capacity Maximum number of conflicts to keep, minimum 1
+     */
+    public synchronized void setCapacity(final int capacity) {
+        this.capacity = Math.max(1, capacity);
+        while (conflicts.size() > this.capacity) {
+            conflicts.removeFirst();
+        }
+    }
+
+    /**
+     * Add conflict.
+     *
+     * @param conflict The conflict
+     */
+    public synchronized void add(final Conflict conflict) {
+        total++;
+        if (conflicts.size() == capacity) {
+            conflicts.removeFirst();
+        }
+        conflicts.addLast(conflict);
+    }
+
+    /**
+     * @return Kept conflicts, oldest first
+     */
+    public synchronized List<Conflict> getConflicts() {
+        return new ArrayList<>(conflicts);
+    }
+
+    /**
+     * @return Total number of detected conflicts
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public synchronized void clear() {
+        conflicts.clear();
+        total = 0;
+    }
+
+    /**
+     * Write conflicts to XML report.
+     *
+     * @param builder The builder to create the XML report.
+     */
+    public void write(final MemTreeBuilder builder) {
+        builder.startElement("", "conflicts", "conflicts", null);
+        builder.addAttribute(new QName("total", null, null), "" + getTotal());
+
+        for (final Conflict conflict : getConflicts()) {
+            builder.startElement("", "conflict", "conflict", null);
+            builder.addAttribute(new QName("path", null, null), conflict.getPath());
+            builder.addAttribute(new QName("operation", null, null), conflict.getOperation());
+            builder.addAttribute(new QName("local", null, null), conflict.getLocal().toString());
+            builder.addAttribute(new QName("incoming", null, null), conflict.getIncoming().toString());
+            builder.addAttribute(new QName("detected", null, null), "" + conflict.getDetected());
+            builder.endElement();
+        }
+
+        builder.endElement();
+    }
+
+    /**
+     * Replicated change that was not applied because the local version was kept.
+     */
+    public static class Conflict {
+
+        private final String path;
+        private final String operation;
+        private final ResourceVersion local;
+        private final ResourceVersion incoming;
+        private final long detected = System.currentTimeMillis();
+
+        public Conflict(final String path, final String operation, final ResourceVersion local, final ResourceVersion incoming) {
+            this.path = path;
+            this.operation = operation;
+            this.local = local;
+            this.incoming = incoming;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public ResourceVersion getLocal() {
+            return local;
+        }
+
+        public ResourceVersion getIncoming() {
+            return incoming;
+        }
+
+        public long getDetected() {
+            return detected;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.subscribe;
+
+/**
+ * Last writer wins: the version with the latest time is kept, on equal times the version of
+ * the highest instance ID. Relies on synchronized clocks of the replicas.
+ *
+ * @author Dannes Wessels
+ */
+public class LastWriterWins implements ConflictResolver {
+
+    @Override
+    public boolean acceptIncoming(final String path, final ResourceVersion local, final ResourceVersion incoming) {
+        return incoming.compareTo(local) > 0;
+    }
+}
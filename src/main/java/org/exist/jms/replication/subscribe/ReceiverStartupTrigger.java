@@ -62,6 +62,7 @@ public class ReceiverStartupTrigger implements org.exist.storage.StartupTrigger
 
             // Setup listeners
             final ReplicationJmsListener jmsListener = new ReplicationJmsListener(broker.getBrokerPool());
+            jmsListener.setConfiguration(jmsConfig);
 
             final Receiver receiver = new Receiver(jmsConfig, jmsListener);
             manager.register(receiver);
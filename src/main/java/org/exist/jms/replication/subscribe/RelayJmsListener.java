@@ -0,0 +1,322 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.jms.replication.shared.OriginPath;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.Identity;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.Report;
+import org.exist.storage.BrokerPool;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replication receiver that forwards each received message to a downstream destination, with
+ * the encoded body, the properties, delivery mode, priority and remaining time to live unchanged:
+ * the document is not decompressed or serialized again. This instance is added to the origin path
+ * and the hop limit is decreased. A change is forwarded after it is applied locally; optionally
+ * the change is not applied locally.
+ *
+ * @author Dannes Wessels
+ */
+public class RelayJmsListener extends ReplicationJmsListener {
+
+    private final static Logger LOG = LogManager.getLogger(RelayJmsListener.class);
+
+    private static final int FORWARD_ATTEMPTS = 3;
+    private static final long FORWARD_RETRY_DELAY = 100;
+    private static final long FORWARD_RETRY_MAX_DELAY = 5_000;
+
+    private final JmsConfiguration jmsConfig;
+    private final String localID;
+    private final boolean apply;
+    private final LongAdder forwarded = new LongAdder();
+
+    private Session forwardSession;
+    private MessageProducer producer;
+
+    /**
+     * Constructor
+     *
+     * @param brokerpool Reference to database broker pool
+     * @param jmsConfig  Configuration of the receiver, with the downstream destination
+     */
+    public RelayJmsListener(final BrokerPool brokerpool, final JmsConfiguration jmsConfig) {
+        super(brokerpool);
+        this.jmsConfig = jmsConfig;
+        this.localID = Identity.getInstance().getIdentity();
+        this.apply = jmsConfig.isRelayApply();
+    }
+
+    @Override
+    public void onMessage(final Message msg) {
+
+        try {
+            // Passed through this instance before
+            final String originPath = msg.getStringProperty(Constants.EXIST_ORIGIN_PATH);
+            if (ArrayUtils.contains(getInstances(msg), localID)) {
+                LOG.debug("Incoming JMS messsage passed through this instance before (path={}). Stopped processing.", originPath);
+                msg.acknowledge();
+                return;
+            }
+
+        } catch (final JMSException ex) {
+            final Report report = getReport();
+            report.incMessageCounterTotal();
+            report.addListenerError(ex);
+            LOG.error("Unable to relay message: {}", ex.getMessage(), ex);
+            return;
+        }
+
+        // Forwarded after the change is applied, see afterApply()
+        if (apply) {
+            super.onMessage(msg);
+            return;
+        }
+
+        final Report report = getReport();
+        report.incMessageCounterTotal();
+        report.addBytes(getBodySize(msg));
+        try {
+            if (msg instanceof BytesMessage) {
+                relay((BytesMessage) msg);
+            }
+            msg.acknowledge();
+            report.incMessageCounterOK();
+
+        } catch (final MessageReceiveException ex) {
+            report.addListenerError(ex);
+            LOG.error(ex.getMessage(), ex);
+
+        } catch (final JMSException ex) {
+            report.addListenerError(ex);
+            throw new MessageReceiveException(String.format("Unable to acknowledge message: %s", ex.getMessage()), ex);
+        }
+    }
+
+    /**
+     * Forward the applied change; the message is not acknowledged when forwarding fails.
+     */
+    @Override
+    protected void afterApply(final BytesMessage msg) {
+        relay(msg);
+    }
+
+    /**
+     * Forward the message when the hop limit allows it. Messages of publishers without hop limit
+     * get the default limit. A failed forward is retried a few times, after which the message is
+     * not acknowledged and is redelivered.
+     *
+     * @throws MessageReceiveException The message could not be forwarded.
+     */
+    private void relay(final BytesMessage msg) {
+
+        final String originPath;
+        final int hopLimit;
+        try {
+            originPath = StringUtils.join(ArrayUtils.add(getInstances(msg), localID), ',');
+            hopLimit = msg.propertyExists(Constants.EXIST_HOP_LIMIT)
+                    ? msg.getIntProperty(Constants.EXIST_HOP_LIMIT) : OriginPath.DEFAULT_HOP_LIMIT;
+        } catch (final JMSException ex) {
+            throw new MessageReceiveException(String.format("Unable to relay message: %s", ex.getMessage()), ex);
+        }
+
+        if (hopLimit <= 0) {
+            return;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                forward(msg, originPath, hopLimit - 1);
+                return;
+
+            } catch (final JMSException | NamingException ex) {
+                closeForwardSession();
+
+                if (attempt >= FORWARD_ATTEMPTS) {
+                    recover();
+                    throw new MessageReceiveException(String.format("Unable to relay message: %s", ex.getMessage()), ex);
+                }
+
+                LOG.warn("Unable to relay message, attempt {}: {}", attempt, ex.getMessage());
+                try {
+                    Thread.sleep(Math.min(FORWARD_RETRY_DELAY << Math.min(attempt - 1, 10), FORWARD_RETRY_MAX_DELAY));
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new MessageReceiveException(String.format("Interrupted while relaying message: %s", ex.getMessage()), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Instances the message passed through, the sender for messages without origin path
+     */
+    private static String[] getInstances(final Message msg) throws JMSException {
+        final String originPath = msg.getStringProperty(Constants.EXIST_ORIGIN_PATH);
+        return originPath == null
+                ? new String[]{msg.getStringProperty(Constants.EXIST_INSTANCE_ID)}
+                : StringUtils.split(originPath, ',');
+    }
+
+    /**
+     * Send a copy of the message, with the original body, properties, delivery mode, priority and
+     * remaining time to live, to the downstream destination. An expired message is not forwarded.
+     */
+    private void forward(final BytesMessage msg, final String originPath, final int hopLimit) throws JMSException, NamingException {
+
+        final long expiration = msg.getJMSExpiration();
+        final long timeToLive = (expiration == 0) ? Message.DEFAULT_TIME_TO_LIVE : expiration - System.currentTimeMillis();
+        if (expiration != 0 && timeToLive <= 0) {
+            LOG.debug("Message {} expired, not relayed.", msg.getJMSMessageID());
+            return;
+        }
+
+        // The body was read when the change was applied
+        msg.reset();
+        final byte[] body = new byte[(int) msg.getBodyLength()];
+        msg.readBytes(body);
+        msg.reset();
+
+        synchronized (this) {
+            final Session session = getForwardSession();
+            final BytesMessage copy = session.createBytesMessage();
+
+            final Enumeration<?> names = msg.getPropertyNames();
+            while (names.hasMoreElements()) {
+                final String name = (String) names.nextElement();
+                // Properties set by the JMS provider cannot be copied
+                if (!name.startsWith("JMSX") || Constants.JMSX_GROUP_ID.equals(name)) {
+                    copy.setObjectProperty(name, msg.getObjectProperty(name));
+                }
+            }
+
+            copy.setStringProperty(Constants.EXIST_ORIGIN_PATH, originPath);
+            copy.setIntProperty(Constants.EXIST_HOP_LIMIT, hopLimit);
+            copy.setJMSCorrelationID(msg.getJMSCorrelationID());
+            copy.setJMSType(msg.getJMSType());
+            copy.writeBytes(body);
+
+            producer.send(copy, msg.getJMSDeliveryMode(), msg.getJMSPriority(), timeToLive);
+        }
+
+        forwarded.increment();
+    }
+
+    /**
+     * Get the session for forwarding, borrowed once from the reply sessions of the receiver and
+     * kept with its producer. Must be called while holding the lock of this listener.
+     */
+    private Session getForwardSession() throws JMSException, NamingException {
+        if (forwardSession == null) {
+            final Context context = SnapshotLoader.createContext(jmsConfig);
+            final Destination destination;
+            try {
+                destination = (Destination) context.lookup(jmsConfig.getRelayDestination());
+            } finally {
+                context.close();
+            }
+            final Session session = getReplySessions().borrow();
+            producer = session.createProducer(destination);
+            forwardSession = session;
+        }
+        return forwardSession;
+    }
+
+    /**
+     * Close the session for forwarding, with its producer. After a failure the next attempt
+     * creates a new one.
+     */
+    private synchronized void closeForwardSession() {
+        if (forwardSession == null) {
+            return;
+        }
+
+        try {
+            forwardSession.close();
+        } catch (final JMSException ex) {
+            LOG.debug("Problem closing forward session, ignored. {}", ex.getMessage());
+        }
+        forwardSession = null;
+        producer = null;
+    }
+
+    /**
+     * Request redelivery of the message that could not be forwarded. Only when messages are
+     * applied one by one: with parallel processing a recover would redeliver the messages in flight
+     * as well. Such a message stays unacknowledged and is redelivered when the receiver reconnects.
+     */
+    private void recover() {
+        if (jmsConfig.getListenerConcurrency() > 1) {
+            return;
+        }
+        try {
+            getSession().recover();
+        } catch (final JMSException ex) {
+            getReport().addListenerError(ex);
+            LOG.error("Unable to recover session: {}", ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return Number of forwarded messages
+     */
+    public long getForwardedCount() {
+        return forwarded.sum();
+    }
+
+    @Override
+    public void writeReport(final MemTreeBuilder builder) {
+        super.writeReport(builder);
+
+        builder.startElement("", "relay", "relay", null);
+        builder.addAttribute(new QName("destination", null, null), jmsConfig.getRelayDestination());
+        builder.addAttribute(new QName("apply", null, null), "" + apply);
+        builder.addAttribute(new QName("forwarded", null, null), "" + forwarded.sum());
+        builder.endElement();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        closeForwardSession();
+    }
+
+    @Override
+    public String getUsageType() {
+        return "relay";
+    }
+}
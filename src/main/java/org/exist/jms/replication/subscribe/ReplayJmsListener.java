@@ -0,0 +1,142 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.jms.replication.publish.ReplicationLog;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.Identity;
+import org.exist.jms.shared.Report;
+import org.exist.jms.shared.eXistMessage;
+import org.exist.jms.shared.eXistMessagingListener;
+import org.exist.jms.shared.receive.ReplySessionPool;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers replay requests of subscribers that missed replication messages of this instance. The
+ * requested range is set in the properties {@link #EXIST_REPLAY_FROM} and {@link #EXIST_REPLAY_TO};
+ * the messages still available in the {@link ReplicationLog} are sent to the JMSReplyTo destination
+ * as they were published, followed by a message marked with {@link #EXIST_REPLAY_LAST}. With sharded
+ * replication the range is of the sequence of shard {@link #EXIST_REPLAY_SHARD}. Requests
+ * for the messages of another publisher ({@link #EXIST_REPLAY_ORIGIN}) are answered without messages.
+ *
+ * @author Dannes Wessels
+ */
+public class ReplayJmsListener extends eXistMessagingListener {
+
+    public static final String EXIST_REPLAY_ORIGIN = "exist.replay.origin";
+    public static final String EXIST_REPLAY_SHARD = "exist.replay.shard";
+    public static final String EXIST_REPLAY_FROM = "exist.replay.from";
+    public static final String EXIST_REPLAY_TO = "exist.replay.to";
+    public static final String EXIST_REPLAY_LAST = "exist.replay.last";
+    public static final String EXIST_REPLAY_COUNT = "exist.replay.count";
+
+    private final static Logger LOG = LogManager.getLogger(ReplayJmsListener.class);
+
+    @Override
+    public void onMessage(final Message msg) {
+
+        final Report report = getReport();
+        final long startTime = report.start();
+
+        try {
+            final Destination replyTo = msg.getJMSReplyTo();
+            if (replyTo == null || !msg.propertyExists(EXIST_REPLAY_FROM) || !msg.propertyExists(EXIST_REPLAY_TO)) {
+                msg.acknowledge();
+                throw new MessageReceiveException("Replay request must contain a range and a JMSReplyTo destination");
+            }
+
+            final long from = msg.getLongProperty(EXIST_REPLAY_FROM);
+            final long to = msg.getLongProperty(EXIST_REPLAY_TO);
+            final int shard = msg.propertyExists(EXIST_REPLAY_SHARD) ? msg.getIntProperty(EXIST_REPLAY_SHARD) : 0;
+            final String correlationId = StringUtils.isBlank(msg.getJMSCorrelationID())
+                    ? msg.getJMSMessageID()
+                    : msg.getJMSCorrelationID();
+
+            final String identity = Identity.getInstance().getIdentity();
+            final String origin = msg.getStringProperty(EXIST_REPLAY_ORIGIN);
+
+            final List<eXistMessage> messages = (origin == null || origin.equals(identity))
+                    ? ReplicationLog.getInstance().get(shard, from, to)
+                    : Collections.emptyList();
+            LOG.info("Replay request for {}-{} of {} shard {}, {} messages available", from, to, origin, shard, messages.size());
+
+            final ReplySessionPool replySessions = getReplySessions();
+            final Session session = replySessions.borrow();
+            try {
+                final MessageProducer producer = session.createProducer(replyTo);
+                try {
+                    for (final eXistMessage em : messages) {
+                        final BytesMessage message = session.createBytesMessage();
+                        if (em.getPayload() != null) {
+                            message.writeBytes(em.getPayload());
+                        }
+                        em.updateMessageProperties(message);
+                        message.setStringProperty(Constants.EXIST_INSTANCE_ID, identity);
+                        message.setJMSCorrelationID(correlationId);
+                        producer.send(message);
+                    }
+
+                    final Message last = session.createMessage();
+                    last.setStringProperty(Constants.EXIST_INSTANCE_ID, identity);
+                    last.setJMSCorrelationID(correlationId);
+                    last.setBooleanProperty(EXIST_REPLAY_LAST, true);
+                    last.setIntProperty(EXIST_REPLAY_COUNT, messages.size());
+                    producer.send(last);
+
+                } finally {
+                    producer.close();
+                }
+            } finally {
+                replySessions.release(session);
+            }
+
+            msg.acknowledge();
+            report.incMessageCounterOK();
+
+        } catch (final MessageReceiveException ex) {
+            report.addListenerError(ex);
+            LOG.error(ex.getMessage());
+
+        } catch (final Throwable t) {
+            report.addListenerError(t);
+            LOG.error(t.getMessage(), t);
+
+        } finally {
+            report.stop(startTime);
+            report.incMessageCounterTotal();
+            report.addBytes(getBodySize(msg));
+        }
+    }
+
+    @Override
+    public String getUsageType() {
+        return "replay";
+    }
+}
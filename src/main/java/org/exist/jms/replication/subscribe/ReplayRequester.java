@@ -0,0 +1,162 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.Identity;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.receive.ReplySessionPool;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Requests missed replication messages from the replay service of a publisher, see
+ * {@link ReplayJmsListener}. The request and the replies use a session on the connection of the
+ * receiver; the replay destination is looked up once.
+ *
+ * @author Dannes Wessels
+ */
+class ReplayRequester {
+
+    private final static Logger LOG = LogManager.getLogger(ReplayRequester.class);
+
+    /**
+     * Maximum time to wait for each replayed message, in milliseconds
+     */
+    private static final long TIMEOUT = 30_000;
+
+    private final JmsConfiguration jmsConfig;
+    private Destination destination;
+
+    /**
+     * @param jmsConfig JMS configuration of the replication receiver, with the replay destination
+     */
+    ReplayRequester(final JmsConfiguration jmsConfig) {
+        this.jmsConfig = new JmsConfiguration();
+        this.jmsConfig.putAll(jmsConfig);
+        this.jmsConfig.setProperty(Constants.DESTINATION, jmsConfig.getReplayDestination());
+    }
+
+    /**
+     * Request a range of messages of a publisher.
+     *
+     * @param replySessions Sessions on the connection of the receiver
+     * @param origin        Instance ID of the publisher
+     * @param shard         Shard of the messages, 0 when not sharded
+     * @param from          First sequence number
+     * @param to            Last sequence number
+     * @param handler       Processes each replayed message, in order of sequence number
+     * @return Number of replayed messages
+     * @throws JMSException    When the request failed or timed out
+     * @throws NamingException When the destination could not be found
+     */
+    int replay(final ReplySessionPool replySessions, final String origin, final int shard, final long from, final long to,
+               final Consumer<BytesMessage> handler) throws JMSException, NamingException {
+
+        if (replySessions == null) {
+            throw new JMSException("Receiver is not initialized, replay cannot be requested");
+        }
+
+        final String correlationId = UUID.randomUUID().toString();
+        final Session session = replySessions.borrow();
+        try {
+            final TemporaryQueue replyQueue = session.createTemporaryQueue();
+            final MessageConsumer consumer = session.createConsumer(replyQueue);
+            try {
+                // Send request
+                final Message request = session.createMessage();
+                request.setJMSReplyTo(replyQueue);
+                request.setJMSCorrelationID(correlationId);
+                request.setStringProperty(Constants.EXIST_INSTANCE_ID, Identity.getInstance().getIdentity());
+                request.setStringProperty(ReplayJmsListener.EXIST_REPLAY_ORIGIN, origin);
+                request.setIntProperty(ReplayJmsListener.EXIST_REPLAY_SHARD, shard);
+                request.setLongProperty(ReplayJmsListener.EXIST_REPLAY_FROM, from);
+                request.setLongProperty(ReplayJmsListener.EXIST_REPLAY_TO, to);
+
+                final MessageProducer producer = session.createProducer(getDestination());
+                try {
+                    producer.send(request);
+                } finally {
+                    producer.close();
+                }
+
+                LOG.info("Requested replay of {}-{} of {}", from, to, origin);
+
+                // Receive messages until the last one
+                int count = 0;
+                while (true) {
+                    final Message message = consumer.receive(TIMEOUT);
+                    if (message == null) {
+                        throw new JMSException(String.format("No replay received within %s ms, correlationId=%s", TIMEOUT, correlationId));
+                    }
+
+                    if (!correlationId.equals(message.getJMSCorrelationID())) {
+                        LOG.warn("Unexpected message on reply queue, skipped: {}", message.getJMSMessageID());
+                        continue;
+                    }
+
+                    if (message.propertyExists(ReplayJmsListener.EXIST_REPLAY_LAST)) {
+                        return count;
+                    }
+
+                    if (message instanceof BytesMessage) {
+                        handler.accept((BytesMessage) message);
+                        count++;
+                    }
+                }
+
+            } finally {
+                consumer.close();
+                replyQueue.delete();
+            }
+
+        } finally {
+            replySessions.release(session);
+        }
+    }
+
+    /**
+     * @return The replay destination, looked up on first use
+     */
+    private synchronized Destination getDestination() throws NamingException {
+        if (destination == null) {
+            final Context context = SnapshotLoader.createContext(jmsConfig);
+            try {
+                destination = (Destination) context.lookup(jmsConfig.getDestination());
+            } finally {
+                context.close();
+            }
+        }
+        return destination;
+    }
+}
@@ -21,37 +21,59 @@
  */
 package org.exist.jms.replication.subscribe;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.collections.Collection;
 import org.exist.collections.IndexInfo;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.EXistException;
 import org.exist.dom.persistent.DocumentImpl;
+import org.exist.jms.replication.shared.ContentHashes;
 import org.exist.jms.replication.shared.MessageHelper;
+import org.exist.jms.replication.shared.OriginPath;
+import org.exist.jms.replication.shared.PayloadStatistics;
 import org.exist.jms.replication.shared.ReplicationTxnManager;
 import org.exist.jms.shared.*;
+import org.exist.jms.shared.receive.CallbackDispatcher;
 import org.exist.security.Account;
 import org.exist.security.Group;
 import org.exist.security.Permission;
+import org.exist.security.PermissionDeniedException;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.lock.Lock;
 import org.exist.storage.txn.TransactionManager;
 import org.exist.storage.txn.Txn;
+import org.exist.util.Configuration;
 import org.exist.util.MimeTable;
 import org.exist.util.MimeType;
+import org.exist.util.io.CachingFilterInputStream;
+import org.exist.util.io.FilterInputStreamCacheFactory;
 import org.exist.xmldb.XmldbURI;
 import org.xml.sax.InputSource;
 
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
+import javax.naming.NamingException;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -62,12 +84,35 @@ import java.util.zip.GZIPInputStream;
 public class ReplicationJmsListener extends eXistMessagingListener {
 
     private final static Logger LOG = LogManager.getLogger(ReplicationJmsListener.class);
+
+    /**
+     * Group of messages without JMSXGroupID when applied in parallel, these are applied in order
+     */
+    private static final String NO_GROUP = "-";
+
+    private static final long REPLAY_SHUTDOWN_TIMEOUT_SECONDS = 60;
+
     private final BrokerPool brokerPool;
     private final org.exist.security.SecurityManager securityManager;
     private final TransactionManager txnManager;
 
     private final String localID;
     private final Report report;
+    private final ReplicationLag replicationLag = new ReplicationLag();
+    private final PayloadStatistics payloadStatistics = new PayloadStatistics();
+    private final ContentHashes contentHashes;
+    private final Map<String, Long> snapshotWatermarks = new ConcurrentHashMap<>();
+    private final SequenceTracker sequenceTracker = new SequenceTracker(AppliedSequences.getInstance());
+    private volatile ReplayRequester replayRequester;
+    private final Map<String, Deque<Message>> deferred = new HashMap<>();
+    private ExecutorService replayExecutor;
+    private volatile JmsConfiguration jmsConfig;
+    private volatile CallbackDispatcher dispatcher;
+    private volatile String shardGroup;
+    private volatile int shard;
+    private volatile ConflictResolver conflictResolver;
+    private final ConflictStore conflictStore = new ConflictStore();
+    private final ResourceVersions versions = ResourceVersions.getInstance();
 
     /**
      * Constructor
@@ -75,83 +120,179 @@ public class ReplicationJmsListener extends eXistMessagingListener {
      * @param brokerpool Reference to database broker pool
      */
     public ReplicationJmsListener(final BrokerPool brokerpool) {
+        this(brokerpool, Identity.getInstance().getIdentity());
+    }
+
+    /**
+     * Constructor with explicit instance ID, for publisher and subscriber running in the same JVM.
+     *
+     * @param brokerpool Reference to database broker pool
+     * @param localID    Instance ID of this subscriber, messages sent by this ID are skipped
+     */
+    ReplicationJmsListener(final BrokerPool brokerpool, final String localID) {
         this.brokerPool = brokerpool;
         this.securityManager = brokerpool.getSecurityManager();
         this.txnManager = brokerpool.getTransactionManager();
-        this.localID = Identity.getInstance().getIdentity();
+        this.localID = localID;
         this.report = getReport();
+        this.contentHashes = ContentHashes.getInstance(brokerpool);
     }
 
     /**
-     * Set origin of transaction
+     * Set origin of transaction, with the instances the change passed through
      *
      * @param transaction The eXist-db transaction
+     * @param em          The applied change
      */
-    private void setOrigin(final Txn transaction) {
-        ReplicationTxnManager.addReplicationTransaction(transaction);
+    private void setOrigin(final Txn transaction, final eXistMessage em) {
+        ReplicationTxnManager.addReplicationTransaction(transaction, OriginPath.fromProperties(em.getMetadata()));
     }
 
 
     @Override
     public void onMessage(final Message msg) {
 
+        final CallbackDispatcher callbackDispatcher = getDispatcher();
+
+        // Apply on the thread of the JMS provider
+        if (callbackDispatcher == null) {
+            processMessage(msg);
+            return;
+        }
+
+        // Apply in parallel, in order within a message group
+        try {
+            callbackDispatcher.dispatch(getGroupId(msg), () -> processMessage(msg));
+
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            report.addListenerError(ex);
+            LOG.error("Interrupted while dispatching message (Receiver={})", getReceiverID(), ex);
+
+        } catch (final RejectedExecutionException ex) {
+            // Receiver is closing, the message is not acknowledged and will be redelivered
+            LOG.warn("Receiver={} is closing, message is not applied", getReceiverID());
+        }
+    }
+
+    /**
+     * Get dispatcher for applying messages in parallel, created on first use when the
+     * configured concurrency is larger than 1, and again after the receiver was closed.
+     *
+     * @return The dispatcher, or NULL when the messages are applied on the provider thread.
+     */
+    private CallbackDispatcher getDispatcher() {
+        final JmsConfiguration config = jmsConfig;
+        if (dispatcher == null && config != null && config.getListenerConcurrency() > 1) {
+            synchronized (this) {
+                if (dispatcher == null) {
+                    dispatcher = new CallbackDispatcher(getReceiverID(), config.getListenerConcurrency(),
+                            config.getListenerExecutor(), true);
+                }
+            }
+        }
+        return dispatcher;
+    }
+
+    /**
+     * @return JMSXGroupID of message, messages without group share one group.
+     */
+    private String getGroupId(final Message msg) {
+        try {
+            return StringUtils.defaultIfBlank(msg.getStringProperty(Constants.JMSX_GROUP_ID), NO_GROUP);
+        } catch (final JMSException ex) {
+            LOG.debug(ex.getMessage());
+            return NO_GROUP;
+        }
+    }
+
+    /**
+     * Apply the message and acknowledge it. When messages of the publisher were missed, they are
+     * replayed first: the message is applied after the replay, on the thread of the replay.
+     *
+     * @param msg The JMS message
+     */
+    private void processMessage(final Message msg) {
+        try {
+            if (deferUntilReplayed(msg)) {
+                return;
+            }
+        } catch (final JMSException ex) {
+            report.addListenerError(ex);
+            LOG.error(ex.getMessage(), ex);
+            throw new MessageReceiveException(String.format("Could not handle received message: %s", ex.getMessage()), ex);
+        }
+        applyMessage(msg);
+    }
+
+    /**
+     * Apply the message and acknowledge it, unless it was sent by or passed through the receiver,
+     * is contained in a loaded snapshot or was applied before.
+     *
+     * @param msg The JMS message, received or replayed
+     */
+    private void applyMessage(final Message msg) {
+
         final int receiverID = getReceiverID();
 
         // New Message is coming in
         report.incMessageCounterTotal();
+        report.addBytes(getBodySize(msg));
 
         LOG.debug("Receiver={} nr={}", receiverID, report.getMessageCounterTotal());
 
         // Start reporting
-        report.start();
+        final long startTime = report.start();
+        final long receiveTime = System.currentTimeMillis();
+        beginTrace(msg);
+        String path = null;
 
         try {
-            // Detect if the sender of the incoming message is the receiver
-            if (StringUtils.isNotEmpty(localID)) {
-                final String remoteID = msg.getStringProperty(Constants.EXIST_INSTANCE_ID);
-                if (localID.equals(remoteID)) {
-                    LOG.info("Incoming JMS messsage was originally sent by this same instance (jms.id={}). Stopped processing.", localID);
-                    msg.acknowledge();
-                    return; // Do not throw exeception; Receive was OK
-                }
+            // Detect if the incoming message was sent by, or passed through, the receiver
+            if (isLocal(msg)) {
+                msg.acknowledge();
+                return; // Do not throw exeception; Receive was OK
+            }
+
+            // Changes already contained in a loaded snapshot are skipped
+            if (isCoveredBySnapshot(msg)) {
+                LOG.debug("Incoming JMS message is older than the snapshot watermark. Stopped processing.");
+                msg.acknowledge();
+                report.incMessageCounterOK();
+                return;
             }
 
+            // Applied before, e.g. replayed to fill a gap before this message arrived
+            if (isSequenced(msg) && sequenceTracker.isApplied(getStream(msg), msg.getLongProperty(Constants.EXIST_ORIGIN_SEQUENCE))) {
+                LOG.debug("Incoming JMS message was applied before. Stopped processing.");
+                msg.acknowledge();
+                report.incMessageCounterOK();
+                return;
+            }
+
+            replicationLag.recordDwell(msg.getJMSTimestamp(), receiveTime);
+
             if (msg instanceof BytesMessage) {
 
                 // Prepare received message
+                final long decodeTime = System.nanoTime();
                 final eXistMessage em = convertMessage((BytesMessage) msg);
+                report.record(Report.Stage.DECODE, decodeTime);
+                path = em.getResourcePath();
 
-                final Enumeration e = msg.getPropertyNames();
-                while (e.hasMoreElements()) {
-                    final Object next = e.nextElement();
-                    if (next instanceof String) {
-                        em.getMetadata().put((String) next, msg.getObjectProperty((String) next));
-                    }
-                }
-
-                // Report some details into logging
+                // Report some details into logging, slow messages are logged by the slow operation log
                 if (LOG.isDebugEnabled()) {
                     LOG.debug(em.getFullReport());
-                } else {
-                    LOG.info(em.getReport());
                 }
 
-                // First step: distinct between update for documents and messsages
-                switch (em.getResourceType()) {
-                    case DOCUMENT:
-                        handleDocument(em);
-                        break;
-                    case COLLECTION:
-                        handleCollection(em);
-                        break;
-                    default:
-                        // We need to ack the message
-                        msg.acknowledge();
-
-                        final String errorMessage = String.format("Unknown resource type %s", em.getResourceType());
-                        LOG.error(errorMessage);
-                        throw new MessageReceiveException(errorMessage);
+                // Unknown resource types are rejected by apply(), the message is not redelivered
+                if (em.getResourceType() == eXistMessage.ResourceType.UNDEFINED) {
+                    msg.acknowledge();
                 }
+
+                apply(em);
+                afterApply((BytesMessage) msg);
+
                 report.incMessageCounterOK();
 
             } else {
@@ -163,7 +304,20 @@ public class ReplicationJmsListener extends eXistMessagingListener {
             }
 
             // We need to ack the message
+            final long ackTime = System.nanoTime();
             msg.acknowledge();
+            report.record(Report.Stage.ACK, ackTime);
+
+            // Update sequence, lag and watermark of publisher
+            final long sequence = msg.propertyExists(Constants.EXIST_ORIGIN_SEQUENCE)
+                    ? msg.getLongProperty(Constants.EXIST_ORIGIN_SEQUENCE) : 0;
+            if (sequence > 0 && isSequenced(msg)) {
+                sequenceTracker.recordApplied(getStream(msg), sequence);
+            }
+            if (msg.propertyExists(Constants.EXIST_EVENT_TIME)) {
+                replicationLag.recordApplied(getStream(msg), sequence,
+                        msg.getLongProperty(Constants.EXIST_EVENT_TIME), System.currentTimeMillis());
+            }
 
         } catch (final MessageReceiveException ex) {
             // Thrown by local code. Just make it pass\
@@ -179,22 +333,445 @@ public class ReplicationJmsListener extends eXistMessagingListener {
 
         } finally {
             // update statistics
-            report.stop();
-            report.addCumulatedProcessingTime();
+            final long totalTime = report.stop(startTime);
+            if (report.isSlow(totalTime)) {
+                SlowOperationLog.log("apply", "receiver=" + receiverID, path, getBodySize(msg), totalTime, report.getStageTimes());
+            }
+            Tracer.end();
+        }
+    }
+
+    /**
+     * @return TRUE when the message was sent by, or passed through, the receiver
+     */
+    private boolean isLocal(final Message msg) throws JMSException {
+        if (StringUtils.isEmpty(localID)) {
+            return false;
+        }
+
+        final String remoteID = msg.getStringProperty(Constants.EXIST_INSTANCE_ID);
+        if (localID.equals(remoteID)) {
+            LOG.debug("Incoming JMS messsage was originally sent by this same instance (jms.id={}). Stopped processing.", localID);
+            return true;
+        }
+
+        final String originPath = msg.getStringProperty(Constants.EXIST_ORIGIN_PATH);
+        if (originPath != null && ArrayUtils.contains(StringUtils.split(originPath, ','), localID)) {
+            LOG.debug("Incoming JMS messsage passed through this instance before (path={}). Stopped processing.", originPath);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sequence numbers are only contiguous when a receiver applies all messages of a publisher in
+     * order: not with message groups, which the broker spreads over competing consumers and which
+     * are applied in parallel. Messages without group are applied in order, also by the dispatcher.
+     *
+     * @return TRUE when missed messages of the publisher can be detected
+     */
+    private static boolean isSequenced(final Message msg) throws JMSException {
+        return msg.getStringProperty(Constants.EXIST_INSTANCE_ID) != null && !msg.propertyExists(Constants.JMSX_GROUP_ID)
+                && msg.propertyExists(Constants.EXIST_ORIGIN_SEQUENCE);
+    }
+
+    /**
+     * Defer a message while missed messages of its publisher are replayed. The replay is started
+     * when the message reveals a gap; it runs on the replay thread of the receiver, which applies
+     * the deferred messages in order of arrival afterwards. Deferred messages are not acknowledged
+     * before they are applied.
+     *
+     * @param msg The received message
+     * @return TRUE when the message is applied by the replay thread
+     */
+    private boolean deferUntilReplayed(final Message msg) throws JMSException {
+        if (!isSequenced(msg) || isLocal(msg)) {
+            return false;
+        }
+
+        final String origin = msg.getStringProperty(Constants.EXIST_INSTANCE_ID);
+        final String stream = getStream(msg);
+        synchronized (deferred) {
+            final Deque<Message> messages = deferred.get(stream);
+            if (messages != null) {
+                messages.add(msg);
+                return true;
+            }
+
+            final long[] gap = sequenceTracker.findGap(stream, msg.getLongProperty(Constants.EXIST_ORIGIN_SEQUENCE), getSkipped(msg));
+            if (gap == null) {
+                return false;
+            }
+
+            final Deque<Message> queue = new ArrayDeque<>();
+            queue.add(msg);
+            deferred.put(stream, queue);
+            try {
+                getReplayExecutor().execute(() -> replay(origin, getShard(origin, msg), gap, stream));
+            } catch (final RejectedExecutionException ex) {
+                // Receiver is closing, the message is not acknowledged and will be redelivered
+                deferred.remove(stream);
+                LOG.warn("Receiver={} is closing, missed messages are not replayed", getReceiverID());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Replay missed messages, then apply the messages deferred meanwhile. Deferred messages can
+     * reveal a new gap, which is replayed first as well.
+     */
+    private void replay(final String origin, final int shard, final long[] gap, final String stream) {
+        fillGap(origin, shard, gap);
+
+        while (true) {
+            final Message msg;
+            synchronized (deferred) {
+                msg = deferred.get(stream).poll();
+                if (msg == null) {
+                    deferred.remove(stream);
+                    return;
+                }
+            }
+
+            try {
+                final long[] next = sequenceTracker.findGap(stream, msg.getLongProperty(Constants.EXIST_ORIGIN_SEQUENCE), getSkipped(msg));
+                if (next != null) {
+                    fillGap(origin, shard, next);
+                }
+                applyMessage(msg);
+
+            } catch (final JMSException ex) {
+                report.addListenerError(ex);
+                LOG.error(ex.getMessage(), ex);
+
+            } catch (final MessageReceiveException ex) {
+                // Reported by applyMessage(), the message is redelivered when not acknowledged by a later one
+                LOG.debug("Deferred message not applied: {}", ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return Executor of the replays, created on first use and again after the receiver was closed.
+     */
+    private synchronized ExecutorService getReplayExecutor() {
+        if (replayExecutor == null) {
+            final String name = "jms-replay-" + getReceiverID();
+            replayExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return replayExecutor;
+    }
+
+    /**
+     * Called after the change of a message is applied, before the message is acknowledged.
+     *
+     * @param msg The applied message
+     * @throws MessageReceiveException The message is not acknowledged.
+     */
+    protected void afterApply(final BytesMessage msg) {
+        // Nothing to do
+    }
+
+    /**
+     * Mark the receiver as receiver of one shard of a sharded destination, for aggregated reporting.
+     *
+     * @param group Name of the (unsharded) destination
+     * @param shard The shard
+     */
+    public void setShard(final String group, final int shard) {
+        this.shardGroup = group;
+        this.shard = shard;
+    }
+
+    /**
+     * @return Name of the (unsharded) destination, NULL when the receiver does not receive a shard
+     */
+    public String getShardGroup() {
+        return shardGroup;
+    }
+
+    /**
+     * @return Shard received by the receiver
+     */
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * @return Shard of a replicated change, 0 when replication is not sharded
+     */
+    private static int getShard(final Message msg) throws JMSException {
+        return msg.propertyExists(Constants.EXIST_SHARD) ? msg.getIntProperty(Constants.EXIST_SHARD) : 0;
+    }
+
+    private static int getShard(final String origin, final Message msg) {
+        try {
+            return getShard(msg);
+        } catch (final JMSException ex) {
+            LOG.error("Unable to read shard of message of {}: {}", origin, ex.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * @return Sequence numbers skipped by the publisher after a restart, NULL when none
+     */
+    private static long[] getSkipped(final Message msg) throws JMSException {
+        return msg.propertyExists(Constants.EXIST_ORIGIN_SKIPPED_TO)
+                ? new long[]{msg.getLongProperty(Constants.EXIST_ORIGIN_SKIPPED_FROM), msg.getLongProperty(Constants.EXIST_ORIGIN_SKIPPED_TO)}
+                : null;
+    }
+
+    /**
+     * Sequence numbers are counted per publisher, and per shard with sharded replication.
+     *
+     * @return Instance ID of the publisher, followed by '#' and the shard for shards other than 0
+     */
+    private static String getStream(final Message msg) throws JMSException {
+        return getStream(msg.getStringProperty(Constants.EXIST_INSTANCE_ID), getShard(msg));
+    }
+
+    private static String getStream(final String origin, final int shard) {
+        return (origin == null || shard == 0) ? origin : origin + "#" + shard;
+    }
+
+    /**
+     * Skip changes of a shard of a publisher up to and including the sequence at which a snapshot
+     * was taken. Each shard has its own sequence.
+     *
+     * @param origin   Instance ID of the publisher
+     * @param shard    The shard
+     * @param sequence Replication sequence of the shard at snapshot time
+     */
+    public void setSnapshotWatermark(final String origin, final int shard, final long sequence) {
+        final String stream = getStream(origin, shard);
+        snapshotWatermarks.put(stream, sequence);
+        sequenceTracker.setContiguous(stream, sequence);
+    }
+
+    /**
+     * Enable replay of missed messages when the configuration contains a replay destination,
+     * resolution of conflicting changes when the configuration contains a conflict resolver, and
+     * parallel application of message groups when the listener concurrency is larger than 1.
+     *
+     * @param jmsConfig JMS configuration of the receiver
+     * @throws IllegalArgumentException When the conflict resolver cannot be created
+     */
+    public void setConfiguration(final JmsConfiguration jmsConfig) {
+        this.jmsConfig = jmsConfig;
+        replayRequester = StringUtils.isBlank(jmsConfig.getReplayDestination()) ? null : new ReplayRequester(jmsConfig);
+        conflictResolver = createConflictResolver(jmsConfig.getConflictResolver());
+        conflictStore.setCapacity(jmsConfig.getConflictCapacity());
+    }
+
+    /**
+     * @param name 'none', 'last-writer-wins' or the class name of a {@link ConflictResolver}
+     * @return The resolver, NULL when conflicts are not resolved
+     */
+    static ConflictResolver createConflictResolver(final String name) {
+        switch (name) {
+            case Constants.CONFLICT_RESOLVER_NONE:
+                return null;
+            case Constants.CONFLICT_RESOLVER_LWW:
+                return new LastWriterWins();
+            default:
+                try {
+                    return (ConflictResolver) Class.forName(name).getDeclaredConstructor().newInstance();
+                } catch (final ReflectiveOperationException | ClassCastException ex) {
+                    throw new IllegalArgumentException(String.format("Unable to create conflict resolver '%s': %s", name, ex.getMessage()), ex);
+                }
         }
     }
 
+    /**
+     * Request and apply missed messages of a publisher; messages that cannot be replayed are
+     * counted as missed, anti-entropy can repair them. Replayed messages are applied and
+     * reported like received messages.
+     */
+    private void fillGap(final String origin, final int shard, final long[] gap) {
+        LOG.warn("Missed messages {}-{} of {} shard {}", gap[0], gap[1], origin, shard);
+
+        final long[] replayed = {0};
+        final ReplayRequester requester = replayRequester;
+        if (requester != null) {
+            try {
+                requester.replay(getReplySessions(), origin, shard, gap[0], gap[1], bm -> {
+                    try {
+                        applyMessage(bm);
+                        replayed[0]++;
+                    } catch (final MessageReceiveException ex) {
+                        // Reported by applyMessage(), counted as missed
+                        LOG.debug("Replayed message not applied: {}", ex.getMessage());
+                    }
+                });
+
+            } catch (final JMSException | NamingException | RuntimeException ex) {
+                report.addListenerError(ex);
+                LOG.error("Unable to replay messages {}-{} of {}: {}", gap[0], gap[1], origin, ex.getMessage());
+            }
+        }
+
+        if (replayed[0] < gap[1] - gap[0] + 1) {
+            LOG.error("{} messages of {} could not be replayed", gap[1] - gap[0] + 1 - replayed[0], origin);
+        }
+        sequenceTracker.closeGap(getStream(origin, shard), gap, replayed[0]);
+    }
+
+    private boolean isCoveredBySnapshot(final Message msg) throws JMSException {
+        if (snapshotWatermarks.isEmpty() || !msg.propertyExists(Constants.EXIST_ORIGIN_SEQUENCE)) {
+            return false;
+        }
+        final Long watermark = snapshotWatermarks.get(getStream(msg));
+        return watermark != null && msg.getLongProperty(Constants.EXIST_ORIGIN_SEQUENCE) <= watermark;
+    }
+
+    /**
+     * Apply a replicated change to the database. Package-private for the snapshot loader.
+     *
+     * @param em The change
+     */
+    void apply(final eXistMessage em) {
+
+        // Conflicting changes of documents are resolved under the lock of the change
+        final ResourceVersion incoming = conflictResolver == null ? null : getIncomingVersion(em);
+
+        // The version is stored with the document, it is the version when the origin is not known
+        if (incoming != null && !incoming.isDeleted()) {
+            em.getMetadata().put(MessageHelper.EXIST_RESOURCE_LASTMODIFIED, incoming.getTime());
+        }
+
+        // First step: distinct between update for documents and messsages
+        switch (em.getResourceType()) {
+            case DOCUMENT:
+                if (!handleDocument(em, incoming)) {
+                    return;
+                }
+                break;
+            case COLLECTION:
+                handleCollection(em);
+                break;
+            default:
+                final String errorMessage = String.format("Unknown resource type %s", em.getResourceType());
+                LOG.error(errorMessage);
+                throw new MessageReceiveException(errorMessage);
+        }
+
+        // Changed resources are rehashed for anti-entropy
+        contentHashes.invalidate(em.getResourcePath());
+        contentHashes.invalidate(em.getDestinationPath());
+
+        if (incoming != null) {
+            versions.put(em.getResourcePath(), incoming);
+        }
+    }
+
+    /**
+     * Get version of a replicated change of a document: the last modified time of the document, or
+     * the publication time of a removal, and the instance where the change was made.
+     *
+     * @param em The change
+     * @return The version, NULL when the change cannot conflict or has no version
+     */
+    private ResourceVersion getIncomingVersion(final eXistMessage em) {
+        if (em.getResourceType() != eXistMessage.ResourceType.DOCUMENT) {
+            return null;
+        }
+
+        final boolean deleted;
+        switch (em.getResourceOperation()) {
+            case CREATE:
+            case UPDATE:
+            case METADATA:
+                deleted = false;
+                break;
+            case DELETE:
+                deleted = true;
+                break;
+            default:
+                return null;
+        }
+
+        final OriginPath originPath = OriginPath.fromProperties(em.getMetadata());
+        final Map<String, Object> metaData = em.getMetadata();
+        Object time = deleted ? null : metaData.get(MessageHelper.EXIST_RESOURCE_LASTMODIFIED);
+        if (!(time instanceof Long)) {
+            time = metaData.get(Constants.EXIST_EVENT_TIME);
+        }
+
+        return (originPath == null || !(time instanceof Long)) ? null
+                : new ResourceVersion((Long) time, originPath.getOrigin(), deleted);
+    }
+
+    /**
+     * Get version of a document in the database. The document was written locally, unless it has
+     * not been modified since the last replicated change. When the last replicated change is not
+     * known the last modified time of the document is the version, replicated changes store their
+     * version as last modified time.
+     *
+     * @param em       The replicated change
+     * @param document The document, NULL when it does not exist
+     * @return The version, NULL when the document does not exist and was not removed by a replicated change
+     */
+    private ResourceVersion getLocalVersion(final eXistMessage em, final DocumentImpl document) {
+        final ResourceVersion applied = versions.get(em.getResourcePath());
+
+        if (document == null) {
+            return (applied != null && applied.isDeleted()) ? applied : null;
+        }
+
+        final long lastModified = document.getLastModified();
+        if (applied != null && !applied.isDeleted() && applied.getTime() == lastModified) {
+            return applied;
+        }
+        return new ResourceVersion(lastModified, StringUtils.defaultString(localID), false);
+    }
+
+    /**
+     * Compare a replicated change with the local version of the document, when written by another
+     * instance the conflict resolver decides. A skipped change is stored as conflict. Must be called
+     * while holding the write lock of the collection, so the document does not change before the
+     * replicated change is applied.
+     *
+     * @param em       The replicated change
+     * @param incoming Version of the change, NULL when conflicts are not resolved
+     * @param document The document, NULL when it does not exist
+     * @return TRUE when the local version is kept and the change must be skipped
+     */
+    private boolean isLocalVersionKept(final eXistMessage em, final ResourceVersion incoming, final DocumentImpl document) {
+        final ConflictResolver resolver = conflictResolver;
+        if (incoming == null || resolver == null) {
+            return false;
+        }
+
+        final ResourceVersion local = getLocalVersion(em, document);
+        if (local == null || local.getOrigin().equals(incoming.getOrigin())
+                || resolver.acceptIncoming(em.getResourcePath(), local, incoming)) {
+            return false;
+        }
+
+        LOG.warn("Conflict on {}: kept local version {}, skipped {} of version {}",
+                em.getResourcePath(), local, em.getResourceOperation(), incoming);
+        conflictStore.add(new ConflictStore.Conflict(em.getResourcePath(), em.getResourceOperation().name(), local, incoming));
+        return true;
+    }
+
     //
     // The code below handles the incoming message ; DW: should be moved to separate class
     //
 
     /**
-     * Convert JMS ByteMessage into an eXist-db specific message.
+     * Convert JMS ByteMessage into an eXist-db specific message, the message properties
+     * are copied into the metadata. Package-private for the benchmarks.
      *
      * @param bm The original message
      * @return The converted message
      */
-    private eXistMessage convertMessage(final BytesMessage bm) {
+    static eXistMessage convertMessage(final BytesMessage bm) {
         final eXistMessage em = new eXistMessage();
 
         try {
@@ -216,6 +793,14 @@ public class ReplicationJmsListener extends eXistMessagingListener {
             bm.readBytes(payload);
             em.setPayload(payload);
 
+            final Enumeration e = bm.getPropertyNames();
+            while (e.hasMoreElements()) {
+                final Object next = e.nextElement();
+                if (next instanceof String) {
+                    em.getMetadata().put((String) next, bm.getObjectProperty((String) next));
+                }
+            }
+
         } catch (final JMSException ex) {
             final String errorMessage = String.format("Unable to convert incoming message. (%s):  %s", ex.getErrorCode(), ex.getMessage());
             LOG.error(errorMessage, ex);
@@ -233,23 +818,22 @@ public class ReplicationJmsListener extends eXistMessagingListener {
     /**
      * Handle operation on documents
      *
-     * @param em Message containing information about documents
+     * @param em       Message containing information about documents
+     * @param incoming Version of the change, NULL when conflicts are not resolved
+     * @return FALSE when the change was skipped because the local version is kept
      */
-    private void handleDocument(final eXistMessage em) {
+    private boolean handleDocument(final eXistMessage em, final ResourceVersion incoming) {
 
         switch (em.getResourceOperation()) {
             case CREATE:
             case UPDATE:
-                createUpdateDocument(em);
-                break;
+                return createUpdateDocument(em, incoming);
 
             case METADATA:
-                updateMetadataDocument(em);
-                break;
+                return updateMetadataDocument(em, incoming);
 
             case DELETE:
-                deleteDocument(em);
-                break;
+                return deleteDocument(em, incoming);
 
             case MOVE:
                 relocateDocument(em, false);
@@ -264,6 +848,7 @@ public class ReplicationJmsListener extends eXistMessagingListener {
                 LOG.error(errorMessage);
                 throw new MessageReceiveException(errorMessage);
         }
+        return true;
     }
 
     /**
@@ -304,8 +889,10 @@ public class ReplicationJmsListener extends eXistMessagingListener {
 
     /**
      * Created document in database
+     *
+     * @return FALSE when the local version is kept
      */
-    private void createUpdateDocument(final eXistMessage em) {
+    private boolean createUpdateDocument(final eXistMessage em, final ResourceVersion incoming) {
 
         final Map<String, Object> metaData = em.getMetadata();
 
@@ -336,7 +923,7 @@ public class ReplicationJmsListener extends eXistMessagingListener {
 
         // Check for collection, create if not existent
         try {
-            createOrCheckCollection(colURI);
+            createOrCheckCollection(colURI, em);
 
         } catch (final MessageReceiveException e) {
             LOG.error(e.getMessage(), e);
@@ -361,37 +948,45 @@ public class ReplicationJmsListener extends eXistMessagingListener {
                 throw new MessageReceiveException("Collection " + sourcePath + " does not exist", em);
             }
 
-            setOrigin(txn);
+            if (isLocalVersionKept(em, incoming, collection.getDocument(broker, docURI))) {
+                txn.abort();
+                return false;
+            }
+
+            setOrigin(txn, em);
 
             final DocumentImpl doc;
+            final long rawSize;
+            final long decodeNanos;
             if (mime.isXMLType()) {
 
-                InputSource inputsource = null;
-
-                // Stream into database
-                try (final InputStream byteInputStream = new ByteArrayInputStream(em.getPayload())) {
-
-                    // DW: future improvement: determine compression based on property.
-                    GZIPInputStream gis = new GZIPInputStream(byteInputStream);
-                    inputsource = new InputSource(gis);
-
+                // Decompress once into the stream cache of the database, by default a temporary
+                // file; the data is read twice, for validation and for storing.
+                // DW: future improvement: determine compression based on property.
+                final long decompressTime = System.nanoTime();
+                try (final CachingFilterInputStream cache = new CachingFilterInputStream(FilterInputStreamCacheFactory.getCacheInstance(
+                        () -> (String) broker.getConfiguration().getProperty(Configuration.BINARY_CACHE_CLASS_PROPERTY),
+                        new GZIPInputStream(new ByteArrayInputStream(em.getPayload()))))) {
+
+                    cache.mark(Integer.MAX_VALUE);
+                    rawSize = IOUtils.consume(cache);
+                    cache.reset();
+                    report.record(Report.Stage.DECOMPRESS, decompressTime);
+                    decodeNanos = System.nanoTime() - decompressTime;
+
+                    // The parser closes its input
+                    final long parseTime = System.nanoTime();
                     // DW: collection can be null?
-                    final IndexInfo info = collection.validateXMLResource(txn, broker, docURI, inputsource);
+                    final IndexInfo info = collection.validateXMLResource(txn, broker, docURI, new InputSource(new CloseShieldInputStream(cache)));
                     doc = info.getDocument();
                     doc.getMetadata().setMimeType(mimeType);
+                    report.record(Report.Stage.PARSE, parseTime);
 
-                    // reconstruct gzip input stream
-                    byteInputStream.reset();
-                    gis = new GZIPInputStream(byteInputStream);
-                    inputsource = new InputSource(gis);
-
-                    collection.store(txn, broker, info, inputsource);
-
-
-                } finally {
-                    if (inputsource != null) {
-                        inputsource.getByteStream().close();
-                    }
+                    // Stream into database
+                    cache.reset();
+                    final long storeTime = System.nanoTime();
+                    collection.store(txn, broker, info, new InputSource(new CloseShieldInputStream(cache)));
+                    report.record(Report.Stage.STORE, storeTime);
                 }
 
             } else {
@@ -401,7 +996,14 @@ public class ReplicationJmsListener extends eXistMessagingListener {
                      final GZIPInputStream gis = new GZIPInputStream(bais);
                      final BufferedInputStream bis = new BufferedInputStream(gis)) {
                     // DW: collection can be null
+                    final long storeTime = System.nanoTime();
                     doc = collection.addBinaryResource(txn, broker, docURI, bis, mimeType, em.getPayload().length);
+                    report.record(Report.Stage.STORE, storeTime);
+
+                    // Decompression is streamed while storing
+                    final Object size = metaData.get(MessageHelper.EXIST_MESSAGE_RAWSIZE);
+                    rawSize = size instanceof Number ? ((Number) size).longValue() : -1;
+                    decodeNanos = System.nanoTime() - storeTime;
                 }
             }
 
@@ -422,8 +1024,13 @@ public class ReplicationJmsListener extends eXistMessagingListener {
             createTime.ifPresent(aLong -> doc.getMetadata().setCreated(aLong));
 
             // Commit change
+            final long commitTime = System.nanoTime();
             txn.commit();
+            report.record(Report.Stage.COMMIT, commitTime);
 
+            // Only documents that are stored
+            payloadStatistics.record(em.getResourcePath(), mimeType, rawSize, em.getPayload().length, decodeNanos);
+            return true;
 
         } catch (final Throwable ex) {
 
@@ -440,9 +1047,10 @@ public class ReplicationJmsListener extends eXistMessagingListener {
 
     /**
      * Metadata is updated in database
-     * <p>
+     *
+     * @return FALSE when the local version is kept
      */
-    private void updateMetadataDocument(final eXistMessage em) {
+    private boolean updateMetadataDocument(final eXistMessage em, final ResourceVersion incoming) {
         // Permissions
         // Mimetype
         // owner/groupname
@@ -465,21 +1073,25 @@ public class ReplicationJmsListener extends eXistMessagingListener {
              final Txn txn = txnManager.beginTransaction();
              final Collection collection = broker.openCollection(colURI, Lock.LockMode.WRITE_LOCK)) {
 
-            setOrigin(txn);
+            setOrigin(txn, em);
 
             // Open collection if possible, else abort
             if (collection == null) {
                 LOG.error("Collection does not exist {}", colURI);
                 txn.abort();
-                return; // be silent
+                return true; // be silent
             }
 
             // Open document if possible, else abort
             resource = collection.getDocument(broker, docURI);
+            if (isLocalVersionKept(em, incoming, resource)) {
+                txn.abort();
+                return false;
+            }
             if (resource == null) {
                 LOG.error("No resource found for path: {}", sourcePath);
                 txn.abort();
-                return; // be silent
+                return true; // be silent
             }
 
             // Get supplied metadata
@@ -518,6 +1130,7 @@ public class ReplicationJmsListener extends eXistMessagingListener {
 
             // Commit change
             txn.commit();
+            return true;
 
         } catch (final Throwable e) {
             LOG.error(e.getMessage(), e);
@@ -528,8 +1141,10 @@ public class ReplicationJmsListener extends eXistMessagingListener {
 
     /**
      * Remove document from database. If a document or collection does not exist, this is logged.
+     *
+     * @return FALSE when the local version is kept
      */
-    private void deleteDocument(final eXistMessage em) {
+    private boolean deleteDocument(final eXistMessage em, final ResourceVersion incoming) {
 
         final XmldbURI sourcePath = XmldbURI.create(em.getResourcePath());
         final XmldbURI colURI = sourcePath.removeLastSegment();
@@ -540,21 +1155,25 @@ public class ReplicationJmsListener extends eXistMessagingListener {
              final Txn txn = txnManager.beginTransaction();
              final Collection collection = broker.openCollection(colURI, Lock.LockMode.WRITE_LOCK)) {
 
-            setOrigin(txn);
+            setOrigin(txn, em);
 
             // Open collection if possible, else abort
             if (collection == null) {
                 LOG.error("Collection does not exist {}", colURI);
                 txn.abort();
-                return; // silently ignore
+                return true; // silently ignore
             }
 
             // Open document if possible, else abort
             final DocumentImpl resource = collection.getDocument(broker, docURI);
+            if (isLocalVersionKept(em, incoming, resource)) {
+                txn.abort();
+                return false;
+            }
             if (resource == null) {
                 LOG.error("No resource found for path: {}", sourcePath);
                 txn.abort();
-                return; // silently ignore
+                return true; // silently ignore
             }
 
             // This delete is based on mime-type /ljo 
@@ -567,6 +1186,7 @@ public class ReplicationJmsListener extends eXistMessagingListener {
 
             // Commit change
             txn.commit();
+            return true;
 
         } catch (final Throwable t) {
 
@@ -593,7 +1213,7 @@ public class ReplicationJmsListener extends eXistMessagingListener {
              final Txn txn = txnManager.beginTransaction();
              final Collection collection = broker.openCollection(sourcePath, Lock.LockMode.WRITE_LOCK)) {
 
-            setOrigin(txn);
+            setOrigin(txn, em);
 
             // Open collection if possible, else abort
 
@@ -638,23 +1258,23 @@ public class ReplicationJmsListener extends eXistMessagingListener {
         final Optional<Long> createTime = getCreationTime(metaData);
 
         // Be sure collection exists
-        createOrCheckCollection(sourcePath);
+        createOrCheckCollection(sourcePath, em);
 
         // Update meta data
-        updateCollectionMetadata(sourcePath, userName, groupName, mode, createTime);
+        updateCollectionMetadata(sourcePath, userName, groupName, mode, createTime, em);
     }
 
     /**
      * Create new collection when required.
      */
-    private void createOrCheckCollection(final XmldbURI sourcePath) throws MessageReceiveException {
+    private void createOrCheckCollection(final XmldbURI sourcePath, final eXistMessage em) throws MessageReceiveException {
 
         // New collection to be created
         try (final DBBroker broker = brokerPool.get(Optional.of(securityManager.getSystemSubject()));
              final Txn txn = txnManager.beginTransaction();
              final Collection collection = broker.getOrCreateCollection(txn, sourcePath)) {
 
-            setOrigin(txn);
+            setOrigin(txn, em);
 
             // Create collection when required
             if (collection == null) {
@@ -686,7 +1306,7 @@ public class ReplicationJmsListener extends eXistMessagingListener {
      */
     private Collection updateCollectionMetadata(final XmldbURI sourcePath, final Optional<String> userName,
                                                 final Optional<String> groupName, final Optional<Integer> mode,
-                                                final Optional<Long> createTime) throws MessageReceiveException {
+                                                final Optional<Long> createTime, final eXistMessage em) throws MessageReceiveException {
 
 
         // New collection to be created
@@ -694,7 +1314,7 @@ public class ReplicationJmsListener extends eXistMessagingListener {
              final Txn txn = txnManager.beginTransaction();
              final Collection collection = broker.openCollection(sourcePath, Lock.LockMode.WRITE_LOCK)) {
 
-            setOrigin(txn);
+            setOrigin(txn, em);
 
             // Create collection when required
             if (collection == null) {
@@ -760,7 +1380,7 @@ public class ReplicationJmsListener extends eXistMessagingListener {
              final Collection srcCollection = broker.openCollection(sourceColURI, lockTypeOriginal);
              final Collection destCollection = broker.openCollection(destColURI, Lock.LockMode.WRITE_LOCK)) {
 
-            setOrigin(txn);
+            setOrigin(txn, em);
 
             // Open collection if possible, else abort
             if (srcCollection == null) {
@@ -820,7 +1440,7 @@ public class ReplicationJmsListener extends eXistMessagingListener {
              final Collection srcCollection = broker.openCollection(sourcePath, lockTypeOriginal);
              final Collection destCollection = broker.openCollection(destColURI, Lock.LockMode.WRITE_LOCK)) {
 
-            setOrigin(txn);
+            setOrigin(txn, em);
 
             // Open source collection if possible, else abort
             if (srcCollection == null) {
@@ -859,6 +1479,70 @@ public class ReplicationJmsListener extends eXistMessagingListener {
         return "replication";
     }
 
+    /**
+     * Wait for messages being applied and replayed. A new dispatcher and replay executor are
+     * created when the receiver is started again.
+     */
+    @Override
+    public void close() {
+        final CallbackDispatcher closing;
+        final ExecutorService replaying;
+        synchronized (this) {
+            closing = dispatcher;
+            dispatcher = null;
+            replaying = replayExecutor;
+            replayExecutor = null;
+        }
+        if (closing != null) {
+            closing.shutdown();
+        }
+        if (replaying != null) {
+            replaying.shutdown();
+            try {
+                if (!replaying.awaitTermination(REPLAY_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOG.warn("Receiver={} closed while missed messages are replayed", getReceiverID());
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return Replication lag and watermarks of publishers.
+     */
+    public ReplicationLag getReplicationLag() {
+        return replicationLag;
+    }
+
+    /**
+     * @return Highest contiguous sequence number and gaps per publisher
+     */
+    public SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+
+    /**
+     * @return Replicated changes that were skipped because the local version was kept
+     */
+    public ConflictStore getConflictStore() {
+        return conflictStore;
+    }
+
+    /**
+     * @return Sizes and decompression of received documents
+     */
+    public PayloadStatistics getPayloadStatistics() {
+        return payloadStatistics;
+    }
+
+    @Override
+    public void writeReport(final MemTreeBuilder builder) {
+        replicationLag.write(builder);
+        sequenceTracker.write(builder);
+        conflictStore.write(builder);
+    }
+
     private void updateMetadataCollection(final eXistMessage em) {
         final XmldbURI sourceColURI = XmldbURI.create(em.getResourcePath());
 
@@ -877,7 +1561,7 @@ public class ReplicationJmsListener extends eXistMessagingListener {
              final Txn txn = txnManager.beginTransaction();
              final Collection collection = broker.openCollection(sourceColURI, Lock.LockMode.WRITE_LOCK)) {
 
-            setOrigin(txn);
+            setOrigin(txn, em);
 
             // Open collection if possible, else abort
             if (collection == null) {
@@ -0,0 +1,156 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.jms.shared.LatencyHistogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replication lag of a subscriber: the time between the change on the publisher and
+ * applying the change locally, the time a message spent between sending and delivery
+ * (dwell), and per publisher the last applied message (watermark). Times in milliseconds.
+ *
+ * @author Dannes Wessels
+ */
+public class ReplicationLag {
+
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private final LatencyHistogram dwell = new LatencyHistogram();
+    private final Map<String, Watermark> watermarks = new ConcurrentHashMap<>();
+
+    /**
+     * Record time between sending and delivery of a message.
+     *
+     * @param jmsTimestamp The JMSTimestamp of the message, ignored when 0
+     * @param receiveTime  Time of delivery
+     */
+    public void recordDwell(final long jmsTimestamp, final long receiveTime) {
+        if (jmsTimestamp > 0) {
+            dwell.record(receiveTime - jmsTimestamp);
+        }
+    }
+
+    /**
+     * Record that a message is applied.
+     *
+     * @param origin      Instance ID of the publisher
+     * @param sequence    Sequence number of the message at the publisher
+     * @param eventTime   Time of the change at the publisher
+     * @param appliedTime Time the change was applied locally
+     */
+    public void recordApplied(final String origin, final long sequence, final long eventTime, final long appliedTime) {
+        lag.record(appliedTime - eventTime);
+
+        if (origin != null) {
+            final Watermark watermark = new Watermark(sequence, eventTime, appliedTime);
+            watermarks.merge(origin, watermark, (old, update) -> update.sequence > old.sequence ? update : old);
+        }
+    }
+
+    public LatencyHistogram getLag() {
+        return lag;
+    }
+
+    public LatencyHistogram getDwell() {
+        return dwell;
+    }
+
+    /**
+     * @return Last applied message per publisher
+     */
+    public Map<String, Watermark> getWatermarks() {
+        return watermarks;
+    }
+
+    /**
+     * Write lag information to XML report.
+     *
+     * @param builder The builder to create the XML report.
+     */
+    public void write(final MemTreeBuilder builder) {
+
+        builder.startElement("", "replication", "replication", null);
+        builder.addAttribute(new QName("unit", null, null), "milliseconds");
+
+        writeHistogram(builder, "lag", lag);
+        writeHistogram(builder, "dwell", dwell);
+
+        watermarks.forEach((origin, watermark) -> {
+            builder.startElement("", "watermark", "watermark", null);
+            builder.addAttribute(new QName("origin", null, null), origin);
+            builder.addAttribute(new QName("sequence", null, null), "" + watermark.getSequence());
+            builder.addAttribute(new QName("eventTime", null, null), "" + watermark.getEventTime());
+            builder.addAttribute(new QName("appliedTime", null, null), "" + watermark.getAppliedTime());
+            builder.endElement();
+        });
+
+        builder.endElement();
+    }
+
+    private void writeHistogram(final MemTreeBuilder builder, final String name, final LatencyHistogram histogram) {
+        builder.startElement("", name, name, null);
+        builder.addAttribute(new QName("count", null, null), "" + histogram.getCount());
+        builder.addAttribute(new QName("p50", null, null), "" + histogram.getPercentile(0.50));
+        builder.addAttribute(new QName("p95", null, null), "" + histogram.getPercentile(0.95));
+        builder.addAttribute(new QName("p99", null, null), "" + histogram.getPercentile(0.99));
+        builder.addAttribute(new QName("max", null, null), "" + histogram.getMax());
+        builder.endElement();
+    }
+
+    public void clear() {
+        lag.clear();
+        dwell.clear();
+        watermarks.clear();
+    }
+
+    /**
+     * Last applied message of a publisher.
+     */
+    public static class Watermark {
+
+        private final long sequence;
+        private final long eventTime;
+        private final long appliedTime;
+
+        Watermark(final long sequence, final long eventTime, final long appliedTime) {
+            this.sequence = sequence;
+            this.eventTime = eventTime;
+            this.appliedTime = appliedTime;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getEventTime() {
+            return eventTime;
+        }
+
+        public long getAppliedTime() {
+            return appliedTime;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.subscribe;
+
+/**
+ * Version of a document: the time of the change and the instance where the change was made.
+ * Versions are ordered by time, the origin breaks ties so that all replicas order them the same way.
+ *
+ * @author Dannes Wessels
+ */
+public final class ResourceVersion implements Comparable<ResourceVersion> {
+
+    private final long time;
+    private final String origin;
+    private final boolean deleted;
+
+    /**
+     * @param time    Time of the change, milliseconds since epoch
+     * @param origin  Instance ID of the instance where the change was made
+     * @param deleted TRUE when the change removed the document
+     */
+    public ResourceVersion(final long time, final String origin, final boolean deleted) {
+        this.time = time;
+        this.origin = origin;
+        this.deleted = deleted;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public int compareTo(final ResourceVersion other) {
+        final int result = Long.compare(time, other.time);
+        return result != 0 ? result : origin.compareTo(other.origin);
+    }
+
+    @Override
+    public String toString() {
+        return (deleted ? "deleted " : "") + time + "@" + origin;
+    }
+}
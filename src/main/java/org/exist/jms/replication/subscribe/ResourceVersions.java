@@ -0,0 +1,219 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.jms.shared.Identity;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Version of the last replicated change per document, kept in the file 'jms.versions' next to
+ * the identity file, so conflicting changes are detected after a restart too. The time of the
+ * version is stored as last modified time of the document as well; the metadata of a document has
+ * no room for the origin.
+ * <p>
+ * Changes are appended to the file, which is rewritten when it holds twice as many lines as
+ * versions. The versions of the most recently changed documents are kept; for other documents the
+ * last modified time is the version. Like {@link AppliedSequences} the file is not forced to disk.
+ *
+ * @author Dannes Wessels
+ */
+public class ResourceVersions {
+
+    private final static Logger LOG = LogManager.getLogger(ResourceVersions.class);
+
+    private static final String VERSIONS_FILE = "jms.versions";
+    private static final int MAX_VERSIONS = 100_000;
+    private static final int MIN_REWRITE_LINES = 1024;
+    private static final String SEPARATOR = "\t";
+    private static final String DELETED = "deleted";
+    private static final String STORED = "stored";
+
+    private static ResourceVersions instance = null;
+
+    private final Map<String, ResourceVersion> versions;
+    private final Path file;
+    private BufferedWriter writer;
+    private int lines;
+    private boolean damaged;
+
+    /**
+     * @param file     File with the versions, NULL when not persisted
+     * @param capacity Maximum number of versions
+     */
+    ResourceVersions(final Path file, final int capacity) {
+        this.file = file;
+        this.versions = new LinkedHashMap<String, ResourceVersion>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, ResourceVersion> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        if (file == null || Files.notExists(file)) {
+            return;
+        }
+
+        try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            // The last line was not completely written, the file is rewritten with the next change
+            damaged = !endsWithNewline(file);
+
+            String line = reader.readLine();
+            while (line != null) {
+                final String next = reader.readLine();
+                lines++;
+                if (next != null || !damaged) {
+                    read(line);
+                }
+                line = next;
+            }
+            LOG.info("Read versions of {} replicated documents from {}", versions.size(), file);
+
+        } catch (final IOException ex) {
+            LOG.error("Unable to read {}, versions of replicated documents are not known: {}", file, ex.getMessage());
+            versions.clear();
+        }
+    }
+
+    private void read(final String line) {
+        final String[] fields = line.split(SEPARATOR, 4);
+        try {
+            versions.put(fields[3], new ResourceVersion(Long.parseLong(fields[0]), fields[1], DELETED.equals(fields[2])));
+        } catch (final NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+            LOG.warn("Skipped invalid line {} of {}", lines, file);
+            damaged = true;
+        }
+    }
+
+    private static boolean endsWithNewline(final Path file) throws IOException {
+        try (final SeekableByteChannel channel = Files.newByteChannel(file)) {
+            if (channel.size() == 0) {
+                return true;
+            }
+            final ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1).read(last);
+            return last.get(0) == '\n';
+        }
+    }
+
+    public static synchronized ResourceVersions getInstance() {
+        if (instance == null) {
+            final Path identityFile = Identity.getInstance().getIdentityFile();
+            if (identityFile == null) {
+                LOG.error("No location for {}, versions of replicated documents are not persisted", VERSIONS_FILE);
+            }
+            instance = new ResourceVersions(identityFile == null ? null : identityFile.resolveSibling(VERSIONS_FILE), MAX_VERSIONS);
+        }
+        return instance;
+    }
+
+    /**
+     * @param path Path of the document
+     * @return Version of the last replicated change, NULL when unknown
+     */
+    public synchronized ResourceVersion get(final String path) {
+        return versions.get(path);
+    }
+
+    /**
+     * @param path    Path of the document
+     * @param version Version of the replicated change
+     */
+    public synchronized void put(final String path, final ResourceVersion version) {
+        versions.put(path, version);
+
+        if (file == null) {
+            return;
+        }
+
+        try {
+            if (damaged || (lines >= MIN_REWRITE_LINES && lines >= 2 * versions.size())) {
+                rewrite();
+            } else {
+                append(path, version);
+            }
+        } catch (final IOException ex) {
+            LOG.error("Unable to write {}: {}", file, ex.getMessage());
+            close();
+            damaged = true;
+        }
+    }
+
+    private void append(final String path, final ResourceVersion version) throws IOException {
+        if (writer == null) {
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        write(writer, path, version);
+        writer.flush();
+        lines++;
+    }
+
+    /**
+     * Replace the file by one with a line per version, in order of use.
+     */
+    private void rewrite() throws IOException {
+        close();
+
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (final BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (final Map.Entry<String, ResourceVersion> entry : versions.entrySet()) {
+                write(out, entry.getKey(), entry.getValue());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lines = versions.size();
+        damaged = false;
+    }
+
+    private static void write(final BufferedWriter out, final String path, final ResourceVersion version) throws IOException {
+        out.write(version.getTime() + SEPARATOR + version.getOrigin() + SEPARATOR
+                + (version.isDeleted() ? DELETED : STORED) + SEPARATOR + path);
+        out.newLine();
+    }
+
+    /**
+     * Close the file, it is opened again by the next change.
+     */
+    synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (final IOException ex) {
+                LOG.debug("Problem closing {}, ignored. {}", file, ex.getMessage());
+            }
+            writer = null;
+        }
+    }
+}
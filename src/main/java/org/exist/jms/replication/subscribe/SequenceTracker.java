@@ -0,0 +1,254 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2012 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ *  $Id$
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Highest contiguous sequence number applied per publisher. A message with a higher
+ * sequence number than the next expected one reveals a gap: messages that were not
+ * received, e.g. expired or purged on the broker, or published while the subscriber was down.
+ * <p>
+ * The applied sequence numbers are kept in {@link AppliedSequences}, so the tracking of a
+ * publisher continues after a restart. The first message of a publisher that is not known
+ * there starts the tracking.
+ *
+ * @author Dannes Wessels
+ */
+public class SequenceTracker {
+
+    private final Map<String, Origin> origins = new ConcurrentHashMap<>();
+    private final AppliedSequences applied;
+
+    /**
+     * Tracker without persistence.
+     */
+    public SequenceTracker() {
+        this(new AppliedSequences(null));
+    }
+
+    /**
+     * @param applied Persisted applied sequence numbers
+     */
+    public SequenceTracker(final AppliedSequences applied) {
+        this.applied = applied;
+    }
+
+    /**
+     * Find the messages missing before a received message. The first message of an unknown
+     * publisher starts the tracking.
+     *
+     * @param origin   Instance ID of the publisher
+     * @param sequence Sequence number of the received message
+     * @return First and last missing sequence number, NULL when there is no gap
+     */
+    public long[] findGap(final String origin, final long sequence) {
+        return findGap(origin, sequence, null);
+    }
+
+    /**
+     * Find the messages missing before a received message. Numbers the publisher reserved but
+     * never issued, after a restart without clean shutdown, are not missing.
+     *
+     * @param origin   Instance ID of the publisher
+     * @param sequence Sequence number of the received message
+     * @param skipped  First and last sequence number skipped by the publisher, can be NULL
+     * @return First and last missing sequence number, NULL when there is no gap
+     */
+    public long[] findGap(final String origin, final long sequence, final long[] skipped) {
+        final Origin state = getOrigin(origin, sequence - 1);
+        synchronized (state) {
+            if (skipped != null && state.contiguous + 1 >= skipped[0] && state.contiguous < skipped[1]) {
+                setContiguous(origin, state, skipped[1]);
+            }
+
+            if (sequence <= state.contiguous + 1) {
+                return null;
+            }
+
+            // Missed messages end before the skipped numbers. When messages after them were missed
+            // too, the skipped numbers are part of the gap and counted as missed.
+            final long last = (skipped != null && sequence - 1 >= skipped[0] && sequence - 1 <= skipped[1])
+                    ? skipped[0] - 1 : sequence - 1;
+
+            state.gaps++;
+            return new long[]{state.contiguous + 1, last};
+        }
+    }
+
+    /**
+     * Check if a message was applied before, e.g. when it was replayed to fill a gap and the
+     * original message arrives late. Such a message must not be applied again.
+     *
+     * @param origin   Instance ID of the publisher
+     * @param sequence Sequence number of the received message
+     * @return TRUE when the sequence number is not above the highest contiguous one
+     */
+    public boolean isApplied(final String origin, final long sequence) {
+        Origin state = origins.get(origin);
+        if (state == null) {
+            final Long persisted = applied.get(origin);
+            if (persisted == null) {
+                return false;
+            }
+            state = getOrigin(origin, persisted);
+        }
+        synchronized (state) {
+            if (sequence > state.contiguous) {
+                return false;
+            }
+            state.duplicates++;
+            return true;
+        }
+    }
+
+    /**
+     * Record an applied message.
+     *
+     * @param origin   Instance ID of the publisher
+     * @param sequence Sequence number of the message
+     */
+    public void recordApplied(final String origin, final long sequence) {
+        final Origin state = getOrigin(origin, sequence);
+        synchronized (state) {
+            if (sequence > state.contiguous) {
+                setContiguous(origin, state, sequence);
+            }
+        }
+    }
+
+    /**
+     * Close a gap after replay; messages that could not be replayed are counted as missed.
+     *
+     * @param origin   Instance ID of the publisher
+     * @param gap      First and last missing sequence number
+     * @param replayed Number of messages of the gap that were replayed
+     */
+    public void closeGap(final String origin, final long[] gap, final long replayed) {
+        final Origin state = getOrigin(origin, gap[1]);
+        synchronized (state) {
+            state.replayed += replayed;
+            state.missed += (gap[1] - gap[0] + 1) - replayed;
+            if (gap[1] > state.contiguous) {
+                setContiguous(origin, state, gap[1]);
+            }
+        }
+    }
+
+    /**
+     * Mark all messages of a publisher up to a sequence number as applied, e.g. by a snapshot.
+     *
+     * @param origin   Instance ID of the publisher
+     * @param sequence The sequence number
+     */
+    public void setContiguous(final String origin, final long sequence) {
+        origins.put(origin, new Origin(sequence));
+        applied.put(origin, sequence);
+    }
+
+    /**
+     * Get state of a publisher, continue with the persisted sequence number when the
+     * publisher is not tracked yet.
+     *
+     * @param contiguous Highest contiguous sequence number of a publisher that is not known
+     */
+    private Origin getOrigin(final String origin, final long contiguous) {
+        return origins.computeIfAbsent(origin, k -> {
+            final Long persisted = applied.get(origin);
+            return new Origin(persisted == null ? contiguous : persisted);
+        });
+    }
+
+    private void setContiguous(final String origin, final Origin state, final long sequence) {
+        state.contiguous = sequence;
+        applied.put(origin, sequence);
+    }
+
+    /**
+     * @return State per publisher
+     */
+    public Map<String, Origin> getOrigins() {
+        return origins;
+    }
+
+    /**
+     * Write sequence information to XML report.
+     *
+     * @param builder The builder to create the XML report.
+     */
+    public void write(final MemTreeBuilder builder) {
+        origins.forEach((origin, state) -> {
+            builder.startElement("", "sequence", "sequence", null);
+            builder.addAttribute(new QName("origin", null, null), origin);
+            builder.addAttribute(new QName("contiguous", null, null), "" + state.getContiguous());
+            builder.addAttribute(new QName("gaps", null, null), "" + state.getGaps());
+            builder.addAttribute(new QName("replayed", null, null), "" + state.getReplayed());
+            builder.addAttribute(new QName("missed", null, null), "" + state.getMissed());
+            builder.addAttribute(new QName("duplicates", null, null), "" + state.getDuplicates());
+            builder.endElement();
+        });
+    }
+
+    public void clear() {
+        origins.clear();
+    }
+
+    /**
+     * Sequence state of a publisher.
+     */
+    public static class Origin {
+
+        private long contiguous;
+        private long gaps;
+        private long replayed;
+        private long missed;
+        private long duplicates;
+
+        Origin(final long contiguous) {
+            this.contiguous = contiguous;
+        }
+
+        public synchronized long getContiguous() {
+            return contiguous;
+        }
+
+        public synchronized long getGaps() {
+            return gaps;
+        }
+
+        public synchronized long getReplayed() {
+            return replayed;
+        }
+
+        public synchronized long getMissed() {
+            return missed;
+        }
+
+        public synchronized long getDuplicates() {
+            return duplicates;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.jms.replication.publish.PublisherSequence;
+import org.exist.jms.replication.shared.MessageHelper;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.Identity;
+import org.exist.jms.shared.Report;
+import org.exist.jms.shared.eXistMessage;
+import org.exist.jms.shared.eXistMessagingListener;
+import org.exist.jms.shared.receive.ReplySessionPool;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.Txn;
+import org.exist.xmldb.XmldbURI;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Answers snapshot requests: the text of a request is the path of a collection, the collection
+ * tree is sent to the JMSReplyTo destination as a series of ZIP archives ("chunks").
+ * <p>
+ * Each chunk starts with an index entry, one line per resource in order of the walk:
+ * type (C or D), path, owner, group, mode, mime-type, creation time and last modified time,
+ * separated by tabs. The index is followed by one entry per document, named after the path of
+ * the document without the leading slash, containing the gzipped document as it is sent by the
+ * replication trigger. All chunks carry the replication sequence of this instance at the start of
+ * the snapshot, one property per shard that has a sequence, see {@link #getWatermarkProperty(int)};
+ * the last chunk is marked with {@link #EXIST_SNAPSHOT_LAST}.
+ *
+ * @author Dannes Wessels
+ */
+public class SnapshotJmsListener extends eXistMessagingListener {
+
+    public static final String EXIST_SNAPSHOT_CHUNK = "exist.snapshot.chunk";
+    public static final String EXIST_SNAPSHOT_LAST = "exist.snapshot.last";
+    public static final String EXIST_SNAPSHOT_WATERMARK = "exist.snapshot.watermark";
+
+    static final String INDEX_ENTRY = ".index";
+    static final String NO_VALUE = "-";
+
+    /**
+     * Size of the documents in a chunk after which the chunk is sent
+     */
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final static Logger LOG = LogManager.getLogger(SnapshotJmsListener.class);
+
+    private final BrokerPool brokerPool;
+
+    /**
+     * Constructor
+     *
+     * @param brokerPool Reference to database broker pool
+     */
+    public SnapshotJmsListener(final BrokerPool brokerPool) {
+        this.brokerPool = brokerPool;
+    }
+
+    @Override
+    public void onMessage(final Message msg) {
+
+        final Report report = getReport();
+        final long startTime = report.start();
+
+        try {
+            final Destination replyTo = msg.getJMSReplyTo();
+            if (!(msg instanceof TextMessage) || replyTo == null) {
+                msg.acknowledge();
+                throw new MessageReceiveException("Snapshot request must be a text message with a JMSReplyTo destination");
+            }
+
+            final String path = ((TextMessage) msg).getText();
+            final String correlationId = StringUtils.isBlank(msg.getJMSCorrelationID())
+                    ? msg.getJMSMessageID()
+                    : msg.getJMSCorrelationID();
+
+            // Changes after the oldest uncommitted change are replayed by the replica on top of the
+            // snapshot; the walk may not see changes of transactions that are still running.
+            final long[] watermarks = PublisherSequence.getInstance().getSnapshotWatermarks();
+            LOG.info("Snapshot request for '{}', watermark={}", path, watermarks[0]);
+
+            final ReplySessionPool replySessions = getReplySessions();
+            final Session session = replySessions.borrow();
+            final ChunkWriter writer;
+            try {
+                final MessageProducer producer = session.createProducer(replyTo);
+                try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()));
+                     final Txn txn = brokerPool.getTransactionManager().beginTransaction()) {
+
+                    writer = new ChunkWriter(session, producer, correlationId, watermarks);
+                    walk(broker, txn, XmldbURI.create(path), writer);
+                    writer.flush(true);
+
+                    txn.commit();
+                } finally {
+                    producer.close();
+                }
+            } finally {
+                replySessions.release(session);
+            }
+
+            LOG.info("Snapshot of '{}' sent: {} chunks, {} bytes", path, writer.chunks, writer.totalBytes);
+
+            msg.acknowledge();
+            report.incMessageCounterOK();
+
+        } catch (final MessageReceiveException ex) {
+            report.addListenerError(ex);
+            LOG.error(ex.getMessage());
+
+        } catch (final Throwable t) {
+            report.addListenerError(t);
+            LOG.error(t.getMessage(), t);
+
+        } finally {
+            report.stop(startTime);
+            report.incMessageCounterTotal();
+            report.addBytes(getBodySize(msg));
+        }
+    }
+
+    /**
+     * Add a collection, its documents and its sub-collections to the snapshot, depth first and in
+     * order of name.
+     */
+    private void walk(final DBBroker broker, final Txn txn, final XmldbURI uri, final ChunkWriter writer)
+            throws PermissionDeniedException, IOException, JMSException {
+
+        final TreeSet<String> documents = new TreeSet<>();
+        final TreeSet<String> collections = new TreeSet<>();
+
+        try (final Collection collection = broker.openCollection(uri, Lock.LockMode.READ_LOCK)) {
+            if (collection == null) {
+                LOG.debug("Collection {} does not exist, skipped", uri);
+                return;
+            }
+
+            writer.addCollection(collection);
+
+            for (final Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+                documents.add(i.next().getFileURI().toString());
+            }
+
+            for (final Iterator<XmldbURI> i = collection.collectionIterator(broker); i.hasNext(); ) {
+                collections.add(i.next().toString());
+            }
+
+        } catch (final Exception ex) {
+            if (ex instanceof PermissionDeniedException) {
+                throw (PermissionDeniedException) ex;
+            }
+            throw new IOException(String.format("Unable to read collection %s: %s", uri, ex.getMessage()), ex);
+        }
+
+        for (final String name : documents) {
+            try (final LockedDocument lockedDocument = broker.getXMLResource(uri.append(name), Lock.LockMode.READ_LOCK)) {
+                // Removed in the mean time
+                if (lockedDocument != null) {
+                    writer.addDocument(broker, txn, lockedDocument.getDocument());
+                }
+            }
+        }
+
+        for (final String name : collections) {
+            walk(broker, txn, uri.append(name), writer);
+        }
+    }
+
+    /**
+     * @param shard The shard
+     * @return Name of the message property with the watermark of the shard
+     */
+    static String getWatermarkProperty(final int shard) {
+        return shard == 0 ? EXIST_SNAPSHOT_WATERMARK : EXIST_SNAPSHOT_WATERMARK + "." + shard;
+    }
+
+    @Override
+    public String getUsageType() {
+        return "snapshot";
+    }
+
+    /**
+     * Collects resources and sends them as chunks.
+     */
+    private static class ChunkWriter {
+
+        private final Session session;
+        private final MessageProducer producer;
+        private final String correlationId;
+        private final long[] watermarks;
+
+        private final StringBuilder index = new StringBuilder();
+        private final List<String> names = new ArrayList<>();
+        private final List<byte[]> payloads = new ArrayList<>();
+        private long size;
+
+        private int chunks;
+        private long totalBytes;
+
+        ChunkWriter(final Session session, final MessageProducer producer, final String correlationId, final long[] watermarks) {
+            this.session = session;
+            this.producer = producer;
+            this.correlationId = correlationId;
+            this.watermarks = watermarks;
+        }
+
+        void addCollection(final Collection collection) {
+            final Map<String, Object> props = new HashMap<>();
+            MessageHelper.retrievePermission(props, collection.getPermissions());
+            MessageHelper.retrieveFromCollection(props, collection);
+            addIndexLine(eXistMessage.ResourceType.COLLECTION, collection.getURI().toString(), props);
+        }
+
+        void addDocument(final DBBroker broker, final Txn txn, final DocumentImpl document) throws IOException, JMSException {
+            final Map<String, Object> props = new HashMap<>();
+            MessageHelper.retrievePermission(props, document.getPermissions());
+            MessageHelper.retrieveDocMetadata(props, document.getMetadata());
+
+            final String path = document.getURI().toString();
+            final byte[] payload = MessageHelper.gzipSerialize(broker, txn, document, props);
+
+            addIndexLine(eXistMessage.ResourceType.DOCUMENT, path, props);
+            names.add(path.substring(1));
+            payloads.add(payload);
+            size += payload.length;
+
+            if (size >= CHUNK_SIZE) {
+                flush(false);
+            }
+        }
+
+        private void addIndexLine(final eXistMessage.ResourceType type, final String path, final Map<String, Object> props) {
+            index.append(type == eXistMessage.ResourceType.COLLECTION ? 'C' : 'D').append('\t')
+                    .append(path).append('\t')
+                    .append(valueOf(props, MessageHelper.EXIST_RESOURCE_OWNER)).append('\t')
+                    .append(valueOf(props, MessageHelper.EXIST_RESOURCE_GROUP)).append('\t')
+                    .append(valueOf(props, MessageHelper.EXIST_RESOURCE_MODE)).append('\t')
+                    .append(valueOf(props, MessageHelper.EXIST_RESOURCE_MIMETYPE)).append('\t')
+                    .append(valueOf(props, MessageHelper.EXIST_RESOURCE_CREATIONTIME)).append('\t')
+                    .append(valueOf(props, MessageHelper.EXIST_RESOURCE_LASTMODIFIED)).append('\n');
+        }
+
+        private static String valueOf(final Map<String, Object> props, final String key) {
+            final Object value = props.get(key);
+            return value == null ? NO_VALUE : value.toString();
+        }
+
+        /**
+         * Send collected resources as one chunk.
+         *
+         * @param last TRUE for the last chunk of the snapshot, sent even when empty
+         */
+        void flush(final boolean last) throws IOException, JMSException {
+            if (!last && index.length() == 0) {
+                return;
+            }
+
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (final ZipOutputStream zos = new ZipOutputStream(baos)) {
+                writeEntry(zos, INDEX_ENTRY, index.toString().getBytes(StandardCharsets.UTF_8));
+                for (int i = 0; i < names.size(); i++) {
+                    writeEntry(zos, names.get(i), payloads.get(i));
+                }
+            }
+            final byte[] data = baos.toByteArray();
+
+            final BytesMessage message = session.createBytesMessage();
+            message.writeBytes(data);
+            message.setJMSCorrelationID(correlationId);
+            message.setStringProperty(Constants.EXIST_INSTANCE_ID, Identity.getInstance().getIdentity());
+            message.setIntProperty(EXIST_SNAPSHOT_CHUNK, chunks);
+            for (int shard = 0; shard < watermarks.length; shard++) {
+                // Shard 0 always, other shards when used
+                if (shard == 0 || watermarks[shard] > 0) {
+                    message.setLongProperty(getWatermarkProperty(shard), watermarks[shard]);
+                }
+            }
+            message.setBooleanProperty(EXIST_SNAPSHOT_LAST, last);
+            producer.send(message);
+
+            chunks++;
+            totalBytes += data.length;
+
+            index.setLength(0);
+            names.clear();
+            payloads.clear();
+            size = 0;
+        }
+
+        /**
+         * Payloads are compressed already, entries are stored.
+         */
+        private static void writeEntry(final ZipOutputStream zos, final String name, final byte[] data) throws IOException {
+            final CRC32 crc = new CRC32();
+            crc.update(data);
+
+            final ZipEntry entry = new ZipEntry(name);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(data.length);
+            entry.setCompressedSize(data.length);
+            entry.setCrc(crc.getValue());
+
+            zos.putNextEntry(entry);
+            zos.write(data);
+            zos.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.jms.replication.shared.MessageHelper;
+import org.exist.jms.replication.shared.Sharding;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.Identity;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.eXistMessage;
+import org.exist.xquery.XPathException;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import javax.jms.TextMessage;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.exist.jms.shared.ErrorCodes.*;
+
+/**
+ * Requests a snapshot of a collection tree from the snapshot service of a publisher, see
+ * {@link SnapshotJmsListener}, and stores the received resources via a replication listener.
+ * Each resource is stored in its own transaction, exactly like a replicated change.
+ *
+ * @author Dannes Wessels
+ */
+public class SnapshotLoader {
+
+    private final static Logger LOG = LogManager.getLogger(SnapshotLoader.class);
+
+    private final JmsConfiguration jmsConfig;
+    private final ReplicationJmsListener listener;
+
+    private String origin;
+    private final Map<Integer, Long> watermarks = new TreeMap<>();
+    private long chunks;
+    private long bytes;
+    private long collections;
+    private long documents;
+
+    /**
+     * Constructor
+     *
+     * @param jmsConfig JMS configuration of the snapshot service
+     * @param listener  Listener that stores the resources
+     */
+    public SnapshotLoader(final JmsConfiguration jmsConfig, final ReplicationJmsListener listener) {
+        this.jmsConfig = jmsConfig;
+        this.listener = listener;
+    }
+
+    /**
+     * Request and store the snapshot of a collection tree.
+     *
+     * @param path    Path of the collection
+     * @param timeout Maximum time to wait for each chunk, in milliseconds
+     * @throws XPathException When the snapshot could not be requested, received or stored
+     */
+    public void load(final String path, final long timeout) throws XPathException {
+
+        // JMS specific checks
+        jmsConfig.validate();
+
+        final String correlationId = UUID.randomUUID().toString();
+
+        Connection connection = null;
+        try {
+            final Context context = createContext(jmsConfig);
+            connection = createConnection(context, jmsConfig);
+
+            final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            final Destination destination = (Destination) context.lookup(jmsConfig.getDestination());
+
+            // Chunks are received on a temporary queue
+            final TemporaryQueue replyQueue = session.createTemporaryQueue();
+            final MessageConsumer consumer = session.createConsumer(replyQueue);
+            connection.start();
+
+            // Send request
+            final TextMessage request = session.createTextMessage(path);
+            request.setJMSReplyTo(replyQueue);
+            request.setJMSCorrelationID(correlationId);
+            request.setStringProperty(Constants.EXIST_INSTANCE_ID, Identity.getInstance().getIdentity());
+            session.createProducer(destination).send(request);
+
+            LOG.info("Requested snapshot of '{}', correlationId={}", path, correlationId);
+
+            // Receive chunks until the last one
+            boolean last = false;
+            while (!last) {
+                final Message message = consumer.receive(timeout);
+                if (message == null) {
+                    throw new XPathException(JMS028, String.format("No snapshot chunk received within %s ms, correlationId=%s", timeout, correlationId));
+                }
+
+                if (!correlationId.equals(message.getJMSCorrelationID()) || !(message instanceof BytesMessage)) {
+                    LOG.warn("Unexpected message on reply queue, skipped: {}", message.getJMSMessageID());
+                    continue;
+                }
+
+                origin = message.getStringProperty(Constants.EXIST_INSTANCE_ID);
+                readWatermarks(message);
+                last = message.getBooleanProperty(SnapshotJmsListener.EXIST_SNAPSHOT_LAST);
+
+                final BytesMessage bm = (BytesMessage) message;
+                final byte[] data = new byte[(int) bm.getBodyLength()];
+                bm.readBytes(data);
+                applyChunk(data);
+
+                chunks++;
+                bytes += data.length;
+            }
+
+            LOG.info("Loaded snapshot of '{}': {} collections, {} documents, watermarks {}={}", path, collections, documents, origin, watermarks);
+
+        } catch (final XPathException ex) {
+            throw ex;
+
+        } catch (final JMSException ex) {
+            LOG.error(ex.getMessage(), ex);
+            throw new XPathException(JMS004, ex.getMessage());
+
+        } catch (final NamingException ex) {
+            LOG.error(ex.getMessage(), ex);
+            throw new XPathException(JMS026, ex.getMessage());
+
+        } catch (final Throwable t) {
+            LOG.error(t.getMessage(), t);
+            throw new XPathException(JMS000, String.format("Unable to load snapshot: %s", t.getMessage()));
+
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (final JMSException ex) {
+                    LOG.error("Problem closing connection, ignored. {} ({})", ex.getMessage(), ex.getErrorCode());
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the watermark of each shard of the publisher.
+     */
+    private void readWatermarks(final Message message) throws JMSException {
+        for (int shard = 0; shard < Sharding.MAX_SHARDS; shard++) {
+            final String property = SnapshotJmsListener.getWatermarkProperty(shard);
+            if (message.propertyExists(property)) {
+                watermarks.put(shard, message.getLongProperty(property));
+            }
+        }
+    }
+
+    /**
+     * Store the resources of one chunk, in order of the index.
+     */
+    private void applyChunk(final byte[] data) throws IOException {
+
+        String index = null;
+        final Map<String, byte[]> payloads = new HashMap<>();
+
+        try (final ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(data))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                final byte[] content = IOUtils.toByteArray(zis);
+                if (SnapshotJmsListener.INDEX_ENTRY.equals(entry.getName())) {
+                    index = new String(content, StandardCharsets.UTF_8);
+                } else {
+                    payloads.put("/" + entry.getName(), content);
+                }
+            }
+        }
+
+        if (index == null) {
+            throw new IOException("Snapshot chunk without index");
+        }
+
+        for (final String line : StringUtils.split(index, '\n')) {
+            final String[] fields = line.split("\t", -1);
+            if (fields.length != 8) {
+                throw new IOException(String.format("Invalid snapshot index line '%s'", line));
+            }
+
+            final eXistMessage em = new eXistMessage();
+            em.setResourceOperation(eXistMessage.ResourceOperation.CREATE);
+            em.setResourcePath(fields[1]);
+
+            final Map<String, Object> metadata = em.getMetadata();
+            putValue(metadata, MessageHelper.EXIST_RESOURCE_OWNER, fields[2]);
+            putValue(metadata, MessageHelper.EXIST_RESOURCE_GROUP, fields[3]);
+            if (!SnapshotJmsListener.NO_VALUE.equals(fields[4])) {
+                metadata.put(MessageHelper.EXIST_RESOURCE_MODE, Integer.valueOf(fields[4]));
+            }
+            putValue(metadata, MessageHelper.EXIST_RESOURCE_MIMETYPE, fields[5]);
+            if (!SnapshotJmsListener.NO_VALUE.equals(fields[6])) {
+                metadata.put(MessageHelper.EXIST_RESOURCE_CREATIONTIME, Long.valueOf(fields[6]));
+            }
+            if (!SnapshotJmsListener.NO_VALUE.equals(fields[7])) {
+                metadata.put(MessageHelper.EXIST_RESOURCE_LASTMODIFIED, Long.valueOf(fields[7]));
+            }
+
+            if ("C".equals(fields[0])) {
+                em.setResourceType(eXistMessage.ResourceType.COLLECTION);
+                listener.apply(em);
+                collections++;
+
+            } else {
+                final byte[] payload = payloads.get(fields[1]);
+                if (payload == null) {
+                    throw new IOException(String.format("Snapshot chunk without content for '%s'", fields[1]));
+                }
+                em.setResourceType(eXistMessage.ResourceType.DOCUMENT);
+                em.setPayload(payload);
+                listener.apply(em);
+                documents++;
+            }
+        }
+    }
+
+    /**
+     * Create JNDI context for a configuration.
+     */
+    static Context createContext(final JmsConfiguration jmsConfig) throws NamingException {
+        final Properties props = new Properties();
+        props.setProperty(Context.INITIAL_CONTEXT_FACTORY, jmsConfig.getInitialContextFactory());
+        props.setProperty(Context.PROVIDER_URL, jmsConfig.getBrokerURL());
+        return new InitialContext(props);
+    }
+
+    /**
+     * Create connection for a request, without client ID: it is used by the replication receiver.
+     */
+    static Connection createConnection(final Context context, final JmsConfiguration jmsConfig) throws NamingException, JMSException {
+        final ConnectionFactory connectionFactory = (ConnectionFactory) context.lookup(jmsConfig.getConnectionFactory());
+        final String userName = jmsConfig.getConnectionUserName();
+        final String password = jmsConfig.getConnectionPassword();
+        return (StringUtils.isBlank(userName) || StringUtils.isBlank(password))
+                ? connectionFactory.createConnection()
+                : connectionFactory.createConnection(userName, password);
+    }
+
+    private static void putValue(final Map<String, Object> metadata, final String key, final String value) {
+        if (!SnapshotJmsListener.NO_VALUE.equals(value)) {
+            metadata.put(key, value);
+        }
+    }
+
+    /**
+     * @return Instance ID of the publisher that sent the snapshot
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return Replication sequence of the publisher at the start of the snapshot
+     */
+    public long getWatermark() {
+        return watermarks.getOrDefault(0, 0L);
+    }
+
+    /**
+     * @return Replication sequence per shard of the publisher at the start of the snapshot
+     */
+    public Map<Integer, Long> getWatermarks() {
+        return Collections.unmodifiableMap(watermarks);
+    }
+
+    public long getChunks() {
+        return chunks;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getCollections() {
+        return collections;
+    }
+
+    public long getDocuments() {
+        return documents;
+    }
+}
@@ -39,9 +39,13 @@ public class SubscriberParameters extends ClientParameters {
     public static final String MESSAGE_SELECTOR = Constants.MESSAGE_SELECTOR; //"messageselector";
     public static final String DURABLE = Constants.DURABLE; //"durable";
     public static final String NO_LOCAL = Constants.NO_LOCAL; //"nolocal";
+    public static final String REPLAY_DESTINATION = Constants.REPLAY_DESTINATION;
+    public static final String CONFLICT_RESOLVER = Constants.CONFLICT_RESOLVER;
 
     private String subscriberName;
     private String messageSelector;
+    private String replayDestination;
+    private String conflictResolver;
 
     private boolean noLocal = Boolean.TRUE;
     private boolean durable = Boolean.TRUE;
@@ -62,6 +66,14 @@ public class SubscriberParameters extends ClientParameters {
         return noLocal;
     }
 
+    public String getReplayDestination() {
+        return replayDestination;
+    }
+
+    public String getConflictResolver() {
+        return conflictResolver;
+    }
+
     @Override
     public void processParameters() throws ClientParameterException {
 
@@ -163,6 +175,12 @@ public class SubscriberParameters extends ClientParameters {
             throw new ClientParameterException(errorText);
         }
 
+        // Get destination of replay service, optional
+        replayDestination = props.getProperty(REPLAY_DESTINATION);
+
+        // Get resolver of conflicting changes, optional
+        conflictResolver = props.getProperty(CONFLICT_RESOLVER);
+
         // Get connection authentication
         connectionUsername = props.getProperty(Constants.JMS_CONNECTION_USERNAME);
         connectionPassword = props.getProperty(Constants.JMS_CONNECTION_PASSWORD);
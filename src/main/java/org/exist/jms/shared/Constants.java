@@ -52,6 +52,29 @@ public class Constants {
      * eXist-db JMS instance id
      */
     public static final String EXIST_INSTANCE_ID = "exist.instance-id";
+    /*
+     * Replication event time (ms since epoch) and sequence number of the publisher
+     */
+    public static final String EXIST_EVENT_TIME = "exist.event-time";
+    public static final String EXIST_ORIGIN_SEQUENCE = "exist.origin-sequence";
+    /*
+     * Sequence numbers the publisher skipped after a restart without clean shutdown
+     */
+    public static final String EXIST_ORIGIN_SKIPPED_FROM = "exist.origin-skipped-from";
+    public static final String EXIST_ORIGIN_SKIPPED_TO = "exist.origin-skipped-to";
+    /*
+     * Instance ids a replicated change passed through, origin first, and remaining number of relays
+     */
+    public static final String EXIST_ORIGIN_PATH = "exist.origin-path";
+    public static final String EXIST_HOP_LIMIT = "exist.hop-limit";
+    /*
+     * Shard of a replicated change, the sequence number is counted per shard
+     */
+    public static final String EXIST_SHARD = "exist.shard";
+    /*
+     * Trace ID of a sampled message
+     */
+    public static final String EXIST_TRACE_ID = "exist.trace-id";
     /*
      * JMS reporting
      */
@@ -89,4 +112,48 @@ public class Constants {
     public static final String PRODUCER_TTL = "producer.time-to-live";
     public static final String PRODUCER_PRIORITY = "producer.priority";
     public static final String PRODUCER_DELIVERY_MODE = "producer.delivery-mode";
+    public static final String PRODUCER_ASYNC = "producer.async";
+    public static final String BATCH_SIZE = "batch.size";
+    /*
+     * Listener parameters (dispatching of received messages)
+     */
+    public static final String LISTENER_CONCURRENCY = "listener.concurrency";
+    public static final String LISTENER_EXECUTOR = "listener.executor";
+    public static final String LISTENER_GROUP_ORDERING = "listener.group-ordering";
+    public static final String LISTENER_RESPONDER = "listener.responder";
+    /*
+     * Report parameters
+     */
+    public static final String REPORT_ERROR_CAPACITY = "report.error-capacity";
+    public static final String REPORT_ERROR_DEDUPLICATE = "report.error-deduplicate";
+    public static final String REPORT_SLOW_THRESHOLD = "report.slow-threshold";
+    /*
+     * Replication parameters
+     */
+    public static final String REPLAY_DESTINATION = "replay.destination";
+    public static final String RELAY = "relay";
+    public static final String HOP_LIMIT = "hop-limit";
+    public static final String RELAY_DESTINATION = "relay.destination";
+    public static final String RELAY_APPLY = "relay.apply";
+    public static final String CONFLICT_RESOLVER = "conflict.resolver";
+    public static final String CONFLICT_CAPACITY = "conflict.capacity";
+    public static final String CONFLICT_RESOLVER_NONE = "none";
+    public static final String CONFLICT_RESOLVER_LWW = "last-writer-wins";
+    public static final String SHARDS = "shards";
+    public static final String SHARD_DEPTH = "shard.depth";
+    public static final String GROUP_KEY = "group.key";
+    public static final String GROUP_KEY_NONE = "none";
+    public static final String GROUP_KEY_DOCUMENT = "document";
+    public static final String GROUP_KEY_COLLECTION = "collection";
+    public static final String GROUP_KEY_TOP_COLLECTION = "top-collection";
+    /*
+     * Tracing parameters
+     */
+    public static final String TRACE_SAMPLE_RATE = "trace.sample-rate";
+    public static final String EXECUTOR_TYPE_PLATFORM = "platform";
+    public static final String EXECUTOR_TYPE_VIRTUAL = "virtual";
+    /*
+     * JMS defined properties
+     */
+    public static final String JMSX_GROUP_ID = "JMSXGroupID";
 }
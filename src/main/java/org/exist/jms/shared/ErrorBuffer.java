@@ -0,0 +1,162 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+package org.exist.jms.shared;
+
+import org.exist.jms.shared.ReportItem.CONTEXT;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fixed capacity storage for errors; when full the oldest error is dropped. Keeps
+ * counters per type of error and the number of errors in the last minute. Optionally
+ * an error identical to an error in the buffer is only counted.
+ *
+ * @author Dannes Wessels
+ */
+public class ErrorBuffer {
+
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private ReportItem[] items;
+    private int head = 0;
+    private int size = 0;
+    private boolean deduplicate = false;
+
+    private long total = 0;
+    private long dropped = 0;
+    private final Map<String, Long> countPerType = new TreeMap<>();
+
+    private final RateCounter rate = new RateCounter();
+
+    public ErrorBuffer() {
+        this.items = new ReportItem[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Configure buffer, existing errors are removed.
+     *
+     * @param capacity    Maximum number of errors to keep, minimum 1
+     * @param deduplicate TRUE to count identical errors instead of storing them again
+     */
+    public synchronized void configure(final int capacity, final boolean deduplicate) {
+        this.items = new ReportItem[Math.max(1, capacity)];
+        this.deduplicate = deduplicate;
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Add error.
+     *
+     * @param error   The error
+     * @param context Where the error occurred
+     */
+    public synchronized void add(final Throwable error, final CONTEXT context) {
+
+        total++;
+        countPerType.merge(context.toString().toLowerCase(Locale.US) + ":" + error.getClass().getSimpleName(), 1L, Long::sum);
+        rate.increment();
+
+        if (deduplicate) {
+            for (int i = 0; i < size; i++) {
+                final ReportItem item = items[(head + i) % items.length];
+                if (item.isSameError(error, context)) {
+                    item.addOccurrence();
+                    return;
+                }
+            }
+        }
+
+        if (size == items.length) {
+            // Overwrite oldest
+            items[head] = new ReportItem(error, context);
+            head = (head + 1) % items.length;
+            dropped++;
+        } else {
+            items[(head + size) % items.length] = new ReportItem(error, context);
+            size++;
+        }
+    }
+
+    /**
+     * @return Stored errors, oldest first.
+     */
+    public synchronized List<ReportItem> getItems() {
+        final List<ReportItem> retVal = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            retVal.add(items[(head + i) % items.length]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return Total number of errors, including dropped and de-duplicated errors.
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Number of errors dropped because the buffer was full.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return Number of errors per context and exception type.
+     */
+    public synchronized Map<String, Long> getCountPerType() {
+        return new TreeMap<>(countPerType);
+    }
+
+    /**
+     * @return Number of errors in the last minute.
+     */
+    public long getLastMinuteCount() {
+        return rate.getLastMinuteCount();
+    }
+
+    /**
+     * @return Number of errors per second in the last minute, oldest first.
+     */
+    public long[] getLastMinuteSeries() {
+        return rate.getSeries();
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < items.length; i++) {
+            items[i] = null;
+        }
+        head = 0;
+        size = 0;
+        total = 0;
+        dropped = 0;
+        countPerType.clear();
+        rate.clear();
+    }
+}
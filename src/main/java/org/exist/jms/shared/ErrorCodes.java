@@ -47,6 +47,7 @@ public class ErrorCodes {
     public final static ErrorCode JMS025 = new JmsErrorCode("JMS025", "JMS connection is not initialized.");
     public final static ErrorCode JMS026 = new JmsErrorCode("JMS026", "No ConnectionFactory.");
     public final static ErrorCode JMS027 = new JmsErrorCode("JMS027", "Unable to convert object to JMS ObjectMessage.");
+    public final static ErrorCode JMS028 = new JmsErrorCode("JMS028", "No reply received within timeout.");
 
     public final static ErrorCode JMS030 = new JmsErrorCode("JMS030", "Missing collection trigger configuration.");
     public final static ErrorCode JMS031 = new JmsErrorCode("JMS031", "Missing resource.");
@@ -65,6 +65,13 @@ public class Identity {
         return identity;
     }
 
+    /**
+     * @return The file containing the identity, NULL when eXist_home is not found
+     */
+    public Path getIdentityFile() {
+        return identityFile;
+    }
+
     /**
      * Find identity file
      */
@@ -25,6 +25,7 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.exist.jms.replication.publish.PublisherParameters;
+import org.exist.jms.replication.subscribe.ConflictStore;
 import org.exist.jms.replication.subscribe.SubscriberParameters;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.functions.map.AbstractMapType;
@@ -87,6 +88,9 @@ public class JmsConfiguration extends MessagingConfiguration {
         setLocalProperty(Constants.PRODUCER_PRIORITY, "" + params.getPriority());
         setLocalProperty(Constants.PRODUCER_TTL, "" + params.getTimeToLive());
         setLocalProperty(Constants.PRODUCER_DELIVERY_MODE, params.getDeliveryMode());
+        setLocalProperty(Constants.PRODUCER_ASYNC, "" + params.isAsync());
+        setLocalProperty(Constants.TRACE_SAMPLE_RATE, "" + params.getTraceSampleRate());
+        setLocalProperty(Constants.REPORT_SLOW_THRESHOLD, "" + params.getSlowThreshold());
 
         setLocalProperty(Constants.JMS_CONNECTION_USERNAME, params.getConnectionUsername());
         setLocalProperty(Constants.JMS_CONNECTION_PASSWORD, params.getConnectionPassword());
@@ -103,6 +107,8 @@ public class JmsConfiguration extends MessagingConfiguration {
         setLocalProperty(Constants.MESSAGE_SELECTOR, params.getMessageSelector());
         setLocalProperty(Constants.NO_LOCAL, "" + params.isNoLocal());
         setLocalProperty(Constants.SUBSCRIBER_NAME, params.getSubscriberName());
+        setLocalProperty(Constants.REPLAY_DESTINATION, params.getReplayDestination());
+        setLocalProperty(Constants.CONFLICT_RESOLVER, params.getConflictResolver());
 
         setLocalProperty(Constants.JMS_CONNECTION_USERNAME, params.getConnectionUsername());
         setLocalProperty(Constants.JMS_CONNECTION_PASSWORD, params.getConnectionPassword());
@@ -264,6 +270,132 @@ public class JmsConfiguration extends MessagingConfiguration {
         return getProperty(Constants.SUBSCRIBER_NAME);
     }
 
+    /**
+     * @return Maximum number of callbacks processed in parallel, 1 when not set.
+     */
+    public int getListenerConcurrency() {
+        final int concurrency = NumberUtils.toInt(getValue(Constants.LISTENER_CONCURRENCY), 1);
+        return concurrency < 1 ? 1 : concurrency;
+    }
+
+    /**
+     * @return Type of threads used for parallel callbacks, 'platform' when not set.
+     */
+    public String getListenerExecutor() {
+        final String executor = getValue(Constants.LISTENER_EXECUTOR);
+        return StringUtils.isBlank(executor) ? Constants.EXECUTOR_TYPE_PLATFORM : executor;
+    }
+
+    /**
+     * @return TRUE when messages of the same JMSXGroupID must be processed in order, default FALSE.
+     */
+    public boolean isListenerGroupOrdering() {
+        return BooleanUtils.toBoolean(getValue(Constants.LISTENER_GROUP_ORDERING));
+    }
+
+    /**
+     * @return TRUE when the result of the callback must be sent to the JMSReplyTo destination, default FALSE.
+     */
+    public boolean isListenerResponder() {
+        return BooleanUtils.toBoolean(getValue(Constants.LISTENER_RESPONDER));
+    }
+
+    /**
+     * @return TRUE when messages must be sent asynchronously, default FALSE.
+     */
+    public boolean isProducerAsync() {
+        return BooleanUtils.toBoolean(getValue(Constants.PRODUCER_ASYNC));
+    }
+
+    /**
+     * @return Maximum number of errors kept in the report of a receiver.
+     */
+    public int getReportErrorCapacity() {
+        final int capacity = NumberUtils.toInt(getValue(Constants.REPORT_ERROR_CAPACITY), ErrorBuffer.DEFAULT_CAPACITY);
+        return capacity < 1 ? ErrorBuffer.DEFAULT_CAPACITY : capacity;
+    }
+
+    /**
+     * @return TRUE when identical errors must be counted instead of stored again, default FALSE.
+     */
+    public boolean isReportErrorDeduplicate() {
+        return BooleanUtils.toBoolean(getValue(Constants.REPORT_ERROR_DEDUPLICATE));
+    }
+
+    /**
+     * @return Processing time in milliseconds above which a message is logged as slow, 0 disables.
+     */
+    public long getReportSlowThreshold() {
+        return NumberUtils.toLong(getValue(Constants.REPORT_SLOW_THRESHOLD), SlowOperationLog.DEFAULT_THRESHOLD_MS);
+    }
+
+    /**
+     * @return Destination of the replay service of the publisher, NULL when not set.
+     */
+    public String getReplayDestination() {
+        return getValue(Constants.REPLAY_DESTINATION);
+    }
+
+    /**
+     * @return Downstream destination of a relay receiver, NULL when not set.
+     */
+    public String getRelayDestination() {
+        return getValue(Constants.RELAY_DESTINATION);
+    }
+
+    /**
+     * @return TRUE when a relay receiver must also apply the changes locally, default TRUE.
+     */
+    public boolean isRelayApply() {
+        final String apply = getValue(Constants.RELAY_APPLY);
+        return apply == null || BooleanUtils.toBoolean(apply);
+    }
+
+    /**
+     * @return Resolver of conflicting changes of a replication receiver, 'none' when not set.
+     */
+    public String getConflictResolver() {
+        final String resolver = getValue(Constants.CONFLICT_RESOLVER);
+        return StringUtils.isBlank(resolver) ? Constants.CONFLICT_RESOLVER_NONE : resolver;
+    }
+
+    /**
+     * @return Maximum number of conflicts kept in the report of a replication receiver.
+     */
+    public int getConflictCapacity() {
+        final int capacity = NumberUtils.toInt(getValue(Constants.CONFLICT_CAPACITY), ConflictStore.DEFAULT_CAPACITY);
+        return capacity < 1 ? ConflictStore.DEFAULT_CAPACITY : capacity;
+    }
+
+    /**
+     * @return Name of the message property of which the value is used as JMSXGroupID, NULL when not set.
+     */
+    public String getGroupKey() {
+        return getValue(Constants.GROUP_KEY);
+    }
+
+    /**
+     * @return Number of shards of a sharded replication receiver, 1 when not set.
+     */
+    public int getShards() {
+        return NumberUtils.toInt(getValue(Constants.SHARDS), 1);
+    }
+
+    /**
+     * @return Fraction of sent messages that is traced, 0 (default) to 1.
+     */
+    public double getTraceSampleRate() {
+        return NumberUtils.toDouble(getValue(Constants.TRACE_SAMPLE_RATE), 0);
+    }
+
+    /**
+     * Get value as string, also when set as xs:integer or xs:boolean in the configuration map.
+     */
+    private String getValue(final String key) {
+        final Object value = get(key);
+        return value == null ? null : value.toString();
+    }
+
     @Override
     public String toString() {
         return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
@@ -278,6 +410,7 @@ public class JmsConfiguration extends MessagingConfiguration {
                 .append(Constants.PRODUCER_TTL, getTimeToLive())
                 .append(Constants.DURABLE, isDurable())
                 .append(Constants.NO_LOCAL, isNoLocal())
+                .append(Constants.LISTENER_CONCURRENCY, getListenerConcurrency())
                 .toString();
     }
 
@@ -0,0 +1,86 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+package org.exist.jms.shared;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Helper for registering MBeans in the platform MBean server. Problems are logged, not thrown:
+ * monitoring must never prevent messaging.
+ *
+ * @author Dannes Wessels
+ */
+public class JmxSupport {
+
+    public static final String DOMAIN = "org.exist.jms";
+
+    private final static Logger LOG = LogManager.getLogger(JmxSupport.class);
+
+    private JmxSupport() {
+        // NOP
+    }
+
+    /**
+     * Register MBean, replaces a registered MBean with the same name.
+     *
+     * @param name  Name of MBean, e.g. 'type=Sender'
+     * @param mbean The MBean
+     */
+    public static void register(final String name, final Object mbean) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(DOMAIN + ":" + name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+
+        } catch (final JMException | RuntimeException ex) {
+            LOG.warn("Unable to register MBean '{}': {}", name, ex.getMessage());
+        }
+    }
+
+    /**
+     * Unregister MBean when registered.
+     *
+     * @param name Name of MBean, e.g. 'type=Receiver,id=1'
+     */
+    public static void unregister(final String name) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(DOMAIN + ":" + name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+
+        } catch (final JMException | RuntimeException ex) {
+            LOG.warn("Unable to unregister MBean '{}': {}", name, ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+package org.exist.jms.shared;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with fixed memory usage. Values are counted in
+ * logarithmic buckets, eight per power of two, so percentiles have a relative
+ * error of at most 12.5%.
+ *
+ * @author Dannes Wessels
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NR_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NR_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Record a value.
+     *
+     * @param value The value, e.g. duration in nanoseconds. Negative values are counted as 0.
+     */
+    public void record(final long value) {
+        final long v = Math.max(0, value);
+        buckets.incrementAndGet(indexOf(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * @return Number of recorded values.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Sum of all recorded values.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return Largest recorded value.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the value below which the given fraction of the recorded values fall.
+     *
+     * @param quantile Value between 0 and 1, e.g. 0.99
+     * @return Upper bound of the bucket containing the percentile, 0 when nothing was recorded.
+     */
+    public long getPercentile(final double quantile) {
+
+        // Take snapshot, the total is consistent with the buckets
+        final long[] snapshot = new long[NR_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NR_BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1, (long) Math.ceil(quantile * total));
+        long cumulated = 0;
+        for (int i = 0; i < NR_BUCKETS; i++) {
+            cumulated += snapshot[i];
+            if (cumulated >= target) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Reset all values. Values recorded concurrently might partly survive.
+     */
+    public void clear() {
+        for (int i = 0; i < NR_BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    private static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = index % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        final long lower = (SUB_BUCKETS + subBucket) * width;
+        return lower + width - 1;
+    }
+}
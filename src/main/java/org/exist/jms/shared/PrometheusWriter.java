@@ -0,0 +1,142 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared;
+
+/**
+ * Writer for metrics in the Prometheus text exposition format (version 0.0.4). Samples of
+ * a metric must be written directly after its {@link #family(String, String, String)} line.
+ *
+ * @author Dannes Wessels
+ */
+public class PrometheusWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static final String COUNTER = "counter";
+    public static final String GAUGE = "gauge";
+    public static final String SUMMARY = "summary";
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final StringBuilder buffer = new StringBuilder(4096);
+
+    /**
+     * Write help and type of a metric.
+     *
+     * @param name Name of metric
+     * @param type Type of metric, e.g. {@link #COUNTER}
+     * @param help Description of metric
+     * @return this writer
+     */
+    public PrometheusWriter family(final String name, final String type, final String help) {
+        buffer.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        buffer.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Write a sample.
+     *
+     * @param name   Name of metric
+     * @param labels Labels as created by {@link #labels(String...)}, or an empty string
+     * @param value  The value
+     * @return this writer
+     */
+    public PrometheusWriter sample(final String name, final String labels, final long value) {
+        appendName(name, labels).append(value).append('\n');
+        return this;
+    }
+
+    /**
+     * Write a sample.
+     *
+     * @param name   Name of metric
+     * @param labels Labels as created by {@link #labels(String...)}, or an empty string
+     * @param value  The value
+     * @return this writer
+     */
+    public PrometheusWriter sample(final String name, final String labels, final double value) {
+        appendName(name, labels).append(format(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Write the samples of a summary: the 50th, 95th and 99th percentile, sum and count.
+     *
+     * @param name      Name of metric
+     * @param labels    Labels as created by {@link #labels(String...)}, or an empty string
+     * @param histogram The recorded values
+     * @param scale     Factor to convert the recorded values to the base unit, e.g. 1e-9 for nanoseconds to seconds
+     * @return this writer
+     */
+    public PrometheusWriter summary(final String name, final String labels, final LatencyHistogram histogram, final double scale) {
+        for (final double quantile : QUANTILES) {
+            final String quantileLabel = labels("quantile", format(quantile));
+            final String allLabels = labels.isEmpty() ? quantileLabel : labels + "," + quantileLabel;
+            sample(name, allLabels, histogram.getPercentile(quantile) * scale);
+        }
+        sample(name + "_sum", labels, histogram.getSum() * scale);
+        sample(name + "_count", labels, histogram.getCount());
+        return this;
+    }
+
+    /**
+     * Create label set.
+     *
+     * @param keyValues Pairs of label name and value. Values are escaped, a null value is written as empty string.
+     * @return Labels, without enclosing braces
+     */
+    public static String labels(final String... keyValues) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            final String value = keyValues[i + 1] == null ? "" : keyValues[i + 1];
+            sb.append(keyValues[i]).append("=\"")
+                    .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return sb.toString();
+    }
+
+    private StringBuilder appendName(final String name, final String labels) {
+        buffer.append(name);
+        if (!labels.isEmpty()) {
+            buffer.append('{').append(labels).append('}');
+        }
+        return buffer.append(' ');
+    }
+
+    private static String format(final double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2014 The eXist Project
+ *  http://exist-db.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+
+
+package org.exist.jms.shared;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events in a sliding window of one minute, with a resolution of one second.
+ * <p>
+ * Counting is lock-free: each slot holds the second it belongs to (the lower bits) and the
+ * count, in one long that is updated by compare-and-set.
+ *
+ * @author Dannes Wessels
+ */
+public class RateCounter {
+
+    public static final int WINDOW_SECONDS = 60;
+
+    private static final int COUNT_BITS = 44;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long SECOND_MASK = (1L << (Long.SIZE - COUNT_BITS)) - 1;
+
+    private final AtomicLongArray slots = new AtomicLongArray(WINDOW_SECONDS);
+
+    /**
+     * Count one event.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Count a number of events, e.g. bytes.
+     *
+     * @param amount Number of events
+     */
+    public void add(final long amount) {
+        final long second = now();
+        final int slot = (int) (second % WINDOW_SECONDS);
+        final long stamp = (second & SECOND_MASK) << COUNT_BITS;
+
+        long current;
+        long next;
+        do {
+            current = slots.get(slot);
+            next = (current & ~COUNT_MASK) == stamp
+                    ? stamp | ((current + amount) & COUNT_MASK)
+                    : stamp | (amount & COUNT_MASK);
+        } while (!slots.compareAndSet(slot, current, next));
+    }
+
+    /**
+     * Get number of events per second in the last minute.
+     *
+     * @return Counts per second, oldest first. The last value is the current, incomplete, second.
+     */
+    public long[] getSeries() {
+        final long now = now();
+        final long[] series = new long[WINDOW_SECONDS];
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            final long second = now - WINDOW_SECONDS + 1 + i;
+            series[i] = getCount(second);
+        }
+        return series;
+    }
+
+    /**
+     * @return Number of events in the last minute.
+     */
+    public long getLastMinuteCount() {
+        final long now = now();
+        long count = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            count += getCount(now - i);
+        }
+        return count;
+    }
+
+    /**
+     * @return Average number of events per second in the last minute.
+     */
+    public double getRatePerSecond() {
+        return getLastMinuteCount() / (double) WINDOW_SECONDS;
+    }
+
+    public void clear() {
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            slots.set(i, 0);
+        }
+    }
+
+    /**
+     * @return Count of the second, 0 when its slot was reused for another second.
+     */
+    private long getCount(final long second) {
+        final long value = slots.get((int) (second % WINDOW_SECONDS));
+        return (value >>> COUNT_BITS) == (second & SECOND_MASK) ? value & COUNT_MASK : 0;
+    }
+
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+}
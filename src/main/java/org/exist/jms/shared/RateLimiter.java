@@ -0,0 +1,68 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of an operation to a number of permits per second, e.g. messages or bytes.
+ * A request for more permits than available is granted, the debt is paid by the next request.
+ *
+ * @author Dannes Wessels
+ */
+public class RateLimiter {
+
+    private final double nanosPerPermit;
+    private long nextFree = System.nanoTime();
+
+    /**
+     * @param permitsPerSecond Maximum number of permits per second, 0 or less for no limit.
+     */
+    public RateLimiter(final double permitsPerSecond) {
+        this.nanosPerPermit = permitsPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+    }
+
+    /**
+     * Wait until the permits are available.
+     *
+     * @param permits Number of permits
+     * @throws InterruptedException When interrupted while waiting
+     */
+    public void acquire(final long permits) throws InterruptedException {
+        if (nanosPerPermit == 0) {
+            return;
+        }
+
+        final long wait = reserve(permits);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private synchronized long reserve(final long permits) {
+        final long now = System.nanoTime();
+        if (nextFree < now) {
+            nextFree = now;
+        }
+        final long wait = nextFree - now;
+        nextFree += (long) (permits * nanosPerPermit);
+        return wait;
+    }
+}
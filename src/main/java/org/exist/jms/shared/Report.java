@@ -23,11 +23,19 @@ package org.exist.jms.shared;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.exist.dom.QName;
 import org.exist.dom.memtree.MemTreeBuilder;
 import org.exist.jms.shared.ReportItem.CONTEXT;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
@@ -40,71 +48,140 @@ public class Report {
     private final static Logger LOG = LogManager.getLogger(Report.class);
 
     /**
-     * Storage for errors
+     * Stage durations of the message processed by the current thread
      */
-    private final List<ReportItem> errors = new ArrayList<>();
-    /*
-     * Raw times
+    private static final ThreadLocal<long[]> STAGE_TIMES = ThreadLocal.withInitial(() -> new long[Stage.values().length]);
+
+    /**
+     * Storage for errors
      */
-    long startTime = -1;
-    long stopTime = -1;
+    private final ErrorBuffer errors = new ErrorBuffer();
     /**
      * Number of messages
      */
-    private long messageCounterOK = 0;
-    private long messageCounterTotal = 0;
+    private final LongAdder messageCounterOK = new LongAdder();
+    private final LongAdder messageCounterTotal = new LongAdder();
+    private final RateCounter messageRate = new RateCounter();
+    /**
+     * Number of received bytes
+     */
+    private final LongAdder byteCounterTotal = new LongAdder();
+    private final RateCounter byteRate = new RateCounter();
+    /**
+     * Latency per processing stage, in nanoseconds
+     */
+    private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
     /**
-     * Cumulated time successful messages
+     * Processing time above which a message is logged as slow, in nanoseconds
      */
-    private long totalTime = 0;
+    private volatile long slowThreshold = TimeUnit.MILLISECONDS.toNanos(SlowOperationLog.DEFAULT_THRESHOLD_MS);
+
+    public Report() {
+        for (final Stage stage : Stage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+    }
 
     /**
      * Increase the nr of total received messages
      */
     public void incMessageCounterTotal() {
-        messageCounterTotal++;
+        messageCounterTotal.increment();
+        messageRate.increment();
+    }
+
+    /**
+     * @return Number of received messages per second, averaged over the last minute
+     */
+    public double getMessageRate() {
+        return messageRate.getRatePerSecond();
+    }
+
+    /**
+     * @return Number of received messages per second in the last minute, oldest first
+     */
+    public long[] getMessageSeries() {
+        return messageRate.getSeries();
+    }
+
+    /**
+     * Add size of the body of a received message.
+     *
+     * @param nrBytes Size of the body
+     */
+    public void addBytes(final long nrBytes) {
+        byteCounterTotal.add(nrBytes);
+        byteRate.add(nrBytes);
+    }
+
+    /**
+     * @return Total size of the bodies of received messages
+     */
+    public long getByteCounterTotal() {
+        return byteCounterTotal.sum();
+    }
+
+    /**
+     * @return Number of received bytes per second in the last minute, oldest first
+     */
+    public long[] getByteSeries() {
+        return byteRate.getSeries();
     }
 
     /**
      * @return Total number of received messages
      */
     public long getMessageCounterTotal() {
-        return messageCounterTotal;
+        return messageCounterTotal.sum();
     }
 
     /**
      * @return Total number of NOT successfully received messages
      */
     public long getMessageCounterNOK() {
-        return (messageCounterTotal - messageCounterOK);
+        return (getMessageCounterTotal() - getMessageCounterOK());
     }
 
     /**
      * Increase the number of correctly processed messages
      */
     public void incMessageCounterOK() {
-        messageCounterOK++;
+        messageCounterOK.increment();
     }
 
     /**
      * @return Total number of successfully received messages
      */
     public long getMessageCounterOK() {
-        return messageCounterOK;
+        return messageCounterOK.sum();
     }
 
     /**
-     * Add the current processing time to the total processing time
+     * @return Total processing time in milliseconds
      */
-    public void addCumulatedProcessingTime() {
-        this.totalTime += (stopTime - startTime);
+    public long getCumulatedProcessingTime() {
+        return TimeUnit.NANOSECONDS.toMillis(latencies.get(Stage.TOTAL).getSum());
     }
 
     /**
-     * @return Total processing time
+     * Record the duration of a processing stage of a message.
+     *
+     * @param stage      The stage
+     * @param startNanos Start of stage, as obtained by {@link System#nanoTime()}
      */
-    public long getCumulatedProcessingTime() {
-        return totalTime;
+    public void record(final Stage stage, final long startNanos) {
+        final long duration = System.nanoTime() - startNanos;
+        latencies.get(stage).record(duration);
+        STAGE_TIMES.get()[stage.ordinal()] += duration;
+        Tracer.recordCurrent(stage.getName(), duration);
+    }
+
+    /**
+     * @param stage The processing stage
+     * @return Latencies of the stage, in nanoseconds
+     */
+    public LatencyHistogram getLatency(final Stage stage) {
+        return latencies.get(stage);
     }
 
     /**
@@ -113,7 +190,7 @@ public class Report {
      * @param error The Listener error
      */
     public void addListenerError(final Throwable error) {
-        errors.add(new ReportItem(error, CONTEXT.LISTENER));
+        errors.add(error, CONTEXT.LISTENER);
     }
 
     /**
@@ -122,7 +199,7 @@ public class Report {
      * @param error The Receiver error
      */
     public void addReceiverError(final Throwable error) {
-        errors.add(new ReportItem(error, CONTEXT.RECEIVER));
+        errors.add(error, CONTEXT.RECEIVER);
     }
 
     /**
@@ -131,7 +208,7 @@ public class Report {
      * @param error The connection error
      */
     public void addConnectionError(final Throwable error) {
-        errors.add(new ReportItem(error, CONTEXT.CONNECTION));
+        errors.add(error, CONTEXT.CONNECTION);
     }
 
     /**
@@ -139,31 +216,74 @@ public class Report {
      */
     public List<String> getErrorMessages() {
         final List<String> errorMessages = new ArrayList<>();
-        errors.forEach((t) -> errorMessages.add(t.getMessage()));
+        errors.getItems().forEach((t) -> errorMessages.add(t.getMessage()));
         return errorMessages;
     }
 
     /**
      * Get all report items
      *
-     * @return All report items
+     * @return All stored report items, oldest first
      */
     public final List<ReportItem> getReportItems() {
+        return errors.getItems();
+    }
+
+    /**
+     * @return Storage of errors, with error counters
+     */
+    public ErrorBuffer getErrors() {
         return errors;
     }
 
     /**
-     * Set start time
+     * Start processing of a message.
+     *
+     * @return Start time, to be passed to {@link #stop(long)}
+     */
+    public long start() {
+        Arrays.fill(STAGE_TIMES.get(), 0);
+        return System.nanoTime();
+    }
+
+    /**
+     * Stop processing of a message, add processing time to the total.
+     *
+     * @param startNanos Value returned by {@link #start()}
+     * @return Processing time in nanoseconds
+     */
+    public long stop(final long startNanos) {
+        record(Stage.TOTAL, startNanos);
+        return STAGE_TIMES.get()[Stage.TOTAL.ordinal()];
+    }
+
+    /**
+     * @return Durations of the stages of the message processed by the current thread, in nanoseconds
+     */
+    public Map<String, Long> getStageTimes() {
+        final long[] times = STAGE_TIMES.get();
+        final Map<String, Long> stageTimes = new LinkedHashMap<>();
+        for (final Stage stage : Stage.values()) {
+            if (stage != Stage.TOTAL && times[stage.ordinal()] > 0) {
+                stageTimes.put(stage.getName(), times[stage.ordinal()]);
+            }
+        }
+        return stageTimes;
+    }
+
+    /**
+     * @param thresholdMs Processing time above which a message is slow, 0 disables the slow operation log
      */
-    public void start() {
-        startTime = System.currentTimeMillis();
+    public void setSlowThreshold(final long thresholdMs) {
+        slowThreshold = thresholdMs <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(thresholdMs);
     }
 
     /**
-     * Set stop time
+     * @param totalNanos Processing time of a message
+     * @return TRUE when the processing time exceeds the slow threshold
      */
-    public void stop() {
-        stopTime = System.currentTimeMillis();
+    public boolean isSlow(final long totalNanos) {
+        return totalNanos > slowThreshold;
     }
 
     /**
@@ -174,6 +294,9 @@ public class Report {
     public void write(final MemTreeBuilder builder) {
 
         builder.startElement("", "errorMessages", "errorMessages", null);
+        builder.addAttribute(new QName("total", null, null), "" + errors.getTotal());
+        builder.addAttribute(new QName("dropped", null, null), "" + errors.getDropped());
+        builder.addAttribute(new QName("lastMinute", null, null), "" + errors.getLastMinuteCount());
 
         final List<ReportItem> listenerErrors = getReportItems();
         if (!listenerErrors.isEmpty()) {
@@ -181,14 +304,72 @@ public class Report {
         }
 
         builder.endElement();
+
+        // Counters per type of error
+        builder.startElement("", "errorTypes", "errorTypes", null);
+        errors.getCountPerType().forEach((type, count) -> {
+            builder.startElement("", "type", "type", null);
+            builder.addAttribute(new QName("count", null, null), "" + count);
+            builder.characters(type);
+            builder.endElement();
+        });
+        builder.endElement();
+    }
+
+    /**
+     * Write latencies of stages to XML report, in microseconds. Stages without
+     * measurements are skipped.
+     *
+     * @param builder The builder to create the XML report.
+     */
+    public void writeLatencies(final MemTreeBuilder builder) {
+
+        builder.startElement("", "latency", "latency", null);
+        builder.addAttribute(new QName("unit", null, null), "microseconds");
+
+        for (final Stage stage : Stage.values()) {
+            final LatencyHistogram histogram = latencies.get(stage);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+
+            final String name = stage.getName();
+            builder.startElement("", name, name, null);
+            builder.addAttribute(new QName("count", null, null), "" + histogram.getCount());
+            builder.addAttribute(new QName("p50", null, null), "" + toMicros(histogram.getPercentile(0.50)));
+            builder.addAttribute(new QName("p95", null, null), "" + toMicros(histogram.getPercentile(0.95)));
+            builder.addAttribute(new QName("p99", null, null), "" + toMicros(histogram.getPercentile(0.99)));
+            builder.addAttribute(new QName("max", null, null), "" + toMicros(histogram.getMax()));
+            builder.endElement();
+        }
+
+        builder.endElement();
+    }
+
+    private static long toMicros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
     }
 
     public void clear() {
         LOG.info("Clear report");
 
         errors.clear();
-        messageCounterOK = 0;
-        messageCounterTotal = 0;
+        messageCounterOK.reset();
+        messageCounterTotal.reset();
+        messageRate.clear();
+        byteCounterTotal.reset();
+        byteRate.clear();
+        latencies.values().forEach(LatencyHistogram::clear);
+    }
 
+    /**
+     * Stages of processing a received message.
+     */
+    public enum Stage {
+        DECODE, DECOMPRESS, PARSE, CALLBACK, STORE, COMMIT, ACK, TOTAL;
+
+        public String getName() {
+            return name().toLowerCase(Locale.US);
+        }
     }
 }
@@ -27,6 +27,7 @@ import org.exist.jms.replication.subscribe.MessageReceiveException;
 import javax.jms.JMSException;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Objects;
 
 /**
  * Container for reporting a problem with some meta data.
@@ -36,15 +37,46 @@ import java.util.Locale;
 public class ReportItem {
 
     private final Date timestamp;
+    private volatile Date lastTimestamp;
+    private volatile int count = 1;
     private Throwable throwable = new Throwable("EMPTY");
     private CONTEXT context = CONTEXT.NOTDEFINED;
 
     public ReportItem(final Throwable throwable, final CONTEXT context) {
         this.timestamp = new Date();
+        this.lastTimestamp = timestamp;
         this.throwable = throwable;
         this.context = context;
     }
 
+    /**
+     * Register another occurrence of the same error.
+     */
+    void addOccurrence() {
+        count++;
+        lastTimestamp = new Date();
+    }
+
+    /**
+     * @return Number of occurrences of this error.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Check if the other error is identical: same context, type and message.
+     *
+     * @param otherThrowable The other error
+     * @param otherContext   Context of the other error
+     * @return TRUE when identical
+     */
+    boolean isSameError(final Throwable otherThrowable, final CONTEXT otherContext) {
+        return context == otherContext
+                && throwable.getClass() == otherThrowable.getClass()
+                && Objects.equals(throwable.getMessage(), otherThrowable.getMessage());
+    }
+
     public void setThrowable(final Throwable throwable) {
         this.throwable = throwable;
     }
@@ -61,6 +93,10 @@ public class ReportItem {
         return throwable.getMessage();
     }
 
+    public String getLastTimeStamp() {
+        return DateFormatUtils.ISO_8601_EXTENDED_DATETIME_TIME_ZONE_FORMAT.format(lastTimestamp);
+    }
+
     public String getContextName() {
         return context.toString().toLowerCase(Locale.US);
     }
@@ -72,6 +108,10 @@ public class ReportItem {
         builder.addAttribute(new QName("src", null, null), getContextName());
         builder.addAttribute(new QName("timestamp", null, null), getTimeStamp());
         builder.addAttribute(new QName("exception", null, null), t.getClass().getSimpleName());
+        if (count > 1) {
+            builder.addAttribute(new QName("count", null, null), "" + count);
+            builder.addAttribute(new QName("lastTimestamp", null, null), getLastTimeStamp());
+        }
 
         String msg = getMessage();
 
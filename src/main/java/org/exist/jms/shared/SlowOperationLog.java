@@ -0,0 +1,137 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log of operations that took longer than their threshold, written to the logger
+ * 'org.exist.jms.slow' at level WARN. Entries are formatted and written by a background thread;
+ * at most {@link #MAX_ENTRIES_PER_SECOND} entries are logged per second, the others are counted
+ * and reported with the next entry.
+ *
+ * @author Dannes Wessels
+ */
+public class SlowOperationLog {
+
+    public static final long DEFAULT_THRESHOLD_MS = 1000;
+    public static final int MAX_ENTRIES_PER_SECOND = 10;
+
+    private final static Logger SLOW_LOG = LogManager.getLogger("org.exist.jms.slow");
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private static final AtomicLong suppressed = new AtomicLong();
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+        final Thread thread = new Thread(runnable, "jms-slow-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static long currentSecond = 0;
+    private static int entriesInSecond = 0;
+
+    private SlowOperationLog() {
+        // NOP
+    }
+
+    /**
+     * Log a slow operation, subject to rate limiting.
+     *
+     * @param operation   Type of operation, e.g. 'apply'
+     * @param resource    Where the operation took place, e.g. 'receiver=1'
+     * @param path        Path of the document or collection, or message ID
+     * @param payloadSize Size of the payload in bytes
+     * @param totalNanos  Duration of the operation
+     * @param stageNanos  Duration per stage of the operation, can be NULL
+     */
+    public static void log(final String operation, final String resource, final String path, final long payloadSize,
+                           final long totalNanos, final Map<String, Long> stageNanos) {
+
+        if (!SLOW_LOG.isWarnEnabled() || !acquire()) {
+            return;
+        }
+
+        // Entries suppressed before this one, taken now: the entries are formatted later
+        final long nrSuppressed = suppressed.getAndSet(0);
+
+        final Runnable task = () -> {
+            final StringBuilder sb = new StringBuilder(256);
+            sb.append("Slow ").append(operation)
+                    .append(": ").append(resource)
+                    .append(" path='").append(path).append('\'')
+                    .append(" size=").append(payloadSize)
+                    .append(" total=").append(toMillis(totalNanos)).append("ms");
+
+            if (stageNanos != null && !stageNanos.isEmpty()) {
+                sb.append(" stages=[");
+                stageNanos.forEach((stage, nanos) -> sb.append(' ').append(stage).append('=').append(toMillis(nanos)).append("ms"));
+                sb.append(" ]");
+            }
+
+            if (nrSuppressed > 0) {
+                sb.append(" suppressed=").append(nrSuppressed);
+            }
+
+            SLOW_LOG.warn(sb.toString());
+        };
+
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException ex) {
+            suppressed.addAndGet(nrSuppressed + 1);
+        }
+    }
+
+    /**
+     * Rate limiting.
+     *
+     * @return TRUE when the entry may be logged.
+     */
+    private static synchronized boolean acquire() {
+        final long second = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        if (second != currentSecond) {
+            currentSecond = second;
+            entriesInSecond = 0;
+        }
+
+        if (entriesInSecond < MAX_ENTRIES_PER_SECOND) {
+            entriesInSecond++;
+            return true;
+        }
+
+        suppressed.incrementAndGet();
+        return false;
+    }
+
+    private static String toMillis(final long nanos) {
+        return String.format(Locale.US, "%.1f", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timed operation of a traced message. Field names follow OpenTelemetry.
+ *
+ * @author Dannes Wessels
+ */
+public class Span {
+
+    private final String traceId;
+    private final String spanId;
+    private final String name;
+    private final String resource;
+    private final long startTimeUnixNano;
+    private final long durationNanos;
+
+    Span(final String traceId, final String spanId, final String name, final String resource,
+         final long startTimeUnixNano, final long durationNanos) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.name = name;
+        this.resource = resource;
+        this.startTimeUnixNano = startTimeUnixNano;
+        this.durationNanos = durationNanos;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return Name of operation, e.g. 'serialize' or 'store'
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Where the operation took place, e.g. 'publisher' or 'receiver=1'
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    public long getStartTimeUnixNano() {
+        return startTimeUnixNano;
+    }
+
+    public long getEndTimeUnixNano() {
+        return startTimeUnixNano + durationNanos;
+    }
+
+    public long getDurationMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(durationNanos);
+    }
+
+    /**
+     * @return Span as single line JSON object
+     */
+    public String toJson() {
+        return "{\"traceId\":\"" + traceId + "\",\"spanId\":\"" + spanId + "\",\"name\":\"" + name
+                + "\",\"startTimeUnixNano\":" + startTimeUnixNano + ",\"endTimeUnixNano\":" + getEndTimeUnixNano()
+                + ",\"attributes\":{\"exist.resource\":\"" + resource.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}}";
+    }
+}
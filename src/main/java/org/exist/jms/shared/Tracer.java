@@ -0,0 +1,176 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records spans of sampled messages. The trace ID is generated by the publisher and sent along
+ * as the {@link Constants#EXIST_TRACE_ID} message property; messages without it are not traced.
+ * <p>
+ * Spans are kept in memory (the most recent {@link #CAPACITY}) and are written as JSON lines
+ * to the logger 'org.exist.jms.trace' at level DEBUG, e.g. to a rolling file appender.
+ *
+ * @author Dannes Wessels
+ */
+public class Tracer {
+
+    public static final int CAPACITY = 1000;
+
+    private final static Logger TRACE_LOG = LogManager.getLogger("org.exist.jms.trace");
+
+    private static final ThreadLocal<Context> CURRENT = new ThreadLocal<>();
+
+    private static final Span[] spans = new Span[CAPACITY];
+    private static int head = 0;
+    private static int size = 0;
+
+    private Tracer() {
+        // NOP
+    }
+
+    /**
+     * Decide if a new message is traced.
+     *
+     * @param sampleRate Fraction of messages to trace, 0 (never) to 1 (always)
+     * @return New trace ID, or NULL when the message is not traced.
+     */
+    public static String sample(final double sampleRate) {
+        if (sampleRate <= 0 || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return null;
+        }
+        return toHex(ThreadLocalRandom.current().nextLong()) + toHex(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Record a span that ends now.
+     *
+     * @param traceId    The trace ID, nothing is recorded when NULL
+     * @param name       Name of operation
+     * @param resource   Where the operation took place
+     * @param startNanos Start of operation, as obtained by {@link System#nanoTime()}
+     */
+    public static void record(final String traceId, final String name, final String resource, final long startNanos) {
+        if (traceId != null) {
+            add(traceId, name, resource, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Set the trace of the message processed by the current thread.
+     *
+     * @param traceId  The trace ID, NULL when the message is not traced
+     * @param resource Where the message is processed
+     */
+    public static void begin(final String traceId, final String resource) {
+        if (traceId != null) {
+            CURRENT.set(new Context(traceId, resource));
+        }
+    }
+
+    /**
+     * Record a span for the message processed by the current thread, if traced.
+     *
+     * @param name          Name of operation
+     * @param durationNanos Duration of operation
+     */
+    public static void recordCurrent(final String name, final long durationNanos) {
+        final Context context = CURRENT.get();
+        if (context != null) {
+            add(context.traceId, name, context.resource, durationNanos);
+        }
+    }
+
+    /**
+     * Processing of the message by the current thread is finished.
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    private static void add(final String traceId, final String name, final String resource, final long durationNanos) {
+        final long end = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        final Span span = new Span(traceId, toHex(ThreadLocalRandom.current().nextLong()), name, resource,
+                end - durationNanos, durationNanos);
+
+        synchronized (spans) {
+            spans[(head + size) % CAPACITY] = span;
+            if (size < CAPACITY) {
+                size++;
+            } else {
+                head = (head + 1) % CAPACITY;
+            }
+        }
+
+        if (TRACE_LOG.isDebugEnabled()) {
+            TRACE_LOG.debug(span.toJson());
+        }
+    }
+
+    /**
+     * Get recorded spans.
+     *
+     * @param traceId Only spans of this trace, or all spans when NULL
+     * @return Spans, oldest first
+     */
+    public static List<Span> getSpans(final String traceId) {
+        final List<Span> result = new ArrayList<>();
+        synchronized (spans) {
+            for (int i = 0; i < size; i++) {
+                final Span span = spans[(head + i) % CAPACITY];
+                if (traceId == null || traceId.equals(span.getTraceId())) {
+                    result.add(span);
+                }
+            }
+        }
+        return result;
+    }
+
+    public static void clear() {
+        synchronized (spans) {
+            for (int i = 0; i < CAPACITY; i++) {
+                spans[i] = null;
+            }
+            head = 0;
+            size = 0;
+        }
+    }
+
+    private static String toHex(final long value) {
+        final String hex = Long.toHexString(value);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    private static class Context {
+        private final String traceId;
+        private final String resource;
+
+        Context(final String traceId, final String resource) {
+            this.traceId = traceId;
+            this.resource = resource;
+        }
+    }
+}
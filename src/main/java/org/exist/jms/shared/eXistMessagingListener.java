@@ -22,11 +22,17 @@ package org.exist.jms.shared;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.jms.shared.receive.ReplySessionPool;
 
 import javax.jms.ExceptionListener;
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.MessageListener;
 import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Interface definition
@@ -40,6 +46,7 @@ public abstract class eXistMessagingListener implements MessageListener, Excepti
 
     private final Report report = new Report();
     private Session session;
+    private volatile ReplySessionPool replySessions;
     private int id = -1;
 
     /**
@@ -71,6 +78,25 @@ public abstract class eXistMessagingListener implements MessageListener, Excepti
         this.session = session;
     }
 
+    /**
+     * Get the pool of sessions for sending replies. The session of the consumer
+     * must not be used for this, it belongs to the delivery thread.
+     *
+     * @return The pool, or NULL when the receiver is not initialized.
+     */
+    public ReplySessionPool getReplySessions() {
+        return replySessions;
+    }
+
+    /**
+     * Set the pool of sessions for sending replies.
+     *
+     * @param replySessions The pool
+     */
+    public void setReplySessions(final ReplySessionPool replySessions) {
+        this.replySessions = replySessions;
+    }
+
     public int getReceiverID() {
         return id;
     }
@@ -84,6 +110,64 @@ public abstract class eXistMessagingListener implements MessageListener, Excepti
         this.id = id;
     }
 
+    /**
+     * Get size of the body of a received message, for statistics.
+     *
+     * @param msg The received message
+     * @return Size of body in bytes, number of characters for text messages, or 0 when unknown.
+     */
+    protected static long getBodySize(final Message msg) {
+        try {
+            if (msg instanceof BytesMessage) {
+                return ((BytesMessage) msg).getBodyLength();
+            } else if (msg instanceof TextMessage) {
+                final String text = ((TextMessage) msg).getText();
+                return text == null ? 0 : text.length();
+            }
+        } catch (final JMSException ex) {
+            LOG.debug("Unable to determine size of message: {}", ex.getMessage());
+        }
+        return 0;
+    }
+
+    /**
+     * Start tracing of a received message when it carries a trace ID; the time between
+     * sending and receiving is recorded as the 'receive' span. Call {@link Tracer#end()}
+     * when processing is finished.
+     *
+     * @param msg The received message
+     */
+    protected void beginTrace(final Message msg) {
+        try {
+            final String traceId = msg.getStringProperty(Constants.EXIST_TRACE_ID);
+            if (traceId != null) {
+                Tracer.begin(traceId, "receiver=" + getReceiverID());
+                final long timestamp = msg.getJMSTimestamp();
+                if (timestamp > 0) {
+                    Tracer.recordCurrent("receive", TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - timestamp));
+                }
+            }
+        } catch (final JMSException ex) {
+            LOG.debug("Unable to read trace ID: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Write listener specific details into the report of the receiver.
+     *
+     * @param builder The builder to create the XML report.
+     */
+    public void writeReport(final MemTreeBuilder builder) {
+        // NOP
+    }
+
+    /**
+     * Release resources held by the listener, called when the receiver is closed.
+     */
+    public void close() {
+        // NOP
+    }
+
     @Override
     public void onException(final JMSException jmse) {
 
@@ -0,0 +1,180 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.receive;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.jms.shared.Constants;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the processing of received messages on a separate executor, so the
+ * delivery thread of the JMS provider is not blocked by a slow callback.
+ * <p>
+ * At most 'concurrency' tasks run at the same time. A task takes its slot when
+ * it starts, so tasks queued behind a busy group do not block tasks of other
+ * groups. The number of submitted but not completed tasks is bounded as well;
+ * when that limit is reached the delivery thread waits, which slows down the
+ * consumer instead of buffering messages in memory. Optionally tasks with the
+ * same group ID (JMSXGroupID) are executed in order of arrival.
+ *
+ * @author Dannes Wessels
+ */
+public class CallbackDispatcher {
+
+    private final static Logger LOG = LogManager.getLogger(CallbackDispatcher.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+    private static final int PENDING_PER_SLOT = 16;
+
+    private final ExecutorService executor;
+    private final int concurrency;
+    private final Semaphore running;
+    private final Semaphore pending;
+    private final boolean groupOrdering;
+    private final Map<String, CompletableFuture<Void>> groups = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param receiverId    Identifier of receiver, used for naming threads
+     * @param concurrency   Maximum number of tasks in flight
+     * @param executorType  'virtual' to use virtual threads when supported by the JVM, else 'platform'
+     * @param groupOrdering TRUE when tasks of the same group must be executed in order
+     */
+    public CallbackDispatcher(final int receiverId, final int concurrency, final String executorType, final boolean groupOrdering) {
+        this.concurrency = concurrency;
+        this.running = new Semaphore(concurrency);
+        this.pending = new Semaphore(concurrency * PENDING_PER_SLOT);
+        this.groupOrdering = groupOrdering;
+        this.executor = createExecutor(receiverId, concurrency, executorType);
+
+        LOG.info("Receiver={} : dispatching callbacks with concurrency={} executor={} groupOrdering={}",
+                receiverId, concurrency, executorType, groupOrdering);
+    }
+
+    /**
+     * Create executor, fall back to platform threads when virtual threads are not available.
+     */
+    private static ExecutorService createExecutor(final int receiverId, final int concurrency, final String executorType) {
+
+        if (Constants.EXECUTOR_TYPE_VIRTUAL.equalsIgnoreCase(executorType)) {
+            try {
+                // Available as of Java 21, invoked reflectively to stay compatible with older JVMs
+                final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+
+            } catch (final ReflectiveOperationException ex) {
+                LOG.warn("Virtual threads are not supported by this JVM, using platform threads instead.");
+            }
+        }
+
+        final AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(concurrency, runnable -> {
+            final Thread thread = new Thread(runnable, String.format("jms-receiver-%s-%s", receiverId, threadCounter.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submit task for execution. Blocks until the number of pending tasks is below the limit.
+     *
+     * @param groupId Group of the task, can be NULL
+     * @param task    The task
+     * @throws InterruptedException       Thread was interrupted while waiting.
+     * @throws RejectedExecutionException The dispatcher is shut down.
+     */
+    public void dispatch(final String groupId, final Runnable task) throws InterruptedException {
+
+        pending.acquire();
+
+        final Runnable guardedTask = () -> {
+            try {
+                running.acquire();
+                try {
+                    task.run();
+                } finally {
+                    running.release();
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted before task could start.");
+            } catch (final Throwable t) {
+                LOG.error(t.getMessage(), t);
+            } finally {
+                pending.release();
+            }
+        };
+
+        try {
+            if (groupOrdering && StringUtils.isNotBlank(groupId)) {
+                // Chain task after the last task of the same group
+                final CompletableFuture<Void> next = groups.compute(groupId, (key, tail) -> (tail == null)
+                        ? CompletableFuture.runAsync(guardedTask, executor)
+                        : tail.exceptionally(t -> null).thenRunAsync(guardedTask, executor));
+
+                next.whenComplete((result, t) -> {
+                    // Cleanup when no other task was chained meanwhile
+                    groups.remove(groupId, next);
+
+                    // The task never ran, e.g. rejected after shutdown
+                    if (t != null) {
+                        pending.release();
+                    }
+                });
+
+            } else {
+                executor.execute(guardedTask);
+            }
+
+        } catch (final RejectedExecutionException ex) {
+            pending.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return Number of tasks that are running.
+     */
+    public int getInFlight() {
+        return concurrency - running.availablePermits();
+    }
+
+    /**
+     * Stop accepting tasks and wait for running tasks to complete.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Callbacks did not complete within {} seconds, interrupting.", SHUTDOWN_TIMEOUT_SECONDS);
+                executor.shutdownNow();
+            }
+        } catch (final InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -19,6 +19,8 @@
  */
 package org.exist.jms.shared.receive;
 
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.ActiveMQSession;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -27,6 +29,7 @@ import org.exist.dom.memtree.MemTreeBuilder;
 import org.exist.dom.memtree.NodeImpl;
 import org.exist.jms.shared.Constants;
 import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.JmxSupport;
 import org.exist.jms.shared.Report;
 import org.exist.jms.shared.eXistMessagingListener;
 import org.exist.xquery.XPathException;
@@ -86,6 +89,11 @@ public class Receiver {
         id = getIncrementedID();
 
         listener.setReceiverID(id);
+        listener.getReport().getErrors().configure(config.getReportErrorCapacity(), config.isReportErrorDeduplicate());
+        listener.getReport().setSlowThreshold(config.getReportSlowThreshold());
+
+        // Expose statistics via JMX
+        JmxSupport.register(ReceiverStatistics.getName(id), new ReceiverStatistics(this));
 
         // Initialing XML datafactory
         try {
@@ -118,6 +126,29 @@ public class Receiver {
         return messageListener.getReport();
     }
 
+    /**
+     * Get message listener
+     *
+     * @return The message listener
+     */
+    public eXistMessagingListener getMessageListener() {
+        return messageListener;
+    }
+
+    /**
+     * @return State of receiver
+     */
+    public String getState() {
+        return state.name();
+    }
+
+    /**
+     * @return Name of destination
+     */
+    public String getDestinationName() {
+        return jmsConfig.getDestination();
+    }
+
     /**
      * Start JMS connection
      *
@@ -188,7 +219,7 @@ public class Receiver {
             }
 
             // Setup session
-            session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+            session = connection.createSession(false, getAcknowledgeMode());
 
             // Setup destination
             destination = (Destination) initialContext.lookup(jmsConfig.getDestination());
@@ -216,6 +247,7 @@ public class Receiver {
 
             // Register listener
             messageListener.setSession(session);
+            messageListener.setReplySessions(new ReplySessionPool(connection));
             messageConsumer.setMessageListener(messageListener);
 
             if (LOG.isDebugEnabled()) {
@@ -279,6 +311,8 @@ public class Receiver {
      */
     public void close() throws XPathException {
 
+        JmxSupport.unregister(ReceiverStatistics.getName(id));
+
         if (connection == null) {
             final String txt = "JMS connection must be initialized first";
             LOG.error(txt);
@@ -295,6 +329,9 @@ public class Receiver {
             }
         }
 
+        // Let the listener finish pending work while the session is still open
+        messageListener.close();
+
         try {
 
             String clientId = null;
@@ -423,7 +460,12 @@ public class Receiver {
             builder.characters("" + stats.getMessageCounterNOK());
             builder.endElement();
 
+            stats.writeLatencies(builder);
+
             builder.endElement();
+
+            // Listener specific details
+            messageListener.writeReport(builder);
         }
 
         // finish root element
@@ -433,6 +475,23 @@ public class Receiver {
         return builder.getDocument().getNode(nodeNr);
     }
 
+    /**
+     * Determine acknowledge mode of session. When messages are processed in parallel
+     * each message must be acknowledged individually; in CLIENT_ACKNOWLEDGE mode
+     * an acknowledge confirms all messages received by the session so far.
+     */
+    private int getAcknowledgeMode() {
+
+        if (jmsConfig.getListenerConcurrency() > 1) {
+            if (connection instanceof ActiveMQConnection) {
+                return ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE;
+            }
+            LOG.warn("Provider does not support individual acknowledgement, messages processed in parallel are acknowledged cumulatively.");
+        }
+
+        return Session.CLIENT_ACKNOWLEDGE;
+    }
+
     /**
      * Helper method to give resources back
      */
@@ -0,0 +1,119 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.receive;
+
+import org.exist.jms.shared.LatencyHistogram;
+import org.exist.jms.shared.Report;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MBean exposing the state and statistics of a receiver.
+ *
+ * @author Dannes Wessels
+ */
+public class ReceiverStatistics implements ReceiverStatisticsMXBean {
+
+    private final Receiver receiver;
+
+    ReceiverStatistics(final Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * @param id Receiver ID
+     * @return Name of MBean for receiver
+     */
+    static String getName(final int id) {
+        return "type=Receiver,id=" + id;
+    }
+
+    @Override
+    public int getId() {
+        return receiver.getReceiverId();
+    }
+
+    @Override
+    public String getState() {
+        return receiver.getState();
+    }
+
+    @Override
+    public String getUsageType() {
+        return receiver.getMessageListener().getUsageType();
+    }
+
+    @Override
+    public String getDestination() {
+        return receiver.getDestinationName();
+    }
+
+    @Override
+    public long getMessagesTotal() {
+        return receiver.getReport().getMessageCounterTotal();
+    }
+
+    @Override
+    public long getMessagesFailed() {
+        return receiver.getReport().getMessageCounterNOK();
+    }
+
+    @Override
+    public double getMessagesPerSecond() {
+        return receiver.getReport().getMessageRate();
+    }
+
+    @Override
+    public long getCumulativeProcessingTime() {
+        return receiver.getReport().getCumulatedProcessingTime();
+    }
+
+    @Override
+    public long getErrorsTotal() {
+        return receiver.getReport().getErrors().getTotal();
+    }
+
+    @Override
+    public long getErrorsLastMinute() {
+        return receiver.getReport().getErrors().getLastMinuteCount();
+    }
+
+    @Override
+    public Map<String, long[]> getLatencies() {
+        final Map<String, long[]> latencies = new TreeMap<>();
+        for (final Report.Stage stage : Report.Stage.values()) {
+            final LatencyHistogram histogram = receiver.getReport().getLatency(stage);
+            if (histogram.getCount() > 0) {
+                latencies.put(stage.getName(), new long[]{
+                        toMicros(histogram.getPercentile(0.50)),
+                        toMicros(histogram.getPercentile(0.95)),
+                        toMicros(histogram.getPercentile(0.99)),
+                        toMicros(histogram.getMax())});
+            }
+        }
+        return latencies;
+    }
+
+    private static long toMicros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
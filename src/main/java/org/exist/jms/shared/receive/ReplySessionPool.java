@@ -0,0 +1,71 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.receive;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Session;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Sessions for sending replies on the connection of a receiver. A JMS session
+ * must only be used by one thread, and the session of the consumer is used by
+ * the delivery thread of the provider; replies are therefore sent on a session
+ * borrowed from this pool. The sessions are closed with the connection.
+ *
+ * @author Dannes Wessels
+ */
+public class ReplySessionPool {
+
+    private final Connection connection;
+    private final Deque<Session> idle = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Constructor
+     *
+     * @param connection Connection of the receiver
+     */
+    public ReplySessionPool(final Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Borrow a session, a new session is created when none is available.
+     *
+     * @return Session for exclusive use by the current thread, to be returned with {@link #release(Session)}.
+     * @throws JMSException The session could not be created.
+     */
+    public Session borrow() throws JMSException {
+        final Session session = idle.pollFirst();
+        return (session != null) ? session : connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+
+    /**
+     * Return a borrowed session to the pool.
+     *
+     * @param session The session, can be NULL
+     */
+    public void release(final Session session) {
+        if (session != null) {
+            idle.offerFirst(session);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.send;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.*;
+
+/**
+ * Executor for asynchronous sends, with a fixed number of threads. The sends with the same key,
+ * e.g. to one destination of a broker, are done by the same thread in order of submission; sends
+ * with other keys are done in parallel unless they share the thread. When the queue of a thread
+ * is full the submitting thread waits for space.
+ *
+ * @author Dannes Wessels
+ */
+class AsyncSendExecutor {
+
+    private final static Logger LOG = LogManager.getLogger(AsyncSendExecutor.class);
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final int THREADS = 4;
+
+    private static final ThreadPoolExecutor[] executors = new ThreadPoolExecutor[THREADS];
+
+    private AsyncSendExecutor() {
+        // NOP
+    }
+
+    /**
+     * Queue a send, waits when the queue of the thread of the key is full.
+     *
+     * @param key  Sends with the same key are done in order of submission
+     * @param task Sends the message
+     */
+    static void execute(final String key, final Runnable task) {
+        getExecutor(getThread(key)).execute(() -> {
+            try {
+                task.run();
+            } catch (final Throwable t) {
+                LOG.error(t.getMessage(), t);
+            }
+        });
+    }
+
+    /**
+     * @return Index of the thread that does the sends of a key
+     */
+    static int getThread(final String key) {
+        return Math.floorMod(key.hashCode(), THREADS);
+    }
+
+    private static ThreadPoolExecutor getExecutor(final int index) {
+        synchronized (executors) {
+            if (executors[index] == null) {
+                executors[index] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                    final Thread thread = new Thread(runnable, "jms-async-sender-" + index);
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, pool) -> {
+                    // Block instead of running in the caller thread, to retain the order of the messages
+                    try {
+                        pool.getQueue().put(runnable);
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for space in send queue", ex);
+                    }
+                });
+            }
+            return executors[index];
+        }
+    }
+
+    /**
+     * @return Number of sends waiting in the queues.
+     */
+    static int getQueueSize() {
+        int size = 0;
+        synchronized (executors) {
+            for (final ThreadPoolExecutor executor : executors) {
+                if (executor != null) {
+                    size += executor.getQueue().size();
+                }
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.send;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that writes directly into the body of a JMS BytesMessage, so
+ * the payload does not need to be buffered before the message is created.
+ *
+ * @author Dannes Wessels
+ */
+class BytesMessageOutputStream extends OutputStream {
+
+    private final BytesMessage message;
+    private long count = 0;
+
+    BytesMessageOutputStream(final BytesMessage message) {
+        this.message = message;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        try {
+            message.writeByte((byte) b);
+            count++;
+        } catch (final JMSException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        try {
+            message.writeBytes(b, off, len);
+            count += len;
+        } catch (final JMSException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return Number of bytes written into the message.
+     */
+    long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.send;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.jms.*;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Consumer of replies on a temporary queue, shared by all requests to the same broker. Replies are
+ * handed to the waiting requester by their JMSCorrelationID.
+ *
+ * @author Dannes Wessels
+ */
+class ReplyConsumer implements MessageListener, ExceptionListener {
+
+    private final static Logger LOG = LogManager.getLogger(ReplyConsumer.class);
+
+    private final Map<String, CompletableFuture<Message>> pending = new ConcurrentHashMap<>();
+    private final Connection connection;
+    private final TemporaryQueue replyQueue;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor, starts consuming replies.
+     *
+     * @param connection Dedicated connection, closed together with this consumer.
+     * @throws JMSException When the temporary queue could not be setup.
+     */
+    ReplyConsumer(final Connection connection) throws JMSException {
+        this.connection = connection;
+
+        final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        replyQueue = session.createTemporaryQueue();
+
+        final MessageConsumer consumer = session.createConsumer(replyQueue);
+        consumer.setMessageListener(this);
+
+        connection.setExceptionListener(this);
+        connection.start();
+
+        LOG.info("Created reply queue {}", replyQueue.getQueueName());
+    }
+
+    /**
+     * @return Destination for the JMSReplyTo header.
+     */
+    Destination getReplyQueue() {
+        return replyQueue;
+    }
+
+    /**
+     * @return FALSE when the connection failed, a new consumer must be created.
+     */
+    boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Register a request.
+     *
+     * @param correlationId The JMSCorrelationID of the request
+     * @return Future that completes when the reply arrives.
+     */
+    CompletableFuture<Message> register(final String correlationId) {
+        final CompletableFuture<Message> future = new CompletableFuture<>();
+        pending.put(correlationId, future);
+        return future;
+    }
+
+    /**
+     * Remove request, e.g. after timeout. Late replies are discarded.
+     *
+     * @param correlationId The JMSCorrelationID of the request
+     */
+    void unregister(final String correlationId) {
+        pending.remove(correlationId);
+    }
+
+    @Override
+    public void onMessage(final Message message) {
+        try {
+            final String correlationId = message.getJMSCorrelationID();
+            final CompletableFuture<Message> future = (correlationId == null) ? null : pending.remove(correlationId);
+
+            if (future == null) {
+                LOG.warn("Discarding reply without pending request, correlationId={}", correlationId);
+            } else {
+                future.complete(message);
+            }
+
+        } catch (final JMSException ex) {
+            LOG.error(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void onException(final JMSException ex) {
+        LOG.error("Reply connection failed: {}", ex.getMessage());
+        close();
+
+        // Waiting requests will never get a reply
+        pending.values().forEach(future -> future.completeExceptionally(ex));
+        pending.clear();
+    }
+
+    void close() {
+        closed = true;
+        try {
+            connection.close();
+        } catch (final JMSException ex) {
+            LOG.error("Problem closing connection, ignored. {} ({})", ex.getMessage(), ex.getErrorCode());
+        }
+    }
+}
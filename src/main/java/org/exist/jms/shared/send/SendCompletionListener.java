@@ -0,0 +1,43 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.send;
+
+/**
+ * Callback for the completion of an asynchronous send, modelled after the JMS 2.0 CompletionListener.
+ * Methods are invoked on the thread of the sender, implementations must not block.
+ *
+ * @author Dannes Wessels
+ */
+public interface SendCompletionListener {
+
+    /**
+     * The message was accepted by the broker.
+     *
+     * @param messageId The JMS message ID
+     */
+    void onCompletion(String messageId);
+
+    /**
+     * The message could not be sent.
+     *
+     * @param t The cause
+     */
+    void onException(Throwable t);
+}
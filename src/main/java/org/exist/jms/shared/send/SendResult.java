@@ -0,0 +1,85 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.send;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lightweight result of a send operation, replaces the XML report when no report is needed.
+ *
+ * @author Dannes Wessels
+ */
+public class SendResult {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile String messageId;
+    private volatile Throwable failure;
+
+    void complete(final String messageId) {
+        this.messageId = messageId;
+        done.countDown();
+    }
+
+    void fail(final Throwable t) {
+        this.failure = t;
+        done.countDown();
+    }
+
+    /**
+     * @return TRUE when the send operation has finished, either successfully or not.
+     */
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * @return TRUE when the message has been sent successfully.
+     */
+    public boolean isSuccess() {
+        return isDone() && failure == null;
+    }
+
+    /**
+     * @return JMS message ID, NULL when the message is not sent (yet).
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return Cause of failure, NULL when there is no failure (yet).
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Wait for the send operation to finish.
+     *
+     * @param timeout Maximum time to wait
+     * @param unit    Unit of timeout
+     * @return TRUE when finished, FALSE when the timeout elapsed.
+     * @throws InterruptedException Thread was interrupted while waiting.
+     */
+    public boolean await(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+}
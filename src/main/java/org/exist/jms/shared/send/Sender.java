@@ -20,7 +20,6 @@
 package org.exist.jms.shared.send;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -44,8 +43,18 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPOutputStream;
 
 import static org.exist.jms.shared.Constants.*;
@@ -59,6 +68,27 @@ public class Sender {
 
     private final static Logger LOG = LogManager.getLogger(Sender.class);
     private static final String EXIST_CONNECTION_POOL = "exist.connection.pool";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private static final Map<String, ReplyConsumer> REPLY_CONSUMERS = new HashMap<>();
+
+    private static final AtomicLong SENT = new AtomicLong();
+    private static final AtomicLong FAILED = new AtomicLong();
+    private static final AtomicLong TIMEOUTS = new AtomicLong();
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+    private static final AtomicLong PAYLOAD_BYTES = new AtomicLong();
+    private static final RateCounter SENT_RATE = new RateCounter();
+    private static final RateCounter BYTES_RATE = new RateCounter();
+    private static final String TRACE_RESOURCE = "sender";
+    private static final String REPLY_CLIENT_ID_SUFFIX = "-reply";
+
+    static {
+        // Expose statistics via JMX
+        JmxSupport.register(SenderStatistics.NAME, new SenderStatistics());
+    }
+
     private final XQueryContext xQueryContext;
 
     /**
@@ -92,125 +122,655 @@ public class Sender {
         // JMS specific checks
         jmsConfig.validate();
 
-        // Retrieve and set JMS identifier
-        final String id = Identity.getInstance().getIdentity();
-        if (StringUtils.isNotBlank(id)) {
-            msgMetaProps.setProperty(Constants.EXIST_INSTANCE_ID, id);
-        } else {
-            LOG.error("An empty value was provided for '{}'", Constants.EXIST_INSTANCE_ID);
-        }
+        // Set instance ID and username
+        setSenderProperties(msgMetaProps);
 
-        // Set username
-        if (xQueryContext != null) {
-            final String username = xQueryContext.getSubject().getName();
-            if (username != null) {
-                msgMetaProps.setProperty("exist.user", username);
-            }
+        Connection connection = null;
+        try {
+            final javax.naming.Context context = createInitialContext(jmsConfig);
+
+            // Setup connection
+            connection = createConnection(context, jmsConfig);
+
+            // Lookup queue
+            final Destination destination = (Destination) context.lookup(jmsConfig.getDestination());
+
+            // Create session
+            final Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+
+            // Create message producer
+            final MessageProducer messageProducer = createProducer(session, destination, jmsConfig);
+
+            // Create message, depending on incoming object type
+            final String traceId = startTrace(jmsConfig, msgMetaProps, content);
+            final long serializeTime = System.nanoTime();
+            final Message message = createMessage(session, content, msgMetaProps);
+            setGroupId(jmsConfig, message);
+            Tracer.record(traceId, "serialize", TRACE_RESOURCE, serializeTime);
+
+            // Send message
+            final long sendTime = System.nanoTime();
+            messageProducer.send(message);
+            Tracer.record(traceId, "send", TRACE_RESOURCE, sendTime);
+            countSent(1);
+
+            // Return report
+            return createReport(message, messageProducer, jmsConfig);
+
+        } catch (final JMSException ex) {
+            FAILED.incrementAndGet();
+            throw toXPathException(ex);
+
+        } catch (final Throwable ex) {
+            FAILED.incrementAndGet();
+            LOG.error(ex.getMessage(), ex);
+            throw new XPathException(JMS000, ex.getMessage());
+
+        } finally {
+            closeSilently(connection);
         }
+    }
+
+    /**
+     * Send a sequence of items to the JMS broker in one transacted session. The messages
+     * become available for consumers only when all items are sent successfully.
+     *
+     * @param jmsConfig    JMS configuration
+     * @param msgMetaProps JMS message properties, one for all items or one per item.
+     * @param items        The items to be transferred
+     * @return Report
+     * @throws XPathException Something bad happened, none of the messages is sent.
+     */
+    public NodeImpl sendBatch(final JmsConfiguration jmsConfig, final List<JmsMessageProperties> msgMetaProps, final List<Item> items) throws XPathException {
+
+        // JMS specific checks
+        jmsConfig.validate();
 
-        // Retrieve relevant values
-        final String initialContextFactory = jmsConfig.getInitialContextFactory();
-        final String providerURL = jmsConfig.getBrokerURL();
-        final String destinationValue = jmsConfig.getDestination();
+        if (msgMetaProps.size() > 1 && msgMetaProps.size() != items.size()) {
+            throw new XPathException(JMS011, String.format("Number of message properties (%s) does not match number of items (%s)",
+                    msgMetaProps.size(), items.size()));
+        }
 
         Connection connection = null;
+        Session session = null;
         try {
-            final Properties props = new Properties();
-            props.setProperty(Context.INITIAL_CONTEXT_FACTORY, initialContextFactory);
-            props.setProperty(Context.PROVIDER_URL, providerURL);
-            final javax.naming.Context context = new InitialContext(props);
+            final javax.naming.Context context = createInitialContext(jmsConfig);
+
+            // Setup connection
+            connection = createConnection(context, jmsConfig);
+
+            // Lookup queue
+            final Destination destination = (Destination) context.lookup(jmsConfig.getDestination());
+
+            // Create transacted session, the messages are sent on commit
+            session = connection.createSession(true, Session.SESSION_TRANSACTED);
 
-            // Get connection factory
-            final ConnectionFactory cf = getConnectionFactoryInstance(context, jmsConfig);
+            // Create message producer
+            final MessageProducer messageProducer = createProducer(session, destination, jmsConfig);
+
+            for (int i = 0; i < items.size(); i++) {
+
+                // Each message gets its own copy, the properties are modified while creating the message
+                final JmsMessageProperties itemProps = new JmsMessageProperties();
+                if (!msgMetaProps.isEmpty()) {
+                    itemProps.putAll(msgMetaProps.get(msgMetaProps.size() == 1 ? 0 : i));
+                }
+                setSenderProperties(itemProps);
 
-            if (cf == null) {
-                throw new XPathException(JMS026, "Unable to create connection factory");
+                final Message message = createMessage(session, items.get(i), itemProps);
+                setGroupId(jmsConfig, message);
+                messageProducer.send(message);
             }
 
-            // Setup username/password when required
-            final String userName = jmsConfig.getConnectionUserName();
-            final String password = jmsConfig.getConnectionPassword();
+            // Send all messages
+            session.commit();
+            countSent(items.size());
+
+            // Return report
+            return createBatchReport(items.size(), messageProducer, jmsConfig);
+
+        } catch (final Throwable ex) {
+            FAILED.addAndGet(items.size());
+            rollbackSilently(session);
 
-            connection = (StringUtils.isBlank(userName) || StringUtils.isBlank(password))
-                    ? cf.createConnection()
-                    : cf.createConnection(userName, password);
+            if (ex instanceof JMSException) {
+                throw toXPathException((JMSException) ex);
+            }
 
-            // Set clientId when set and not empty
-            final String clientId = jmsConfig.getClientId();
-            if (StringUtils.isNotBlank(clientId)) {
-                connection.setClientID(clientId);
+            if (ex instanceof XPathException) {
+                throw (XPathException) ex;
             }
 
+            LOG.error(ex.getMessage(), ex);
+            throw new XPathException(JMS000, ex.getMessage());
+
+        } finally {
+            closeSilently(connection);
+        }
+    }
+
+    /**
+     * Send content to JMS broker without creating a report.
+     *
+     * @param jmsConfig    JMS configuration
+     * @param msgMetaProps JMS message properties
+     * @param content      The content to be transferred
+     * @return Result of the send operation, completed.
+     * @throws XPathException Something bad happened.
+     */
+    public SendResult sendMessage(final JmsConfiguration jmsConfig, final JmsMessageProperties msgMetaProps, final Item content) throws XPathException {
+        final SendResult result = submit(jmsConfig, msgMetaProps, content, null, false);
+
+        final Throwable failure = result.getFailure();
+        if (failure instanceof JMSException) {
+            throw toXPathException((JMSException) failure);
+
+        } else if (failure instanceof XPathException) {
+            throw (XPathException) failure;
+
+        } else if (failure != null) {
+            LOG.error(failure.getMessage(), failure);
+            throw new XPathException(JMS000, failure.getMessage());
+        }
+
+        return result;
+    }
+
+    /**
+     * Send content to JMS broker asynchronously, without creating a report. Connecting, creating and
+     * sending the message is performed in the background in order of submission, the content must
+     * not depend on resources of the calling thread like the broker of the XQuery context.
+     *
+     * @param jmsConfig    JMS configuration
+     * @param msgMetaProps JMS message properties
+     * @param content      The content to be transferred
+     * @param listener     Callback for completion of the send, can be NULL
+     * @return Result of the send operation, completed when the broker accepted the message.
+     * @throws XPathException The configuration is not valid or the send could not be queued.
+     */
+    public SendResult sendAsync(final JmsConfiguration jmsConfig, final JmsMessageProperties msgMetaProps, final Item content,
+                                final SendCompletionListener listener) throws XPathException {
+        return submit(jmsConfig, msgMetaProps, content, listener, true);
+    }
+
+    private SendResult submit(final JmsConfiguration jmsConfig, final JmsMessageProperties msgMetaProps, final Item content,
+                              final SendCompletionListener listener, final boolean async) throws XPathException {
+
+        // JMS specific checks
+        jmsConfig.validate();
+
+        // Set instance ID and username
+        setSenderProperties(msgMetaProps);
+
+        final SendResult result = new SendResult();
+
+        // Connect, create and send the message; asynchronous sends do all of it in the background
+        final Runnable task = () -> {
+            Connection connection = null;
+            try {
+                final javax.naming.Context context = createInitialContext(jmsConfig);
+
+                // Setup connection
+                connection = createConnection(context, jmsConfig);
+
+                // Lookup queue
+                final Destination destination = (Destination) context.lookup(jmsConfig.getDestination());
+
+                // Create session
+                final Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+
+                // Create message producer
+                final MessageProducer messageProducer = createProducer(session, destination, jmsConfig);
+
+                // Create message, depending on incoming object type
+                final String traceId = startTrace(jmsConfig, msgMetaProps, content);
+                final long serializeTime = System.nanoTime();
+                final Message message = createMessage(session, content, msgMetaProps);
+                setGroupId(jmsConfig, message);
+                Tracer.record(traceId, "serialize", TRACE_RESOURCE, serializeTime);
+
+                // Send message
+                final long sendTime = System.nanoTime();
+                messageProducer.send(message);
+                Tracer.record(traceId, "send", TRACE_RESOURCE, sendTime);
+                countSent(1);
+                result.complete(message.getJMSMessageID());
+                if (listener != null) {
+                    listener.onCompletion(result.getMessageId());
+                }
+
+            } catch (final Throwable t) {
+                FAILED.incrementAndGet();
+                LOG.error("Unable to send message: {}", t.getMessage());
+                result.fail(t);
+                if (listener != null) {
+                    listener.onException(t);
+                }
+
+            } finally {
+                IN_FLIGHT.decrementAndGet();
+                closeSilently(connection);
+            }
+        };
+
+        IN_FLIGHT.incrementAndGet();
+
+        if (async) {
+            try {
+                AsyncSendExecutor.execute(jmsConfig.getBrokerURL() + " " + jmsConfig.getDestination(), task);
+            } catch (final RejectedExecutionException ex) {
+                IN_FLIGHT.decrementAndGet();
+                FAILED.incrementAndGet();
+                LOG.error(ex.getMessage(), ex);
+                throw new XPathException(JMS000, ex.getMessage());
+            }
+        } else {
+            task.run();
+        }
+
+        return result;
+    }
+
+    /**
+     * @return Number of messages sent successfully since startup.
+     */
+    public static long getSentCount() {
+        return SENT.get();
+    }
+
+    /**
+     * @return Number of messages that could not be sent since startup.
+     */
+    public static long getFailedCount() {
+        return FAILED.get();
+    }
+
+    /**
+     * @return Number of requests without reply within the timeout since startup.
+     */
+    public static long getTimeoutCount() {
+        return TIMEOUTS.get();
+    }
+
+    /**
+     * @return Number of messages prepared but not yet sent.
+     */
+    public static int getInFlightCount() {
+        return IN_FLIGHT.get();
+    }
+
+    /**
+     * @return Number of payload bytes written into messages since startup, after compression.
+     */
+    public static long getPayloadBytes() {
+        return PAYLOAD_BYTES.get();
+    }
+
+    /**
+     * @return Number of sent messages per second in the last minute, oldest first.
+     */
+    public static long[] getSentSeries() {
+        return SENT_RATE.getSeries();
+    }
+
+    /**
+     * @return Number of payload bytes per second in the last minute, oldest first.
+     */
+    public static long[] getPayloadByteSeries() {
+        return BYTES_RATE.getSeries();
+    }
+
+    private static void countSent(final long nrMessages) {
+        SENT.addAndGet(nrMessages);
+        SENT_RATE.add(nrMessages);
+    }
+
+    private static void addPayloadBytes(final long nrBytes) {
+        PAYLOAD_BYTES.addAndGet(nrBytes);
+        BYTES_RATE.add(nrBytes);
+    }
+
+    /**
+     * @return Number of messages waiting to be sent asynchronously.
+     */
+    public static int getAsyncQueueSize() {
+        return AsyncSendExecutor.getQueueSize();
+    }
+
+    /**
+     * @return Number of shared reply consumers.
+     */
+    public static int getReplyConsumerCount() {
+        synchronized (REPLY_CONSUMERS) {
+            return REPLY_CONSUMERS.size();
+        }
+    }
+
+    /**
+     * Send content to JMS broker and wait for the reply. The reply is received via a temporary
+     * queue that is shared by all requests to the same broker.
+     *
+     * @param jmsConfig    JMS configuration
+     * @param msgMetaProps JMS message properties
+     * @param content      The content to be transferred
+     * @param timeout      Maximum time to wait for the reply, in milliseconds
+     * @return The reply message
+     * @throws XPathException Something bad happened, or no reply was received in time.
+     */
+    public Message request(final JmsConfiguration jmsConfig, final JmsMessageProperties msgMetaProps, final Item content,
+                           final long timeout) throws XPathException {
+
+        // JMS specific checks
+        jmsConfig.validate();
+
+        // Set instance ID and username
+        setSenderProperties(msgMetaProps);
+
+        final String correlationId = UUID.randomUUID().toString();
+
+        ReplyConsumer replyConsumer = null;
+        Connection connection = null;
+        try {
+            final javax.naming.Context context = createInitialContext(jmsConfig);
+
+            // Get consumer for replies
+            replyConsumer = getReplyConsumer(context, jmsConfig);
+            final CompletableFuture<Message> reply = replyConsumer.register(correlationId);
+
+            // Setup connection
+            connection = createConnection(context, jmsConfig);
+
             // Lookup queue
-            final Destination destination = (Destination) context.lookup(destinationValue);
+            final Destination destination = (Destination) context.lookup(jmsConfig.getDestination());
 
             // Create session
             final Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
 
             // Create message producer
-            final MessageProducer messageProducer = session.createProducer(destination);
+            final MessageProducer messageProducer = createProducer(session, destination, jmsConfig);
 
             // Create message, depending on incoming object type
-            final boolean isExistMessageItem = (content instanceof eXistMessageItem);
-            final Message message = isExistMessageItem
-                    ? createMessageFromExistMessageItem(session, (eXistMessageItem) content, msgMetaProps)
-                    : createMessageFromItem(session, content, msgMetaProps);
-
-            // Set Message properties from user provided data
-            setMessagePropertiesFromMap(msgMetaProps, message);
-
-            // Set time-to-live (when available)
-            final Long timeToLive = jmsConfig.getTimeToLive();
-            if (timeToLive != null) {
-                messageProducer.setTimeToLive(timeToLive);
-            }
-
-            // Set priority (when available)
-            final Integer priority = jmsConfig.getPriority();
-            if (priority != null) {
-                messageProducer.setPriority(priority);
-            }
-
-            // Set deliveryMethod (when available)
-            final Integer deliveryMethod = jmsConfig.getDeliveryMethod();
-            if (deliveryMethod != null) {
-                messageProducer.setDeliveryMode(deliveryMethod);
-            }
+            final Message message = createMessage(session, content, msgMetaProps);
+            setGroupId(jmsConfig, message);
+            message.setJMSReplyTo(replyConsumer.getReplyQueue());
+            message.setJMSCorrelationID(correlationId);
 
             // Send message
             messageProducer.send(message);
+            countSent(1);
 
-            // Return report
-            return createReport(message, messageProducer, jmsConfig);
+            // Return connection to pool before waiting
+            closeSilently(connection);
+            connection = null;
 
-        } catch (final JMSException ex) {
-            LOG.error(ex.getMessage(), ex);
+            // Wait for reply
+            return reply.get(timeout, TimeUnit.MILLISECONDS);
 
+        } catch (final TimeoutException ex) {
+            TIMEOUTS.incrementAndGet();
+            throw new XPathException(JMS028, String.format("No reply received within %s ms, correlationId=%s", timeout, correlationId));
+
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new XPathException(JMS000, "Interrupted while waiting for reply");
+
+        } catch (final ExecutionException ex) {
             final Throwable cause = ex.getCause();
+            LOG.error(cause.getMessage(), cause);
+            throw new XPathException(JMS004, cause.getMessage());
 
-            if ("Error while attempting to add new Connection to the pool".contentEquals(ex.getMessage()) && cause != null) {
-                throw new XPathException(JMS004, cause.getMessage());
+        } catch (final JMSException ex) {
+            FAILED.incrementAndGet();
+            throw toXPathException(ex);
 
-            } else {
-                throw new XPathException(JMS004, ex.getMessage());
-            }
+        } catch (final XPathException ex) {
+            FAILED.incrementAndGet();
+            throw ex;
 
         } catch (final Throwable ex) {
+            FAILED.incrementAndGet();
             LOG.error(ex.getMessage(), ex);
             throw new XPathException(JMS000, ex.getMessage());
 
         } finally {
-            try {
-                if (connection != null) {
-                    // Close connection
-                    connection.close();
-                }
-            } catch (final JMSException ex) {
-                LOG.error("Problem closing connection, ignored. {} ({})", ex.getMessage(), ex.getErrorCode());
+            if (replyConsumer != null) {
+                replyConsumer.unregister(correlationId);
+            }
+            closeSilently(connection);
+        }
+    }
+
+    /**
+     * Send reply for a received request, using the session of the receiver.
+     *
+     * @param session       Session of the receiver
+     * @param replyTo       The JMSReplyTo destination of the request
+     * @param correlationId The correlation ID of the request
+     * @param content       The reply content, NULL for an empty reply
+     * @throws JMSException   When a problem occurs in the JMS domain
+     * @throws XPathException When the content could not be converted
+     */
+    public void sendReply(final Session session, final Destination replyTo, final String correlationId, final Item content)
+            throws JMSException, XPathException {
+
+        final JmsMessageProperties msgMetaProps = new JmsMessageProperties();
+        setSenderProperties(msgMetaProps);
+
+        final Message message = (content == null)
+                ? session.createTextMessage()
+                : createMessage(session, content, msgMetaProps);
+        message.setJMSCorrelationID(correlationId);
+
+        final MessageProducer producer = session.createProducer(replyTo);
+        try {
+            producer.send(message);
+            countSent(1);
+        } finally {
+            producer.close();
+        }
+    }
+
+    /**
+     * Get consumer of replies for the broker, create new one when not available. The connection of the
+     * consumer stays open next to the connections of the requests, it gets a client ID of its own.
+     */
+    private ReplyConsumer getReplyConsumer(final javax.naming.Context context, final JmsConfiguration jmsConfig)
+            throws NamingException, JMSException, XPathException {
+
+        final String key = jmsConfig.getBrokerURL() + "#" + jmsConfig.getConnectionFactory() + "#" + jmsConfig.getConnectionUserName();
+
+        synchronized (REPLY_CONSUMERS) {
+            ReplyConsumer replyConsumer = REPLY_CONSUMERS.get(key);
+            if (replyConsumer == null || !replyConsumer.isOpen()) {
+                final String clientId = jmsConfig.getClientId();
+                replyConsumer = new ReplyConsumer(createConnection(context, jmsConfig,
+                        StringUtils.isBlank(clientId) ? null : clientId + REPLY_CLIENT_ID_SUFFIX));
+                REPLY_CONSUMERS.put(key, replyConsumer);
+            }
+            return replyConsumer;
+        }
+    }
+
+    /**
+     * Decide if the message is traced, if so the trace ID is added to the message properties.
+     * Replication messages are sampled by the replication trigger.
+     *
+     * @return The trace ID, NULL when not traced.
+     */
+    private String startTrace(final JmsConfiguration jmsConfig, final JmsMessageProperties msgMetaProps, final Item content) {
+        if (content instanceof eXistMessageItem) {
+            final Object traceId = ((eXistMessageItem) content).getData().getMetadata().get(Constants.EXIST_TRACE_ID);
+            return traceId == null ? null : traceId.toString();
+        }
+
+        final String traceId = Tracer.sample(jmsConfig.getTraceSampleRate());
+        if (traceId != null) {
+            msgMetaProps.setProperty(Constants.EXIST_TRACE_ID, traceId);
+        }
+        return traceId;
+    }
+
+    /**
+     * Set eXist-db instance ID and name of user into message properties.
+     */
+    private void setSenderProperties(final JmsMessageProperties msgMetaProps) {
+
+        // Retrieve and set JMS identifier
+        final String id = Identity.getInstance().getIdentity();
+        if (StringUtils.isNotBlank(id)) {
+            msgMetaProps.setProperty(Constants.EXIST_INSTANCE_ID, id);
+        } else {
+            LOG.error("An empty value was provided for '{}'", Constants.EXIST_INSTANCE_ID);
+        }
+
+        // Set username
+        if (xQueryContext != null) {
+            final String username = xQueryContext.getSubject().getName();
+            if (username != null) {
+                msgMetaProps.setProperty("exist.user", username);
             }
         }
     }
 
+    private javax.naming.Context createInitialContext(final JmsConfiguration jmsConfig) throws NamingException {
+        final Properties props = new Properties();
+        props.setProperty(Context.INITIAL_CONTEXT_FACTORY, jmsConfig.getInitialContextFactory());
+        props.setProperty(Context.PROVIDER_URL, jmsConfig.getBrokerURL());
+        return new InitialContext(props);
+    }
+
+    /**
+     * Create connection to broker, with username/password and clientId when set.
+     */
+    private Connection createConnection(final javax.naming.Context context, final JmsConfiguration jmsConfig) throws NamingException, JMSException, XPathException {
+        return createConnection(context, jmsConfig, jmsConfig.getClientId());
+    }
+
+    /**
+     * Create connection to broker, with username/password when set.
+     *
+     * @param clientId Client ID of the connection, not set when NULL or empty
+     */
+    private Connection createConnection(final javax.naming.Context context, final JmsConfiguration jmsConfig, final String clientId)
+            throws NamingException, JMSException, XPathException {
+
+        // Get connection factory
+        final ConnectionFactory cf = getConnectionFactoryInstance(context, jmsConfig);
+
+        if (cf == null) {
+            throw new XPathException(JMS026, "Unable to create connection factory");
+        }
+
+        // Setup username/password when required
+        final String userName = jmsConfig.getConnectionUserName();
+        final String password = jmsConfig.getConnectionPassword();
+
+        final Connection connection = (StringUtils.isBlank(userName) || StringUtils.isBlank(password))
+                ? cf.createConnection()
+                : cf.createConnection(userName, password);
+
+        // Set clientId when set and not empty
+        if (StringUtils.isNotBlank(clientId)) {
+            connection.setClientID(clientId);
+        }
+
+        return connection;
+    }
+
+    /**
+     * Create message producer, set time-to-live, priority and delivery mode when available.
+     */
+    private MessageProducer createProducer(final Session session, final Destination destination, final JmsConfiguration jmsConfig) throws JMSException {
+
+        final MessageProducer messageProducer = session.createProducer(destination);
+
+        // Set time-to-live (when available)
+        final Long timeToLive = jmsConfig.getTimeToLive();
+        if (timeToLive != null) {
+            messageProducer.setTimeToLive(timeToLive);
+        }
+
+        // Set priority (when available)
+        final Integer priority = jmsConfig.getPriority();
+        if (priority != null) {
+            messageProducer.setPriority(priority);
+        }
+
+        // Set deliveryMethod (when available)
+        final Integer deliveryMethod = jmsConfig.getDeliveryMethod();
+        if (deliveryMethod != null) {
+            messageProducer.setDeliveryMode(deliveryMethod);
+        }
+
+        return messageProducer;
+    }
+
+    /**
+     * Create message depending on incoming object type, and set message properties.
+     */
+    private Message createMessage(final Session session, final Item content, final JmsMessageProperties msgMetaProps) throws JMSException, XPathException {
+
+        final boolean isExistMessageItem = (content instanceof eXistMessageItem);
+        final Message message = isExistMessageItem
+                ? createMessageFromExistMessageItem(session, (eXistMessageItem) content, msgMetaProps)
+                : createMessageFromItem(session, content, msgMetaProps);
+
+        // Set Message properties from user provided data
+        setMessagePropertiesFromMap(msgMetaProps, message);
+
+        return message;
+    }
+
+    /**
+     * Set JMSXGroupID from the message property named by the 'group.key' configuration item,
+     * unless the message already has a group.
+     */
+    private void setGroupId(final JmsConfiguration jmsConfig, final Message message) throws JMSException {
+        final String groupKey = jmsConfig.getGroupKey();
+        if (StringUtils.isBlank(groupKey) || message.propertyExists(Constants.JMSX_GROUP_ID)) {
+            return;
+        }
+
+        final Object value = message.getObjectProperty(groupKey);
+        if (value != null) {
+            message.setStringProperty(Constants.JMSX_GROUP_ID, value.toString());
+        }
+    }
+
+    private XPathException toXPathException(final JMSException ex) {
+        LOG.error(ex.getMessage(), ex);
+
+        final Throwable cause = ex.getCause();
+
+        if ("Error while attempting to add new Connection to the pool".contentEquals(ex.getMessage()) && cause != null) {
+            return new XPathException(JMS004, cause.getMessage());
+
+        } else {
+            return new XPathException(JMS004, ex.getMessage());
+        }
+    }
+
+    private void rollbackSilently(final Session session) {
+        try {
+            if (session != null) {
+                session.rollback();
+            }
+        } catch (final JMSException ex) {
+            LOG.error("Problem rolling back session, ignored. {} ({})", ex.getMessage(), ex.getErrorCode());
+        }
+    }
+
+    private void closeSilently(final Connection connection) {
+        try {
+            if (connection != null) {
+                // Close connection
+                connection.close();
+            }
+        } catch (final JMSException ex) {
+            LOG.error("Problem closing connection, ignored. {} ({})", ex.getMessage(), ex.getErrorCode());
+        }
+    }
+
     /**
      * Get connection factory
      */
@@ -269,9 +829,10 @@ public class Sender {
                     jmp.setProperty(EXIST_DOCUMENT_MIMETYPE, np.getDoc().getMetadata().getMimeType());
                 }
 
-                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                // Create actual message, data is streamed into it
+                final BytesMessage bytesMessage = session.createBytesMessage();
 
-                // Stream content node to buffer
+                // Stream content node to message
                 final NodeValue node = (NodeValue) item;
 
                 // note: this code is not responsible to close the broker!
@@ -279,11 +840,13 @@ public class Sender {
 
                 final Serializer serializer = broker.newSerializer();
                 try (final InputStream is = new NodeInputStream(xQueryContext.getDatabase(), serializer, node);
+                     final BytesMessageOutputStream bmos = new BytesMessageOutputStream(bytesMessage)) {
 
-                     // Compress data when indicated
-                     final OutputStream os = getOutputStream(isCompressed, baos)) {
-
-                    IOUtils.copy(is, os);
+                    // Compress data when indicated, the compressed data is complete when closed
+                    try (final OutputStream os = getOutputStream(isCompressed, bmos)) {
+                        IOUtils.copyLarge(is, os, COPY_BUFFER.get());
+                    }
+                    addPayloadBytes(bmos.getCount());
 
                 } catch (final IOException ex) {
                     LOG.error(ex.getMessage(), ex);
@@ -294,10 +857,6 @@ public class Sender {
 //                    LOG.error(e);
 //                }
 
-                // Create actual message, pass data
-                final BytesMessage bytesMessage = session.createBytesMessage();
-                bytesMessage.writeBytes(baos.toByteArray());
-
                 // Swap
                 message = bytesMessage;
 
@@ -319,26 +878,26 @@ public class Sender {
 
                 }
 
-                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
+                // Create actual message, data is streamed into it
+                final BytesMessage bytesMessage = session.createBytesMessage();
 
-                // Copy data from item to buffer
+                // Copy data from item to message
                 final BinaryValue binary = (BinaryValue) item;
 
                 try (final InputStream is = binary.getInputStream();
-                     final OutputStream os = getOutputStream(isCompressed, baos)) {
+                     final BytesMessageOutputStream bmos = new BytesMessageOutputStream(bytesMessage)) {
 
-                    IOUtils.copy(is, os);
+                    // The compressed data is complete when closed
+                    try (final OutputStream os = getOutputStream(isCompressed, bmos)) {
+                        IOUtils.copyLarge(is, os, COPY_BUFFER.get());
+                    }
+                    addPayloadBytes(bmos.getCount());
 
                 } catch (final IOException ex) {
                     LOG.error(ex);
                     throw new XPathException(JMS001, ex.getMessage(), ex);
                 }
 
-                // Create actual message, pass data
-                final BytesMessage bytesMessage = session.createBytesMessage();
-                bytesMessage.writeBytes(baos.toByteArray());
-
                 // Swap
                 message = bytesMessage;
 
@@ -389,8 +948,8 @@ public class Sender {
         return message;
     }
 
-    private OutputStream getOutputStream(final boolean isCompressed, final ByteArrayOutputStream baos) throws IOException {
-        return isCompressed ? new GZIPOutputStream(baos) : baos;
+    private OutputStream getOutputStream(final boolean isCompressed, final OutputStream os) throws IOException {
+        return isCompressed ? new GZIPOutputStream(os, BUFFER_SIZE) : os;
     }
 
     /**
@@ -416,6 +975,7 @@ public class Sender {
             LOG.debug("No payload for replication");
         } else {
             message.writeBytes(payload);
+            addPayloadBytes(payload.length);
         }
 
         em.updateMessageProperties(message);
@@ -549,6 +1109,72 @@ public class Sender {
         /*
          * Configuration
          */
+        writeConfiguration(builder, config);
+
+        // finish root element
+        builder.endElement();
+
+        // return result
+        return builder.getDocument().getNode(nodeNr);
+
+
+    }
+
+
+    /**
+     * Create report for a batch of messages
+     */
+    private NodeImpl createBatchReport(final int count, final MessageProducer producer, final JmsConfiguration config) {
+
+        final MemTreeBuilder builder = new MemTreeBuilder();
+        builder.startDocument();
+
+        // start root element
+        final int nodeNr = builder.startElement("", JMS, JMS, null);
+
+        builder.startElement("", BATCH_SIZE, BATCH_SIZE, null);
+        builder.characters("" + count);
+        builder.endElement();
+
+        /*
+         * Producer
+         */
+        if (producer != null) {
+            try {
+                final long timeToLive = producer.getTimeToLive();
+                builder.startElement("", PRODUCER_TTL, PRODUCER_TTL, null);
+                builder.characters("" + timeToLive);
+                builder.endElement();
+            } catch (final JMSException ex) {
+                LOG.error(ex);
+            }
+
+            try {
+                final long priority = producer.getPriority();
+                builder.startElement("", PRODUCER_PRIORITY, PRODUCER_PRIORITY, null);
+                builder.characters("" + priority);
+                builder.endElement();
+            } catch (final JMSException ex) {
+                LOG.error(ex);
+            }
+        }
+
+        /*
+         * Configuration
+         */
+        writeConfiguration(builder, config);
+
+        // finish root element
+        builder.endElement();
+
+        // return result
+        return builder.getDocument().getNode(nodeNr);
+    }
+
+    /**
+     * Write JMS configuration into report
+     */
+    private void writeConfiguration(final MemTreeBuilder builder, final JmsConfiguration config) {
         if (config != null) {
             builder.startElement("", Context.INITIAL_CONTEXT_FACTORY, Context.INITIAL_CONTEXT_FACTORY, null);
             builder.characters(config.getInitialContextFactory());
@@ -573,16 +1199,6 @@ public class Sender {
                 builder.endElement();
             }
         }
-
-
-        // finish root element
-        builder.endElement();
-
-        // return result
-        return builder.getDocument().getNode(nodeNr);
-
-
     }
 
-
 }
@@ -39,6 +39,13 @@ class SenderConnectionFactory {
     private final static Logger LOG = LogManager.getLogger(SenderConnectionFactory.class);
     private static final Map<String, ConnectionFactory> connectionFactories = new HashMap<>();
 
+    /**
+     * @return Number of cached connection factories.
+     */
+    static int getCacheSize() {
+        return connectionFactories.size();
+    }
+
     /**
      * Get Connection Factory. Return existing factory or create new one if not existent.
      *
@@ -0,0 +1,70 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.send;
+
+/**
+ * MBean exposing the statistics of all senders.
+ *
+ * @author Dannes Wessels
+ */
+class SenderStatistics implements SenderStatisticsMXBean {
+
+    static final String NAME = "type=Sender";
+
+    @Override
+    public long getMessagesSent() {
+        return Sender.getSentCount();
+    }
+
+    @Override
+    public long getMessagesFailed() {
+        return Sender.getFailedCount();
+    }
+
+    @Override
+    public int getMessagesInFlight() {
+        return Sender.getInFlightCount();
+    }
+
+    @Override
+    public long getPayloadBytes() {
+        return Sender.getPayloadBytes();
+    }
+
+    @Override
+    public int getAsyncQueueDepth() {
+        return Sender.getAsyncQueueSize();
+    }
+
+    @Override
+    public int getCachedConnectionFactories() {
+        return SenderConnectionFactory.getCacheSize();
+    }
+
+    @Override
+    public int getReplyConsumers() {
+        return Sender.getReplyConsumerCount();
+    }
+
+    @Override
+    public long getRequestTimeouts() {
+        return Sender.getTimeoutCount();
+    }
+}
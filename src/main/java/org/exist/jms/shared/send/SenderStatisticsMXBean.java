@@ -0,0 +1,50 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.shared.send;
+
+/**
+ * Management interface of the message sender.
+ *
+ * @author Dannes Wessels
+ */
+public interface SenderStatisticsMXBean {
+
+    long getMessagesSent();
+
+    long getMessagesFailed();
+
+    int getMessagesInFlight();
+
+    /**
+     * @return Number of payload bytes written into messages, after compression.
+     */
+    long getPayloadBytes();
+
+    int getAsyncQueueDepth();
+
+    int getCachedConnectionFactories();
+
+    int getReplyConsumers();
+
+    /**
+     * @return Number of requests without reply within the timeout.
+     */
+    long getRequestTimeouts();
+}
@@ -21,7 +21,10 @@ package org.exist.jms.xquery;
 
 import org.exist.dom.QName;
 import org.exist.jms.xquery.management.ListReceivers;
+import org.exist.jms.xquery.management.LiveStatistics;
 import org.exist.jms.xquery.management.ManageReceivers;
+import org.exist.jms.xquery.management.Metrics;
+import org.exist.jms.xquery.management.Traces;
 import org.exist.xquery.AbstractInternalModule;
 import org.exist.xquery.FunctionDef;
 import org.exist.xquery.XPathException;
@@ -49,6 +52,11 @@ public class JmsModule extends AbstractInternalModule {
             new FunctionDef(ManageReceivers.signatures[2], ManageReceivers.class),
             new FunctionDef(ManageReceivers.signatures[3], ManageReceivers.class),
             new FunctionDef(ManageReceivers.signatures[4], ManageReceivers.class),
+            new FunctionDef(ManageReceivers.signatures[5], ManageReceivers.class),
+
+            new FunctionDef(Metrics.signatures[0], Metrics.class),
+            new FunctionDef(LiveStatistics.signatures[0], LiveStatistics.class),
+            new FunctionDef(Traces.signatures[0], Traces.class),
     };
 
     public final static QName EXCEPTION_QNAME =
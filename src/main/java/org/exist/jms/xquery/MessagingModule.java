@@ -21,6 +21,8 @@ package org.exist.jms.xquery;
 
 import org.exist.dom.QName;
 import org.exist.jms.xquery.messaging.RegisterReceiver;
+import org.exist.jms.xquery.messaging.RequestMessage;
+import org.exist.jms.xquery.messaging.SendBatch;
 import org.exist.jms.xquery.messaging.SendMessage;
 import org.exist.xquery.AbstractInternalModule;
 import org.exist.xquery.FunctionDef;
@@ -44,6 +46,8 @@ public class MessagingModule extends AbstractInternalModule {
     public final static FunctionDef[] functions = {
             new FunctionDef(RegisterReceiver.signatures[0], RegisterReceiver.class),
             new FunctionDef(SendMessage.signatures[0], SendMessage.class),
+            new FunctionDef(SendBatch.signatures[0], SendBatch.class),
+            new FunctionDef(RequestMessage.signatures[0], RequestMessage.class),
     };
 
     public final static QName EXCEPTION_QNAME =
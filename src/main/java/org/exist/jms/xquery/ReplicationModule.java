@@ -21,10 +21,17 @@ package org.exist.jms.xquery;
 
 
 import org.exist.dom.QName;
+import org.exist.jms.xquery.replication.AntiEntropy;
+import org.exist.jms.xquery.replication.Bootstrap;
+import org.exist.jms.xquery.replication.ConflictReport;
+import org.exist.jms.xquery.replication.PayloadStatisticsReport;
 import org.exist.jms.xquery.replication.RegisterReceiver;
+import org.exist.jms.xquery.replication.ReplicationLagStatus;
 import org.exist.jms.xquery.replication.ReplicationSwitch;
 import org.exist.jms.xquery.replication.ReplicationSwitchStatus;
+import org.exist.jms.xquery.replication.ShardStatus;
 import org.exist.jms.xquery.replication.SyncResource;
+import org.exist.jms.xquery.replication.SyncTree;
 import org.exist.xquery.AbstractInternalModule;
 import org.exist.xquery.FunctionDef;
 import org.exist.xquery.XPathException;
@@ -46,10 +53,23 @@ public class ReplicationModule extends AbstractInternalModule {
 
     public final static FunctionDef[] functions = {
             new FunctionDef(RegisterReceiver.signatures[0], RegisterReceiver.class),
+            new FunctionDef(RegisterReceiver.signatures[1], RegisterReceiver.class),
+            new FunctionDef(RegisterReceiver.signatures[2], RegisterReceiver.class),
+            new FunctionDef(RegisterReceiver.signatures[3], RegisterReceiver.class),
+            new FunctionDef(RegisterReceiver.signatures[4], RegisterReceiver.class),
+            new FunctionDef(RegisterReceiver.signatures[5], RegisterReceiver.class),
             new FunctionDef(SyncResource.signatures[0], SyncResource.class),
             new FunctionDef(SyncResource.signatures[1], SyncResource.class),
+            new FunctionDef(SyncTree.signatures[0], SyncTree.class),
+            new FunctionDef(SyncTree.signatures[1], SyncTree.class),
             new FunctionDef(ReplicationSwitch.signatures[0], ReplicationSwitch.class),
             new FunctionDef(ReplicationSwitchStatus.signatures[0], ReplicationSwitchStatus.class),
+            new FunctionDef(ReplicationLagStatus.signatures[0], ReplicationLagStatus.class),
+            new FunctionDef(ConflictReport.signatures[0], ConflictReport.class),
+            new FunctionDef(ShardStatus.signatures[0], ShardStatus.class),
+            new FunctionDef(PayloadStatisticsReport.signatures[0], PayloadStatisticsReport.class),
+            new FunctionDef(AntiEntropy.signatures[0], AntiEntropy.class),
+            new FunctionDef(Bootstrap.signatures[0], Bootstrap.class),
     };
 
     public final static QName EXCEPTION_QNAME =
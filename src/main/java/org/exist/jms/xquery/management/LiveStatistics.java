@@ -0,0 +1,148 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.management;
+
+import org.exist.dom.QName;
+import org.exist.jms.replication.subscribe.ReplicationJmsListener;
+import org.exist.jms.replication.subscribe.ReplicationLag;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.LatencyHistogram;
+import org.exist.jms.shared.RateCounter;
+import org.exist.jms.shared.Report;
+import org.exist.jms.shared.receive.Receiver;
+import org.exist.jms.shared.receive.ReceiversManager;
+import org.exist.jms.shared.send.Sender;
+import org.exist.jms.xquery.JmsModule;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.array.ArrayType;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+
+/**
+ * Implementation of the jms:live-statistics() function. Provides the rates per second of the
+ * last minute of all receivers and the senders, as used by the dashboard. The rates are kept
+ * in fixed-size ring buffers, calling this function is cheap.
+ *
+ * @author Dannes Wessels
+ */
+public class LiveStatistics extends BasicFunction {
+
+    public final static FunctionSignature[] signatures = {
+
+            new FunctionSignature(
+                    new QName("live-statistics", JmsModule.NAMESPACE_URI, JmsModule.PREFIX),
+                    "Retrieve per second the number of messages, bytes and errors of the last " +
+                            RateCounter.WINDOW_SECONDS + " seconds of all receivers and the senders, " +
+                            "with the processing latencies (microseconds) and replication lag (milliseconds).",
+                    new SequenceType[]{
+                            // no params
+                    },
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.EXACTLY_ONE, "Statistics, suitable for JSON serialization")
+            ),
+
+    };
+
+    public LiveStatistics(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt);
+            throw ex;
+        }
+
+        final ReceiversManager manager = ReceiversManager.getInstance();
+
+        final List<Sequence> receivers = new ArrayList<>();
+        for (final Integer id : manager.getIds()) {
+            final Receiver receiver = manager.get(id);
+            if (receiver != null) {
+                receivers.add(getReceiverStatistics(receiver));
+            }
+        }
+
+        final MapType sender = new MapType(context);
+        sender.add(new StringValue("messages"), toArray(Sender.getSentSeries()));
+        sender.add(new StringValue("bytes"), toArray(Sender.getPayloadByteSeries()));
+        sender.add(new StringValue("inFlight"), new IntegerValue(Sender.getInFlightCount()));
+        sender.add(new StringValue("asyncQueue"), new IntegerValue(Sender.getAsyncQueueSize()));
+        sender.add(new StringValue("failed"), new IntegerValue(Sender.getFailedCount()));
+
+        final MapType map = new MapType(context);
+        map.add(new StringValue("timestamp"), new IntegerValue(System.currentTimeMillis()));
+        map.add(new StringValue("window"), new IntegerValue(RateCounter.WINDOW_SECONDS));
+        map.add(new StringValue("receivers"), new ArrayType(context, receivers));
+        map.add(new StringValue("sender"), sender);
+        return map;
+    }
+
+    private MapType getReceiverStatistics(final Receiver receiver) throws XPathException {
+        final Report report = receiver.getReport();
+
+        final MapType map = new MapType(context);
+        map.add(new StringValue("id"), new IntegerValue(receiver.getReceiverId()));
+        map.add(new StringValue("usage"), new StringValue(receiver.getMessageListener().getUsageType()));
+        map.add(new StringValue("destination"), new StringValue("" + receiver.getDestinationName()));
+        map.add(new StringValue("state"), new StringValue(receiver.getState()));
+        map.add(new StringValue("messages"), toArray(report.getMessageSeries()));
+        map.add(new StringValue("bytes"), toArray(report.getByteSeries()));
+        map.add(new StringValue("errors"), toArray(report.getErrors().getLastMinuteSeries()));
+        map.add(new StringValue("latency"), getPercentiles(report.getLatency(Report.Stage.TOTAL), TimeUnit.MICROSECONDS.toNanos(1)));
+
+        if (receiver.getMessageListener() instanceof ReplicationJmsListener) {
+            final ReplicationLag lag = ((ReplicationJmsListener) receiver.getMessageListener()).getReplicationLag();
+            map.add(new StringValue("lag"), getPercentiles(lag.getLag(), 1));
+        }
+
+        return map;
+    }
+
+    /**
+     * Convert percentiles of histogram into a map, dividing the values by the divisor.
+     */
+    private MapType getPercentiles(final LatencyHistogram histogram, final long divisor) throws XPathException {
+        final MapType map = new MapType(context);
+        map.add(new StringValue("p50"), new IntegerValue(histogram.getPercentile(0.50) / divisor));
+        map.add(new StringValue("p95"), new IntegerValue(histogram.getPercentile(0.95) / divisor));
+        map.add(new StringValue("p99"), new IntegerValue(histogram.getPercentile(0.99) / divisor));
+        return map;
+    }
+
+    private ArrayType toArray(final long[] values) throws XPathException {
+        final List<Sequence> items = new ArrayList<>(values.length);
+        for (final long value : values) {
+            items.add(new IntegerValue(value));
+        }
+        return new ArrayType(context, items);
+    }
+}
@@ -21,12 +21,17 @@ package org.exist.jms.xquery.management;
 
 import org.exist.dom.QName;
 import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.LatencyHistogram;
+import org.exist.jms.shared.Report;
 import org.exist.jms.shared.receive.Receiver;
 import org.exist.jms.shared.receive.ReceiversManager;
 import org.exist.jms.xquery.JmsModule;
 import org.exist.xquery.*;
+import org.exist.xquery.functions.map.MapType;
 import org.exist.xquery.value.*;
 
+import java.util.concurrent.TimeUnit;
+
 import static org.exist.jms.shared.ErrorCodes.*;
 
 /**
@@ -43,6 +48,7 @@ public class ManageReceivers extends BasicFunction {
     public static final String CLOSE = "close";
     public static final String REPORT = "report";
     public static final String CLEARREPORT = "clear-report";
+    public static final String STATISTICS = "statistics";
 
     public final static FunctionSignature[] signatures = {
             new FunctionSignature(
@@ -74,6 +80,13 @@ public class ManageReceivers extends BasicFunction {
                     new SequenceType[]{
                             new FunctionParameterSequenceType(ID, Type.INTEGER, Cardinality.EXACTLY_ONE, RECEIVER_ID),},
                     new FunctionReturnSequenceType(Type.NODE, Cardinality.ONE, "Clear report of receiver")
+            ),
+            new FunctionSignature(
+                    new QName(STATISTICS, JmsModule.NAMESPACE_URI, JmsModule.PREFIX), "Get statistics of receiver, " +
+                    "including the latencies (microseconds) of the processing stages",
+                    new SequenceType[]{
+                            new FunctionParameterSequenceType(ID, Type.INTEGER, Cardinality.EXACTLY_ONE, RECEIVER_ID),},
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.ONE, "Statistics of receiver")
             ),};
 
     public ManageReceivers(final XQueryContext context, final FunctionSignature signature) {
@@ -131,6 +144,10 @@ public class ManageReceivers extends BasicFunction {
                 // Clear report
                 receiver.getReport().clear();
 
+            } else if (isCalledAs(STATISTICS)) {
+                // Return statistics
+                returnValue = getStatistics(receiver.getReport());
+
             } else {
                 // DW: to check
                 throw new XPathException(this, JMS002, String.format("Function '%s' does not exist.", getSignature().getName().getLocalPart()));
@@ -148,4 +165,37 @@ public class ManageReceivers extends BasicFunction {
             throw new XPathException(this, JMS000, t);
         }
     }
+
+    /**
+     * Convert statistics of report into a map.
+     */
+    private MapType getStatistics(final Report report) throws XPathException {
+        final MapType map = new MapType(context);
+        map.add(new StringValue("nrProcessedMessages"), new IntegerValue(report.getMessageCounterTotal()));
+        map.add(new StringValue("nrFailedMessages"), new IntegerValue(report.getMessageCounterNOK()));
+        map.add(new StringValue("cumulativeProcessingTime"), new IntegerValue(report.getCumulatedProcessingTime()));
+
+        final MapType latencies = new MapType(context);
+        for (final Report.Stage stage : Report.Stage.values()) {
+            final LatencyHistogram histogram = report.getLatency(stage);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+
+            final MapType latency = new MapType(context);
+            latency.add(new StringValue("count"), new IntegerValue(histogram.getCount()));
+            latency.add(new StringValue("p50"), new IntegerValue(toMicros(histogram.getPercentile(0.50))));
+            latency.add(new StringValue("p95"), new IntegerValue(toMicros(histogram.getPercentile(0.95))));
+            latency.add(new StringValue("p99"), new IntegerValue(toMicros(histogram.getPercentile(0.99))));
+            latency.add(new StringValue("max"), new IntegerValue(toMicros(histogram.getMax())));
+            latencies.add(new StringValue(stage.getName()), latency);
+        }
+        map.add(new StringValue("latency"), latencies);
+
+        return map;
+    }
+
+    private static long toMicros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
 }
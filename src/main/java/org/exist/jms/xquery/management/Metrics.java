@@ -0,0 +1,180 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.management;
+
+import org.exist.dom.QName;
+import org.exist.jms.replication.publish.JMSMessageSender;
+import org.exist.jms.replication.shared.ReplicationGuard;
+import org.exist.jms.replication.subscribe.ReplicationJmsListener;
+import org.exist.jms.replication.subscribe.ReplicationLag;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.PrometheusWriter;
+import org.exist.jms.shared.Report;
+import org.exist.jms.shared.receive.Receiver;
+import org.exist.jms.shared.receive.ReceiversManager;
+import org.exist.jms.shared.send.Sender;
+import org.exist.jms.xquery.JmsModule;
+import org.exist.xquery.*;
+import org.exist.xquery.value.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+import static org.exist.jms.shared.PrometheusWriter.*;
+
+/**
+ * Implementation of the jms:metrics() function. Renders the statistics of all receivers, the senders
+ * and the replication switch in the Prometheus text format, without creating XML.
+ *
+ * @author Dannes Wessels
+ */
+public class Metrics extends BasicFunction {
+
+    private static final double NANOS = 1e-9;
+    private static final double MILLIS = 1e-3;
+
+    public final static FunctionSignature[] signatures = {
+
+            new FunctionSignature(
+                    new QName("metrics", JmsModule.NAMESPACE_URI, JmsModule.PREFIX),
+                    "Retrieve metrics of receivers, senders and replication in the Prometheus text format. " +
+                            "Serialize with method 'text' and media-type '" + CONTENT_TYPE + "'.",
+                    new SequenceType[]{
+                            // no params
+                    },
+                    new FunctionReturnSequenceType(Type.STRING, Cardinality.EXACTLY_ONE, "Metrics")
+            ),
+
+    };
+
+    public Metrics(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt);
+            throw ex;
+        }
+
+        // Snapshot of receivers
+        final ReceiversManager manager = ReceiversManager.getInstance();
+        final List<Receiver> receivers = new ArrayList<>();
+        for (final Integer id : manager.getIds()) {
+            final Receiver receiver = manager.get(id);
+            if (receiver != null) {
+                receivers.add(receiver);
+            }
+        }
+
+        final PrometheusWriter writer = new PrometheusWriter();
+        writeReceivers(writer, receivers);
+        writeReplication(writer, receivers);
+        writeSender(writer);
+
+        return new StringValue(writer.toString());
+    }
+
+    private static String getLabels(final Receiver receiver) {
+        return labels("receiver", "" + receiver.getReceiverId(),
+                "destination", receiver.getDestinationName(),
+                "usage", receiver.getMessageListener().getUsageType());
+    }
+
+    private void writeReceivers(final PrometheusWriter writer, final List<Receiver> receivers) {
+
+        writer.family("exist_jms_receiver_up", GAUGE, "Receiver is started (1) or not (0).");
+        receivers.forEach(r -> writer.sample("exist_jms_receiver_up", getLabels(r), "STARTED".equals(r.getState()) ? 1 : 0));
+
+        writer.family("exist_jms_receiver_messages_total", COUNTER, "Number of received messages.");
+        receivers.forEach(r -> writer.sample("exist_jms_receiver_messages_total", getLabels(r), r.getReport().getMessageCounterTotal()));
+
+        writer.family("exist_jms_receiver_messages_failed_total", COUNTER, "Number of received messages that could not be processed.");
+        receivers.forEach(r -> writer.sample("exist_jms_receiver_messages_failed_total", getLabels(r), r.getReport().getMessageCounterNOK()));
+
+        writer.family("exist_jms_receiver_errors_total", COUNTER, "Number of reported errors.");
+        receivers.forEach(r -> writer.sample("exist_jms_receiver_errors_total", getLabels(r), r.getReport().getErrors().getTotal()));
+
+        writer.family("exist_jms_receiver_errors_dropped_total", COUNTER, "Number of errors removed from the report because it was full.");
+        receivers.forEach(r -> writer.sample("exist_jms_receiver_errors_dropped_total", getLabels(r), r.getReport().getErrors().getDropped()));
+
+        writer.family("exist_jms_receiver_stage_seconds", SUMMARY, "Duration of the processing stages of received messages.");
+        for (final Receiver receiver : receivers) {
+            final String labels = getLabels(receiver);
+            for (final Report.Stage stage : Report.Stage.values()) {
+                writer.summary("exist_jms_receiver_stage_seconds", labels + "," + labels("stage", stage.getName()),
+                        receiver.getReport().getLatency(stage), NANOS);
+            }
+        }
+    }
+
+    private void writeReplication(final PrometheusWriter writer, final List<Receiver> receivers) {
+
+        writer.family("exist_jms_replication_enabled", GAUGE, "Replication of changes is enabled (1) or not (0).");
+        writer.sample("exist_jms_replication_enabled", "", ReplicationGuard.getInstance().isReplicationEnabled() ? 1 : 0);
+
+        final Report published = JMSMessageSender.getReport();
+        writer.family("exist_jms_replication_published_total", COUNTER, "Number of replication messages sent by this instance.")
+                .sample("exist_jms_replication_published_total", "", published.getMessageCounterOK());
+        writer.family("exist_jms_replication_publish_failed_total", COUNTER, "Number of replication messages that could not be sent.")
+                .sample("exist_jms_replication_publish_failed_total", "", published.getErrors().getTotal());
+
+        final List<Receiver> subscribers = new ArrayList<>();
+        receivers.stream().filter(r -> r.getMessageListener() instanceof ReplicationJmsListener).forEach(subscribers::add);
+
+        writer.family("exist_jms_replication_lag_seconds", SUMMARY, "Time between a change on the publisher and applying it locally.");
+        subscribers.forEach(r -> writer.summary("exist_jms_replication_lag_seconds", getLabels(r), getLag(r).getLag(), MILLIS));
+
+        writer.family("exist_jms_replication_dwell_seconds", SUMMARY, "Time between sending and delivery of a replication message.");
+        subscribers.forEach(r -> writer.summary("exist_jms_replication_dwell_seconds", getLabels(r), getLag(r).getDwell(), MILLIS));
+
+        writer.family("exist_jms_replication_watermark_sequence", GAUGE, "Sequence number of the last applied message per publisher.");
+        subscribers.forEach(r -> getLag(r).getWatermarks().forEach((origin, watermark) ->
+                writer.sample("exist_jms_replication_watermark_sequence", getLabels(r) + "," + labels("origin", origin), watermark.getSequence())));
+    }
+
+    private static ReplicationLag getLag(final Receiver receiver) {
+        return ((ReplicationJmsListener) receiver.getMessageListener()).getReplicationLag();
+    }
+
+    private void writeSender(final PrometheusWriter writer) {
+        writer.family("exist_jms_sender_messages_total", COUNTER, "Number of sent messages.")
+                .sample("exist_jms_sender_messages_total", "", Sender.getSentCount());
+        writer.family("exist_jms_sender_messages_failed_total", COUNTER, "Number of messages that could not be sent.")
+                .sample("exist_jms_sender_messages_failed_total", "", Sender.getFailedCount());
+        writer.family("exist_jms_sender_payload_bytes_total", COUNTER, "Number of payload bytes written into messages, after compression.")
+                .sample("exist_jms_sender_payload_bytes_total", "", Sender.getPayloadBytes());
+        writer.family("exist_jms_sender_in_flight", GAUGE, "Number of messages prepared but not yet sent.")
+                .sample("exist_jms_sender_in_flight", "", Sender.getInFlightCount());
+        writer.family("exist_jms_sender_async_queue_depth", GAUGE, "Number of messages waiting to be sent asynchronously.")
+                .sample("exist_jms_sender_async_queue_depth", "", Sender.getAsyncQueueSize());
+        writer.family("exist_jms_sender_reply_consumers", GAUGE, "Number of consumers waiting for replies of requests.")
+                .sample("exist_jms_sender_reply_consumers", "", Sender.getReplyConsumerCount());
+        writer.family("exist_jms_sender_request_timeouts_total", COUNTER, "Number of requests without reply within the timeout.")
+                .sample("exist_jms_sender_request_timeouts_total", "", Sender.getTimeoutCount());
+    }
+}
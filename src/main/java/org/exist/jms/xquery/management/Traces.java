@@ -0,0 +1,86 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.management;
+
+import org.exist.dom.QName;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.Span;
+import org.exist.jms.shared.Tracer;
+import org.exist.jms.xquery.JmsModule;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+
+/**
+ * Implementation of the jms:traces() function. Provides the recorded spans of traced messages.
+ *
+ * @author Dannes Wessels
+ */
+public class Traces extends BasicFunction {
+
+    public final static FunctionSignature[] signatures = {
+
+            new FunctionSignature(
+                    new QName("traces", JmsModule.NAMESPACE_URI, JmsModule.PREFIX),
+                    "Retrieve the most recent spans of traced messages, oldest first. Messages are traced when " +
+                            "'" + Constants.TRACE_SAMPLE_RATE + "' is set for the sender or the replication trigger.",
+                    new SequenceType[]{
+                            new FunctionParameterSequenceType("trace-id", Type.STRING, Cardinality.ZERO_OR_ONE,
+                                    "Only spans of this trace, all spans when empty")
+                    },
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.ZERO_OR_MORE, "Spans, durations in microseconds")
+            ),
+
+    };
+
+    public Traces(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt);
+            throw ex;
+        }
+
+        final String traceId = args[0].isEmpty() ? null : args[0].getStringValue();
+
+        final ValueSequence returnSequence = new ValueSequence();
+        for (final Span span : Tracer.getSpans(traceId)) {
+            final MapType map = new MapType(context);
+            map.add(new StringValue("traceId"), new StringValue(span.getTraceId()));
+            map.add(new StringValue("spanId"), new StringValue(span.getSpanId()));
+            map.add(new StringValue("name"), new StringValue(span.getName()));
+            map.add(new StringValue("resource"), new StringValue(span.getResource()));
+            map.add(new StringValue("start"), new IntegerValue(span.getStartTimeUnixNano()));
+            map.add(new StringValue("duration"), new IntegerValue(span.getDurationMicros()));
+            returnSequence.add(map);
+        }
+        return returnSequence;
+    }
+}
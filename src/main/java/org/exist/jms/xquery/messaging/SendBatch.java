@@ -0,0 +1,113 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2013 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.messaging;
+
+import org.exist.dom.QName;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.ErrorCodes;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.JmsMessageProperties;
+import org.exist.jms.shared.send.Sender;
+import org.exist.jms.xquery.MessagingModule;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.map.AbstractMapType;
+import org.exist.xquery.value.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+
+/**
+ * Implementation of the messaging:send-batch() function.
+ *
+ * @author Dannes Wessels
+ */
+
+public class SendBatch extends BasicFunction {
+
+    public final static FunctionSignature[] signatures = {
+
+            new FunctionSignature(
+                    new QName("send-batch", MessagingModule.NAMESPACE_URI, MessagingModule.PREFIX),
+                    "Send sequence of items as JMS messages using one connection and one transacted session. " +
+                            "Either all messages are sent or none.",
+                    new SequenceType[]{
+                            new FunctionParameterSequenceType("content", Type.ITEM, Cardinality.ZERO_OR_MORE, "Items to send to remote server, one message per item"),
+                            new FunctionParameterSequenceType("jmsMessageProperties", Type.MAP, Cardinality.ZERO_OR_MORE,
+                                    "Application-defined property values, one map for all items or one map per item"),
+                            new FunctionParameterSequenceType("jmsConfiguration", Type.MAP, Cardinality.ONE, "JMS configuration settings")
+                    },
+                    new FunctionReturnSequenceType(Type.NODE, Cardinality.ONE, "Confirmation message")
+            ),
+
+    };
+
+    public SendBatch(final XQueryContext xQueryContext, final FunctionSignature functionSignature) {
+        super(xQueryContext, functionSignature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt, ex);
+            throw ex;
+        }
+
+        // Get content
+        final List<Item> items = new ArrayList<>();
+        for (final SequenceIterator i = args[0].iterate(); i.hasNext(); ) {
+            items.add(i.nextItem());
+        }
+
+        // Get application properties
+        final List<JmsMessageProperties> messageProperties = new ArrayList<>();
+        for (final SequenceIterator i = args[1].iterate(); i.hasNext(); ) {
+            final JmsMessageProperties properties = new JmsMessageProperties();
+            properties.loadConfiguration((AbstractMapType) i.nextItem());
+            messageProperties.add(properties);
+        }
+
+        // Get JMS configuration
+        final AbstractMapType jmsConfigurationMap = (AbstractMapType) args[2].itemAt(0);
+        final JmsConfiguration jmsConfiguration = new JmsConfiguration();
+        jmsConfiguration.loadConfiguration(jmsConfigurationMap);
+
+        try {
+            // Send messages and return results
+            final Sender sender = new Sender(context);
+            return sender.sendBatch(jmsConfiguration, messageProperties, items);
+
+        } catch (final XPathException ex) {
+            LOG.error(ex.getMessage());
+            ex.setLocation(this.line, this.column, this.getSource());
+            throw ex;
+
+        } catch (final Throwable t) {
+            LOG.error(t.getMessage(), t);
+            throw new XPathException(this, ErrorCodes.JMS000, t);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.replication;
+
+import org.exist.collections.Collection;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.jms.replication.publish.ReplicationTrigger;
+import org.exist.jms.replication.shared.ContentHashes;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.ErrorCodes;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.JmsMessageProperties;
+import org.exist.jms.shared.send.Sender;
+import org.exist.jms.xquery.ReplicationModule;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.Txn;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.map.AbstractMapType;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.SortedMap;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+import static org.exist.jms.shared.ErrorCodes.JMS030;
+
+/**
+ * Implementation of the replication:anti-entropy() function. The Merkle tree of a collection is
+ * compared, level by level, with the tree of a replica; only divergent documents and collections
+ * are published again.
+ *
+ * @author Dannes Wessels
+ */
+public class AntiEntropy extends BasicFunction {
+
+    /**
+     * Maximum time to wait for the hashes of a collection, in milliseconds
+     */
+    private static final long REQUEST_TIMEOUT = 60_000;
+
+    public final static FunctionSignature[] signatures = {
+            new FunctionSignature(
+                    new QName("anti-entropy", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Compare the content of a collection with a replica and publish the differences via the "
+                            + "replication trigger of the collection. The replica answers requests on the destination "
+                            + "of the JMS configuration, see replication:register-anti-entropy(). Documents that differ "
+                            + "in content or metadata are published again, resources missing locally are deleted.",
+                    new SequenceType[]{
+                            new FunctionParameterSequenceType("collection", Type.STRING, Cardinality.EXACTLY_ONE, "Path of collection"),
+                            new FunctionParameterSequenceType("jmsConfiguration", Type.MAP, Cardinality.EXACTLY_ONE, "JMS configuration of the replica"),},
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.EXACTLY_ONE, "Number of requests and of published changes")
+            ),};
+
+    public AntiEntropy(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt, ex);
+            throw ex;
+        }
+
+        final XmldbURI root = XmldbURI.create(args[0].itemAt(0).getStringValue());
+
+        final JmsConfiguration config = new JmsConfiguration();
+        config.loadConfiguration((AbstractMapType) args[1].itemAt(0));
+
+        final DBBroker broker = context.getBroker();
+        final ContentHashes contentHashes = ContentHashes.getInstance(broker.getBrokerPool());
+        final Sender sender = new Sender(context);
+
+        long requests = 0;
+        long publishedDocuments = 0;
+        long deletedDocuments = 0;
+        long createdCollections = 0;
+        long deletedCollections = 0;
+        final long startTime = System.currentTimeMillis();
+
+        try (final Txn txn = broker.getBrokerPool().getTransactionManager().beginTransaction()) {
+
+            final ReplicationTrigger trigger = SyncResource.getReplicationTrigger(broker, txn, root)
+                    .orElseThrow(() -> new XPathException(this, JMS030, String.format("No trigger configuration found for collection %s", root)));
+
+            // Breadth first, only collections with a different hash are descended into
+            final Deque<XmldbURI> queue = new ArrayDeque<>();
+            queue.add(root);
+
+            while (!queue.isEmpty()) {
+                final XmldbURI uri = queue.poll();
+
+                final ContentHashes.Node local = contentHashes.getNode(broker, txn, uri);
+                final ContentHashes.Node remote = ContentHashes.Node.parse(request(sender, config, uri));
+                requests++;
+
+                if (local == null) {
+                    // Removed while comparing
+                    if (remote != null) {
+                        trigger.afterDeleteCollection(broker, txn, uri);
+                        deletedCollections++;
+                    }
+                    continue;
+                }
+
+                if (remote != null && local.getHash().equals(remote.getHash())) {
+                    continue;
+                }
+
+                if (remote == null) {
+                    try (final Collection collection = broker.openCollection(uri, Lock.LockMode.READ_LOCK)) {
+                        if (collection != null) {
+                            trigger.afterCreateCollection(broker, txn, collection);
+                            createdCollections++;
+                        }
+                    }
+                }
+
+                // Documents
+                final SortedMap<String, String> localDocuments = local.getDocuments();
+                final Map<String, String> remoteDocuments = remote == null ? Collections.emptyMap() : remote.getDocuments();
+
+                for (final Map.Entry<String, String> entry : localDocuments.entrySet()) {
+                    if (!entry.getValue().equals(remoteDocuments.get(entry.getKey()))) {
+                        try (final LockedDocument document = broker.getXMLResource(uri.append(entry.getKey()), Lock.LockMode.READ_LOCK)) {
+                            if (document != null) {
+                                trigger.afterUpdateDocument(broker, txn, document.getDocument());
+                                publishedDocuments++;
+                            }
+                        }
+                    }
+                }
+
+                for (final String name : remoteDocuments.keySet()) {
+                    if (!localDocuments.containsKey(name)) {
+                        trigger.afterDeleteDocument(broker, txn, uri.append(name));
+                        deletedDocuments++;
+                    }
+                }
+
+                // Sub-collections
+                final SortedMap<String, String> localCollections = local.getCollections();
+                final Map<String, String> remoteCollections = remote == null ? Collections.emptyMap() : remote.getCollections();
+
+                for (final Map.Entry<String, String> entry : localCollections.entrySet()) {
+                    if (!entry.getValue().equals(remoteCollections.get(entry.getKey()))) {
+                        queue.add(uri.append(entry.getKey()));
+                    }
+                }
+
+                for (final String name : remoteCollections.keySet()) {
+                    if (!localCollections.containsKey(name)) {
+                        trigger.afterDeleteCollection(broker, txn, uri.append(name));
+                        deletedCollections++;
+                    }
+                }
+            }
+
+            txn.commit();
+
+        } catch (final XPathException ex) {
+            LOG.error(ex.getMessage());
+            ex.setLocation(this.line, this.column, this.getSource());
+            throw ex;
+
+        } catch (final Throwable t) {
+            LOG.error(t.getMessage(), t);
+            throw new XPathException(this, ErrorCodes.JMS000, t);
+        }
+
+        LOG.info("Anti-entropy of {}: {} requests, {} documents published, {} deleted", root, requests, publishedDocuments, deletedDocuments);
+
+        final MapType result = new MapType(context);
+        result.add(new StringValue("requests"), new IntegerValue(requests));
+        result.add(new StringValue("publishedDocuments"), new IntegerValue(publishedDocuments));
+        result.add(new StringValue("deletedDocuments"), new IntegerValue(deletedDocuments));
+        result.add(new StringValue("createdCollections"), new IntegerValue(createdCollections));
+        result.add(new StringValue("deletedCollections"), new IntegerValue(deletedCollections));
+        result.add(new StringValue("duration"), new IntegerValue(System.currentTimeMillis() - startTime));
+        return result;
+    }
+
+    /**
+     * Request the hashes of a collection from the replica.
+     *
+     * @return Text representation of the hashes, empty when the collection does not exist at the replica
+     */
+    private String request(final Sender sender, final JmsConfiguration config, final XmldbURI uri) throws XPathException, JMSException {
+        final Message reply = sender.request(config, new JmsMessageProperties(), new StringValue(uri.toString()), REQUEST_TIMEOUT);
+        if (!(reply instanceof TextMessage)) {
+            throw new XPathException(this, ErrorCodes.JMS000, String.format("Unexpected reply for anti-entropy request of %s", uri));
+        }
+        return ((TextMessage) reply).getText();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.replication;
+
+import org.exist.dom.QName;
+import org.exist.jms.replication.subscribe.ReplicationJmsListener;
+import org.exist.jms.replication.subscribe.SnapshotLoader;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.ErrorCodes;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.receive.Receiver;
+import org.exist.jms.shared.receive.ReceiversManager;
+import org.exist.jms.xquery.ReplicationModule;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.map.AbstractMapType;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+
+/**
+ * Implementation of the replication:bootstrap() function. The replication receiver is subscribed
+ * first, without consuming; then the snapshot of the publisher is loaded, and finally the receiver
+ * is started. Changes already contained in the snapshot are skipped by the receiver.
+ *
+ * @author Dannes Wessels
+ */
+public class Bootstrap extends BasicFunction {
+
+    /**
+     * Maximum time to wait for each chunk of the snapshot, in milliseconds
+     */
+    private static final long CHUNK_TIMEOUT = 300_000;
+
+    public final static FunctionSignature[] signatures = {
+            new FunctionSignature(
+                    new QName("bootstrap", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Initialize a new replica: subscribe to the replication destination, load the snapshot of a collection "
+                            + "tree from the snapshot service of the publisher, see replication:register-snapshot-service(), "
+                            + "and start replication. Changes published before the snapshot was taken are skipped.",
+                    new SequenceType[]{
+                            new FunctionParameterSequenceType("collection", Type.STRING, Cardinality.EXACTLY_ONE, "Path of collection"),
+                            new FunctionParameterSequenceType("snapshotConfiguration", Type.MAP, Cardinality.EXACTLY_ONE, "JMS configuration of the snapshot service"),
+                            new FunctionParameterSequenceType("jmsConfiguration", Type.MAP, Cardinality.EXACTLY_ONE, "JMS configuration of the replication receiver, as for replication:register()"),},
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.EXACTLY_ONE, "Receiver ID and snapshot statistics")
+            ),};
+
+    public Bootstrap(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt, ex);
+            throw ex;
+        }
+
+        final String path = args[0].itemAt(0).getStringValue();
+
+        final JmsConfiguration snapshotConfig = new JmsConfiguration();
+        snapshotConfig.loadConfiguration((AbstractMapType) args[1].itemAt(0));
+
+        final JmsConfiguration replicationConfig = new JmsConfiguration();
+        replicationConfig.loadConfiguration((AbstractMapType) args[2].itemAt(0));
+
+        // By default replication must be durable
+        replicationConfig.setDurable(true);
+
+        final ReceiversManager manager = ReceiversManager.getInstance();
+        final long startTime = System.currentTimeMillis();
+
+        Receiver receiver = null;
+        try {
+            final ReplicationJmsListener listener = new ReplicationJmsListener(context.getBroker().getBrokerPool());
+            listener.setConfiguration(replicationConfig);
+
+            // Subscribe first, changes made while loading the snapshot are kept by the broker
+            receiver = new Receiver(replicationConfig, listener);
+            manager.register(receiver);
+            receiver.initialize();
+
+            // Load snapshot
+            final SnapshotLoader loader = new SnapshotLoader(snapshotConfig, listener);
+            loader.load(path, CHUNK_TIMEOUT);
+
+            // Switch to incremental replication
+            loader.getWatermarks().forEach((shard, sequence) -> listener.setSnapshotWatermark(loader.getOrigin(), shard, sequence));
+            receiver.start();
+
+            LOG.info("Bootstrap of {} completed, receiver={}", path, receiver.getReceiverId());
+
+            final MapType result = new MapType(context);
+            result.add(new StringValue("receiver"), new IntegerValue(receiver.getReceiverId()));
+            result.add(new StringValue("collections"), new IntegerValue(loader.getCollections()));
+            result.add(new StringValue("documents"), new IntegerValue(loader.getDocuments()));
+            result.add(new StringValue("chunks"), new IntegerValue(loader.getChunks()));
+            result.add(new StringValue("bytes"), new IntegerValue(loader.getBytes()));
+            result.add(new StringValue("watermark"), new IntegerValue(loader.getWatermark()));
+            result.add(new StringValue("duration"), new IntegerValue(System.currentTimeMillis() - startTime));
+            return result;
+
+        } catch (final XPathException ex) {
+            closeReceiver(manager, receiver);
+            LOG.error(ex.getMessage());
+            ex.setLocation(this.line, this.column, this.getSource());
+            throw ex;
+
+        } catch (final Throwable t) {
+            closeReceiver(manager, receiver);
+            LOG.error(t.getMessage(), t);
+            throw new XPathException(this, ErrorCodes.JMS000, t);
+        }
+    }
+
+    /**
+     * Remove the receiver of a failed bootstrap, the durable subscription is kept.
+     */
+    private void closeReceiver(final ReceiversManager manager, final Receiver receiver) {
+        if (receiver == null) {
+            return;
+        }
+
+        try {
+            receiver.close();
+        } catch (final XPathException ex) {
+            LOG.error("Unable to close receiver {}: {}", receiver.getReceiverId(), ex.getMessage());
+        }
+        manager.remove(receiver.getReceiverId());
+    }
+}
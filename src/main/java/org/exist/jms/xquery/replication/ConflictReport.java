@@ -0,0 +1,125 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2016 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.replication;
+
+import org.exist.dom.QName;
+import org.exist.jms.replication.subscribe.ConflictStore;
+import org.exist.jms.replication.subscribe.ReplicationJmsListener;
+import org.exist.jms.replication.subscribe.ResourceVersion;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.ErrorCodes;
+import org.exist.jms.shared.eXistMessagingListener;
+import org.exist.jms.shared.receive.Receiver;
+import org.exist.jms.shared.receive.ReceiversManager;
+import org.exist.jms.xquery.ReplicationModule;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+
+/**
+ * Implementation of the replication:conflicts() function.
+ *
+ * @author Dannes Wessels
+ */
+public class ConflictReport extends BasicFunction {
+
+    public final static FunctionSignature[] signatures = {
+            new FunctionSignature(
+                    new QName("conflicts", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Get the replicated changes of documents that were skipped because the conflict resolver " +
+                            "kept the local version, oldest first, for each replication receiver. Times in " +
+                            "milliseconds since epoch.",
+                    null,
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.ZERO_OR_MORE,
+                            "One map per replication receiver.")),
+    };
+
+    public ConflictReport(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt, ex);
+            throw ex;
+        }
+
+        try {
+            final ValueSequence result = new ValueSequence();
+
+            final ReceiversManager manager = ReceiversManager.getInstance();
+            for (final Integer id : manager.getIds()) {
+                final Receiver receiver = manager.get(id);
+                final eXistMessagingListener listener = (receiver == null) ? null : receiver.getMessageListener();
+
+                if (listener instanceof ReplicationJmsListener) {
+                    result.add(toMap(id, ((ReplicationJmsListener) listener).getConflictStore()));
+                }
+            }
+
+            return result;
+
+        } catch (final XPathException ex) {
+            LOG.error(ex.getMessage());
+            ex.setLocation(this.line, this.column, this.getSource());
+            throw ex;
+
+        } catch (final Throwable t) {
+            LOG.error(t.getMessage(), t);
+            throw new XPathException(this, ErrorCodes.JMS000, t);
+        }
+    }
+
+    private MapType toMap(final Integer id, final ConflictStore store) throws XPathException {
+        final MapType map = new MapType(context);
+        map.add(new StringValue("receiver"), new IntegerValue(id));
+        map.add(new StringValue("total"), new IntegerValue(store.getTotal()));
+
+        final ValueSequence conflicts = new ValueSequence();
+        for (final ConflictStore.Conflict conflict : store.getConflicts()) {
+            final MapType details = new MapType(context);
+            details.add(new StringValue("path"), new StringValue(conflict.getPath()));
+            details.add(new StringValue("operation"), new StringValue(conflict.getOperation()));
+            details.add(new StringValue("local"), toMap(conflict.getLocal()));
+            details.add(new StringValue("incoming"), toMap(conflict.getIncoming()));
+            details.add(new StringValue("detected"), new IntegerValue(conflict.getDetected()));
+            conflicts.add(details);
+        }
+        map.add(new StringValue("conflicts"), conflicts);
+
+        return map;
+    }
+
+    private MapType toMap(final ResourceVersion version) throws XPathException {
+        final MapType map = new MapType(context);
+        map.add(new StringValue("time"), new IntegerValue(version.getTime()));
+        map.add(new StringValue("origin"), new StringValue(version.getOrigin()));
+        map.add(new StringValue("deleted"), BooleanValue.valueOf(version.isDeleted()));
+        return map;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.replication;
+
+import org.exist.dom.QName;
+import org.exist.jms.replication.shared.PayloadStatistics;
+import org.exist.jms.replication.subscribe.ReplicationJmsListener;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.ErrorCodes;
+import org.exist.jms.shared.LatencyHistogram;
+import org.exist.jms.shared.eXistMessagingListener;
+import org.exist.jms.shared.receive.Receiver;
+import org.exist.jms.shared.receive.ReceiversManager;
+import org.exist.jms.xquery.ReplicationModule;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+
+/**
+ * Implementation of the replication:payload-statistics() function.
+ *
+ * @author Dannes Wessels
+ */
+public class PayloadStatisticsReport extends BasicFunction {
+
+    public final static FunctionSignature[] signatures = {
+            new FunctionSignature(
+                    new QName("payload-statistics", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Get count, uncompressed and compressed bytes, compression ratio, (de)compression time " +
+                            "(milliseconds) and compressed size percentiles of replicated documents, per top-level " +
+                            "collection and per MIME type. The first map describes the published documents, " +
+                            "followed by one map per replication receiver.",
+                    null,
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.ONE_OR_MORE,
+                            "Statistics of publisher and of each replication receiver.")),
+    };
+
+    public PayloadStatisticsReport(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt, ex);
+            throw ex;
+        }
+
+        try {
+            final ValueSequence result = new ValueSequence();
+
+            final MapType published = toMap(PayloadStatistics.getPublished());
+            published.add(new StringValue("direction"), new StringValue("published"));
+            result.add(published);
+
+            final ReceiversManager manager = ReceiversManager.getInstance();
+            for (final Integer id : manager.getIds()) {
+                final Receiver receiver = manager.get(id);
+                final eXistMessagingListener listener = (receiver == null) ? null : receiver.getMessageListener();
+
+                if (listener instanceof ReplicationJmsListener) {
+                    final MapType received = toMap(((ReplicationJmsListener) listener).getPayloadStatistics());
+                    received.add(new StringValue("direction"), new StringValue("received"));
+                    received.add(new StringValue("receiver"), new IntegerValue(id));
+                    result.add(received);
+                }
+            }
+
+            return result;
+
+        } catch (final XPathException ex) {
+            LOG.error(ex.getMessage());
+            ex.setLocation(this.line, this.column, this.getSource());
+            throw ex;
+
+        } catch (final Throwable t) {
+            LOG.error(t.getMessage(), t);
+            throw new XPathException(this, ErrorCodes.JMS000, t);
+        }
+    }
+
+    private MapType toMap(final PayloadStatistics statistics) throws XPathException {
+        final MapType map = new MapType(context);
+        map.add(new StringValue("collections"), toMap(statistics.getCollections()));
+        map.add(new StringValue("mimeTypes"), toMap(statistics.getMimeTypes()));
+        return map;
+    }
+
+    private MapType toMap(final Map<String, PayloadStatistics.Entry> entries) throws XPathException {
+        final MapType map = new MapType(context);
+        for (final Map.Entry<String, PayloadStatistics.Entry> entry : entries.entrySet()) {
+            final PayloadStatistics.Entry value = entry.getValue();
+            final LatencyHistogram sizes = value.getEncodedSizes();
+
+            final MapType details = new MapType(context);
+            details.add(new StringValue("count"), new IntegerValue(value.getCount()));
+            details.add(new StringValue("rawBytes"), new IntegerValue(value.getRawBytes()));
+            details.add(new StringValue("encodedBytes"), new IntegerValue(value.getEncodedBytes()));
+            details.add(new StringValue("compressionRatio"), new DoubleValue(value.getCompressionRatio()));
+            details.add(new StringValue("codecTime"), new IntegerValue(TimeUnit.NANOSECONDS.toMillis(value.getCodecNanos())));
+            details.add(new StringValue("encodedSizeP50"), new IntegerValue(sizes.getPercentile(0.50)));
+            details.add(new StringValue("encodedSizeP99"), new IntegerValue(sizes.getPercentile(0.99)));
+            details.add(new StringValue("encodedSizeMax"), new IntegerValue(sizes.getMax()));
+            map.add(new StringValue(entry.getKey()), details);
+        }
+        return map;
+    }
+}
@@ -20,11 +20,18 @@
 package org.exist.jms.xquery.replication;
 
 
+import org.apache.commons.lang3.StringUtils;
 import org.exist.dom.QName;
+import org.exist.jms.replication.shared.Sharding;
+import org.exist.jms.replication.subscribe.AntiEntropyJmsListener;
+import org.exist.jms.replication.subscribe.RelayJmsListener;
+import org.exist.jms.replication.subscribe.ReplayJmsListener;
 import org.exist.jms.replication.subscribe.ReplicationJmsListener;
+import org.exist.jms.replication.subscribe.SnapshotJmsListener;
 import org.exist.jms.shared.Constants;
 import org.exist.jms.shared.ErrorCodes;
 import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.eXistMessagingListener;
 import org.exist.jms.shared.receive.Receiver;
 import org.exist.jms.shared.receive.ReceiversManager;
 import org.exist.jms.xquery.ReplicationModule;
@@ -47,6 +54,43 @@ public class RegisterReceiver extends BasicFunction {
                     "Register function to receive JMS replication messages.", new SequenceType[]{
                     new FunctionParameterSequenceType("jmsConfiguration", Type.MAP, Cardinality.EXACTLY_ONE, "JMS configuration"),},
                     new FunctionReturnSequenceType(Type.STRING, Cardinality.ZERO_OR_ONE, "Receiver ID")
+            ),
+            new FunctionSignature(
+                    new QName("register-anti-entropy", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Register receiver that answers anti-entropy requests of replication:anti-entropy() with the content hashes of this database. "
+                            + "The destination is typically a queue dedicated to this instance.", new SequenceType[]{
+                    new FunctionParameterSequenceType("jmsConfiguration", Type.MAP, Cardinality.EXACTLY_ONE, "JMS configuration"),},
+                    new FunctionReturnSequenceType(Type.STRING, Cardinality.ZERO_OR_ONE, "Receiver ID")
+            ),
+            new FunctionSignature(
+                    new QName("register-snapshot-service", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Register receiver that answers snapshot requests of replication:bootstrap() with the content of a collection tree. "
+                            + "The destination is typically a queue dedicated to this instance.", new SequenceType[]{
+                    new FunctionParameterSequenceType("jmsConfiguration", Type.MAP, Cardinality.EXACTLY_ONE, "JMS configuration"),},
+                    new FunctionReturnSequenceType(Type.STRING, Cardinality.ZERO_OR_ONE, "Receiver ID")
+            ),
+            new FunctionSignature(
+                    new QName("register-replay-service", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Register receiver that answers replay requests of subscribers that missed replication messages of this instance. "
+                            + "Subscribers send requests to the destination set by 'replay.destination' in their configuration.", new SequenceType[]{
+                    new FunctionParameterSequenceType("jmsConfiguration", Type.MAP, Cardinality.EXACTLY_ONE, "JMS configuration"),},
+                    new FunctionReturnSequenceType(Type.STRING, Cardinality.ZERO_OR_ONE, "Receiver ID")
+            ),
+            new FunctionSignature(
+                    new QName("register-relay", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Register function to receive JMS replication messages and forward them, without decompressing or "
+                            + "serializing the documents again, to the destination set by 'relay.destination'. Set 'relay.apply' "
+                            + "to false to forward only.", new SequenceType[]{
+                    new FunctionParameterSequenceType("jmsConfiguration", Type.MAP, Cardinality.EXACTLY_ONE, "JMS configuration"),},
+                    new FunctionReturnSequenceType(Type.STRING, Cardinality.ZERO_OR_ONE, "Receiver ID")
+            ),
+            new FunctionSignature(
+                    new QName("register-shards", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Register one receiver of JMS replication messages per shard, for a publisher that partitions changes over "
+                            + "'shards' destinations. Shard n receives from the destination with suffix '.n'; suffix '-n' is added "
+                            + "to the subscriber name and the client ID. The shards are applied in parallel, in order within a shard.", new SequenceType[]{
+                    new FunctionParameterSequenceType("jmsConfiguration", Type.MAP, Cardinality.EXACTLY_ONE, "JMS configuration"),},
+                    new FunctionReturnSequenceType(Type.INTEGER, Cardinality.ONE_OR_MORE, "Receiver IDs, by shard")
             ),};
 
     public RegisterReceiver(final XQueryContext context, final FunctionSignature signature) {
@@ -74,13 +118,42 @@ public class RegisterReceiver extends BasicFunction {
             final JmsConfiguration config = new JmsConfiguration();
             config.loadConfiguration(configMap);
 
-            // Setup listener, pass correct User object
-            // get user via Broker for compatibility < existdb 2.2
-            final ReplicationJmsListener myListener = new ReplicationJmsListener(context.getBroker().getBrokerPool());
-            // TODO autoclose broker - not possible as broker but live for long time
+            if (isCalledAs("register-shards")) {
+                return registerShards(config, manager);
+            }
 
-            // By default replication must be durable
-            config.setDurable(true);
+            final eXistMessagingListener myListener;
+            if (isCalledAs("register-anti-entropy")) {
+                myListener = new AntiEntropyJmsListener(context.getBroker().getBrokerPool());
+
+            } else if (isCalledAs("register-snapshot-service")) {
+                myListener = new SnapshotJmsListener(context.getBroker().getBrokerPool());
+
+            } else if (isCalledAs("register-replay-service")) {
+                myListener = new ReplayJmsListener();
+
+            } else if (isCalledAs("register-relay")) {
+                if (StringUtils.isBlank(config.getRelayDestination())) {
+                    throw new XPathException(this, ErrorCodes.JMS011, String.format("Missing configuration item '%s'", Constants.RELAY_DESTINATION));
+                }
+                final RelayJmsListener relayListener = new RelayJmsListener(context.getBroker().getBrokerPool(), config);
+                relayListener.setConfiguration(config);
+                myListener = relayListener;
+
+                // By default replication must be durable
+                config.setDurable(true);
+
+            } else {
+                // Setup listener, pass correct User object
+                // get user via Broker for compatibility < existdb 2.2
+                final ReplicationJmsListener replicationListener = new ReplicationJmsListener(context.getBroker().getBrokerPool());
+                replicationListener.setConfiguration(config);
+                myListener = replicationListener;
+                // TODO autoclose broker - not possible as broker but live for long time
+
+                // By default replication must be durable
+                config.setDurable(true);
+            }
 
             // Create receiver
             final Receiver receiver = new Receiver(config, myListener); // TODO check use .copyContext() ?
@@ -103,4 +176,48 @@ public class RegisterReceiver extends BasicFunction {
             throw new XPathException(this, ErrorCodes.JMS000, t);
         }
     }
+
+    /**
+     * Register a replication receiver for each shard of the destination.
+     */
+    private Sequence registerShards(final JmsConfiguration config, final ReceiversManager manager) throws XPathException {
+
+        final int shards = config.getShards();
+        if (shards < 2 || shards > Sharding.MAX_SHARDS) {
+            throw new XPathException(this, ErrorCodes.JMS011,
+                    String.format("Configuration item '%s' must be 2-%d", Constants.SHARDS, Sharding.MAX_SHARDS));
+        }
+        if (StringUtils.isBlank(config.getDestination())) {
+            throw new XPathException(this, ErrorCodes.JMS011, String.format("Missing configuration item '%s'", Constants.DESTINATION));
+        }
+
+        final ValueSequence result = new ValueSequence();
+        for (int shard = 0; shard < shards; shard++) {
+            final JmsConfiguration shardConfig = new JmsConfiguration();
+            shardConfig.putAll(config);
+            shardConfig.setProperty(Constants.DESTINATION, Sharding.getDestination(config.getDestination(), shard));
+            if (config.getSubscriberName() != null) {
+                shardConfig.setProperty(Constants.SUBSCRIBER_NAME, config.getSubscriberName() + "-" + shard);
+            }
+            if (config.getClientId() != null) {
+                shardConfig.setProperty(Constants.CLIENT_ID, config.getClientId() + "-" + shard);
+            }
+
+            // By default replication must be durable
+            shardConfig.setDurable(true);
+
+            final ReplicationJmsListener listener = new ReplicationJmsListener(context.getBroker().getBrokerPool());
+            listener.setConfiguration(shardConfig);
+            listener.setShard(config.getDestination(), shard);
+
+            final Receiver receiver = new Receiver(shardConfig, listener);
+            manager.register(receiver);
+            receiver.initialize();
+            receiver.start();
+
+            result.add(new IntegerValue(receiver.getReceiverId()));
+        }
+
+        return result;
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2016 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.replication;
+
+import org.exist.dom.QName;
+import org.exist.jms.replication.subscribe.ReplicationJmsListener;
+import org.exist.jms.replication.subscribe.ReplicationLag;
+import org.exist.jms.replication.subscribe.SequenceTracker;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.ErrorCodes;
+import org.exist.jms.shared.LatencyHistogram;
+import org.exist.jms.shared.eXistMessagingListener;
+import org.exist.jms.shared.receive.Receiver;
+import org.exist.jms.shared.receive.ReceiversManager;
+import org.exist.jms.xquery.ReplicationModule;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import java.util.Map;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+
+/**
+ * Implementation of the replication:lag() function.
+ *
+ * @author Dannes Wessels
+ */
+public class ReplicationLagStatus extends BasicFunction {
+
+    public final static FunctionSignature[] signatures = {
+            new FunctionSignature(
+                    new QName("lag", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Get replication lag (publish-to-apply), dwell time on the broker, the last applied " +
+                            "message and the highest contiguous sequence number with gap counters per publisher, " +
+                            "for each replication receiver. Times in milliseconds.",
+                    null,
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.ZERO_OR_MORE,
+                            "One map per replication receiver.")),
+    };
+
+    public ReplicationLagStatus(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt, ex);
+            throw ex;
+        }
+
+        try {
+            final ValueSequence result = new ValueSequence();
+
+            final ReceiversManager manager = ReceiversManager.getInstance();
+            for (final Integer id : manager.getIds()) {
+                final Receiver receiver = manager.get(id);
+                final eXistMessagingListener listener = (receiver == null) ? null : receiver.getMessageListener();
+
+                if (listener instanceof ReplicationJmsListener) {
+                    final ReplicationJmsListener replicationListener = (ReplicationJmsListener) listener;
+                    result.add(toMap(id, replicationListener.getReplicationLag(), replicationListener.getSequenceTracker()));
+                }
+            }
+
+            return result;
+
+        } catch (final XPathException ex) {
+            LOG.error(ex.getMessage());
+            ex.setLocation(this.line, this.column, this.getSource());
+            throw ex;
+
+        } catch (final Throwable t) {
+            LOG.error(t.getMessage(), t);
+            throw new XPathException(this, ErrorCodes.JMS000, t);
+        }
+    }
+
+    private MapType toMap(final Integer id, final ReplicationLag replicationLag, final SequenceTracker sequenceTracker) throws XPathException {
+        final MapType map = new MapType(context);
+        map.add(new StringValue("receiver"), new IntegerValue(id));
+        map.add(new StringValue("lag"), toMap(replicationLag.getLag()));
+        map.add(new StringValue("dwell"), toMap(replicationLag.getDwell()));
+
+        final MapType origins = new MapType(context);
+        for (final Map.Entry<String, ReplicationLag.Watermark> entry : replicationLag.getWatermarks().entrySet()) {
+            final ReplicationLag.Watermark watermark = entry.getValue();
+            final MapType origin = new MapType(context);
+            origin.add(new StringValue("sequence"), new IntegerValue(watermark.getSequence()));
+            origin.add(new StringValue("eventTime"), new IntegerValue(watermark.getEventTime()));
+            origin.add(new StringValue("appliedTime"), new IntegerValue(watermark.getAppliedTime()));
+
+            final SequenceTracker.Origin sequence = sequenceTracker.getOrigins().get(entry.getKey());
+            if (sequence != null) {
+                origin.add(new StringValue("contiguous"), new IntegerValue(sequence.getContiguous()));
+                origin.add(new StringValue("gaps"), new IntegerValue(sequence.getGaps()));
+                origin.add(new StringValue("replayed"), new IntegerValue(sequence.getReplayed()));
+                origin.add(new StringValue("missed"), new IntegerValue(sequence.getMissed()));
+                origin.add(new StringValue("duplicates"), new IntegerValue(sequence.getDuplicates()));
+            }
+            origins.add(new StringValue(entry.getKey()), origin);
+        }
+        map.add(new StringValue("origins"), origins);
+
+        return map;
+    }
+
+    private MapType toMap(final LatencyHistogram histogram) throws XPathException {
+        final MapType map = new MapType(context);
+        map.add(new StringValue("count"), new IntegerValue(histogram.getCount()));
+        map.add(new StringValue("p50"), new IntegerValue(histogram.getPercentile(0.50)));
+        map.add(new StringValue("p95"), new IntegerValue(histogram.getPercentile(0.95)));
+        map.add(new StringValue("p99"), new IntegerValue(histogram.getPercentile(0.99)));
+        map.add(new StringValue("max"), new IntegerValue(histogram.getMax()));
+        return map;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2016 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.replication;
+
+import org.exist.dom.QName;
+import org.exist.jms.replication.subscribe.ReplicationJmsListener;
+import org.exist.jms.replication.subscribe.SequenceTracker;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.ErrorCodes;
+import org.exist.jms.shared.LatencyHistogram;
+import org.exist.jms.shared.Report;
+import org.exist.jms.shared.eXistMessagingListener;
+import org.exist.jms.shared.receive.Receiver;
+import org.exist.jms.shared.receive.ReceiversManager;
+import org.exist.jms.xquery.ReplicationModule;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+
+/**
+ * Implementation of the replication:shard-status() function.
+ *
+ * @author Dannes Wessels
+ */
+public class ShardStatus extends BasicFunction {
+
+    public final static FunctionSignature[] signatures = {
+            new FunctionSignature(
+                    new QName("shard-status", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Get the statistics of the receivers registered by replication:register-shards(), aggregated per " +
+                            "sharded destination: message and byte counters, message rate, highest replication lag, " +
+                            "gaps, missed messages and conflicts, with the counters and lag of each shard. Times in milliseconds.",
+                    null,
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.ZERO_OR_MORE,
+                            "One map per sharded destination.")),
+    };
+
+    public ShardStatus(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt, ex);
+            throw ex;
+        }
+
+        try {
+            // Receivers of shards, per destination
+            final Map<String, List<Receiver>> groups = new TreeMap<>();
+            final ReceiversManager manager = ReceiversManager.getInstance();
+            for (final Integer id : manager.getIds()) {
+                final Receiver receiver = manager.get(id);
+                final eXistMessagingListener listener = (receiver == null) ? null : receiver.getMessageListener();
+
+                if (listener instanceof ReplicationJmsListener && ((ReplicationJmsListener) listener).getShardGroup() != null) {
+                    groups.computeIfAbsent(((ReplicationJmsListener) listener).getShardGroup(), k -> new ArrayList<>()).add(receiver);
+                }
+            }
+
+            final ValueSequence result = new ValueSequence();
+            for (final Map.Entry<String, List<Receiver>> group : groups.entrySet()) {
+                result.add(toMap(group.getKey(), group.getValue()));
+            }
+
+            return result;
+
+        } catch (final XPathException ex) {
+            LOG.error(ex.getMessage());
+            ex.setLocation(this.line, this.column, this.getSource());
+            throw ex;
+
+        } catch (final Throwable t) {
+            LOG.error(t.getMessage(), t);
+            throw new XPathException(this, ErrorCodes.JMS000, t);
+        }
+    }
+
+    private MapType toMap(final String destination, final List<Receiver> receivers) throws XPathException {
+        receivers.sort(Comparator.comparingInt(r -> ((ReplicationJmsListener) r.getMessageListener()).getShard()));
+
+        long messages = 0;
+        long messagesNOK = 0;
+        long bytes = 0;
+        double messageRate = 0;
+        long lagP99 = 0;
+        long lagMax = 0;
+        long gaps = 0;
+        long missed = 0;
+        long conflicts = 0;
+
+        final MapType shards = new MapType(context);
+        for (final Receiver receiver : receivers) {
+            final ReplicationJmsListener listener = (ReplicationJmsListener) receiver.getMessageListener();
+            final Report report = listener.getReport();
+            final LatencyHistogram lag = listener.getReplicationLag().getLag();
+
+            messages += report.getMessageCounterTotal();
+            messagesNOK += report.getMessageCounterNOK();
+            bytes += report.getByteCounterTotal();
+            messageRate += report.getMessageRate();
+            lagP99 = Math.max(lagP99, lag.getPercentile(0.99));
+            lagMax = Math.max(lagMax, lag.getMax());
+            for (final SequenceTracker.Origin origin : listener.getSequenceTracker().getOrigins().values()) {
+                gaps += origin.getGaps();
+                missed += origin.getMissed();
+            }
+            conflicts += listener.getConflictStore().getTotal();
+
+            final MapType shard = new MapType(context);
+            shard.add(new StringValue("receiver"), new IntegerValue(receiver.getReceiverId()));
+            shard.add(new StringValue("messages"), new IntegerValue(report.getMessageCounterTotal()));
+            shard.add(new StringValue("messageRate"), new DoubleValue(report.getMessageRate()));
+            shard.add(new StringValue("lagP99"), new IntegerValue(lag.getPercentile(0.99)));
+            shards.add(new IntegerValue(listener.getShard()), shard);
+        }
+
+        final MapType map = new MapType(context);
+        map.add(new StringValue("destination"), new StringValue(destination));
+        map.add(new StringValue("messages"), new IntegerValue(messages));
+        map.add(new StringValue("messagesNOK"), new IntegerValue(messagesNOK));
+        map.add(new StringValue("bytes"), new IntegerValue(bytes));
+        map.add(new StringValue("messageRate"), new DoubleValue(messageRate));
+        map.add(new StringValue("lagP99"), new IntegerValue(lagP99));
+        map.add(new StringValue("lagMax"), new IntegerValue(lagMax));
+        map.add(new StringValue("gaps"), new IntegerValue(gaps));
+        map.add(new StringValue("missed"), new IntegerValue(missed));
+        map.add(new StringValue("conflicts"), new IntegerValue(conflicts));
+        map.add(new StringValue("shards"), shards);
+        return map;
+    }
+}
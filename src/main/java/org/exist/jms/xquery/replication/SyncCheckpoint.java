@@ -0,0 +1,106 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.replication;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.BrokerPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Last completed collection per replication:sync-tree() root, stored in the data directory so
+ * that an interrupted synchronization can be resumed.
+ *
+ * @author Dannes Wessels
+ */
+class SyncCheckpoint {
+
+    private final static Logger LOG = LogManager.getLogger(SyncCheckpoint.class);
+
+    private static final String FILENAME = "jms.sync-checkpoints";
+
+    /**
+     * Shared by all instances, the checkpoints of all roots are in one file
+     */
+    private static final Object LOCK = new Object();
+
+    private final Path file;
+
+    SyncCheckpoint(final BrokerPool brokerPool) {
+        final Object dataDir = brokerPool.getConfiguration().getProperty(BrokerPool.PROPERTY_DATA_DIR);
+        this.file = (dataDir instanceof Path) ? ((Path) dataDir).resolve(FILENAME) : null;
+        if (file == null) {
+            LOG.warn("No data directory found, checkpoints are not stored.");
+        }
+    }
+
+    /**
+     * @param root Root collection of the synchronization
+     * @return Path of last completed collection, NULL when none
+     */
+    String get(final String root) {
+        synchronized (LOCK) {
+            return read().getProperty(root);
+        }
+    }
+
+    /**
+     * @param root       Root collection of the synchronization
+     * @param collection Path of completed collection, NULL to remove the checkpoint
+     */
+    void set(final String root, final String collection) {
+        if (file == null) {
+            return;
+        }
+
+        synchronized (LOCK) {
+            final Properties props = read();
+            if (collection == null) {
+                props.remove(root);
+            } else {
+                props.setProperty(root, collection);
+            }
+
+            try (final OutputStream os = Files.newOutputStream(file)) {
+                props.store(os, "replication:sync-tree() checkpoints");
+            } catch (final IOException ex) {
+                LOG.error("Unable to write {}: {}", file, ex.getMessage());
+            }
+        }
+    }
+
+    private Properties read() {
+        final Properties props = new Properties();
+        if (file != null && Files.exists(file)) {
+            try (final InputStream is = Files.newInputStream(file)) {
+                props.load(is);
+            } catch (final IOException ex) {
+                LOG.error("Unable to read {}: {}", file, ex.getMessage());
+            }
+        }
+        return props;
+    }
+}
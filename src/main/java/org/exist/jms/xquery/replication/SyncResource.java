@@ -45,9 +45,10 @@ import java.util.List;
 import java.util.Optional;
 
 import static org.exist.jms.shared.ErrorCodes.JMS030;
+import static org.exist.jms.shared.ErrorCodes.JMS031;
 
 /**
- * Implementation of the replication:register() function.
+ * Implementation of the replication:sync() and replication:sync-metadata() functions.
  *
  * @author Dannes Wessels
  */
@@ -117,8 +118,11 @@ public class SyncResource extends BasicFunction {
                         }
                     } else {
                         // It is a document
-                        try(final LockedDocument confDoc = collection.getDocumentWithLock(broker, sourcePathURI, Lock.LockMode.READ_LOCK)) {
-                            collection.close();
+                        try (final LockedDocument confDoc = broker.getXMLResource(sourcePathURI, Lock.LockMode.READ_LOCK)) {
+
+                            if (confDoc == null) {
+                                throw new XPathException(this, JMS031, String.format("Resource %s does not exist", sourcePathURI));
+                            }
 
                             if (fullSync) {
                                 trigger.afterUpdateDocument(broker, txn, confDoc.getDocument());
@@ -157,7 +161,7 @@ public class SyncResource extends BasicFunction {
      * @param parentCollectionURI The collection containing the resource
      * @return The trigger wrapped as optional
      */
-    private Optional<ReplicationTrigger> getReplicationTrigger(final DBBroker broker, final Txn txn, final XmldbURI parentCollectionURI) throws TriggerException, PermissionDeniedException {
+    static Optional<ReplicationTrigger> getReplicationTrigger(final DBBroker broker, final Txn txn, final XmldbURI parentCollectionURI) throws TriggerException, PermissionDeniedException {
 
         try (final Collection parentCollection = broker.openCollection(parentCollectionURI, Lock.LockMode.READ_LOCK)) {
             final CollectionConfiguration config = parentCollection.getConfiguration(broker);
@@ -0,0 +1,431 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.xquery.replication;
+
+import org.exist.collections.Collection;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.jms.replication.publish.ReplicationTrigger;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.ErrorCodes;
+import org.exist.jms.shared.MessagingConfiguration;
+import org.exist.jms.shared.RateLimiter;
+import org.exist.jms.xquery.ReplicationModule;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.Txn;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.*;
+import org.exist.xquery.functions.map.AbstractMapType;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.exist.jms.shared.ErrorCodes.JMS010;
+import static org.exist.jms.shared.ErrorCodes.JMS030;
+import static org.exist.jms.shared.ErrorCodes.JMS031;
+
+/**
+ * Implementation of the replication:sync-tree() and replication:sync-tree-status() functions.
+ * Collections are walked depth-first in order of name; the documents of a collection are
+ * serialized and published in parallel. After each collection a checkpoint is stored.
+ *
+ * @author Dannes Wessels
+ */
+public class SyncTree extends BasicFunction {
+
+    public static final String PARALLELISM = "parallelism";
+    public static final String MESSAGES_PER_SECOND = "messages-per-second";
+    public static final String BYTES_PER_SECOND = "bytes-per-second";
+    public static final String METADATA_ONLY = "metadata-only";
+    public static final String RESUME = "resume";
+
+    /**
+     * Progress of running synchronizations, per root collection
+     */
+    private static final Map<String, Progress> RUNNING = new ConcurrentHashMap<>();
+
+    public final static FunctionSignature[] signatures = {
+            new FunctionSignature(
+                    new QName("sync-tree", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Synchronize a collection, its documents and all sub-collections. Options: '" + PARALLELISM
+                            + "' number of documents serialized in parallel (default: number of processors), '"
+                            + MESSAGES_PER_SECOND + "' and '" + BYTES_PER_SECOND + "' limit the publication rate (default: unlimited), '"
+                            + METADATA_ONLY + "' synchronize metadata only (default: false), '" + RESUME
+                            + "' continue after the last completed collection of an interrupted synchronization (default: true).",
+                    new SequenceType[]{
+                            new FunctionParameterSequenceType("path", Type.STRING, Cardinality.EXACTLY_ONE, "Path to collection"),
+                            new FunctionParameterSequenceType("options", Type.MAP, Cardinality.ZERO_OR_ONE, "Options"),},
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.EXACTLY_ONE, "Number of synchronized collections, documents and bytes")
+            ),
+            new FunctionSignature(
+                    new QName("sync-tree-status", ReplicationModule.NAMESPACE_URI, ReplicationModule.PREFIX),
+                    "Get progress of the running replication:sync-tree() calls.",
+                    null,
+                    new FunctionReturnSequenceType(Type.MAP, Cardinality.ZERO_OR_MORE, "Progress per synchronization")
+            ),};
+
+    public SyncTree(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+
+        // User must either be DBA or in the JMS group
+        if (!context.getSubject().hasDbaRole() && !context.getSubject().hasGroup(Constants.JMS_GROUP)) {
+            final String txt = String.format("Permission denied, user '%s' must be a DBA or be in group '%s'",
+                    context.getSubject().getName(), Constants.JMS_GROUP);
+            final XPathException ex = new XPathException(this, JMS010, txt);
+            LOG.error(txt, ex);
+            throw ex;
+        }
+
+        if (isCalledAs("sync-tree-status")) {
+            final ValueSequence result = new ValueSequence();
+            for (final Progress progress : RUNNING.values()) {
+                result.add(progress.toMap(context));
+            }
+            return result;
+        }
+
+        final XmldbURI root = XmldbURI.create(args[0].itemAt(0).getStringValue()).toCollectionPathURI();
+
+        final MessagingConfiguration options = new MessagingConfiguration();
+        if (!args[1].isEmpty()) {
+            options.loadConfiguration((AbstractMapType) args[1].itemAt(0));
+        }
+
+        final int parallelism = getInteger(options, PARALLELISM, Runtime.getRuntime().availableProcessors(), 1);
+        getInteger(options, MESSAGES_PER_SECOND, 0, 0);
+        getInteger(options, BYTES_PER_SECOND, 0, 0);
+
+        try (final Collection collection = context.getBroker().openCollection(root, Lock.LockMode.READ_LOCK)) {
+            if (collection == null) {
+                throw new XPathException(this, JMS031, String.format("Collection %s does not exist", root));
+            }
+        } catch (final PermissionDeniedException ex) {
+            throw new XPathException(this, JMS031, String.format("Collection %s can not be read: %s", root, ex.getMessage()));
+        }
+
+        final Progress progress = new Progress(root.getCollectionPath());
+        if (RUNNING.putIfAbsent(progress.root, progress) != null) {
+            throw new XPathException(this, ErrorCodes.JMS000, String.format("Synchronization of %s is already running", root));
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            final Walker walker = new Walker(context.getBroker(), root, options, progress);
+            walker.walk(pool);
+            return progress.toMap(context);
+
+        } catch (final XPathException ex) {
+            LOG.error(ex.getMessage());
+            ex.setLocation(this.line, this.column, this.getSource());
+            throw ex;
+
+        } catch (final Throwable t) {
+            LOG.error(t.getMessage(), t);
+            throw new XPathException(this, ErrorCodes.JMS000, t);
+
+        } finally {
+            pool.shutdownNow();
+            RUNNING.remove(progress.root);
+        }
+    }
+
+    private static int getInteger(final MessagingConfiguration options, final String key, final int defaultValue) {
+        final Object value = options.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.toString());
+    }
+
+    /**
+     * Validate an integer option.
+     *
+     * @param minimum Lowest allowed value
+     * @throws XPathException When the value is not an integer, or is lower than the minimum
+     */
+    private int getInteger(final MessagingConfiguration options, final String key, final int defaultValue, final int minimum) throws XPathException {
+        final int value;
+        try {
+            value = getInteger(options, key, defaultValue);
+        } catch (final NumberFormatException ex) {
+            throw new XPathException(this, JMS031, String.format("Option '%s' is not an integer: %s", key, options.get(key)));
+        }
+
+        if (value < minimum) {
+            throw new XPathException(this, JMS031, String.format("Option '%s' must be at least %s, got %s", key, minimum, value));
+        }
+        return value;
+    }
+
+    private static boolean getBoolean(final MessagingConfiguration options, final String key, final boolean defaultValue) {
+        final Object value = options.get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.toString());
+    }
+
+    /**
+     * Walks the collection tree.
+     */
+    private class Walker {
+
+        private final DBBroker broker;
+        private final BrokerPool brokerPool;
+        private final Subject subject;
+        private final XmldbURI root;
+        private final Progress progress;
+        private final boolean metadataOnly;
+        private final boolean resume;
+        private final RateLimiter messageLimiter;
+        private final RateLimiter byteLimiter;
+        private final SyncCheckpoint checkpoint;
+
+        private ReplicationTrigger trigger;
+        private String skipUntil;
+        private boolean checkpointBlocked;
+
+        private Walker(final DBBroker broker, final XmldbURI root, final MessagingConfiguration options, final Progress progress) {
+            this.broker = broker;
+            this.brokerPool = broker.getBrokerPool();
+            this.subject = context.getSubject();
+            this.root = root;
+            this.progress = progress;
+            this.metadataOnly = getBoolean(options, METADATA_ONLY, false);
+            this.resume = getBoolean(options, RESUME, true);
+            this.messageLimiter = new RateLimiter(getInteger(options, MESSAGES_PER_SECOND, 0));
+            this.byteLimiter = new RateLimiter(getInteger(options, BYTES_PER_SECOND, 0));
+            this.checkpoint = new SyncCheckpoint(brokerPool);
+        }
+
+        private void walk(final ForkJoinPool pool) throws Exception {
+
+            try (final Txn txn = brokerPool.getTransactionManager().beginTransaction()) {
+                trigger = SyncResource.getReplicationTrigger(broker, txn, root)
+                        .orElseThrow(() -> new XPathException(SyncTree.this, JMS030, String.format("No trigger configuration found for collection %s", root)));
+                txn.commit();
+            }
+
+            skipUntil = resume ? checkpoint.get(progress.root) : null;
+            progress.resumed = skipUntil != null;
+            if (progress.resumed) {
+                LOG.info("Resume synchronization of {} after {}", root, skipUntil);
+            }
+
+            walk(pool, root);
+
+            // The checkpoint collection does not exist anymore, all collections were skipped
+            if (skipUntil != null) {
+                LOG.warn("Checkpoint {} of {} not found, synchronizing from the root", skipUntil, root);
+                skipUntil = null;
+                progress.resumed = false;
+                progress.skippedCollections.reset();
+                walk(pool, root);
+            }
+
+            // Keep the checkpoint before the first failure, a resumed run retries from there
+            if (!checkpointBlocked) {
+                checkpoint.set(progress.root, null);
+            }
+            LOG.info("Synchronized {}: {} collections, {} documents, {} bytes, {} failures", root,
+                    progress.collections.sum(), progress.documents.sum(), progress.bytes.sum(), progress.failures.sum());
+        }
+
+        private void walk(final ForkJoinPool pool, final XmldbURI collectionUri) throws Exception {
+
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Synchronization interrupted");
+            }
+
+            final List<XmldbURI> documents = new ArrayList<>();
+            final TreeSet<String> children = new TreeSet<>();
+            final boolean skip = (skipUntil != null);
+            progress.current = collectionUri.getCollectionPath();
+
+            // Wait for the permit before locking, a throttled synchronization must not block writers
+            if (!skip) {
+                messageLimiter.acquire(1);
+            }
+
+            try (final Txn txn = brokerPool.getTransactionManager().beginTransaction();
+                 final Collection collection = broker.openCollection(collectionUri, Lock.LockMode.READ_LOCK)) {
+
+                if (collection == null) {
+                    LOG.warn("Collection {} does not exist anymore", collectionUri);
+                    txn.commit();
+                    return;
+                }
+
+                if (!skip) {
+                    if (metadataOnly) {
+                        trigger.afterUpdateCollectionMetadata(broker, txn, collection);
+                    } else {
+                        trigger.afterCreateCollection(broker, txn, collection);
+                    }
+
+                    for (final Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
+                        documents.add(i.next().getURI());
+                    }
+                }
+
+                for (final Iterator<XmldbURI> i = collection.collectionIterator(broker); i.hasNext(); ) {
+                    children.add(i.next().toString());
+                }
+
+                txn.commit();
+            }
+
+            if (skip) {
+                // Already completed before the interruption
+                progress.skippedCollections.increment();
+                if (skipUntil.equals(collectionUri.getCollectionPath())) {
+                    skipUntil = null;
+                }
+
+            } else {
+                // Publish the documents in parallel, wait for all
+                final List<Future<Boolean>> futures = new ArrayList<>(documents.size());
+                for (final XmldbURI documentUri : documents) {
+                    futures.add(pool.submit(() -> syncDocument(documentUri)));
+                }
+                boolean completed = true;
+                for (final Future<Boolean> future : futures) {
+                    try {
+                        completed &= future.get();
+                    } catch (final ExecutionException ex) {
+                        completed = false;
+                        progress.failures.increment();
+                        LOG.error(ex.getCause().getMessage(), ex.getCause());
+                    }
+                }
+
+                progress.collections.increment();
+
+                // Collections are completed in walk order, a later checkpoint would skip the failed documents
+                if (!completed) {
+                    checkpointBlocked = true;
+                } else if (!checkpointBlocked) {
+                    checkpoint.set(progress.root, collectionUri.getCollectionPath());
+                }
+            }
+
+            for (final String child : children) {
+                walk(pool, collectionUri.append(child));
+            }
+        }
+
+        /**
+         * Publish document, in a worker thread with its own broker.
+         *
+         * @return FALSE when the document could not be published
+         */
+        private boolean syncDocument(final XmldbURI documentUri) {
+            try {
+                // Wait for the permits before locking, a throttled synchronization must not block writers
+                messageLimiter.acquire(1);
+
+                final long contentLength;
+                try (final DBBroker workerBroker = brokerPool.get(Optional.of(subject));
+                     final Txn txn = brokerPool.getTransactionManager().beginTransaction();
+                     final LockedDocument lockedDocument = workerBroker.getXMLResource(documentUri, Lock.LockMode.READ_LOCK)) {
+
+                    if (lockedDocument == null) {
+                        LOG.debug("Document {} does not exist anymore", documentUri);
+                        txn.commit();
+                        return true;
+                    }
+
+                    final DocumentImpl document = lockedDocument.getDocument();
+                    if (metadataOnly) {
+                        contentLength = 0;
+                        trigger.afterUpdateDocumentMetadata(workerBroker, txn, document);
+                    } else {
+                        contentLength = document.getContentLength();
+                        trigger.afterUpdateDocument(workerBroker, txn, document);
+                        progress.bytes.add(contentLength);
+                    }
+                    txn.commit();
+                    progress.documents.increment();
+                }
+
+                // The size is known when the document is locked: the bytes are paid afterwards,
+                // which delays the next document
+                byteLimiter.acquire(contentLength);
+                return true;
+
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+
+            } catch (final Throwable t) {
+                progress.failures.increment();
+                LOG.error("Unable to synchronize {}: {}", documentUri, t.getMessage(), t);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Progress of a synchronization.
+     */
+    private static class Progress {
+        private final String root;
+        private final long startTime = System.currentTimeMillis();
+        private final LongAdder collections = new LongAdder();
+        private final LongAdder skippedCollections = new LongAdder();
+        private final LongAdder documents = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private volatile String current;
+        private volatile boolean resumed;
+
+        private Progress(final String root) {
+            this.root = root;
+        }
+
+        private MapType toMap(final XQueryContext context) throws XPathException {
+            final MapType map = new MapType(context);
+            map.add(new StringValue("path"), new StringValue(root));
+            map.add(new StringValue("current"), current == null ? Sequence.EMPTY_SEQUENCE : new StringValue(current));
+            map.add(new StringValue("resumed"), BooleanValue.valueOf(resumed));
+            map.add(new StringValue("collections"), new IntegerValue(collections.sum()));
+            map.add(new StringValue("skippedCollections"), new IntegerValue(skippedCollections.sum()));
+            map.add(new StringValue("documents"), new IntegerValue(documents.sum()));
+            map.add(new StringValue("bytes"), new IntegerValue(bytes.sum()));
+            map.add(new StringValue("failures"), new IntegerValue(failures.sum()));
+            map.add(new StringValue("duration"), new IntegerValue(System.currentTimeMillis() - startTime));
+            return map;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Live dashboard: polls modules/live-statistics.xql and draws the rates per second.
+ */
+$(function () {
+
+    var INTERVAL = 2000;
+
+    function last(values) {
+        // The last value is the current, incomplete, second
+        return values.length > 1 ? values[values.length - 2] : 0;
+    }
+
+    function chart(values) {
+        var canvas = $('<canvas width="240" height="40"/>')[0];
+        var ctx = canvas.getContext("2d");
+        var max = Math.max.apply(null, values.concat([1]));
+        var step = canvas.width / Math.max(values.length - 1, 1);
+
+        ctx.strokeStyle = "#3a6ea5";
+        ctx.beginPath();
+        $.each(values, function (i, value) {
+            var y = canvas.height - 1 - (value / max) * (canvas.height - 2);
+            if (i === 0) {
+                ctx.moveTo(0, y);
+            } else {
+                ctx.lineTo(i * step, y);
+            }
+        });
+        ctx.stroke();
+        return canvas;
+    }
+
+    function percentiles(p) {
+        return p ? p.p50 + " / " + p.p95 + " / " + p.p99 : "";
+    }
+
+    function row(label, values) {
+        return $("<tr/>")
+            .append($("<td/>").text(label))
+            .append($("<td/>").append(chart(values)))
+            .append($("<td/>").text(last(values)));
+    }
+
+    function table(rows) {
+        var t = $('<table class="table table-bordered table-condensed"/>');
+        $.each(rows, function (i, r) {
+            t.append(r);
+        });
+        return t;
+    }
+
+    function text(label, value) {
+        return $("<tr/>").append($("<td/>").text(label)).append($('<td colspan="2"/>').text(value));
+    }
+
+    function render(data) {
+        var sender = data.sender;
+        $("#sender").empty().append(table([
+            row("Messages/s", sender.messages),
+            row("Bytes/s", sender.bytes),
+            text("In flight / async queue / failed", sender.inFlight + " / " + sender.asyncQueue + " / " + sender.failed)
+        ]));
+
+        var receivers = $("#receivers").empty();
+        var list = data.receivers ? [].concat(data.receivers) : [];
+        $.each(list, function (i, r) {
+            var rows = [
+                row("Messages/s", r.messages),
+                row("Bytes/s", r.bytes),
+                row("Errors/s", r.errors),
+                text("Latency p50 / p95 / p99", percentiles(r.latency))
+            ];
+            if (r.lag) {
+                rows.push(text("Lag p50 / p95 / p99", percentiles(r.lag)));
+            }
+            receivers.append($("<h3/>").text(r.id + " - " + r.usage + " - " + r.destination + " (" + r.state + ")"));
+            receivers.append(table(rows));
+        });
+    }
+
+    function poll() {
+        $.ajax({
+            url: "modules/live-statistics.xql",
+            dataType: "json",
+            cache: false
+        }).done(render).always(function () {
+            setTimeout(poll, INTERVAL);
+        });
+    }
+
+    poll();
+});
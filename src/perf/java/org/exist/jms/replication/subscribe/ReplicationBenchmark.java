@@ -0,0 +1,501 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2017 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.jms.replication.subscribe;
+
+import org.apache.activemq.broker.BrokerService;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.LatencyHistogram;
+import org.exist.jms.shared.receive.Receiver;
+import org.exist.jms.shared.receive.ReceiversManager;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.xml.sax.InputSource;
+
+import javax.naming.Context;
+import java.io.ByteArrayInputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end replication benchmark. Starts an embedded broker, a publishing database with the
+ * ReplicationTrigger and a subscribing database with a replication receiver, then runs the
+ * workloads and reports documents per second, bytes per second, lag percentiles and the heap
+ * high-water mark.
+ * <p>
+ * Run with {@code mvn -Pperf test-compile exec:exec}. Workloads are selected with
+ * {@code -Dperf.workloads=SMALL_XML,MIXED_CRUD}, the number of documents is multiplied by
+ * {@code -Dperf.scale}. Results are written as JSON to {@code -Dperf.output}.
+ * <p>
+ * Both databases run in the same JVM and share the JMS identity file, the subscriber therefore
+ * gets its own instance ID; the heap high-water mark covers broker, publisher and subscriber. It is
+ * sampled every 10 milliseconds, shorter peaks can be missed.
+ *
+ * @author Dannes Wessels
+ */
+public class ReplicationBenchmark {
+
+    private static final String BROKER_NAME = "perf";
+    private static final String BROKER_URL = "vm://" + BROKER_NAME + "?create=false";
+    private static final String DESTINATION = "dynamicTopics/perf-replication";
+    private static final XmldbURI ROOT = XmldbURI.create("/db/perf");
+
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+
+    private final BrokerPool publisher;
+    private final ReplicationJmsListener listener;
+    private final Random random = new Random(42);
+
+    private ReplicationBenchmark(final BrokerPool publisher, final ReplicationJmsListener listener) {
+        this.publisher = publisher;
+        this.listener = listener;
+    }
+
+    public static void main(final String[] args) throws Exception {
+
+        final int scale = Integer.getInteger("perf.scale", 1);
+        final Path output = Paths.get(System.getProperty("perf.output", "target/replication-benchmark.json"));
+        final List<Workload> workloads = new ArrayList<>();
+        for (final String name : System.getProperty("perf.workloads", "SMALL_XML,LARGE_BINARY,DEEP_TREE,MIXED_CRUD").split(",")) {
+            workloads.add(Workload.valueOf(name.trim().toUpperCase(Locale.US)));
+        }
+
+        final BrokerService broker = new BrokerService();
+        broker.setBrokerName(BROKER_NAME);
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        broker.waitUntilStarted();
+
+        final ExistEmbeddedServer publisherServer = new ExistEmbeddedServer("publisher", null, null, true, true);
+        final ExistEmbeddedServer subscriberServer = new ExistEmbeddedServer("subscriber", null, null, true, true);
+        publisherServer.startDb();
+        subscriberServer.startDb();
+
+        final Receiver receiver = startReceiver(subscriberServer.getBrokerPool());
+        final ReplicationBenchmark benchmark = new ReplicationBenchmark(publisherServer.getBrokerPool(),
+                (ReplicationJmsListener) receiver.getMessageListener());
+
+        final List<Result> results = new ArrayList<>();
+        try {
+            benchmark.configureTrigger();
+
+            for (final Workload workload : workloads) {
+                final Result result = benchmark.run(workload, scale);
+                System.out.println(result);
+                results.add(result);
+            }
+
+        } finally {
+            receiver.close();
+            ReceiversManager.getInstance().remove(receiver.getReceiverId());
+            subscriberServer.stopDb();
+            publisherServer.stopDb();
+            broker.stop();
+            broker.waitUntilStopped();
+        }
+
+        writeResults(output, scale, results);
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+
+    /**
+     * Start a replication receiver as the ReceiverStartupTrigger does, with a distinct instance ID.
+     */
+    private static Receiver startReceiver(final BrokerPool subscriber) throws Exception {
+        final Map<String, List<?>> params = new HashMap<>();
+        params.put(Context.INITIAL_CONTEXT_FACTORY, Collections.singletonList("org.apache.activemq.jndi.ActiveMQInitialContextFactory"));
+        params.put(Context.PROVIDER_URL, Collections.singletonList(BROKER_URL));
+        params.put(Constants.CONNECTION_FACTORY, Collections.singletonList("ConnectionFactory"));
+        params.put(Constants.DESTINATION, Collections.singletonList(DESTINATION));
+        params.put(Constants.SUBSCRIBER_NAME, Collections.singletonList("perf-subscriber"));
+        params.put(Constants.CLIENT_ID, Collections.singletonList("perf-subscriber"));
+        params.put(Constants.DURABLE, Collections.singletonList("false"));
+
+        final SubscriberParameters parameters = new SubscriberParameters();
+        parameters.setSingleValueParameters(params);
+        parameters.processParameters();
+
+        final JmsConfiguration jmsConfig = new JmsConfiguration();
+        jmsConfig.loadSubscriberParameters(parameters);
+
+        final Receiver receiver = new Receiver(jmsConfig, new ReplicationJmsListener(subscriber, "perf-subscriber"));
+        ReceiversManager.getInstance().register(receiver);
+        receiver.initialize();
+        receiver.start();
+        return receiver;
+    }
+
+    /**
+     * Configure the ReplicationTrigger on the root collection of the publisher.
+     */
+    private void configureTrigger() throws Exception {
+        final String xconf = "<collection xmlns=\"http://exist-db.org/collection-config/1.0\"><triggers>"
+                + "<trigger class=\"org.exist.jms.replication.publish.ReplicationTrigger\">"
+                + "<parameter name=\"" + Context.INITIAL_CONTEXT_FACTORY + "\" value=\"org.apache.activemq.jndi.ActiveMQInitialContextFactory\"/>"
+                + "<parameter name=\"" + Context.PROVIDER_URL + "\" value=\"" + BROKER_URL + "\"/>"
+                + "<parameter name=\"" + Constants.CONNECTION_FACTORY + "\" value=\"ConnectionFactory\"/>"
+                + "<parameter name=\"" + Constants.DESTINATION + "\" value=\"" + DESTINATION + "\"/>"
+                + "</trigger></triggers></collection>";
+
+        try (final DBBroker broker = getBroker();
+             final Txn txn = publisher.getTransactionManager().beginTransaction();
+             final Collection collection = broker.getOrCreateCollection(txn, ROOT)) {
+            broker.saveCollection(txn, collection);
+            publisher.getConfigurationManager().addConfiguration(txn, broker, collection, xconf);
+            txn.commit();
+        }
+    }
+
+    /**
+     * Run workload, wait until the subscriber has processed all messages.
+     */
+    private Result run(final Workload workload, final int scale) throws Exception {
+        final HeapSampler heapSampler = new HeapSampler();
+
+        listener.getReplicationLag().clear();
+        final long messagesBefore = listener.getReport().getMessageCounterTotal();
+        final long bytesBefore = listener.getReport().getByteCounterTotal();
+        final XmldbURI collection = ROOT.append(workload.name().toLowerCase(Locale.US));
+
+        final long start = System.nanoTime();
+        final Counts counts = new Counts();
+        createCollection(collection, counts);
+        workload.run(this, collection, scale, counts);
+        final long published = System.nanoTime();
+
+        final long expected = messagesBefore + counts.messages;
+        long lastCount = -1;
+        long lastProgress = System.currentTimeMillis();
+        while (listener.getReport().getMessageCounterTotal() < expected) {
+            final long count = listener.getReport().getMessageCounterTotal();
+            if (count != lastCount) {
+                lastCount = count;
+                lastProgress = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - lastProgress > IDLE_TIMEOUT) {
+                break;
+            }
+            Thread.sleep(5);
+        }
+        final long end = System.nanoTime();
+        heapSampler.close();
+
+        final Result result = new Result(workload);
+        result.documents = counts.documents;
+        result.messages = counts.messages;
+        result.received = listener.getReport().getMessageCounterTotal() - messagesBefore;
+        result.bytes = listener.getReport().getByteCounterTotal() - bytesBefore;
+        result.publishSeconds = (published - start) / 1e9;
+        result.totalSeconds = (end - start) / 1e9;
+        result.lag = listener.getReplicationLag().getLag();
+        result.heapPeak = heapSampler.getPeak();
+        return result;
+    }
+
+    /**
+     * Samples the used heap periodically and keeps the highest value. The peaks of the individual
+     * memory pools are reached at different times, their sum is not a high-water mark.
+     */
+    private static class HeapSampler implements AutoCloseable {
+
+        private static final long INTERVAL_MILLIS = 10;
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicLong peak = new AtomicLong();
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "heap-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        HeapSampler() {
+            executor.scheduleAtFixedRate(this::sample, 0, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        }
+
+        long getPeak() {
+            return peak.get();
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
+            sample();
+        }
+    }
+
+    private DBBroker getBroker() throws Exception {
+        return publisher.get(Optional.of(publisher.getSecurityManager().getSystemSubject()));
+    }
+
+    private void createCollection(final XmldbURI uri, final Counts counts) throws Exception {
+        try (final DBBroker broker = getBroker();
+             final Txn txn = publisher.getTransactionManager().beginTransaction();
+             final Collection collection = broker.getOrCreateCollection(txn, uri)) {
+            broker.saveCollection(txn, collection);
+            txn.commit();
+        }
+        counts.messages++;
+    }
+
+    private void storeXml(final XmldbURI collectionUri, final String name, final byte[] data, final Counts counts) throws Exception {
+        try (final DBBroker broker = getBroker();
+             final Txn txn = publisher.getTransactionManager().beginTransaction();
+             final Collection collection = broker.openCollection(collectionUri, Lock.LockMode.WRITE_LOCK)) {
+            final XmldbURI docUri = XmldbURI.create(name);
+            final IndexInfo info = collection.validateXMLResource(txn, broker, docUri, new InputSource(new ByteArrayInputStream(data)));
+            collection.store(txn, broker, info, new InputSource(new ByteArrayInputStream(data)));
+            txn.commit();
+        }
+        counts.documents++;
+        counts.messages++;
+    }
+
+    private void storeBinary(final XmldbURI collectionUri, final String name, final byte[] data, final Counts counts) throws Exception {
+        try (final DBBroker broker = getBroker();
+             final Txn txn = publisher.getTransactionManager().beginTransaction();
+             final Collection collection = broker.openCollection(collectionUri, Lock.LockMode.WRITE_LOCK)) {
+            collection.addBinaryResource(txn, broker, XmldbURI.create(name), new ByteArrayInputStream(data),
+                    "application/octet-stream", data.length);
+            txn.commit();
+        }
+        counts.documents++;
+        counts.messages++;
+    }
+
+    private void delete(final XmldbURI collectionUri, final String name, final Counts counts) throws Exception {
+        try (final DBBroker broker = getBroker();
+             final Txn txn = publisher.getTransactionManager().beginTransaction();
+             final Collection collection = broker.openCollection(collectionUri, Lock.LockMode.WRITE_LOCK)) {
+            final DocumentImpl resource = collection.getDocument(broker, XmldbURI.create(name));
+            if (resource.getResourceType() == DocumentImpl.BINARY_FILE) {
+                collection.removeBinaryResource(txn, broker, resource.getFileURI());
+            } else {
+                collection.removeXMLResource(txn, broker, resource.getFileURI());
+            }
+            txn.commit();
+        }
+        counts.documents++;
+        counts.messages++;
+    }
+
+    private byte[] createXml(final int size) {
+        final StringBuilder sb = new StringBuilder(size + 64);
+        sb.append("<record>");
+        int i = 0;
+        while (sb.length() < size) {
+            sb.append("<field n=\"").append(i++).append("\">").append(random.nextLong()).append("</field>");
+        }
+        sb.append("</record>");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] createBinary(final int size) {
+        final byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static void writeResults(final Path output, final int scale, final List<Result> results) throws Exception {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+
+        try (final Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write("{\"scale\":" + scale + ",\"java\":\"" + System.getProperty("java.version")
+                    + "\",\"maxHeap\":" + Runtime.getRuntime().maxMemory() + ",\"workloads\":[");
+            for (int i = 0; i < results.size(); i++) {
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write(results.get(i).toJson());
+            }
+            writer.write("\n]}\n");
+        }
+    }
+
+    /**
+     * The workloads.
+     */
+    enum Workload {
+
+        /**
+         * Many small XML documents in one collection.
+         */
+        SMALL_XML {
+            @Override
+            void run(final ReplicationBenchmark bm, final XmldbURI collection, final int scale, final Counts counts) throws Exception {
+                for (int i = 0; i < 2000 * scale; i++) {
+                    bm.storeXml(collection, "doc-" + i + ".xml", bm.createXml(1024), counts);
+                }
+            }
+        },
+
+        /**
+         * Large binary documents.
+         */
+        LARGE_BINARY {
+            @Override
+            void run(final ReplicationBenchmark bm, final XmldbURI collection, final int scale, final Counts counts) throws Exception {
+                for (int i = 0; i < 20 * scale; i++) {
+                    bm.storeBinary(collection, "blob-" + i + ".bin", bm.createBinary(5 * 1024 * 1024), counts);
+                }
+            }
+        },
+
+        /**
+         * Binary tree of collections, eight levels deep, with documents in the leaves.
+         */
+        DEEP_TREE {
+            @Override
+            void run(final ReplicationBenchmark bm, final XmldbURI collection, final int scale, final Counts counts) throws Exception {
+                createTree(bm, collection, 8, scale, counts);
+            }
+
+            private void createTree(final ReplicationBenchmark bm, final XmldbURI parent, final int depth, final int scale,
+                                    final Counts counts) throws Exception {
+                if (depth == 0) {
+                    for (int i = 0; i < 2 * scale; i++) {
+                        bm.storeXml(parent, "leaf-" + i + ".xml", bm.createXml(2048), counts);
+                    }
+                    return;
+                }
+                for (int i = 0; i < 2; i++) {
+                    final XmldbURI child = parent.append("c" + i);
+                    bm.createCollection(child, counts);
+                    createTree(bm, child, depth - 1, scale, counts);
+                }
+            }
+        },
+
+        /**
+         * Creates, updates and deletes of XML and binary documents, in random order.
+         */
+        MIXED_CRUD {
+            @Override
+            void run(final ReplicationBenchmark bm, final XmldbURI collection, final int scale, final Counts counts) throws Exception {
+                final List<String> existing = new ArrayList<>();
+                int next = 0;
+                for (int i = 0; i < 3000 * scale; i++) {
+                    final int dice = bm.random.nextInt(10);
+                    if (existing.isEmpty() || dice < 5) {
+                        final String name = "res-" + next++ + (dice % 2 == 0 ? ".xml" : ".bin");
+                        store(bm, collection, name, counts);
+                        existing.add(name);
+
+                    } else if (dice < 8) {
+                        store(bm, collection, existing.get(bm.random.nextInt(existing.size())), counts);
+
+                    } else {
+                        bm.delete(collection, existing.remove(bm.random.nextInt(existing.size())), counts);
+                    }
+                }
+            }
+
+            private void store(final ReplicationBenchmark bm, final XmldbURI collection, final String name,
+                               final Counts counts) throws Exception {
+                if (name.endsWith(".xml")) {
+                    bm.storeXml(collection, name, bm.createXml(4096), counts);
+                } else {
+                    bm.storeBinary(collection, name, bm.createBinary(32 * 1024), counts);
+                }
+            }
+        };
+
+        abstract void run(ReplicationBenchmark bm, XmldbURI collection, int scale, Counts counts) throws Exception;
+    }
+
+    /**
+     * Number of document operations and expected replication messages of a workload.
+     */
+    private static class Counts {
+        long documents;
+        long messages;
+    }
+
+    /**
+     * Measurements of one workload.
+     */
+    private static class Result {
+        private final Workload workload;
+        long documents;
+        long messages;
+        long received;
+        long bytes;
+        double publishSeconds;
+        double totalSeconds;
+        LatencyHistogram lag;
+        long heapPeak;
+
+        Result(final Workload workload) {
+            this.workload = workload;
+        }
+
+        double getDocumentsPerSecond() {
+            return documents / totalSeconds;
+        }
+
+        double getBytesPerSecond() {
+            return bytes / totalSeconds;
+        }
+
+        String toJson() {
+            return String.format(Locale.US, "{\"workload\":\"%s\",\"documents\":%d,\"messages\":%d,\"received\":%d,\"bytes\":%d,"
+                            + "\"publishSeconds\":%.3f,\"totalSeconds\":%.3f,\"documentsPerSecond\":%.1f,\"bytesPerSecond\":%.0f,"
+                            + "\"lagMillis\":{\"p50\":%d,\"p95\":%d,\"p99\":%d,\"max\":%d},\"heapPeakBytes\":%d}",
+                    workload.name(), documents, messages, received, bytes, publishSeconds, totalSeconds,
+                    getDocumentsPerSecond(), getBytesPerSecond(), lag.getPercentile(0.50), lag.getPercentile(0.95),
+                    lag.getPercentile(0.99), lag.getMax(), heapPeak);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-12s %7d docs %8.1f docs/s %10.1f KB/s  lag p50=%dms p95=%dms p99=%dms max=%dms  heap peak=%d MB%s",
+                    workload.name(), documents, getDocumentsPerSecond(), getBytesPerSecond() / 1024,
+                    lag.getPercentile(0.50), lag.getPercentile(0.95), lag.getPercentile(0.99), lag.getMax(),
+                    heapPeak / (1024 * 1024), received < messages ? "  INCOMPLETE " + received + "/" + messages : "");
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.exist.jms.replication.publish;
+
+import org.exist.jms.replication.shared.TransportException;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.eXistMessage;
+import org.exist.jms.shared.send.FakeJms;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.naming.Context;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class JMSMessageSenderTest {
+
+    private static final long SEQUENCE = 42;
+
+    private final Map<String, List<?>> params = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        FakeJms.reset();
+        ReplicationLog.getInstance().clear();
+
+        // The pooled connection factory does not know the scheme of the broker URL
+        params.put(Context.INITIAL_CONTEXT_FACTORY, Collections.singletonList(FakeJms.class.getName()));
+        params.put(Context.PROVIDER_URL, Collections.singletonList("fake://localhost"));
+    }
+
+    @Test
+    public void failedSendIsReported() {
+        final long failed = JMSMessageSender.getReport().getErrors().getTotal();
+
+        try {
+            new JMSMessageSender(params).sendMessage(createMessage());
+            fail("Message was sent");
+
+        } catch (final TransportException ex) {
+            // expected
+        }
+
+        assertEquals(failed + 1, JMSMessageSender.getReport().getErrors().getTotal());
+        // Logged for replay by the trigger before sending, not again
+        assertEquals(0, ReplicationLog.getInstance().size());
+    }
+
+    @Test
+    public void failedAsyncSendIsReported() throws TransportException, InterruptedException {
+        params.put(Constants.PRODUCER_ASYNC, Collections.singletonList("true"));
+        final long failed = JMSMessageSender.getReport().getErrors().getTotal();
+
+        // Failure is reported in the background
+        new JMSMessageSender(params).sendMessage(createMessage());
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (JMSMessageSender.getReport().getErrors().getTotal() == failed && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(failed + 1, JMSMessageSender.getReport().getErrors().getTotal());
+        // Logged for replay by the trigger before sending, not again
+        assertEquals(0, ReplicationLog.getInstance().size());
+    }
+
+    private static eXistMessage createMessage() {
+        final eXistMessage message = new eXistMessage();
+        message.setResourceOperation(eXistMessage.ResourceOperation.CREATE);
+        message.setResourceType(eXistMessage.ResourceType.DOCUMENT);
+        message.setResourcePath("/db/test/a.xml");
+        message.setPayload(new byte[]{1, 2, 3});
+        message.getMetadata().put(Constants.EXIST_ORIGIN_SEQUENCE, SEQUENCE);
+        return message;
+    }
+}
@@ -0,0 +1,157 @@
+package org.exist.jms.replication.shared;
+
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import java.io.StringReader;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class ContentHashesTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    private static final String ROOT = "/db/hashes";
+
+    private ContentHashes hashes;
+
+    @BeforeClass
+    public static void storeDocuments() throws Exception {
+        store(ROOT + "/a/b/doc.xml", "<doc>1</doc>");
+        store(ROOT + "/a/b/c/doc.xml", "<doc>2</doc>");
+        store(ROOT + "/a-b/doc.xml", "<doc>3</doc>");
+        store(ROOT + "/ab/doc.xml", "<doc>4</doc>");
+    }
+
+    @Before
+    public void setUp() {
+        hashes = new ContentHashes();
+    }
+
+    @Test
+    public void nodeIsCached() throws Exception {
+        final ContentHashes.Node root = getNode(ROOT);
+
+        assertSame(root, getNode(ROOT));
+        assertSame(getNode(ROOT + "/a/b"), getNode(ROOT + "/a/b"));
+
+        // The collection and all its descendants
+        assertEquals(6, hashes.size());
+        assertEquals(3, root.getCollections().size());
+        assertEquals(getNode(ROOT + "/a").getHash(), root.getCollections().get("a"));
+    }
+
+    @Test
+    public void missingCollection() throws Exception {
+        assertNull(getNode(ROOT + "/missing"));
+    }
+
+    @Test
+    public void invalidateRehashesAncestorsOnly() throws Exception {
+        final ContentHashes.Node root = getNode(ROOT);
+        final ContentHashes.Node a = getNode(ROOT + "/a");
+        final ContentHashes.Node c = getNode(ROOT + "/a/b/c");
+        final ContentHashes.Node aDashB = getNode(ROOT + "/a-b");
+        final ContentHashes.Node ab = getNode(ROOT + "/ab");
+
+        store(ROOT + "/a/b/doc.xml", "<doc>changed</doc>");
+        hashes.invalidate(ROOT + "/a/b/doc.xml");
+
+        // Siblings, also with a similar name, and the sub-collection are not rehashed
+        assertSame(aDashB, getNode(ROOT + "/a-b"));
+        assertSame(ab, getNode(ROOT + "/ab"));
+        assertSame(c, getNode(ROOT + "/a/b/c"));
+
+        // The collection of the document and its ancestors are
+        final ContentHashes.Node newA = getNode(ROOT + "/a");
+        assertNotSame(a, newA);
+        assertNotEquals(a.getHash(), newA.getHash());
+        assertNotEquals(root.getHash(), getNode(ROOT).getHash());
+    }
+
+    @Test
+    public void unchangedContentHasSameHash() throws Exception {
+        final ContentHashes.Node node = getNode(ROOT + "/a-b");
+
+        hashes.invalidate(ROOT + "/a-b");
+
+        final ContentHashes.Node rehashed = getNode(ROOT + "/a-b");
+        assertNotSame(node, rehashed);
+        assertEquals(node.getHash(), rehashed.getHash());
+        assertEquals(node.getDocuments(), rehashed.getDocuments());
+    }
+
+    @Test
+    public void invalidateCollectionRemovesSubtree() throws Exception {
+        getNode(ROOT);
+        assertEquals(6, hashes.size());
+
+        hashes.invalidate(ROOT + "/a/b");
+
+        // a/b and a/b/c are removed, the ancestors are stale
+        assertEquals(4, hashes.size());
+    }
+
+    @Test
+    public void textRoundTrip() throws Exception {
+        final ContentHashes.Node node = getNode(ROOT + "/a/b");
+
+        final ContentHashes.Node parsed = ContentHashes.Node.parse(node.toText());
+
+        assertEquals(node.getHash(), parsed.getHash());
+        assertEquals(node.getDocuments(), parsed.getDocuments());
+        assertEquals(node.getCollections(), parsed.getCollections());
+        assertEquals(node.toText(), parsed.toText());
+
+        assertNull(ContentHashes.Node.parse(""));
+        assertNull(ContentHashes.Node.parse(null));
+    }
+
+    @Test
+    public void clear() throws Exception {
+        getNode(ROOT);
+
+        hashes.clear();
+
+        assertEquals(0, hashes.size());
+    }
+
+    private ContentHashes.Node getNode(final String path) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn txn = pool.getTransactionManager().beginTransaction()) {
+            final ContentHashes.Node node = hashes.getNode(broker, txn, XmldbURI.create(path));
+            txn.commit();
+            return node;
+        }
+    }
+
+    private static void store(final String path, final String xml) throws Exception {
+        final XmldbURI uri = XmldbURI.create(path);
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn txn = pool.getTransactionManager().beginTransaction();
+             final Collection collection = broker.getOrCreateCollection(txn, uri.removeLastSegment())) {
+
+            broker.saveCollection(txn, collection);
+            final IndexInfo info = collection.validateXMLResource(txn, broker, uri.lastSegment(), new InputSource(new StringReader(xml)));
+            collection.store(txn, broker, info, new InputSource(new StringReader(xml)));
+            txn.commit();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.exist.jms.replication.shared;
+
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.eXistMessage.ResourceType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class MessageGroupsTest {
+
+    private static final String DOCUMENT = "/db/apps/foo/bar.xml";
+
+    @Test
+    public void validKeys() {
+        assertTrue(MessageGroups.isValidKey(Constants.GROUP_KEY_NONE));
+        assertTrue(MessageGroups.isValidKey(Constants.GROUP_KEY_DOCUMENT));
+        assertTrue(MessageGroups.isValidKey(Constants.GROUP_KEY_COLLECTION));
+        assertTrue(MessageGroups.isValidKey(Constants.GROUP_KEY_TOP_COLLECTION));
+        assertFalse(MessageGroups.isValidKey("path"));
+    }
+
+    @Test
+    public void notGrouped() {
+        assertNull(MessageGroups.getGroupId(Constants.GROUP_KEY_NONE, ResourceType.DOCUMENT, DOCUMENT));
+    }
+
+    @Test
+    public void groupedByDocument() {
+        assertEquals(DOCUMENT, MessageGroups.getGroupId(Constants.GROUP_KEY_DOCUMENT, ResourceType.DOCUMENT, DOCUMENT));
+    }
+
+    @Test
+    public void groupedByCollection() {
+        assertEquals("/db/apps/foo", MessageGroups.getGroupId(Constants.GROUP_KEY_COLLECTION, ResourceType.DOCUMENT, DOCUMENT));
+        assertEquals("/db/apps/foo", MessageGroups.getGroupId(Constants.GROUP_KEY_COLLECTION, ResourceType.COLLECTION, "/db/apps/foo"));
+    }
+
+    @Test
+    public void groupedByTopCollection() {
+        // Changes of a collection and of the documents in its subtree are in one group
+        assertEquals("/db/apps", MessageGroups.getGroupId(Constants.GROUP_KEY_TOP_COLLECTION, ResourceType.DOCUMENT, DOCUMENT));
+        assertEquals("/db/apps", MessageGroups.getGroupId(Constants.GROUP_KEY_TOP_COLLECTION, ResourceType.COLLECTION, "/db/apps/foo"));
+    }
+}
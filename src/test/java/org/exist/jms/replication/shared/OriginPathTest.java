@@ -0,0 +1,73 @@
+package org.exist.jms.replication.shared;
+
+import org.exist.jms.shared.Constants;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class OriginPathTest {
+
+    @Test
+    public void local() {
+        final OriginPath path = OriginPath.local("a", 3);
+
+        assertEquals("a", path.getOrigin());
+        assertEquals(Arrays.asList("a"), path.getInstances());
+        assertEquals(3, path.getHopLimit());
+    }
+
+    @Test
+    public void relayUsesHop() {
+        final OriginPath path = OriginPath.local("a", 2).relay("b").relay("c");
+
+        assertEquals("a", path.getOrigin());
+        assertEquals(Arrays.asList("a", "b", "c"), path.getInstances());
+        assertEquals(0, path.getHopLimit());
+    }
+
+    @Test
+    public void loopIsDetected() {
+        // a -> b -> c, c must not apply or relay a change that returns via a
+        final OriginPath path = OriginPath.local("a", OriginPath.DEFAULT_HOP_LIMIT).relay("b").relay("c");
+
+        assertTrue(path.contains("a"));
+        assertTrue(path.contains("b"));
+        assertTrue(path.contains("c"));
+        assertFalse(path.contains("d"));
+    }
+
+    @Test
+    public void propertiesRoundTrip() {
+        final Map<String, Object> props = new HashMap<>();
+        OriginPath.local("a", 5).relay("b").toProperties(props);
+
+        assertEquals("a,b", props.get(Constants.EXIST_ORIGIN_PATH));
+        assertEquals(4, props.get(Constants.EXIST_HOP_LIMIT));
+
+        final OriginPath path = OriginPath.fromProperties(props);
+        assertEquals(Arrays.asList("a", "b"), path.getInstances());
+        assertEquals(4, path.getHopLimit());
+    }
+
+    @Test
+    public void senderWithoutPathIsNotRelayed() {
+        final Map<String, Object> props = new HashMap<>();
+        props.put(Constants.EXIST_INSTANCE_ID, "old");
+
+        final OriginPath path = OriginPath.fromProperties(props);
+        assertEquals(Arrays.asList("old"), path.getInstances());
+        assertEquals(0, path.getHopLimit());
+    }
+
+    @Test
+    public void unknownSender() {
+        assertNull(OriginPath.fromProperties(new HashMap<>()));
+    }
+}
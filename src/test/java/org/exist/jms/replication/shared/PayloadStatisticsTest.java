@@ -0,0 +1,72 @@
+package org.exist.jms.replication.shared;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class PayloadStatisticsTest {
+
+    @Test
+    public void topLevelCollection() {
+        assertEquals("/db/apps", PayloadStatistics.getTopLevelCollection("/db/apps/demo/data.xml"));
+        assertEquals("/db/apps", PayloadStatistics.getTopLevelCollection("/db/apps/data.xml"));
+        assertEquals("/db", PayloadStatistics.getTopLevelCollection("/db/data.xml"));
+        assertEquals(PayloadStatistics.OTHER, PayloadStatistics.getTopLevelCollection(null));
+    }
+
+    @Test
+    public void perCollectionAndMimeType() {
+        final PayloadStatistics statistics = new PayloadStatistics();
+        statistics.record("/db/apps/a.xml", "application/xml", 1000, 250, 10);
+        statistics.record("/db/apps/b.xml", "application/xml", 3000, 750, 30);
+        statistics.record("/db/data/c.bin", null, 100, 100, 5);
+
+        final Map<String, PayloadStatistics.Entry> collections = statistics.getCollections();
+        assertEquals(2, collections.size());
+
+        final PayloadStatistics.Entry apps = collections.get("/db/apps");
+        assertEquals(2, apps.getCount());
+        assertEquals(4000, apps.getRawBytes());
+        assertEquals(1000, apps.getEncodedBytes());
+        assertEquals(40, apps.getCodecNanos());
+        assertEquals(4.0, apps.getCompressionRatio(), 0.0001);
+        assertEquals(2, apps.getEncodedSizes().getCount());
+
+        final Map<String, PayloadStatistics.Entry> mimeTypes = statistics.getMimeTypes();
+        assertEquals(2, mimeTypes.get("application/xml").getCount());
+        assertEquals(1, mimeTypes.get(PayloadStatistics.OTHER).getCount());
+    }
+
+    @Test
+    public void unknownRawSizeIsNotAdded() {
+        final PayloadStatistics statistics = new PayloadStatistics();
+        statistics.record("/db/apps/a.bin", "application/octet-stream", -1, 500, 0);
+
+        final PayloadStatistics.Entry entry = statistics.getMimeTypes().get("application/octet-stream");
+        assertEquals(1, entry.getCount());
+        assertEquals(0, entry.getRawBytes());
+        assertEquals(500, entry.getEncodedBytes());
+        assertEquals(0.0, new PayloadStatistics.Entry().getCompressionRatio(), 0.0);
+    }
+
+    @Test
+    public void numberOfKeysIsLimited() {
+        final PayloadStatistics statistics = new PayloadStatistics();
+        for (int i = 0; i < PayloadStatistics.MAX_KEYS + 10; i++) {
+            statistics.record("/db/collection" + i + "/a.xml", "application/xml", 10, 5, 1);
+        }
+
+        final Map<String, PayloadStatistics.Entry> collections = statistics.getCollections();
+        assertEquals(PayloadStatistics.MAX_KEYS + 1, collections.size());
+        assertEquals(10, collections.get(PayloadStatistics.OTHER).getCount());
+
+        statistics.clear();
+        assertTrue(statistics.getCollections().isEmpty());
+        assertTrue(statistics.getMimeTypes().isEmpty());
+    }
+}
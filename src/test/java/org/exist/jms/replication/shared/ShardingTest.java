@@ -0,0 +1,76 @@
+package org.exist.jms.replication.shared;
+
+import org.exist.jms.shared.eXistMessage.ResourceType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class ShardingTest {
+
+    @Test
+    public void prefixOfDocument() {
+        assertEquals("/db/apps", Sharding.getPrefix(ResourceType.DOCUMENT, "/db/apps/foo/bar.xml", 2));
+        assertEquals("/db/apps/foo", Sharding.getPrefix(ResourceType.DOCUMENT, "/db/apps/foo/bar.xml", 3));
+        assertEquals("/db", Sharding.getPrefix(ResourceType.DOCUMENT, "/db/apps/foo/bar.xml", 1));
+    }
+
+    @Test
+    public void documentNameIsNotPartOfPrefix() {
+        assertEquals("/db/apps", Sharding.getPrefix(ResourceType.DOCUMENT, "/db/apps/bar.xml", 3));
+        assertEquals("/db", Sharding.getPrefix(ResourceType.DOCUMENT, "/db/bar.xml", 2));
+    }
+
+    @Test
+    public void prefixOfCollection() {
+        assertEquals("/db/apps", Sharding.getPrefix(ResourceType.COLLECTION, "/db/apps/foo", 2));
+        assertEquals("/db/apps", Sharding.getPrefix(ResourceType.COLLECTION, "/db/apps", 2));
+        assertEquals("/db", Sharding.getPrefix(ResourceType.COLLECTION, "/db", 2));
+    }
+
+    @Test
+    public void collectionTreeHasOnePrefix() {
+        final String collection = Sharding.getPrefix(ResourceType.COLLECTION, "/db/apps/foo", 2);
+        final String document = Sharding.getPrefix(ResourceType.DOCUMENT, "/db/apps/foo/bar/baz.xml", 2);
+        assertEquals(collection, document);
+    }
+
+    @Test
+    public void trailingSlashIsIgnored() {
+        assertEquals("/db/apps", Sharding.getPrefix(ResourceType.COLLECTION, "/db/apps/foo/", 2));
+    }
+
+    @Test
+    public void shardIsInRangeAndStable() {
+        for (int i = 0; i < 1000; i++) {
+            final String prefix = "/db/collection" + i;
+            final int shard = Sharding.getShard(prefix, 7);
+            assertTrue(shard >= 0 && shard < 7);
+            assertEquals(shard, Sharding.getShard(prefix, 7));
+        }
+    }
+
+    @Test
+    public void collectionsAreSpread() {
+        final int[] counts = new int[7];
+        for (int i = 0; i < 1000; i++) {
+            counts[Sharding.getShard("/db/collection" + i, counts.length)]++;
+        }
+        for (final int count : counts) {
+            assertTrue(count > 0);
+        }
+    }
+
+    @Test
+    public void singleShard() {
+        assertEquals(0, Sharding.getShard("/db/apps", 1));
+        assertEquals(0, Sharding.getShard("/db/apps", 0));
+    }
+
+    @Test
+    public void destination() {
+        assertEquals("dynamicTopics/eXistdb.3", Sharding.getDestination("dynamicTopics/eXistdb", 3));
+    }
+}
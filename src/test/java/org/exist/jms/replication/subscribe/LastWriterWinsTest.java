@@ -0,0 +1,57 @@
+package org.exist.jms.replication.subscribe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class LastWriterWinsTest {
+
+    private static final String PATH = "/db/test/doc.xml";
+
+    private final ConflictResolver resolver = new LastWriterWins();
+
+    @Test
+    public void laterIncomingWins() {
+        final ResourceVersion local = new ResourceVersion(1000, "a", false);
+        final ResourceVersion incoming = new ResourceVersion(2000, "b", false);
+
+        assertTrue(resolver.acceptIncoming(PATH, local, incoming));
+    }
+
+    @Test
+    public void laterLocalWins() {
+        final ResourceVersion local = new ResourceVersion(2000, "a", false);
+        final ResourceVersion incoming = new ResourceVersion(1000, "b", false);
+
+        assertFalse(resolver.acceptIncoming(PATH, local, incoming));
+    }
+
+    @Test
+    public void equalTimeHighestOriginWins() {
+        final ResourceVersion a = new ResourceVersion(1000, "a", false);
+        final ResourceVersion b = new ResourceVersion(1000, "b", false);
+
+        // Both replicas keep the version of 'b'
+        assertTrue(resolver.acceptIncoming(PATH, a, b));
+        assertFalse(resolver.acceptIncoming(PATH, b, a));
+    }
+
+    @Test
+    public void sameVersionIsNotAccepted() {
+        final ResourceVersion local = new ResourceVersion(1000, "a", false);
+        final ResourceVersion incoming = new ResourceVersion(1000, "a", false);
+
+        assertFalse(resolver.acceptIncoming(PATH, local, incoming));
+    }
+
+    @Test
+    public void laterRemovalWins() {
+        final ResourceVersion local = new ResourceVersion(1000, "a", false);
+        final ResourceVersion incoming = new ResourceVersion(2000, "b", true);
+
+        assertTrue(resolver.acceptIncoming(PATH, local, incoming));
+    }
+}
@@ -0,0 +1,228 @@
+package org.exist.jms.replication.subscribe;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.exist.jms.replication.shared.OriginPath;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.Identity;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.eXistMessage;
+import org.exist.jms.shared.receive.ReplySessionPool;
+import org.exist.jms.shared.send.FakeJms;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.exist.jms.replication.subscribe.ReplicationJmsListenerTest.answerReplay;
+import static org.exist.jms.replication.subscribe.ReplicationJmsListenerTest.createDocumentMessage;
+import static org.exist.jms.replication.subscribe.ReplicationJmsListenerTest.getDocument;
+import static org.exist.jms.replication.subscribe.ReplicationJmsListenerTest.sequenced;
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class RelayJmsListenerTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    private static final String EDGE = "dynamicQueues/edge";
+
+    private JmsConfiguration config;
+    private RelayJmsListener listener;
+    private final AtomicInteger acknowledged = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        FakeJms.reset();
+        config = FakeJms.createConfiguration("dynamicQueues/hub");
+        config.setProperty(Constants.RELAY_DESTINATION, EDGE);
+        acknowledged.set(0);
+    }
+
+    @After
+    public void tearDown() {
+        if (listener != null) {
+            listener.close();
+        }
+    }
+
+    @Test
+    public void forwardKeepsQualityOfService() throws Exception {
+        createListener();
+        final ActiveMQBytesMessage message = createMessage("/db/relay/qos.xml", "<qos/>");
+        message.setJMSDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        message.setJMSPriority(7);
+        message.setJMSExpiration(System.currentTimeMillis() + 60_000);
+
+        listener.onMessage(message);
+
+        assertEquals("<qos/>", getDocument(existEmbeddedServer.getBrokerPool(), "/db/relay/qos.xml"));
+        assertEquals(1, acknowledged.get());
+
+        final List<Message> forwarded = getForwarded();
+        assertEquals(1, forwarded.size());
+        final ActiveMQBytesMessage copy = (ActiveMQBytesMessage) forwarded.get(0);
+        assertEquals(DeliveryMode.NON_PERSISTENT, copy.getJMSDeliveryMode());
+        assertEquals(7, copy.getJMSPriority());
+        // The remaining time to live, sent a moment later
+        assertEquals(message.getJMSExpiration(), copy.getJMSExpiration(), 1_000);
+        assertEquals("publisher," + Identity.getInstance().getIdentity(), copy.getStringProperty(Constants.EXIST_ORIGIN_PATH));
+        assertEquals(OriginPath.DEFAULT_HOP_LIMIT - 1, copy.getIntProperty(Constants.EXIST_HOP_LIMIT));
+        assertEquals("/db/relay/qos.xml", copy.getStringProperty(eXistMessage.EXIST_SOURCE_PATH));
+        assertEquals(message.getBodyLength(), copy.getBodyLength());
+        assertEquals(1, listener.getForwardedCount());
+    }
+
+    @Test
+    public void expiredMessageIsNotForwarded() throws Exception {
+        createListener();
+        final ActiveMQBytesMessage message = createMessage("/db/relay/expired.xml", "<expired/>");
+        message.setJMSExpiration(System.currentTimeMillis() - 1);
+
+        listener.onMessage(message);
+
+        assertTrue(getForwarded().isEmpty());
+    }
+
+    @Test
+    public void failedApplyIsNotForwarded() throws Exception {
+        createListener();
+        try {
+            listener.onMessage(createMessage("/db/relay/invalid.xml", "<invalid>"));
+            fail("Invalid document was applied");
+
+        } catch (final MessageReceiveException ex) {
+            // expected, the message is redelivered
+        }
+
+        assertTrue(getForwarded().isEmpty());
+        assertEquals(0, acknowledged.get());
+    }
+
+    @Test
+    public void failedForwardIsRetried() throws Exception {
+        createListener();
+        FakeJms.failSend(1);
+
+        listener.onMessage(createMessage("/db/relay/retried.xml", "<retried/>"));
+
+        assertEquals(1, getForwarded().size());
+        assertEquals(1, acknowledged.get());
+        assertEquals(0, listener.getReport().getErrors().getTotal());
+    }
+
+    @Test
+    public void failedForwardIsRedelivered() throws Exception {
+        createListener();
+        FakeJms.failSend(1, 10);
+
+        try {
+            listener.onMessage(createMessage("/db/relay/redelivered.xml", "<redelivered/>"));
+            fail("Message was forwarded");
+
+        } catch (final MessageReceiveException ex) {
+            // expected
+        }
+
+        assertTrue(getForwarded().isEmpty());
+        assertEquals(0, acknowledged.get());
+        assertEquals(1, FakeJms.getRecovers());
+    }
+
+    @Test
+    public void failedParallelForwardIsNotAcknowledged() throws Exception {
+        config.setProperty(Constants.LISTENER_CONCURRENCY, "2");
+        createListener();
+        FakeJms.failSend(1, 10);
+
+        listener.onMessage(createMessage("/db/relay/parallel.xml", "<parallel/>"));
+        listener.close();
+
+        // Applied, not forwarded and left for redelivery, without redelivering other messages in flight
+        assertEquals("<parallel/>", getDocument(existEmbeddedServer.getBrokerPool(), "/db/relay/parallel.xml"));
+        assertTrue(getForwarded().isEmpty());
+        assertEquals(0, acknowledged.get());
+        assertEquals(0, FakeJms.getRecovers());
+        assertEquals(1, listener.getReport().getErrors().getTotal());
+    }
+
+    @Test
+    public void forwardSessionIsClosed() throws Exception {
+        createListener();
+        listener.onMessage(createMessage("/db/relay/closed.xml", "<closed/>"));
+        listener.close();
+
+        // A new session is used after the receiver is started again
+        listener.onMessage(createMessage("/db/relay/reopened.xml", "<reopened/>"));
+        assertEquals(2, getForwarded().size());
+    }
+
+    @Test
+    public void replayedMessageIsForwarded() throws Exception {
+        config.setProperty(Constants.REPLAY_DESTINATION, "dynamicQueues/replay");
+        createListener();
+        answerReplay("dynamicQueues/replay", createDocumentMessage("/db/relay/replayed.xml", "<replayed/>", relayed(2)));
+
+        listener.onMessage(createMessage("/db/relay/first.xml", "<first/>", relayed(1)));
+        listener.onMessage(createMessage("/db/relay/third.xml", "<third/>", relayed(3)));
+
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (acknowledged.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertEquals("<replayed/>", getDocument(existEmbeddedServer.getBrokerPool(), "/db/relay/replayed.xml"));
+        assertEquals(3, getForwarded().size());
+        assertEquals("/db/relay/replayed.xml", getForwarded().get(1).getStringProperty(eXistMessage.EXIST_SOURCE_PATH));
+    }
+
+    private void createListener() throws Exception {
+        listener = new RelayJmsListener(existEmbeddedServer.getBrokerPool(), config);
+        listener.setConfiguration(config);
+        listener.setSession(FakeJms.createSession());
+        listener.setReplySessions(new ReplySessionPool(
+                SnapshotLoader.createConnection(SnapshotLoader.createContext(config), config)));
+    }
+
+    /**
+     * Sequenced message of a publisher of its own, the applied sequences are kept per JVM.
+     */
+    private static Map<String, Object> relayed(final long sequence) {
+        final Map<String, Object> properties = sequenced(sequence);
+        properties.put(Constants.EXIST_INSTANCE_ID, "relayed-publisher");
+        return properties;
+    }
+
+    private ActiveMQBytesMessage createMessage(final String path, final String xml) throws Exception {
+        return createMessage(path, xml, Collections.emptyMap());
+    }
+
+    private ActiveMQBytesMessage createMessage(final String path, final String xml, final Map<String, Object> properties) throws Exception {
+        final ActiveMQBytesMessage message = createDocumentMessage(path, xml, properties);
+        message.setAcknowledgeCallback(acknowledged::incrementAndGet);
+        return message;
+    }
+
+    private static List<Message> getForwarded() {
+        return FakeJms.getSent().stream()
+                .filter(message -> {
+                    try {
+                        return EDGE.equals(message.getJMSDestination().toString().replace("queue://", ""));
+                    } catch (final Exception ex) {
+                        return false;
+                    }
+                })
+                .collect(Collectors.toList());
+    }
+}
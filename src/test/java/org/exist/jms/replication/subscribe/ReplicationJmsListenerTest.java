@@ -0,0 +1,361 @@
+package org.exist.jms.replication.subscribe;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.jms.replication.shared.MessageHelper;
+import org.exist.jms.replication.shared.PayloadStatistics;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.Report;
+import org.exist.jms.shared.Span;
+import org.exist.jms.shared.Tracer;
+import org.exist.jms.shared.eXistMessage;
+import org.exist.jms.shared.receive.ReplySessionPool;
+import org.exist.jms.shared.send.FakeJms;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock;
+import org.exist.storage.serializers.Serializer;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class ReplicationJmsListenerTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    private static final String PUBLISHER = "publisher";
+    private static final String SEQUENCED_PUBLISHER = "sequenced-publisher";
+
+    private ReplicationJmsListener listener;
+
+    @Before
+    public void setUp() {
+        listener = new ReplicationJmsListener(existEmbeddedServer.getBrokerPool(), "subscriber");
+    }
+
+    @Test
+    public void xmlDocumentIsDecompressedOnce() throws Exception {
+        final String xml = "<data><item>first</item><item>second</item></data>";
+
+        final ActiveMQBytesMessage message = createDocumentMessage("/db/replicated/a.xml", xml);
+        listener.onMessage(message);
+
+        final Report report = listener.getReport();
+        assertEquals(1, report.getMessageCounterOK());
+        assertEquals(message.getBodyLength(), report.getByteCounterTotal());
+        assertEquals(1, report.getLatency(Report.Stage.DECOMPRESS).getCount());
+        assertEquals(1, report.getLatency(Report.Stage.PARSE).getCount());
+        assertEquals(1, report.getLatency(Report.Stage.STORE).getCount());
+        assertEquals(xml, getDocument("/db/replicated/a.xml"));
+
+        final PayloadStatistics.Entry statistics = listener.getPayloadStatistics().getMimeTypes().get("application/xml");
+        assertEquals(1, statistics.getCount());
+        assertEquals(xml.length(), statistics.getRawBytes());
+        assertEquals(message.getBodyLength(), statistics.getEncodedBytes());
+        assertEquals(1, listener.getPayloadStatistics().getCollections().get("/db/replicated").getCount());
+    }
+
+    @Test
+    public void invalidXmlIsNotStored() throws Exception {
+        try {
+            listener.onMessage(createDocumentMessage("/db/replicated/invalid.xml", "<data>"));
+            fail("Invalid document was applied");
+
+        } catch (final MessageReceiveException ex) {
+            // expected, the message is redelivered
+        }
+
+        assertEquals(0, listener.getReport().getMessageCounterOK());
+        assertNull(getDocument("/db/replicated/invalid.xml"));
+        assertTrue(listener.getPayloadStatistics().getMimeTypes().isEmpty());
+    }
+
+    @Test
+    public void lagIsRecorded() throws Exception {
+        final ActiveMQBytesMessage message = createDocumentMessage("/db/replicated/lag.xml", "<lag/>",
+                Collections.singletonMap(Constants.EXIST_EVENT_TIME, System.currentTimeMillis() - 1_000));
+        message.setJMSTimestamp(System.currentTimeMillis() - 500);
+
+        listener.onMessage(message);
+
+        final ReplicationLag lag = listener.getReplicationLag();
+        assertEquals(1, lag.getLag().getCount());
+        assertTrue(lag.getLag().getMax() >= 1_000);
+        assertEquals(1, lag.getDwell().getCount());
+        assertTrue(lag.getWatermarks().containsKey(PUBLISHER));
+    }
+
+    @Test
+    public void tracedMessageIsRecorded() throws Exception {
+        final ActiveMQBytesMessage message = createDocumentMessage("/db/replicated/traced.xml", "<traced/>",
+                Collections.singletonMap(Constants.EXIST_TRACE_ID, "trace-apply"));
+        message.setJMSTimestamp(System.currentTimeMillis());
+
+        listener.onMessage(message);
+
+        final List<String> names = new ArrayList<>();
+        for (final Span span : Tracer.getSpans("trace-apply")) {
+            names.add(span.getName());
+            assertEquals("receiver=" + listener.getReceiverID(), span.getResource());
+        }
+        assertTrue(names.containsAll(Arrays.asList("receive", "decompress", "parse", "store", "commit")));
+    }
+
+    @Test
+    public void messageIsConverted() throws Exception {
+        final ActiveMQBytesMessage message = createDocumentMessage("/db/replicated/b.xml", "<b/>",
+                Collections.singletonMap("custom", 42));
+
+        final eXistMessage em = ReplicationJmsListener.convertMessage(message);
+
+        assertEquals(eXistMessage.ResourceType.DOCUMENT, em.getResourceType());
+        assertEquals(eXistMessage.ResourceOperation.CREATE, em.getResourceOperation());
+        assertEquals("/db/replicated/b.xml", em.getResourcePath());
+        assertEquals(message.getBodyLength(), em.getPayload().length);
+
+        // All message properties are copied
+        assertEquals(42, em.getMetadata().get("custom"));
+        assertEquals(PUBLISHER, em.getMetadata().get(Constants.EXIST_INSTANCE_ID));
+    }
+
+    @Test
+    public void ownMessageIsSkipped() throws Exception {
+        // Publisher and subscriber in the same JVM, each with its own instance ID
+        listener.onMessage(createDocumentMessage("/db/replicated/own.xml", "<own/>",
+                Collections.singletonMap(Constants.EXIST_INSTANCE_ID, "subscriber")));
+
+        assertNull(getDocument("/db/replicated/own.xml"));
+        assertEquals(0, listener.getReport().getErrors().getTotal());
+    }
+
+    @Test
+    public void groupIsAppliedInOrder() throws Exception {
+        final JmsConfiguration config = new JmsConfiguration();
+        config.setProperty(Constants.LISTENER_CONCURRENCY, "4");
+        listener.setConfiguration(config);
+
+        // Groups of different documents are applied in parallel
+        final int updates = 20;
+        for (int i = 0; i < updates; i++) {
+            for (final String name : Arrays.asList("g1.xml", "g2.xml")) {
+                final String path = "/db/replicated/" + name;
+                listener.onMessage(createDocumentMessage(path, "<v>" + i + "</v>",
+                        Collections.singletonMap(Constants.JMSX_GROUP_ID, path)));
+            }
+        }
+
+        final long deadline = System.currentTimeMillis() + 30_000;
+        while (listener.getReport().getMessageCounterOK() < 2 * updates && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        listener.close();
+
+        assertEquals(2 * updates, listener.getReport().getMessageCounterOK());
+        assertEquals("<v>" + (updates - 1) + "</v>", getDocument("/db/replicated/g1.xml"));
+        assertEquals("<v>" + (updates - 1) + "</v>", getDocument("/db/replicated/g2.xml"));
+    }
+
+    @Test
+    public void lastModifiedIsVersionWhenNotKnown() throws Exception {
+        final long time = System.currentTimeMillis();
+
+        // Written without conflict resolution, the version is not known
+        listener.onMessage(createDocumentMessage("/db/replicated/conflict.xml", "<v1/>",
+                Collections.singletonMap(MessageHelper.EXIST_RESOURCE_LASTMODIFIED, time)));
+
+        final JmsConfiguration config = new JmsConfiguration();
+        config.setProperty(Constants.CONFLICT_RESOLVER, "last-writer-wins");
+        final ReplicationJmsListener resolving = new ReplicationJmsListener(existEmbeddedServer.getBrokerPool(), "subscriber");
+        resolving.setConfiguration(config);
+
+        final Map<String, Object> older = new HashMap<>();
+        older.put(Constants.EXIST_INSTANCE_ID, "other");
+        older.put(MessageHelper.EXIST_RESOURCE_LASTMODIFIED, time - 1_000);
+        resolving.onMessage(createDocumentMessage("/db/replicated/conflict.xml", "<older/>", older));
+        assertEquals("<v1/>", getDocument("/db/replicated/conflict.xml"));
+        assertEquals(1, resolving.getConflictStore().getConflicts().size());
+
+        final Map<String, Object> newer = new HashMap<>(older);
+        newer.put(MessageHelper.EXIST_RESOURCE_LASTMODIFIED, time + 1_000);
+        resolving.onMessage(createDocumentMessage("/db/replicated/conflict.xml", "<newer/>", newer));
+        assertEquals("<newer/>", getDocument("/db/replicated/conflict.xml"));
+        assertEquals((time + 1_000) + "@other", ResourceVersions.getInstance().get("/db/replicated/conflict.xml").toString());
+    }
+
+    @Test
+    public void relayedOwnMessageIsSkipped() throws Exception {
+        // Sent by another instance, but the change was made on or passed through this one
+        listener.onMessage(createDocumentMessage("/db/replicated/loop.xml", "<loop/>",
+                Collections.singletonMap(Constants.EXIST_ORIGIN_PATH, "subscriber,relay")));
+
+        assertNull(getDocument("/db/replicated/loop.xml"));
+        assertEquals(0, listener.getReport().getErrors().getTotal());
+    }
+
+    @Test
+    public void snapshotWatermarkIsPerShard() throws Exception {
+        listener.setSnapshotWatermark(SEQUENCED_PUBLISHER, 2, 10);
+
+        // Contained in the snapshot of shard 2
+        listener.onMessage(createDocumentMessage("/db/replicated/shard2-old.xml", "<old/>", sequenced(2, 10)));
+        assertNull(getDocument("/db/replicated/shard2-old.xml"));
+
+        listener.onMessage(createDocumentMessage("/db/replicated/shard2-new.xml", "<new/>", sequenced(2, 11)));
+        assertEquals("<new/>", getDocument("/db/replicated/shard2-new.xml"));
+
+        // The sequence of shard 1 is independent of the watermark of shard 2
+        listener.onMessage(createDocumentMessage("/db/replicated/shard1.xml", "<shard1/>", sequenced(1, 5)));
+        assertEquals("<shard1/>", getDocument("/db/replicated/shard1.xml"));
+
+        assertEquals(0, listener.getReport().getErrors().getTotal());
+    }
+
+    @Test
+    public void missedMessageIsReplayedFirst() throws Exception {
+        FakeJms.reset();
+        final JmsConfiguration config = FakeJms.createConfiguration("dynamicQueues/replicated");
+        config.setProperty(Constants.REPLAY_DESTINATION, "dynamicQueues/replay");
+        listener.setConfiguration(config);
+        listener.setReplySessions(new ReplySessionPool(SnapshotLoader.createConnection(SnapshotLoader.createContext(config), config)));
+        answerReplay("dynamicQueues/replay", createDocumentMessage("/db/replicated/replayed.xml", "<second/>", sequenced(2)));
+
+        listener.onMessage(createDocumentMessage("/db/replicated/replayed.xml", "<first/>", sequenced(1)));
+
+        final AtomicInteger acknowledged = new AtomicInteger();
+        final ActiveMQBytesMessage third = createDocumentMessage("/db/replicated/replayed.xml", "<third/>", sequenced(3));
+        third.setAcknowledgeCallback(acknowledged::incrementAndGet);
+        listener.onMessage(third);
+
+        // Applied after the replay, not on the delivery thread
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (acknowledged.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        listener.close();
+
+        assertEquals("<third/>", getDocument("/db/replicated/replayed.xml"));
+        assertEquals(3, listener.getReport().getMessageCounterOK());
+        assertEquals(0, listener.getReport().getErrors().getTotal());
+
+        final SequenceTracker.Origin state = listener.getSequenceTracker().getOrigins().get(SEQUENCED_PUBLISHER);
+        assertEquals(1, state.getReplayed());
+        assertEquals(0, state.getMissed());
+        assertEquals(3, state.getContiguous());
+    }
+
+    /**
+     * Answer replay requests on a destination with messages, like {@link ReplayJmsListener}.
+     */
+    static void answerReplay(final String destination, final ActiveMQBytesMessage... messages) throws JMSException {
+        final Session session = FakeJms.createSession();
+        session.createConsumer(new ActiveMQQueue(destination)).setMessageListener(request -> {
+            try {
+                final MessageProducer producer = session.createProducer(request.getJMSReplyTo());
+                for (final ActiveMQBytesMessage message : messages) {
+                    message.setJMSCorrelationID(request.getJMSCorrelationID());
+                    producer.send(message);
+                }
+
+                final Message last = session.createMessage();
+                last.setJMSCorrelationID(request.getJMSCorrelationID());
+                last.setBooleanProperty(ReplayJmsListener.EXIST_REPLAY_LAST, true);
+                producer.send(last);
+
+            } catch (final JMSException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+    }
+
+    /**
+     * Sequence numbers of the applied messages are kept per JVM, the messages have their own publisher.
+     */
+    static Map<String, Object> sequenced(final long sequence) {
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put(Constants.EXIST_INSTANCE_ID, SEQUENCED_PUBLISHER);
+        properties.put(Constants.EXIST_ORIGIN_SEQUENCE, sequence);
+        return properties;
+    }
+
+    static Map<String, Object> sequenced(final int shard, final long sequence) {
+        final Map<String, Object> properties = sequenced(sequence);
+        properties.put(Constants.EXIST_SHARD, shard);
+        return properties;
+    }
+
+    static ActiveMQBytesMessage createDocumentMessage(final String path, final String xml) throws JMSException, IOException {
+        return createDocumentMessage(path, xml, Collections.emptyMap());
+    }
+
+    /**
+     * @param properties Additional message properties
+     */
+    static ActiveMQBytesMessage createDocumentMessage(final String path, final String xml, final Map<String, Object> properties) throws JMSException, IOException {
+        final ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+        message.setStringProperty(eXistMessage.EXIST_RESOURCE_TYPE, eXistMessage.ResourceType.DOCUMENT.name());
+        message.setStringProperty(eXistMessage.EXIST_RESOURCE_OPERATION, eXistMessage.ResourceOperation.CREATE.name());
+        message.setStringProperty(eXistMessage.EXIST_SOURCE_PATH, path);
+        message.setStringProperty(Constants.EXIST_INSTANCE_ID, PUBLISHER);
+        // Properties can not be set after the body, these restart the writing of the body
+        for (final Map.Entry<String, Object> property : properties.entrySet()) {
+            message.setObjectProperty(property.getKey(), property.getValue());
+        }
+        message.writeBytes(gzip(xml));
+        message.reset();
+        return message;
+    }
+
+    static String getDocument(final String path) throws Exception {
+        return getDocument(existEmbeddedServer.getBrokerPool(), path);
+    }
+
+    static String getDocument(final BrokerPool pool, final String path) throws Exception {
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final LockedDocument doc = broker.getXMLResource(XmldbURI.create(path), Lock.LockMode.READ_LOCK)) {
+
+            if (doc == null) {
+                return null;
+            }
+
+            final Serializer serializer = broker.newSerializer();
+            serializer.setProperty("omit-xml-declaration", "yes");
+            serializer.setProperty("indent", "no");
+            return serializer.serialize(doc.getDocument());
+        }
+    }
+
+    private static byte[] gzip(final String data) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (final GZIPOutputStream gos = new GZIPOutputStream(baos)) {
+            gos.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+        return baos.toByteArray();
+    }
+}
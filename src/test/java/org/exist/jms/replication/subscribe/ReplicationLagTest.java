@@ -0,0 +1,77 @@
+package org.exist.jms.replication.subscribe;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class ReplicationLagTest {
+
+    @Test
+    public void lagAndWatermark() {
+        final ReplicationLag lag = new ReplicationLag();
+
+        lag.recordApplied("publisher", 1, 1_000, 1_250);
+        lag.recordApplied("publisher", 2, 2_000, 2_100);
+
+        assertEquals(2, lag.getLag().getCount());
+        assertEquals(250, lag.getLag().getMax());
+
+        final ReplicationLag.Watermark watermark = lag.getWatermarks().get("publisher");
+        assertEquals(2, watermark.getSequence());
+        assertEquals(2_000, watermark.getEventTime());
+        assertEquals(2_100, watermark.getAppliedTime());
+    }
+
+    @Test
+    public void watermarkDoesNotGoBack() {
+        final ReplicationLag lag = new ReplicationLag();
+
+        // Replayed message applied after a newer one
+        lag.recordApplied("publisher", 5, 5_000, 5_010);
+        lag.recordApplied("publisher", 3, 3_000, 5_020);
+
+        assertEquals(5, lag.getWatermarks().get("publisher").getSequence());
+        assertEquals(2, lag.getLag().getCount());
+    }
+
+    @Test
+    public void watermarkPerPublisher() {
+        final ReplicationLag lag = new ReplicationLag();
+
+        lag.recordApplied("a", 7, 1_000, 1_001);
+        lag.recordApplied("b#2", 3, 1_000, 1_001);
+        lag.recordApplied(null, 0, 1_000, 1_001);
+
+        assertEquals(2, lag.getWatermarks().size());
+        assertEquals(7, lag.getWatermarks().get("a").getSequence());
+        assertEquals(3, lag.getWatermarks().get("b#2").getSequence());
+        assertEquals(3, lag.getLag().getCount());
+    }
+
+    @Test
+    public void dwellWithoutTimestampIsIgnored() {
+        final ReplicationLag lag = new ReplicationLag();
+
+        lag.recordDwell(0, 1_000);
+        lag.recordDwell(900, 1_000);
+
+        assertEquals(1, lag.getDwell().getCount());
+        assertEquals(100, lag.getDwell().getMax());
+    }
+
+    @Test
+    public void clear() {
+        final ReplicationLag lag = new ReplicationLag();
+        lag.recordDwell(900, 1_000);
+        lag.recordApplied("a", 1, 1_000, 1_001);
+
+        lag.clear();
+
+        assertEquals(0, lag.getLag().getCount());
+        assertEquals(0, lag.getDwell().getCount());
+        assertTrue(lag.getWatermarks().isEmpty());
+    }
+}
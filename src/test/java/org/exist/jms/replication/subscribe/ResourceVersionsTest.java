@@ -0,0 +1,83 @@
+package org.exist.jms.replication.subscribe;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class ResourceVersionsTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void versionsArePersisted() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("jms.versions");
+
+        final ResourceVersions versions = new ResourceVersions(file, 10);
+        versions.put("/db/a.xml", new ResourceVersion(1000, "a", false));
+        versions.put("/db/b c.xml", new ResourceVersion(2000, "b", true));
+        versions.put("/db/a.xml", new ResourceVersion(3000, "c", false));
+        versions.close();
+
+        final ResourceVersions read = new ResourceVersions(file, 10);
+        assertEquals("3000@c", read.get("/db/a.xml").toString());
+        assertEquals("deleted 2000@b", read.get("/db/b c.xml").toString());
+        assertNull(read.get("/db/c.xml"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsDropped() {
+        final ResourceVersions versions = new ResourceVersions(null, 2);
+        versions.put("/db/a.xml", new ResourceVersion(1000, "a", false));
+        versions.put("/db/b.xml", new ResourceVersion(1000, "a", false));
+        versions.get("/db/a.xml");
+        versions.put("/db/c.xml", new ResourceVersion(1000, "a", false));
+
+        assertNotNull(versions.get("/db/a.xml"));
+        assertNull(versions.get("/db/b.xml"));
+        assertNotNull(versions.get("/db/c.xml"));
+    }
+
+    @Test
+    public void fileIsRewritten() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("jms.versions");
+
+        final ResourceVersions versions = new ResourceVersions(file, 10);
+        for (int i = 0; i < 5000; i++) {
+            versions.put("/db/" + (i % 3) + ".xml", new ResourceVersion(i, "a", false));
+        }
+        versions.close();
+
+        assertTrue(Files.readAllLines(file).size() < 1100);
+        assertEquals("4999@a", new ResourceVersions(file, 10).get("/db/1.xml").toString());
+    }
+
+    @Test
+    public void incompleteLineIsSkipped() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("jms.versions");
+
+        final ResourceVersions versions = new ResourceVersions(file, 10);
+        versions.put("/db/a.xml", new ResourceVersion(1000, "a", false));
+        versions.close();
+        Files.write(file, "20".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        final ResourceVersions read = new ResourceVersions(file, 10);
+        assertEquals("1000@a", read.get("/db/a.xml").toString());
+
+        // Appended after the incomplete line
+        read.put("/db/b.xml", new ResourceVersion(2000, "b", false));
+        read.close();
+        assertEquals("2000@b", new ResourceVersions(file, 10).get("/db/b.xml").toString());
+    }
+}
@@ -0,0 +1,181 @@
+package org.exist.jms.replication.subscribe;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class SequenceTrackerTest {
+
+    private static final String ORIGIN = "publisher";
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void contiguous() {
+        final SequenceTracker tracker = new SequenceTracker();
+
+        for (long sequence = 1; sequence <= 3; sequence++) {
+            assertNull(tracker.findGap(ORIGIN, sequence));
+            tracker.recordApplied(ORIGIN, sequence);
+        }
+
+        final SequenceTracker.Origin state = tracker.getOrigins().get(ORIGIN);
+        assertEquals(3, state.getContiguous());
+        assertEquals(0, state.getGaps());
+    }
+
+    @Test
+    public void firstMessageStartsTracking() {
+        final SequenceTracker tracker = new SequenceTracker();
+
+        assertNull(tracker.findGap(ORIGIN, 42));
+        tracker.recordApplied(ORIGIN, 42);
+
+        assertEquals(42, tracker.getOrigins().get(ORIGIN).getContiguous());
+    }
+
+    @Test
+    public void gap() {
+        final SequenceTracker tracker = new SequenceTracker();
+        tracker.findGap(ORIGIN, 1);
+        tracker.recordApplied(ORIGIN, 1);
+
+        final long[] gap = tracker.findGap(ORIGIN, 5);
+        assertArrayEquals(new long[]{2, 4}, gap);
+
+        // Two of three messages replayed
+        tracker.closeGap(ORIGIN, gap, 2);
+        tracker.recordApplied(ORIGIN, 5);
+
+        final SequenceTracker.Origin state = tracker.getOrigins().get(ORIGIN);
+        assertEquals(5, state.getContiguous());
+        assertEquals(1, state.getGaps());
+        assertEquals(2, state.getReplayed());
+        assertEquals(1, state.getMissed());
+    }
+
+    @Test
+    public void duplicate() {
+        final SequenceTracker tracker = new SequenceTracker();
+        tracker.findGap(ORIGIN, 1);
+        tracker.recordApplied(ORIGIN, 1);
+        tracker.recordApplied(ORIGIN, 2);
+
+        assertTrue(tracker.isApplied(ORIGIN, 2));
+        assertTrue(tracker.isApplied(ORIGIN, 1));
+        assertFalse(tracker.isApplied(ORIGIN, 3));
+        assertFalse(tracker.isApplied("other", 1));
+
+        assertEquals(2, tracker.getOrigins().get(ORIGIN).getDuplicates());
+    }
+
+    @Test
+    public void outOfOrderAfterReplay() {
+        final SequenceTracker tracker = new SequenceTracker();
+        tracker.findGap(ORIGIN, 1);
+        tracker.recordApplied(ORIGIN, 1);
+
+        // Message 3 arrives before 2, 2 is replayed
+        final long[] gap = tracker.findGap(ORIGIN, 3);
+        assertArrayEquals(new long[]{2, 2}, gap);
+        tracker.closeGap(ORIGIN, gap, 1);
+        tracker.recordApplied(ORIGIN, 3);
+
+        // The original message 2 arrives late and must not be applied again
+        assertNull(tracker.findGap(ORIGIN, 2));
+        assertTrue(tracker.isApplied(ORIGIN, 2));
+        assertEquals(3, tracker.getOrigins().get(ORIGIN).getContiguous());
+    }
+
+    @Test
+    public void recordAppliedNeverDecreases() {
+        final SequenceTracker tracker = new SequenceTracker();
+        tracker.recordApplied(ORIGIN, 10);
+        tracker.recordApplied(ORIGIN, 7);
+
+        assertEquals(10, tracker.getOrigins().get(ORIGIN).getContiguous());
+    }
+
+    @Test
+    public void originsAreIndependent() {
+        final SequenceTracker tracker = new SequenceTracker();
+        tracker.findGap(ORIGIN, 1);
+        tracker.recordApplied(ORIGIN, 1);
+        tracker.findGap("other#1", 1);
+        tracker.recordApplied("other#1", 1);
+
+        assertNull(tracker.findGap(ORIGIN, 2));
+        assertArrayEquals(new long[]{2, 3}, tracker.findGap("other#1", 4));
+    }
+
+    @Test
+    public void continuesAfterRestart() throws Exception {
+        final Path file = temporaryFolder.getRoot().toPath().resolve("jms.applied");
+
+        final AppliedSequences applied = new AppliedSequences(file);
+        final SequenceTracker before = new SequenceTracker(applied);
+        before.findGap(ORIGIN, 1);
+        before.recordApplied(ORIGIN, 1);
+        before.recordApplied(ORIGIN, 2);
+        applied.close();
+
+        // Messages 3 and 4 were published while the subscriber was down
+        final SequenceTracker after = new SequenceTracker(new AppliedSequences(file));
+        assertTrue(after.isApplied(ORIGIN, 2));
+        assertArrayEquals(new long[]{3, 4}, after.findGap(ORIGIN, 5));
+    }
+
+    @Test
+    public void appliedSequencesAreWrittenPeriodically() throws Exception {
+        final Path file = temporaryFolder.getRoot().toPath().resolve("jms.applied");
+        final AppliedSequences applied = new AppliedSequences(file);
+        try {
+            applied.put(ORIGIN, 1);
+            assertFalse(Files.exists(file));
+
+            final long deadline = System.currentTimeMillis() + 10_000;
+            while (!Files.exists(file) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(Long.valueOf(1), new AppliedSequences(file).get(ORIGIN));
+
+        } finally {
+            applied.close();
+        }
+    }
+
+    @Test
+    public void skippedNumbersAreNoGap() {
+        final SequenceTracker tracker = new SequenceTracker();
+        tracker.findGap(ORIGIN, 1);
+        tracker.recordApplied(ORIGIN, 1);
+        tracker.recordApplied(ORIGIN, 2);
+
+        // Publisher restarted without clean shutdown, 3-1000 were reserved but not issued
+        assertNull(tracker.findGap(ORIGIN, 1001, new long[]{3, 1000}));
+        tracker.recordApplied(ORIGIN, 1001);
+
+        final SequenceTracker.Origin state = tracker.getOrigins().get(ORIGIN);
+        assertEquals(1001, state.getContiguous());
+        assertEquals(0, state.getGaps());
+    }
+
+    @Test
+    public void gapBeforeSkippedNumbers() {
+        final SequenceTracker tracker = new SequenceTracker();
+        tracker.findGap(ORIGIN, 1);
+        tracker.recordApplied(ORIGIN, 1);
+
+        // 2 was missed before the publisher restarted, 3-1000 were not issued
+        assertArrayEquals(new long[]{2, 2}, tracker.findGap(ORIGIN, 1001, new long[]{3, 1000}));
+    }
+}
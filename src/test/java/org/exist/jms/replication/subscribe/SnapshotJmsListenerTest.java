@@ -0,0 +1,75 @@
+package org.exist.jms.replication.subscribe;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.exist.jms.replication.publish.PublisherSequence;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.receive.ReplySessionPool;
+import org.exist.jms.shared.send.FakeJms;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.jms.Connection;
+
+import java.util.Map;
+
+import static org.exist.jms.replication.subscribe.ReplicationJmsListenerTest.createDocumentMessage;
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class SnapshotJmsListenerTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    private static final String DESTINATION = "dynamicQueues/snapshot";
+
+    private ReplicationJmsListener listener;
+    private JmsConfiguration config;
+
+    @Before
+    public void setUp() throws Exception {
+        FakeJms.reset();
+        config = FakeJms.createConfiguration(DESTINATION);
+
+        listener = new ReplicationJmsListener(existEmbeddedServer.getBrokerPool(), "subscriber");
+        listener.onMessage(createDocumentMessage("/db/snapshot/a.xml", "<a/>"));
+
+        final Connection connection = SnapshotLoader.createConnection(SnapshotLoader.createContext(config), config);
+        final SnapshotJmsListener snapshot = new SnapshotJmsListener(existEmbeddedServer.getBrokerPool());
+        snapshot.setReplySessions(new ReplySessionPool(connection));
+        FakeJms.createSession().createConsumer(new ActiveMQQueue(DESTINATION)).setMessageListener(snapshot);
+    }
+
+    @Test
+    public void watermarkPerShard() throws Exception {
+        final PublisherSequence sequence = PublisherSequence.getInstance();
+        sequence.release(2, sequence.next(2));
+        final long committed = sequence.next(2);
+        sequence.release(2, committed);
+
+        // Not committed while the snapshot is taken
+        final long pending = sequence.next(2);
+        try {
+            final SnapshotLoader loader = new SnapshotLoader(config, listener);
+            loader.load("/db/snapshot", 10_000);
+
+            final Map<Integer, Long> watermarks = loader.getWatermarks();
+            assertEquals(committed, (long) watermarks.get(2));
+            assertEquals(sequence.getSnapshotWatermark(0), loader.getWatermark());
+            assertEquals(1, loader.getDocuments());
+
+        } finally {
+            sequence.release(2, pending);
+        }
+    }
+
+    @Test
+    public void watermarkProperty() {
+        assertEquals(SnapshotJmsListener.EXIST_SNAPSHOT_WATERMARK, SnapshotJmsListener.getWatermarkProperty(0));
+        assertEquals(SnapshotJmsListener.EXIST_SNAPSHOT_WATERMARK + ".3", SnapshotJmsListener.getWatermarkProperty(3));
+    }
+}
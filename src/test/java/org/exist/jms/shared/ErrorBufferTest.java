@@ -0,0 +1,78 @@
+package org.exist.jms.shared;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.exist.jms.shared.ReportItem.CONTEXT;
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class ErrorBufferTest {
+
+    @Test
+    public void oldestErrorIsDropped() {
+        final ErrorBuffer buffer = new ErrorBuffer();
+        buffer.configure(3, false);
+
+        for (int i = 0; i < 5; i++) {
+            buffer.add(new IllegalStateException("error " + i), CONTEXT.LISTENER);
+        }
+
+        final List<ReportItem> items = buffer.getItems();
+        assertEquals(3, items.size());
+        assertEquals("error 2", items.get(0).getMessage());
+        assertEquals("error 4", items.get(2).getMessage());
+        assertEquals(5, buffer.getTotal());
+        assertEquals(2, buffer.getDropped());
+        assertEquals(5, buffer.getLastMinuteCount());
+    }
+
+    @Test
+    public void identicalErrorsAreCounted() {
+        final ErrorBuffer buffer = new ErrorBuffer();
+        buffer.configure(10, true);
+
+        buffer.add(new IllegalStateException("same"), CONTEXT.LISTENER);
+        buffer.add(new IllegalStateException("same"), CONTEXT.LISTENER);
+        buffer.add(new IllegalStateException("same"), CONTEXT.CONNECTION);
+        buffer.add(new IllegalStateException("other"), CONTEXT.LISTENER);
+
+        final List<ReportItem> items = buffer.getItems();
+        assertEquals(3, items.size());
+        assertEquals(2, items.get(0).getCount());
+        assertEquals(4, buffer.getTotal());
+        assertEquals(0, buffer.getDropped());
+    }
+
+    @Test
+    public void countsPerType() {
+        final ErrorBuffer buffer = new ErrorBuffer();
+
+        buffer.add(new IllegalStateException("a"), CONTEXT.LISTENER);
+        buffer.add(new IllegalStateException("b"), CONTEXT.LISTENER);
+        buffer.add(new IllegalArgumentException("c"), CONTEXT.RECEIVER);
+
+        final Map<String, Long> counts = buffer.getCountPerType();
+        assertEquals(2L, counts.get("listener:IllegalStateException").longValue());
+        assertEquals(1L, counts.get("receiver:IllegalArgumentException").longValue());
+    }
+
+    @Test
+    public void clear() {
+        final ErrorBuffer buffer = new ErrorBuffer();
+        buffer.configure(1, false);
+        buffer.add(new IllegalStateException("a"), CONTEXT.LISTENER);
+        buffer.add(new IllegalStateException("b"), CONTEXT.LISTENER);
+
+        buffer.clear();
+
+        assertTrue(buffer.getItems().isEmpty());
+        assertEquals(0, buffer.getTotal());
+        assertEquals(0, buffer.getDropped());
+        assertTrue(buffer.getCountPerType().isEmpty());
+    }
+}
@@ -0,0 +1,75 @@
+package org.exist.jms.shared;
+
+import org.exist.jms.replication.shared.ReplicationGuard;
+import org.exist.jms.replication.shared.ReplicationGuardMXBean;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class JmxSupportTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void replicationCanBeSwitched() throws Exception {
+        final ReplicationGuard guard = ReplicationGuard.getInstance();
+        final ObjectName name = new ObjectName(JmxSupport.DOMAIN + ":type=ReplicationGuard");
+
+        assertTrue(server.isRegistered(name));
+        try {
+            server.setAttribute(name, new Attribute("ReplicationEnabled", false));
+            assertFalse(guard.isReplicationEnabled());
+            assertEquals(false, server.getAttribute(name, "ReplicationEnabled"));
+
+        } finally {
+            guard.setReplicationEnabled(true);
+        }
+    }
+
+    @Test
+    public void registerReplacesMBean() throws Exception {
+        final ObjectName name = new ObjectName(JmxSupport.DOMAIN + ":type=Test");
+
+        JmxSupport.register("type=Test", new Switch(true));
+        JmxSupport.register("type=Test", new Switch(false));
+        assertEquals(false, server.getAttribute(name, "ReplicationEnabled"));
+
+        JmxSupport.unregister("type=Test");
+        assertFalse(server.isRegistered(name));
+
+        // Not registered is not a problem
+        JmxSupport.unregister("type=Test");
+    }
+
+    @Test
+    public void invalidNameIsNotThrown() {
+        JmxSupport.register("no-key-value", new Switch(true));
+    }
+
+    public static class Switch implements ReplicationGuardMXBean {
+
+        private boolean enabled;
+
+        Switch(final boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        @Override
+        public boolean isReplicationEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public void setReplicationEnabled(final boolean newStatus) {
+            enabled = newStatus;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.exist.jms.shared;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void empty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000, histogram.getMax());
+        assertEquals(100_000L * 100_001 / 2, histogram.getSum());
+
+        assertPercentile(50_000, histogram.getPercentile(0.5));
+        assertPercentile(90_000, histogram.getPercentile(0.9));
+        assertPercentile(99_000, histogram.getPercentile(0.99));
+        assertEquals(100_000, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 8; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(3, histogram.getPercentile(0.5));
+        assertEquals(7, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void negativeIsCountedAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void largeValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void clear() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.clear();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    /**
+     * The percentile is the upper bound of a bucket, at most 12.5% above the exact value.
+     */
+    private static void assertPercentile(final long expected, final long actual) {
+        assertTrue("Percentile " + actual + " below " + expected, actual >= expected);
+        assertTrue("Percentile " + actual + " above " + expected + " + 12.5%", actual <= expected * 1.125);
+    }
+}
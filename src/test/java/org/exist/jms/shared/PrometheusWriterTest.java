@@ -0,0 +1,80 @@
+package org.exist.jms.shared;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class PrometheusWriterTest {
+
+    @Test
+    public void counter() {
+        final String text = new PrometheusWriter()
+                .family("exist_jms_messages_total", PrometheusWriter.COUNTER, "Messages received")
+                .sample("exist_jms_messages_total", PrometheusWriter.labels("receiver", "1"), 42)
+                .sample("exist_jms_messages_total", "", 43)
+                .toString();
+
+        assertEquals("# HELP exist_jms_messages_total Messages received\n"
+                + "# TYPE exist_jms_messages_total counter\n"
+                + "exist_jms_messages_total{receiver=\"1\"} 42\n"
+                + "exist_jms_messages_total 43\n", text);
+    }
+
+    @Test
+    public void labelsAreEscaped() {
+        assertEquals("a=\"x\\\"y\",b=\"c:\\\\d\",c=\"1\\n2\",d=\"\"",
+                PrometheusWriter.labels("a", "x\"y", "b", "c:\\d", "c", "1\n2", "d", null));
+    }
+
+    @Test
+    public void helpIsEscaped() {
+        final String text = new PrometheusWriter().family("m", PrometheusWriter.GAUGE, "a\\b\nc").toString();
+        assertTrue(text.startsWith("# HELP m a\\\\b\\nc\n"));
+    }
+
+    @Test
+    public void specialValues() {
+        final String text = new PrometheusWriter()
+                .sample("a", "", Double.NaN)
+                .sample("b", "", Double.POSITIVE_INFINITY)
+                .sample("c", "", Double.NEGATIVE_INFINITY)
+                .sample("d", "", 0.25)
+                .toString();
+
+        assertEquals("a NaN\nb +Inf\nc -Inf\nd 0.25\n", text);
+    }
+
+    @Test
+    public void summary() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(2_000_000_000L);
+        histogram.record(2_000_000_000L);
+
+        final String text = new PrometheusWriter()
+                .summary("latency_seconds", PrometheusWriter.labels("stage", "parse"), histogram, 1e-9)
+                .toString();
+
+        final String[] lines = text.split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[0].startsWith("latency_seconds{stage=\"parse\",quantile=\"0.5\"} "));
+        assertTrue(lines[1].startsWith("latency_seconds{stage=\"parse\",quantile=\"0.95\"} "));
+        assertTrue(lines[2].startsWith("latency_seconds{stage=\"parse\",quantile=\"0.99\"} "));
+        assertEquals("latency_seconds_sum{stage=\"parse\"} 4.0", lines[3]);
+        assertEquals("latency_seconds_count{stage=\"parse\"} 2", lines[4]);
+
+        // Percentiles are in seconds, within the precision of the histogram
+        final double median = Double.parseDouble(lines[0].substring(lines[0].indexOf("} ") + 2));
+        assertEquals(2.0, median, 0.2);
+    }
+
+    @Test
+    public void summaryWithoutLabels() {
+        final String text = new PrometheusWriter().summary("s", "", new LatencyHistogram(), 1).toString();
+
+        assertTrue(text.startsWith("s{quantile=\"0.5\"} "));
+        assertTrue(text.endsWith("s_sum 0.0\ns_count 0\n"));
+    }
+}
@@ -0,0 +1,72 @@
+package org.exist.jms.shared;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class RateCounterTest {
+
+    @Test
+    public void eventsAreCounted() {
+        final RateCounter counter = new RateCounter();
+        counter.increment();
+        counter.increment();
+        counter.add(40);
+
+        assertEquals(42, counter.getLastMinuteCount());
+        assertEquals(42 / 60d, counter.getRatePerSecond(), 0.0001);
+    }
+
+    @Test
+    public void seriesHasOneValuePerSecond() {
+        final RateCounter counter = new RateCounter();
+        counter.add(5);
+
+        final long[] series = counter.getSeries();
+        assertEquals(RateCounter.WINDOW_SECONDS, series.length);
+
+        // Current second is last, unless the second passed in between
+        long total = 0;
+        for (final long count : series) {
+            total += count;
+        }
+        assertEquals(5, total);
+        assertTrue(series[series.length - 1] == 5 || series[series.length - 2] == 5);
+    }
+
+    @Test
+    public void countingIsThreadSafe() throws InterruptedException {
+        final RateCounter counter = new RateCounter();
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    counter.increment();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40_000, counter.getLastMinuteCount());
+    }
+
+    @Test
+    public void clear() {
+        final RateCounter counter = new RateCounter();
+        counter.add(10);
+
+        counter.clear();
+
+        assertEquals(0, counter.getLastMinuteCount());
+    }
+}
@@ -0,0 +1,56 @@
+package org.exist.jms.shared;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void unlimited() throws InterruptedException {
+        final RateLimiter limiter = new RateLimiter(0);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire(1_000_000);
+        }
+
+        assertTrue(elapsedMillis(start) < 1000);
+    }
+
+    @Test
+    public void rateIsLimited() throws InterruptedException {
+        final RateLimiter limiter = new RateLimiter(100);
+
+        // The first permit is free, the other 20 take 10ms each
+        final long start = System.nanoTime();
+        for (int i = 0; i < 21; i++) {
+            limiter.acquire(1);
+        }
+
+        assertTrue(elapsedMillis(start) >= 190);
+    }
+
+    @Test
+    public void largeRequestIsPaidByNextRequest() throws InterruptedException {
+        final RateLimiter limiter = new RateLimiter(1000);
+
+        // Granted at once, larger than a second of permits
+        long start = System.nanoTime();
+        limiter.acquire(300);
+        assertTrue(elapsedMillis(start) < 250);
+
+        start = System.nanoTime();
+        limiter.acquire(1);
+        assertTrue(elapsedMillis(start) >= 250);
+    }
+
+    private static long elapsedMillis(final long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
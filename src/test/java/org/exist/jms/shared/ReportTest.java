@@ -0,0 +1,131 @@
+package org.exist.jms.shared;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class ReportTest {
+
+    @Test
+    public void stagesAreRecorded() {
+        final Report report = new Report();
+
+        final long start = report.start();
+        report.record(Report.Stage.DECOMPRESS, System.nanoTime());
+        report.record(Report.Stage.PARSE, System.nanoTime());
+        final long total = report.stop(start);
+
+        assertEquals(1, report.getLatency(Report.Stage.DECOMPRESS).getCount());
+        assertEquals(1, report.getLatency(Report.Stage.PARSE).getCount());
+        assertEquals(0, report.getLatency(Report.Stage.STORE).getCount());
+        assertEquals(1, report.getLatency(Report.Stage.TOTAL).getCount());
+        assertTrue(total > 0);
+
+        // Only the stages of the message, without the total
+        final Map<String, Long> stageTimes = report.getStageTimes();
+        assertEquals(2, stageTimes.size());
+        assertTrue(stageTimes.containsKey("decompress"));
+        assertTrue(stageTimes.containsKey("parse"));
+    }
+
+    @Test
+    public void stageTimesAreResetPerMessage() {
+        final Report report = new Report();
+
+        report.start();
+        report.record(Report.Stage.STORE, System.nanoTime());
+        report.start();
+
+        assertTrue(report.getStageTimes().isEmpty());
+        assertEquals(1, report.getLatency(Report.Stage.STORE).getCount());
+    }
+
+    @Test
+    public void countersAreThreadSafe() throws InterruptedException {
+        final Report report = new Report();
+        final int nrThreads = 8;
+        final int nrMessages = 10_000;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        final CountDownLatch done = new CountDownLatch(nrThreads);
+        for (int t = 0; t < nrThreads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < nrMessages; i++) {
+                    report.incMessageCounterTotal();
+                    if (i % 2 == 0) {
+                        report.incMessageCounterOK();
+                    }
+                    report.addBytes(10);
+                }
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(nrThreads * nrMessages, report.getMessageCounterTotal());
+        assertEquals(nrThreads * nrMessages / 2, report.getMessageCounterOK());
+        assertEquals(nrThreads * nrMessages / 2, report.getMessageCounterNOK());
+        assertEquals(nrThreads * nrMessages * 10L, report.getByteCounterTotal());
+    }
+
+    @Test
+    public void bytesAreCounted() {
+        final Report report = new Report();
+        report.addBytes(100);
+        report.addBytes(28);
+
+        assertEquals(128, report.getByteCounterTotal());
+        assertEquals(128, sum(report.getByteSeries()));
+
+        report.clear();
+        assertEquals(0, report.getByteCounterTotal());
+        assertEquals(0, sum(report.getByteSeries()));
+    }
+
+    @Test
+    public void slowThreshold() {
+        final Report report = new Report();
+        assertFalse(report.isSlow(TimeUnit.MILLISECONDS.toNanos(SlowOperationLog.DEFAULT_THRESHOLD_MS)));
+        assertTrue(report.isSlow(TimeUnit.MILLISECONDS.toNanos(SlowOperationLog.DEFAULT_THRESHOLD_MS + 1)));
+
+        report.setSlowThreshold(10);
+        assertTrue(report.isSlow(TimeUnit.MILLISECONDS.toNanos(11)));
+
+        // Disabled
+        report.setSlowThreshold(0);
+        assertFalse(report.isSlow(TimeUnit.HOURS.toNanos(1)));
+    }
+
+    @Test
+    public void clearResetsCounters() {
+        final Report report = new Report();
+        report.incMessageCounterTotal();
+        report.record(Report.Stage.PARSE, System.nanoTime());
+        report.addListenerError(new IllegalStateException("failed"));
+
+        report.clear();
+
+        assertEquals(0, report.getMessageCounterTotal());
+        assertEquals(0, report.getLatency(Report.Stage.PARSE).getCount());
+        assertTrue(report.getErrorMessages().isEmpty());
+    }
+
+    private static long sum(final long[] series) {
+        long sum = 0;
+        for (final long value : series) {
+            sum += value;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,107 @@
+package org.exist.jms.shared;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class SlowOperationLogTest {
+
+    private final Logger logger = (Logger) LogManager.getLogger("org.exist.jms.slow");
+    private final CollectingAppender appender = new CollectingAppender();
+
+    @Before
+    public void setUp() {
+        appender.start();
+        logger.addAppender(appender);
+        logger.setLevel(Level.WARN);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeAppender(appender);
+        appender.stop();
+    }
+
+    @Test
+    public void entryIsFormatted() throws InterruptedException {
+        final Map<String, Long> stages = new LinkedHashMap<>();
+        stages.put("parse", TimeUnit.MILLISECONDS.toNanos(1200));
+        stages.put("store", TimeUnit.MICROSECONDS.toNanos(300));
+
+        awaitNewSecond();
+        SlowOperationLog.log("apply", "receiver=1", "/db/a.xml", 2048, TimeUnit.MILLISECONDS.toNanos(1500), stages);
+
+        final List<String> messages = appender.await(1);
+        assertEquals("Slow apply: receiver=1 path='/db/a.xml' size=2048 total=1500.0ms stages=[ parse=1200.0ms store=0.3ms ]",
+                messages.get(0));
+    }
+
+    @Test
+    public void entriesAreRateLimited() throws InterruptedException {
+        awaitNewSecond();
+        for (int i = 0; i < SlowOperationLog.MAX_ENTRIES_PER_SECOND + 5; i++) {
+            SlowOperationLog.log("send", "sender", "ID:" + i, 0, 0, null);
+        }
+
+        assertEquals(SlowOperationLog.MAX_ENTRIES_PER_SECOND, appender.await(SlowOperationLog.MAX_ENTRIES_PER_SECOND).size());
+
+        // Suppressed entries are reported with the next entry
+        awaitNewSecond();
+        SlowOperationLog.log("send", "sender", "ID:next", 0, 0, Collections.emptyMap());
+
+        final List<String> messages = appender.await(SlowOperationLog.MAX_ENTRIES_PER_SECOND + 1);
+        assertEquals("Slow send: sender path='ID:next' size=0 total=0.0ms suppressed=5", messages.get(messages.size() - 1));
+    }
+
+    /**
+     * Wait for the start of the next second, rate limiting is per second.
+     */
+    private static void awaitNewSecond() throws InterruptedException {
+        Thread.sleep(1000 - System.currentTimeMillis() % 1000);
+    }
+
+    private static class CollectingAppender extends AbstractAppender {
+
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+        CollectingAppender() {
+            super("collecting", null, null, true, Property.EMPTY_ARRAY);
+        }
+
+        @Override
+        public void append(final LogEvent event) {
+            messages.add(event.getMessage().getFormattedMessage());
+        }
+
+        /**
+         * Entries are written by a background thread.
+         */
+        List<String> await(final int count) throws InterruptedException {
+            final long end = System.currentTimeMillis() + 10_000;
+            while (messages.size() < count && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            synchronized (messages) {
+                return new ArrayList<>(messages);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.exist.jms.shared;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class TracerTest {
+
+    @Before
+    public void setUp() {
+        Tracer.clear();
+        Tracer.end();
+    }
+
+    @Test
+    public void sample() {
+        assertNull(Tracer.sample(0));
+        assertNull(Tracer.sample(-1));
+
+        final String traceId = Tracer.sample(1);
+        assertNotNull(traceId);
+        assertTrue(traceId.matches("[0-9a-f]{32}"));
+        assertNotEquals(traceId, Tracer.sample(1));
+    }
+
+    @Test
+    public void untracedMessageIsNotRecorded() {
+        Tracer.record(null, "send", "sender", System.nanoTime());
+
+        Tracer.begin(null, "receiver=1");
+        Tracer.recordCurrent("store", 1_000);
+        Tracer.end();
+
+        assertTrue(Tracer.getSpans(null).isEmpty());
+    }
+
+    @Test
+    public void spansOfCurrentMessage() {
+        Tracer.begin("trace-1", "receiver=1");
+        Tracer.recordCurrent("parse", 2_000);
+        Tracer.recordCurrent("store", 3_000);
+        Tracer.end();
+
+        // After the end the thread is not tracing anymore
+        Tracer.recordCurrent("store", 3_000);
+
+        final List<Span> spans = Tracer.getSpans("trace-1");
+        assertEquals(2, spans.size());
+        assertEquals("parse", spans.get(0).getName());
+        assertEquals("receiver=1", spans.get(0).getResource());
+        assertEquals(2, spans.get(0).getDurationMicros());
+        assertEquals("store", spans.get(1).getName());
+        assertEquals(3_000, spans.get(1).getEndTimeUnixNano() - spans.get(1).getStartTimeUnixNano());
+    }
+
+    @Test
+    public void spansPerTrace() {
+        Tracer.record("trace-1", "serialize", "sender", System.nanoTime());
+        Tracer.record("trace-2", "serialize", "sender", System.nanoTime());
+        Tracer.record("trace-1", "send", "sender", System.nanoTime());
+
+        assertEquals(2, Tracer.getSpans("trace-1").size());
+        assertEquals(1, Tracer.getSpans("trace-2").size());
+        assertEquals(3, Tracer.getSpans(null).size());
+    }
+
+    @Test
+    public void oldestSpansAreDropped() {
+        for (int i = 0; i < Tracer.CAPACITY + 10; i++) {
+            Tracer.record("trace-" + i, "send", "sender", System.nanoTime());
+        }
+
+        final List<Span> spans = Tracer.getSpans(null);
+        assertEquals(Tracer.CAPACITY, spans.size());
+        assertEquals("trace-10", spans.get(0).getTraceId());
+        assertEquals("trace-" + (Tracer.CAPACITY + 9), spans.get(spans.size() - 1).getTraceId());
+        assertTrue(Tracer.getSpans("trace-9").isEmpty());
+    }
+
+    @Test
+    public void toJson() {
+        final Span span = new Span("t", "s", "store", "receiver=\"1\"", 1_000, 500);
+
+        assertEquals("{\"traceId\":\"t\",\"spanId\":\"s\",\"name\":\"store\",\"startTimeUnixNano\":1000,"
+                + "\"endTimeUnixNano\":1500,\"attributes\":{\"exist.resource\":\"receiver=\\\"1\\\"\"}}", span.toJson());
+    }
+}
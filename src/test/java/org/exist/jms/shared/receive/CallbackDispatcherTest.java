@@ -0,0 +1,98 @@
+package org.exist.jms.shared.receive;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class CallbackDispatcherTest {
+
+    private static final int NR_TASKS = 500;
+
+    private CallbackDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        dispatcher = new CallbackDispatcher(1, 4, "platform", true);
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void groupIsExecutedInOrder() throws InterruptedException {
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(NR_TASKS);
+
+        for (int i = 0; i < NR_TASKS; i++) {
+            final int task = i;
+            dispatcher.dispatch("group", () -> {
+                executed.add(task);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        for (int i = 0; i < NR_TASKS; i++) {
+            assertEquals(i, executed.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void groupsAreIndependent() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch other = new CountDownLatch(8);
+
+        // Hot group with a blocked task and tasks queued behind it
+        for (int i = 0; i < 8; i++) {
+            dispatcher.dispatch("hot", () -> {
+                try {
+                    release.await();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        for (int i = 0; i < 8; i++) {
+            dispatcher.dispatch("other" + i, other::countDown);
+        }
+
+        try {
+            assertTrue(other.await(30, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void ungroupedTasksAreExecuted() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(NR_TASKS);
+
+        for (int i = 0; i < NR_TASKS; i++) {
+            dispatcher.dispatch(null, done::countDown);
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectedAfterShutdown() throws InterruptedException {
+        dispatcher.shutdown();
+
+        dispatcher.dispatch(null, () -> fail("Task executed after shutdown"));
+    }
+}
@@ -0,0 +1,63 @@
+package org.exist.jms.shared.send;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class AsyncSendExecutorTest {
+
+    @Test
+    public void sendsOfKeyAreInOrder() throws InterruptedException {
+        final List<Integer> sent = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            final int number = i;
+            AsyncSendExecutor.execute("tcp://localhost dynamicQueues/ordered", () -> {
+                sent.add(number);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) sent.get(i));
+        }
+    }
+
+    @Test
+    public void slowKeyDoesNotHoldOtherKeys() throws InterruptedException {
+        final String slow = "tcp://localhost dynamicQueues/slow";
+        String other = "tcp://localhost dynamicQueues/other";
+        for (int i = 0; AsyncSendExecutor.getThread(other) == AsyncSendExecutor.getThread(slow); i++) {
+            other = "tcp://localhost dynamicQueues/other-" + i;
+        }
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        try {
+            AsyncSendExecutor.execute(slow, () -> {
+                try {
+                    blocked.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            AsyncSendExecutor.execute(other, done::countDown);
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        } finally {
+            blocked.countDown();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.exist.jms.shared.send;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.junit.Test;
+
+import javax.jms.JMSException;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class BytesMessageOutputStreamTest {
+
+    @Test
+    public void writesIntoMessageBody() throws IOException, JMSException {
+        final ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+
+        try (final BytesMessageOutputStream os = new BytesMessageOutputStream(message)) {
+            os.write(1);
+            os.write(new byte[]{9, 2, 3, 4, 9}, 1, 3);
+            assertEquals(4, os.getCount());
+        }
+
+        message.reset();
+        final byte[] body = new byte[(int) message.getBodyLength()];
+        message.readBytes(body);
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, body);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnReadOnlyMessage() throws IOException {
+        final ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+        message.setReadOnlyBody(true);
+
+        try (final BytesMessageOutputStream os = new BytesMessageOutputStream(message)) {
+            os.write(new byte[]{1, 2, 3}, 0, 3);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package org.exist.jms.shared.send;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.ActiveMQObjectMessage;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTempQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.JmsConfiguration;
+
+import javax.jms.*;
+import javax.naming.Context;
+import javax.naming.spi.InitialContextFactory;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory JMS provider for tests, registered as JNDI initial context factory. Sent messages
+ * are recorded, delivered to the listener of their destination, or queued for receive() when
+ * the destination has no listener, and can be answered automatically when they have a
+ * JMSReplyTo destination.
+ *
+ * @author Dannes Wessels
+ */
+public class FakeJms implements InitialContextFactory {
+
+    public static final String CONNECTION_FACTORY = "ConnectionFactory";
+
+    private static final List<Message> SENT = Collections.synchronizedList(new ArrayList<>());
+    private static final Map<Destination, MessageListener> LISTENERS = Collections.synchronizedMap(new HashMap<>());
+    private static final Map<Destination, BlockingQueue<Message>> QUEUES = new ConcurrentHashMap<>();
+    private static final Set<String> CLIENT_IDS = Collections.synchronizedSet(new HashSet<>());
+    private static final AtomicInteger SENDS = new AtomicInteger();
+    private static final AtomicInteger COMMITS = new AtomicInteger();
+    private static final AtomicInteger ROLLBACKS = new AtomicInteger();
+    private static final AtomicInteger RECOVERS = new AtomicInteger();
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private static volatile int failingSend = 0;
+    private static volatile int lastFailingSend = 0;
+    private static volatile boolean reply = true;
+
+    static {
+        // Identity of the instance is written into eXist home
+        if (System.getProperty("exist.home") == null) {
+            try {
+                System.setProperty("exist.home", Files.createTempDirectory("exist-home").toString());
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Forget all messages and settings.
+     */
+    public static void reset() {
+        SENT.clear();
+        LISTENERS.clear();
+        QUEUES.clear();
+        CLIENT_IDS.clear();
+        SENDS.set(0);
+        COMMITS.set(0);
+        ROLLBACKS.set(0);
+        RECOVERS.set(0);
+        failingSend = 0;
+        lastFailingSend = 0;
+        reply = true;
+    }
+
+    /**
+     * @param destination Name of the destination
+     * @return Configuration that sends via this provider, without connection pool.
+     */
+    public static JmsConfiguration createConfiguration(final String destination) {
+        final JmsConfiguration config = new JmsConfiguration();
+        config.setProperty(Context.INITIAL_CONTEXT_FACTORY, FakeJms.class.getName());
+        config.setProperty(Context.PROVIDER_URL, "fake://localhost");
+        config.setProperty(Constants.CONNECTION_FACTORY, CONNECTION_FACTORY);
+        config.setProperty(Constants.DESTINATION, destination);
+        config.setProperty("exist.connection.pool", "");
+        return config;
+    }
+
+    /**
+     * @return Messages delivered to the broker, transacted messages after commit.
+     */
+    public static List<Message> getSent() {
+        synchronized (SENT) {
+            return new ArrayList<>(SENT);
+        }
+    }
+
+    public static int getCommits() {
+        return COMMITS.get();
+    }
+
+    public static int getRollbacks() {
+        return ROLLBACKS.get();
+    }
+
+    public static int getRecovers() {
+        return RECOVERS.get();
+    }
+
+    /**
+     * @param number The n-th send that fails from now on, 0 for no failure.
+     */
+    public static void failSend(final int number) {
+        failSend(number, 1);
+    }
+
+    /**
+     * @param number The n-th send that fails from now on, 0 for no failure.
+     * @param count  Number of consecutive sends that fail
+     */
+    public static void failSend(final int number, final int count) {
+        failingSend = (number == 0) ? 0 : SENDS.get() + number;
+        lastFailingSend = (number == 0) ? 0 : failingSend + count - 1;
+    }
+
+    /**
+     * @param value TRUE when requests with JMSReplyTo are answered with an empty text message.
+     */
+    public static void setReply(final boolean value) {
+        reply = value;
+    }
+
+    /**
+     * @return Session that is not bound to a connection, e.g. for a receiver under test.
+     */
+    public static Session createSession() {
+        return session(false);
+    }
+
+    @Override
+    public Context getInitialContext(final Hashtable<?, ?> environment) {
+        return proxy(Context.class, (proxy, method, args) -> {
+            if ("lookup".equals(method.getName())) {
+                final String name = String.valueOf(args[0]);
+                return CONNECTION_FACTORY.equals(name) ? connectionFactory() : new ActiveMQQueue(name);
+            }
+            return defaultValue(method.getReturnType());
+        });
+    }
+
+    private static ConnectionFactory connectionFactory() {
+        return proxy(ConnectionFactory.class, (proxy, method, args) -> {
+            if ("createConnection".equals(method.getName())) {
+                return connection();
+            }
+            return defaultValue(method.getReturnType());
+        });
+    }
+
+    private static Connection connection() {
+        final String[] clientId = new String[1];
+        return proxy(Connection.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "setClientID":
+                    if (!CLIENT_IDS.add((String) args[0])) {
+                        throw new InvalidClientIDException("Client ID in use: " + args[0]);
+                    }
+                    clientId[0] = (String) args[0];
+                    return null;
+                case "getClientID":
+                    return clientId[0];
+                case "createSession":
+                    return session((Boolean) args[0]);
+                case "close":
+                    if (clientId[0] != null) {
+                        CLIENT_IDS.remove(clientId[0]);
+                        clientId[0] = null;
+                    }
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static Session session(final boolean transacted) {
+        final List<Message> pending = new ArrayList<>();
+        return proxy(Session.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getTransacted":
+                    return transacted;
+                case "createMessage":
+                    return new ActiveMQMessage();
+                case "createBytesMessage":
+                    return new ActiveMQBytesMessage();
+                case "createObjectMessage":
+                    return new ActiveMQObjectMessage();
+                case "createTextMessage": {
+                    final TextMessage message = new ActiveMQTextMessage();
+                    if (args != null) {
+                        message.setText((String) args[0]);
+                    }
+                    return message;
+                }
+                case "createTemporaryQueue":
+                    return new ActiveMQTempQueue("temp-" + IDS.incrementAndGet());
+                case "createProducer":
+                    return producer((Destination) args[0], transacted ? pending : null);
+                case "createConsumer":
+                    return consumer((Destination) args[0]);
+                case "commit":
+                    COMMITS.incrementAndGet();
+                    for (final Message message : pending) {
+                        deliver(message);
+                    }
+                    pending.clear();
+                    return null;
+                case "rollback":
+                    ROLLBACKS.incrementAndGet();
+                    pending.clear();
+                    return null;
+                case "recover":
+                    RECOVERS.incrementAndGet();
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static MessageConsumer consumer(final Destination destination) {
+        return proxy(MessageConsumer.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "setMessageListener":
+                    LISTENERS.put(destination, (MessageListener) args[0]);
+                    return null;
+                case "receive":
+                    return args == null
+                            ? getQueue(destination).take()
+                            : getQueue(destination).poll((Long) args[0], TimeUnit.MILLISECONDS);
+                case "receiveNoWait":
+                    return getQueue(destination).poll();
+                case "close":
+                    LISTENERS.remove(destination);
+                    return null;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * @param pending Messages of the transaction, NULL when not transacted
+     */
+    private static MessageProducer producer(final Destination destination, final List<Message> pending) {
+        final long[] settings = {Message.DEFAULT_DELIVERY_MODE, Message.DEFAULT_PRIORITY, Message.DEFAULT_TIME_TO_LIVE};
+        return proxy(MessageProducer.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "setDeliveryMode":
+                    settings[0] = (Integer) args[0];
+                    return null;
+                case "getDeliveryMode":
+                    return (int) settings[0];
+                case "setPriority":
+                    settings[1] = (Integer) args[0];
+                    return null;
+                case "getPriority":
+                    return (int) settings[1];
+                case "setTimeToLive":
+                    settings[2] = (Long) args[0];
+                    return null;
+                case "getTimeToLive":
+                    return settings[2];
+                case "getDestination":
+                    return destination;
+                case "send": {
+                    // send(message) or send(message, deliveryMode, priority, timeToLive)
+                    final Message message = (Message) args[0];
+                    final boolean explicit = args.length == 4;
+                    send(destination, message,
+                            explicit ? (Integer) args[1] : (int) settings[0],
+                            explicit ? (Integer) args[2] : (int) settings[1],
+                            explicit ? (Long) args[3] : settings[2],
+                            pending);
+                    return null;
+                }
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static void send(final Destination destination, final Message message, final int deliveryMode,
+                             final int priority, final long timeToLive, final List<Message> pending) throws JMSException {
+
+        final int number = SENDS.incrementAndGet();
+        if (failingSend > 0 && number >= failingSend && number <= lastFailingSend) {
+            throw new JMSException("Send failed");
+        }
+
+        message.setJMSDestination(destination);
+        message.setJMSMessageID("ID:fake-" + IDS.incrementAndGet());
+        message.setJMSDeliveryMode(deliveryMode);
+        message.setJMSPriority(priority);
+        message.setJMSExpiration(timeToLive > 0 ? System.currentTimeMillis() + timeToLive : 0);
+
+        // The message as received by a consumer
+        final ActiveMQMessage copy = (ActiveMQMessage) ((ActiveMQMessage) message).copy();
+        copy.setReadOnlyBody(true);
+        copy.setReadOnlyProperties(true);
+
+        if (pending == null) {
+            deliver(copy);
+        } else {
+            pending.add(copy);
+        }
+    }
+
+    private static void deliver(final Message message) throws JMSException {
+        SENT.add(message);
+
+        final MessageListener listener = LISTENERS.get(message.getJMSDestination());
+        if (listener != null) {
+            listener.onMessage(message);
+        } else {
+            getQueue(message.getJMSDestination()).add(message);
+        }
+
+        final Destination replyTo = message.getJMSReplyTo();
+        final MessageListener requester = (replyTo == null) ? null : LISTENERS.get(replyTo);
+        if (reply && requester != null) {
+            final TextMessage answer = new ActiveMQTextMessage();
+            answer.setJMSCorrelationID(message.getJMSCorrelationID());
+            answer.setJMSDestination(replyTo);
+            requester.onMessage(answer);
+        }
+    }
+
+    private static BlockingQueue<Message> getQueue(final Destination destination) {
+        return QUEUES.computeIfAbsent(destination, d -> new LinkedBlockingQueue<>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(FakeJms.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "Fake" + type.getSimpleName();
+                default:
+                    return handler.invoke(proxy, method, args);
+            }
+        });
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
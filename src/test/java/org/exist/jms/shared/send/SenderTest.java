@@ -0,0 +1,345 @@
+package org.exist.jms.shared.send;
+
+import org.apache.commons.io.IOUtils;
+import org.exist.jms.shared.Constants;
+import org.exist.jms.shared.ErrorCodes;
+import org.exist.jms.shared.JmsConfiguration;
+import org.exist.jms.shared.JmsMessageProperties;
+import org.exist.jms.shared.JmxSupport;
+import org.exist.jms.shared.Span;
+import org.exist.jms.shared.Tracer;
+import org.exist.jms.shared.eXistMessage;
+import org.exist.jms.shared.eXistMessageItem;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Base64BinaryValueType;
+import org.exist.xquery.value.BinaryValueFromBinaryString;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.StringValue;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class SenderTest {
+
+    private JmsConfiguration config;
+
+    @Before
+    public void setUp() {
+        FakeJms.reset();
+        config = FakeJms.createConfiguration("dynamicQueues/sender");
+    }
+
+    @Test
+    public void sendBatchCommitsAllMessages() throws XPathException, JMSException {
+        new Sender().sendBatch(config, Collections.singletonList(new JmsMessageProperties()), items("a", "b", "c"));
+
+        final List<Message> sent = FakeJms.getSent();
+        assertEquals(3, sent.size());
+        assertEquals("a", ((TextMessage) sent.get(0)).getText());
+        assertEquals("c", ((TextMessage) sent.get(2)).getText());
+        assertEquals(1, FakeJms.getCommits());
+        assertEquals(0, FakeJms.getRollbacks());
+    }
+
+    @Test
+    public void sendBatchUsesPropertiesPerItem() throws XPathException, JMSException {
+        final JmsMessageProperties first = new JmsMessageProperties();
+        first.setProperty("name", "first");
+        final JmsMessageProperties second = new JmsMessageProperties();
+        second.setProperty("name", "second");
+
+        new Sender().sendBatch(config, Arrays.asList(first, second), items("a", "b"));
+
+        final List<Message> sent = FakeJms.getSent();
+        assertEquals("first", sent.get(0).getStringProperty("name"));
+        assertEquals("second", sent.get(1).getStringProperty("name"));
+    }
+
+    @Test
+    public void sendBatchRollsBackOnFailure() {
+        FakeJms.failSend(2);
+
+        try {
+            new Sender().sendBatch(config, Collections.emptyList(), items("a", "b", "c"));
+            fail("Batch was sent");
+
+        } catch (final XPathException ex) {
+            assertEquals(ErrorCodes.JMS004, ex.getErrorCode());
+        }
+
+        assertTrue(FakeJms.getSent().isEmpty());
+        assertEquals(0, FakeJms.getCommits());
+        assertEquals(1, FakeJms.getRollbacks());
+    }
+
+    @Test
+    public void sendBatchRejectsMismatchingProperties() {
+        try {
+            new Sender().sendBatch(config, Arrays.asList(new JmsMessageProperties(), new JmsMessageProperties()), items("a", "b", "c"));
+            fail("Batch was sent");
+
+        } catch (final XPathException ex) {
+            assertEquals(ErrorCodes.JMS011, ex.getErrorCode());
+        }
+
+        assertTrue(FakeJms.getSent().isEmpty());
+        assertEquals(0, FakeJms.getRollbacks());
+    }
+
+    @Test
+    public void sendAsyncSendsInBackground() throws XPathException, InterruptedException, JMSException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> thread = new AtomicReference<>();
+
+        final SendResult result = new Sender().sendAsync(config, new JmsMessageProperties(), replicationItem(), new SendCompletionListener() {
+            @Override
+            public void onCompletion(final String messageId) {
+                thread.set(Thread.currentThread().getName());
+                done.countDown();
+            }
+
+            @Override
+            public void onException(final Throwable t) {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(result.isSuccess());
+        assertTrue(thread.get().startsWith("jms-async-sender-"));
+
+        final List<Message> sent = FakeJms.getSent();
+        assertEquals(1, sent.size());
+        assertEquals(result.getMessageId(), sent.get(0).getJMSMessageID());
+        assertEquals(3, ((BytesMessage) sent.get(0)).getBodyLength());
+    }
+
+    @Test
+    public void sendAsyncConnectsInBackground() throws XPathException, InterruptedException {
+        config.setProperty(Context.INITIAL_CONTEXT_FACTORY, "org.example.UnknownContextFactory");
+
+        // The caller is not affected by connection problems
+        final SendResult result = new Sender().sendAsync(config, new JmsMessageProperties(), replicationItem(), null);
+
+        assertTrue(result.await(10, TimeUnit.SECONDS));
+        assertFalse(result.isSuccess());
+        assertTrue(result.getFailure() instanceof NamingException);
+    }
+
+    @Test
+    public void sendAsyncReportsFailure() throws XPathException, InterruptedException {
+        FakeJms.failSend(1);
+        final long failed = Sender.getFailedCount();
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> reported = new AtomicReference<>();
+
+        final SendResult result = new Sender().sendAsync(config, new JmsMessageProperties(), replicationItem(), new SendCompletionListener() {
+            @Override
+            public void onCompletion(final String messageId) {
+                done.countDown();
+            }
+
+            @Override
+            public void onException(final Throwable t) {
+                reported.set(t);
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(result.isSuccess());
+        assertTrue(result.getFailure() instanceof JMSException);
+        assertSame(result.getFailure(), reported.get());
+        assertEquals(failed + 1, Sender.getFailedCount());
+        assertTrue(FakeJms.getSent().isEmpty());
+    }
+
+    @Test
+    public void sendMessageThrowsOnFailure() {
+        FakeJms.failSend(1);
+
+        try {
+            new Sender().sendMessage(config, new JmsMessageProperties(), replicationItem());
+            fail("Message was sent");
+
+        } catch (final XPathException ex) {
+            assertEquals(ErrorCodes.JMS004, ex.getErrorCode());
+        }
+    }
+
+    @Test
+    public void binaryIsStreamedCompressed() throws XPathException, JMSException, IOException {
+        final long payloadBytes = Sender.getPayloadBytes();
+
+        // Base64 of 0x01 0x02 0x03
+        new Sender().sendMessage(config, new JmsMessageProperties(), new BinaryValueFromBinaryString(new Base64BinaryValueType(), "AQID"));
+
+        final BytesMessage message = (BytesMessage) FakeJms.getSent().get(0);
+        assertEquals(Constants.DATA_TYPE_BINARY, message.getStringProperty(Constants.EXIST_DATA_TYPE));
+        assertEquals(Constants.COMPRESSION_TYPE_GZIP, message.getStringProperty(Constants.EXIST_DOCUMENT_COMPRESSION));
+
+        final byte[] body = new byte[(int) message.getBodyLength()];
+        message.readBytes(body);
+        assertEquals(payloadBytes + body.length, Sender.getPayloadBytes());
+
+        try (final InputStream is = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            assertArrayEquals(new byte[]{1, 2, 3}, IOUtils.toByteArray(is));
+        }
+    }
+
+    @Test
+    public void binaryIsStreamedUncompressed() throws XPathException, JMSException {
+        final JmsMessageProperties props = new JmsMessageProperties();
+        props.setProperty(Constants.EXIST_DOCUMENT_COMPRESSION, "none");
+
+        new Sender().sendMessage(config, props, new BinaryValueFromBinaryString(new Base64BinaryValueType(), "AQID"));
+
+        final BytesMessage message = (BytesMessage) FakeJms.getSent().get(0);
+        final byte[] body = new byte[(int) message.getBodyLength()];
+        message.readBytes(body);
+        assertArrayEquals(new byte[]{1, 2, 3}, body);
+    }
+
+    @Test
+    public void requestWithClientIdReceivesReply() throws XPathException, JMSException {
+        // The reply consumer of the broker is shared, a new broker URL gets a new one
+        config.setProperty(Context.PROVIDER_URL, "fake://request-reply");
+        config.setProperty(Constants.CLIENT_ID, "requester");
+
+        final Message reply = new Sender().request(config, new JmsMessageProperties(), new StringValue("ping"), 10_000);
+
+        final Message request = FakeJms.getSent().get(0);
+        assertEquals(request.getJMSCorrelationID(), reply.getJMSCorrelationID());
+        assertEquals(request.getJMSReplyTo(), reply.getJMSDestination());
+    }
+
+    @Test
+    public void requestTimeoutIsCounted() {
+        config.setProperty(Context.PROVIDER_URL, "fake://request-timeout");
+        FakeJms.setReply(false);
+        final long timeouts = Sender.getTimeoutCount();
+
+        try {
+            new Sender().request(config, new JmsMessageProperties(), new StringValue("ping"), 10);
+            fail("Reply was received");
+
+        } catch (final XPathException ex) {
+            assertEquals(ErrorCodes.JMS028, ex.getErrorCode());
+        }
+
+        assertEquals(timeouts + 1, Sender.getTimeoutCount());
+    }
+
+    @Test
+    public void sentMessagesAreInSeries() throws XPathException {
+        new Sender().sendMessage(config, new JmsMessageProperties(), replicationItem());
+
+        // In the current second, or the one before when the second passed in between
+        assertTrue(lastSeconds(Sender.getSentSeries()) >= 1);
+        assertTrue(lastSeconds(Sender.getPayloadByteSeries()) >= 3);
+    }
+
+    @Test
+    public void sampledMessageIsTraced() throws XPathException, JMSException {
+        config.setProperty(Constants.TRACE_SAMPLE_RATE, "1");
+
+        new Sender().sendMessage(config, new JmsMessageProperties(), new StringValue("a"));
+
+        final String traceId = FakeJms.getSent().get(0).getStringProperty(Constants.EXIST_TRACE_ID);
+        assertNotNull(traceId);
+
+        final List<Span> spans = Tracer.getSpans(traceId);
+        assertEquals(2, spans.size());
+        assertEquals("serialize", spans.get(0).getName());
+        assertEquals("send", spans.get(1).getName());
+    }
+
+    @Test
+    public void messageIsNotTracedByDefault() throws XPathException, JMSException {
+        new Sender().sendMessage(config, new JmsMessageProperties(), new StringValue("a"));
+
+        assertNull(FakeJms.getSent().get(0).getStringProperty(Constants.EXIST_TRACE_ID));
+    }
+
+    @Test
+    public void statisticsAreExposed() throws Exception {
+        new Sender().sendMessage(config, new JmsMessageProperties(), new StringValue("a"));
+
+        final ObjectName name = new ObjectName(JmxSupport.DOMAIN + ":" + SenderStatistics.NAME);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(Sender.getSentCount(), server.getAttribute(name, "MessagesSent"));
+        assertEquals(Sender.getTimeoutCount(), server.getAttribute(name, "RequestTimeouts"));
+        assertTrue((Long) server.getAttribute(name, "MessagesSent") > 0);
+    }
+
+    @Test
+    public void groupKeySetsGroup() throws XPathException, JMSException {
+        config.setProperty(Constants.GROUP_KEY, "customer");
+        final JmsMessageProperties props = new JmsMessageProperties();
+        props.setProperty("customer", "c1");
+
+        new Sender().sendMessage(config, props, new StringValue("a"));
+
+        assertEquals("c1", FakeJms.getSent().get(0).getStringProperty(Constants.JMSX_GROUP_ID));
+    }
+
+    @Test
+    public void groupIsKept() throws XPathException, JMSException {
+        config.setProperty(Constants.GROUP_KEY, "customer");
+        final JmsMessageProperties props = new JmsMessageProperties();
+        props.setProperty("customer", "c1");
+        props.setProperty(Constants.JMSX_GROUP_ID, "g1");
+
+        new Sender().sendMessage(config, props, new StringValue("a"));
+
+        assertEquals("g1", FakeJms.getSent().get(0).getStringProperty(Constants.JMSX_GROUP_ID));
+    }
+
+    private static eXistMessageItem replicationItem() {
+        final eXistMessage message = new eXistMessage();
+        message.setResourceOperation(eXistMessage.ResourceOperation.CREATE);
+        message.setResourceType(eXistMessage.ResourceType.DOCUMENT);
+        message.setResourcePath("/db/test/a.xml");
+        message.setPayload(new byte[]{1, 2, 3});
+
+        final eXistMessageItem item = new eXistMessageItem();
+        item.setData(message);
+        return item;
+    }
+
+    private static List<Item> items(final String... values) {
+        final Item[] items = new Item[values.length];
+        for (int i = 0; i < values.length; i++) {
+            items[i] = new StringValue(values[i]);
+        }
+        return Arrays.asList(items);
+    }
+
+    private static long lastSeconds(final long[] series) {
+        return series[series.length - 1] + series[series.length - 2];
+    }
+}
@@ -0,0 +1,56 @@
+package org.exist.jms.xquery.replication;
+
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Dannes Wessels
+ */
+public class SyncCheckpointTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    private SyncCheckpoint checkpoint;
+
+    @Before
+    public void setUp() {
+        checkpoint = new SyncCheckpoint(existEmbeddedServer.getBrokerPool());
+        checkpoint.set("/db/a", null);
+        checkpoint.set("/db/b", null);
+    }
+
+    @Test
+    public void resumeAfterRestart() {
+        checkpoint.set("/db/a", "/db/a/x");
+        checkpoint.set("/db/a", "/db/a/y");
+
+        // A new synchronization reads the checkpoint of the interrupted one
+        assertEquals("/db/a/y", new SyncCheckpoint(existEmbeddedServer.getBrokerPool()).get("/db/a"));
+    }
+
+    @Test
+    public void checkpointPerRoot() {
+        checkpoint.set("/db/a", "/db/a/x");
+        checkpoint.set("/db/b", "/db/b/z");
+
+        assertEquals("/db/a/x", checkpoint.get("/db/a"));
+        assertEquals("/db/b/z", checkpoint.get("/db/b"));
+        assertNull(checkpoint.get("/db/c"));
+    }
+
+    @Test
+    public void completedSynchronizationRemovesCheckpoint() {
+        checkpoint.set("/db/a", "/db/a/x");
+        checkpoint.set("/db/b", "/db/b/z");
+
+        checkpoint.set("/db/a", null);
+
+        assertNull(checkpoint.get("/db/a"));
+        assertEquals("/db/b/z", checkpoint.get("/db/b"));
+    }
+}